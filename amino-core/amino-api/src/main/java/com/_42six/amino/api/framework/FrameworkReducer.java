@@ -2,26 +2,46 @@ package com._42six.amino.api.framework;
 
 import com._42six.amino.api.job.AminoJob;
 import com._42six.amino.api.job.AminoReducer;
+import com._42six.amino.api.job.StreamingAminoReducer;
 import com._42six.amino.api.model.DatasetCollection;
 import com._42six.amino.common.AminoWritable;
 import com._42six.amino.common.Bucket;
 import com._42six.amino.common.BucketStripped;
 import com._42six.amino.common.service.datacache.BucketCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.MapWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 public final class FrameworkReducer extends Reducer<BucketStripped, MapWritable, Bucket, AminoWritable> {
 
+    /** The most Rows of each dataset to hold in memory before writing them out to local files */
+    public static final String MAX_IN_MEMORY_ROWS = "amino.reducer.dataset.maxInMemoryRows";
+    public static final int DEFAULT_MAX_IN_MEMORY_ROWS = 100000;
+    /** Where to write the Rows that don't fit in memory.  Defaults to the task's temp directory */
+    public static final String SPILL_DIR = "amino.reducer.dataset.spillDir";
+    /** The number of AminoReducers to run at once on each bucket.  1 runs them one after the other */
+    public static final String PARALLEL_REDUCERS = "amino.reducer.parallel.threads";
+    public static final int DEFAULT_PARALLEL_REDUCERS = 1;
+
+    /** How often to report progress while waiting on the AminoReducers that are running in parallel */
+    private static final long PROGRESS_INTERVAL_MILLIS = 10000;
+
     private List<AminoReducer> reducerList = new ArrayList<>();
     private Map<String, Text> sortFields;
     private Set<String> dedupDatasets = new HashSet<>();
     private long timestamp;
     private BucketCache bucketCache;
+    private int maxInMemoryRows;
+    private File spillDir;
+    private boolean streaming;
+    private ExecutorService reducerExecutor = null;
 
     @Override
     protected void setup(Context context) throws IOException, InterruptedException {
@@ -33,6 +53,10 @@ public final class FrameworkReducer extends Reducer<BucketStripped, MapWritable,
 
         bucketCache = new BucketCache(config);
 
+        maxInMemoryRows = config.getInt(MAX_IN_MEMORY_ROWS, DEFAULT_MAX_IN_MEMORY_ROWS);
+        final String spillDirName = config.get(SPILL_DIR);
+        spillDir = (spillDirName != null) ? new File(spillDirName) : null;
+
         String[] sortDatasetName = config.getStrings("amino.sort.name.datasource");
         String[] sortDatasetField = config.getStrings("amino.sort.name.field");
         for (String dedupDatasource : config.getStringCollection("amino.datasource.dedup")) {
@@ -64,10 +88,23 @@ public final class FrameworkReducer extends Reducer<BucketStripped, MapWritable,
                 throw new IOException(e);
             }
         }
+
+        // A lone streaming reducer can read the values as they come, as long as they don't have to be sorted or deduped
+        streaming = reducerList.size() == 1 && reducerList.get(0) instanceof StreamingAminoReducer
+                && sortFields.isEmpty() && dedupDatasets.isEmpty();
+
+        final int threads = Math.min(config.getInt(PARALLEL_REDUCERS, DEFAULT_PARALLEL_REDUCERS), reducerList.size());
+        if (threads > 1 && !streaming) {
+            reducerExecutor = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("amino-reducer-%d").build());
+        }
     }
 
     @Override
     protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (reducerExecutor != null) {
+            reducerExecutor.shutdownNow();
+        }
         super.cleanup(context);
     }
 
@@ -81,15 +118,82 @@ public final class FrameworkReducer extends Reducer<BucketStripped, MapWritable,
         Bucket key = bucketCache.getBucket(strippedKey);
         key.setTimestamp(timestamp);
 
-        // Build our DatasetCollection.
-        // This reads all of the values into memory!
-        DatasetCollection datasets = new DatasetCollection(key, values, sortFields, dedupDatasets);
+        // Build our DatasetCollection.  Unless we are streaming, this reads all of the values, spilling each dataset
+        // to local disk once it has more than maxInMemoryRows
+        DatasetCollection datasets = streaming
+                ? DatasetCollection.streaming(key, values)
+                : new DatasetCollection(key, values, sortFields, dedupDatasets, maxInMemoryRows, spillDir);
 
-        // Execute each reducer using this dataset and write results to context
-        for (AminoReducer ar : reducerList) {
-            for (AminoWritable result : ar.reduce(datasets)) {
-                context.write(key, result);
+        try {
+            if (reducerExecutor != null) {
+                reduceInParallel(key, datasets, context);
+            } else {
+                // Execute each reducer using this dataset and write results to context
+                for (AminoReducer ar : reducerList) {
+                    for (AminoWritable result : ar.reduce(datasets)) {
+                        context.write(key, result);
+                        context.progress();
+                    }
+                }
+            }
+        } finally {
+            datasets.close();
+        }
+    }
+
+    /**
+     * Runs all of the AminoReducers on the DatasetCollection at the same time.  The DatasetCollection is only read, so
+     * it can be shared between them.  The results are written to the context from this thread, in the same order as
+     * if the reducers had been run one after the other.
+     */
+    private void reduceInParallel(Bucket key, final DatasetCollection datasets, Context context) throws IOException, InterruptedException {
+        final List<Future<List<AminoWritable>>> futures = new ArrayList<>(reducerList.size());
+        try {
+            for (final AminoReducer ar : reducerList) {
+                futures.add(reducerExecutor.submit(new Callable<List<AminoWritable>>() {
+                    @Override
+                    public List<AminoWritable> call() {
+                        // Run the whole reducer here, in case it produces its results lazily
+                        final List<AminoWritable> results = new ArrayList<>();
+                        for (AminoWritable result : ar.reduce(datasets)) {
+                            results.add(result);
+                        }
+                        return results;
+                    }
+                }));
+            }
+
+            for (Future<List<AminoWritable>> future : futures) {
+                for (AminoWritable result : waitFor(future, context)) {
+                    context.write(key, result);
+                    context.progress();
+                }
+            }
+        } finally {
+            // Only does anything if one of the reducers failed
+            for (Future<List<AminoWritable>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Waits for an AminoReducer to finish, letting the framework know that we are still alive in the meantime
+     */
+    private static List<AminoWritable> waitFor(Future<List<AminoWritable>> future, Context context) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                return future.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
                 context.progress();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
             }
         }
     }
@@ -0,0 +1,12 @@
+package com._42six.amino.api.job;
+
+/**
+ * Marks an AminoReducer that makes a single pass over the DatasetCollection it is given.  It iterates at most one of
+ * the datasets, once, doesn't need the Rows to be sorted or deduped, and doesn't call size() on them.
+ *
+ * When the job's only AminoReducer is a StreamingAminoReducer, and no datasets are sorted or deduped, the
+ * FrameworkReducer hands it the values as they are read instead of gathering up the whole bucket first.
+ */
+public interface StreamingAminoReducer extends AminoReducer
+{
+}
@@ -2,123 +2,213 @@ package com._42six.amino.api.model;
 
 import com._42six.amino.common.Bucket;
 import com._42six.amino.data.DataLoader;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import org.apache.hadoop.io.MapWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
-public class DatasetCollection {
+/**
+ * The Rows of a bucket, grouped by the dataset that they came from.
+ *
+ * Each dataset only keeps a bounded number of Rows in memory, writing the rest out to local files (see
+ * {@link SpillableRowCollection}), so call {@link #close()} when done with it.  A collection created with
+ * {@link #streaming(Bucket, Iterable)} doesn't hold on to any Rows at all, and can only be iterated once.
+ */
+public class DatasetCollection implements Closeable {
 
 	public static final String DATASET_KEY_VALUE_DEFAULT = "AMINO_DEFAULT_DATASET";
-	
+
 	private Bucket bucketKey;
-	private Map<String, Collection<Row>> sortedDatasets;
-	private Map<String, Collection<Row>> unsortedDatasets;
+	private Map<String, SpillableRowCollection> sortedDatasets;
+	private Map<String, SpillableRowCollection> unsortedDatasets;
+
+	// Only set for collections that are streamed straight from the values
+	private Iterable<MapWritable> streamingValues = null;
+	private boolean streamed = false;
 
 	public DatasetCollection(Bucket key, Iterable<MapWritable> values, Map<String, Text> sortFields, Set<String> dedupDatasources) {
+		this(key, values, sortFields, dedupDatasources, Integer.MAX_VALUE, null);
+	}
+
+	/**
+	 * @param key              The bucket the values are for
+	 * @param values           The values of the bucket
+	 * @param sortFields       The field to sort each sorted dataset by
+	 * @param dedupDatasources The datasets to remove duplicate Rows from
+	 * @param maxInMemoryRows  The most Rows of each dataset to keep in memory
+	 * @param spillDir         Where to write the Rows that don't fit in memory, or null for the default temp directory
+	 */
+	public DatasetCollection(Bucket key, Iterable<MapWritable> values, Map<String, Text> sortFields, Set<String> dedupDatasources,
+							 int maxInMemoryRows, File spillDir) {
 		bucketKey = key;
-		
+
 		unsortedDatasets = new HashMap<>();
 		sortedDatasets = new HashMap<>();
-		HashMap<String, Collection<RowComparable>> sortedDatasetsTemp = new HashMap<>();
-		
+
 		//add each mapwritable to its dataset, based on the dataset key
 		for (MapWritable mw : values) {
-			Writable datasetKeyWritable = mw.get(DataLoader.DATASET_NAME);
-			
-			// add to default dataset key value if no dataset key exists
-			String datasetKey;
-			if (datasetKeyWritable == null) {
-				datasetKey = DATASET_KEY_VALUE_DEFAULT;
-			}
-			else {
-				datasetKey = datasetKeyWritable.toString();
-			}
-			
-			// if dataset exists in sorted collection add it to that
-			if (sortedDatasetsTemp.containsKey(datasetKey)) {
-				sortedDatasetsTemp.get(datasetKey).add(new RowComparable(mw, sortFields.get(datasetKey)));
-			}
-			// if dataset exists in unsorted collection, add it to that
-			else if (unsortedDatasets.containsKey(datasetKey)) {
-				unsortedDatasets.get(datasetKey).add(new Row(mw));
-			}
-			// if sortKey and sortField was passed, and it corresponds to this row, put it in the sorted datasets
-			else if (sortFields.containsKey(datasetKey)) {
-				//if we dedup this dataset, use a HashSet, otherwise use an ArrayList
-				Collection<RowComparable> newCollection = 
-						dedupDatasources.contains(datasetKey) ? new HashSet<RowComparable>() : new ArrayList<RowComparable>();
-				newCollection.add(new RowComparable(mw, sortFields.get(datasetKey)));
-				sortedDatasetsTemp.put(datasetKey, newCollection);
+			String datasetKey = getDatasetName(mw);
+
+			SpillableRowCollection dataset = sortedDatasets.get(datasetKey);
+			if (dataset == null) {
+				dataset = unsortedDatasets.get(datasetKey);
 			}
-			// otherwise, this must be an unsorted row, so add it to the unsorted datasets
-			else {
-				//if we dedup this dataset, use a HashSet, otherwise use an ArrayList
-				Collection<Row> newCollection = 
-						dedupDatasources.contains(datasetKey) ? new HashSet<Row>() : new ArrayList<Row>();
-				newCollection.add(new Row(mw));
-				unsortedDatasets.put(datasetKey, newCollection);
+			if (dataset == null) {
+				// if sortKey and sortField was passed, and it corresponds to this row, put it in the sorted datasets
+				if (sortFields.containsKey(datasetKey)) {
+					dataset = new SpillableRowCollection(new SpillableRowCollection.FieldComparator(sortFields.get(datasetKey).toString()),
+							dedupDatasources.contains(datasetKey), maxInMemoryRows, spillDir);
+					sortedDatasets.put(datasetKey, dataset);
+				}
+				// otherwise, this must be an unsorted row, so add it to the unsorted datasets
+				else {
+					dataset = new SpillableRowCollection(null, dedupDatasources.contains(datasetKey), maxInMemoryRows, spillDir);
+					unsortedDatasets.put(datasetKey, dataset);
+				}
 			}
+			dataset.add(new Row(mw));
 		}
 
 		// sort everything in sortedDatasets
-		for (String sourceKey : sortedDatasetsTemp.keySet()) {
-			
-			Collection<RowComparable> dataset = sortedDatasetsTemp.get(sourceKey);
-			
-			if (dataset.getClass().equals(ArrayList.class)) {
-				Collections.sort((ArrayList<RowComparable>)dataset);
-			}
-			else {
-				ArrayList<RowComparable> newList = new ArrayList<>(dataset.size());
-				for (RowComparable row : dataset) {
-					newList.add(row);
-				}
-				Collections.sort(newList);
-				dataset = newList;
-			}
-			
-			Collection<Row> sortedDataset = new ArrayList<>(dataset.size());
-			for (RowComparable row : dataset) {
-				sortedDataset.add(row);
-			}
-			sortedDatasets.put(sourceKey, sortedDataset);
+		for (SpillableRowCollection dataset : sortedDatasets.values()) {
+			dataset.finish();
 		}
+		for (SpillableRowCollection dataset : unsortedDatasets.values()) {
+			dataset.finish();
+		}
+	}
+
+	private DatasetCollection(Bucket key, Iterable<MapWritable> values) {
+		bucketKey = key;
+		unsortedDatasets = Collections.emptyMap();
+		sortedDatasets = Collections.emptyMap();
+		streamingValues = values;
+	}
+
+	/**
+	 * Creates a DatasetCollection that reads the Rows straight from the values as they are iterated, without sorting or
+	 * deduping them.  Only one of the datasets can be iterated, once, and their sizes are not known.
+	 *
+	 * @param key    The bucket the values are for
+	 * @param values The values of the bucket
+	 */
+	public static DatasetCollection streaming(Bucket key, Iterable<MapWritable> values) {
+		return new DatasetCollection(key, values);
+	}
+
+	private static String getDatasetName(MapWritable mw) {
+		Writable datasetKeyWritable = mw.get(DataLoader.DATASET_NAME);
+
+		// add to default dataset key value if no dataset key exists
+		return (datasetKeyWritable == null) ? DATASET_KEY_VALUE_DEFAULT : datasetKeyWritable.toString();
 	}
-	
+
 	public Collection<Row> getUnsortedDataset(final String datasetName) {
+		if (streamingValues != null) {
+			return streamedRows(datasetName);
+		}
 		return unsortedDatasets.get(datasetName);
 	}
-	
+
 	public Collection<Row> getSortedDataset(final String datasetName) {
 		return sortedDatasets.get(datasetName);
 	}
-	
+
 	public Collection<Row> getAllDatasets() {
-		Collection<Row> allDatasets = new ArrayList<>();
-		for (String key : sortedDatasets.keySet()) {
-			allDatasets.addAll(sortedDatasets.get(key));
+		if (streamingValues != null) {
+			return streamedRows(null);
 		}
-		for (String key : unsortedDatasets.keySet()) {
-			allDatasets.addAll(unsortedDatasets.get(key));
-		}
-		return allDatasets;
+
+		final List<Collection<Row>> allDatasets = new ArrayList<>(sortedDatasets.size() + unsortedDatasets.size());
+		allDatasets.addAll(sortedDatasets.values());
+		allDatasets.addAll(unsortedDatasets.values());
+		return new AbstractCollection<Row>() {
+			@Override
+			public Iterator<Row> iterator() {
+				return Iterables.concat(allDatasets).iterator();
+			}
+
+			@Override
+			public int size() {
+				int size = 0;
+				for (Collection<Row> dataset : allDatasets) {
+					size += dataset.size();
+				}
+				return size;
+			}
+		};
 	}
-	
+
+	/**
+	 * @param datasetName The dataset to return the Rows of, or null for all of them
+	 */
+	private Collection<Row> streamedRows(final String datasetName) {
+		return new AbstractCollection<Row>() {
+			@Override
+			public Iterator<Row> iterator() {
+				if (streamed) {
+					throw new IllegalStateException("A streaming DatasetCollection can only be iterated once");
+				}
+				streamed = true;
+
+				Iterator<MapWritable> values = streamingValues.iterator();
+				if (datasetName != null) {
+					values = Iterators.filter(values, new Predicate<MapWritable>() {
+						@Override
+						public boolean apply(MapWritable mw) {
+							return datasetName.equals(getDatasetName(mw));
+						}
+					});
+				}
+				return Iterators.transform(values, new Function<MapWritable, Row>() {
+					@Override
+					public Row apply(MapWritable mw) {
+						return new Row(mw);
+					}
+				});
+			}
+
+			@Override
+			public int size() {
+				throw new UnsupportedOperationException("The size of a streaming DatasetCollection is not known");
+			}
+		};
+	}
+
 	public Bucket getBucketKey() {
 		return bucketKey;
 	}
 
+	/**
+	 * Removes any Rows that were written out to local files
+	 */
+	@Override
+	public void close() throws IOException {
+		for (SpillableRowCollection dataset : sortedDatasets.values()) {
+			dataset.close();
+		}
+		for (SpillableRowCollection dataset : unsortedDatasets.values()) {
+			dataset.close();
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	@Override
 	public String toString() {
 		return "DatasetCollection [bucketKey=" + bucketKey
-				+ ", sortedDatasets=" + sortedDatasets + ", unsortedDatasets="
-				+ unsortedDatasets + "]";
+				+ ", sortedDatasets=" + sortedDatasets.keySet() + ", unsortedDatasets="
+				+ unsortedDatasets.keySet() + "]";
 	}
-	
+
 
 }
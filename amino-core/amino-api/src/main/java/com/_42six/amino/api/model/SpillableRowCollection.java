@@ -0,0 +1,442 @@
+package com._42six.amino.api.model;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.UnmodifiableIterator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A collection of Rows that only keeps a bounded window of them in memory.  When the window fills up it is written out
+ * to a local file, so a bucket with many rows can be reduced without holding them all on the heap.
+ *
+ * If the collection has an order, each window is sorted before it is written, and iterating merges the sorted files
+ * back together.  Rows that compare equal stay in the order that they were added.  If the collection dedups, Rows with
+ * the same contents are only returned once.  Without an order the Rows are returned in the order that they were added.
+ *
+ * Call {@link #finish()} after the last Row is added, and {@link #close()} when done to remove the files.  Once
+ * finished, the collection can be iterated by several threads at once.
+ */
+public class SpillableRowCollection extends AbstractCollection<Row> implements Closeable {
+
+	private final Comparator<SortableRow> order;
+	private final boolean dedup;
+	private final int maxInMemoryRows;
+	private final File spillDir;
+
+	private List<SortableRow> window = new ArrayList<>();
+	private final List<File> spillFiles = new ArrayList<>();
+	private final List<Closeable> openReaders = Collections.synchronizedList(new ArrayList<Closeable>());
+	private Set<Row> windowRows; // To dedup the Rows that are in memory
+	private int size = 0;
+	private boolean sizeKnown = true;
+	private boolean finished = false;
+
+	/**
+	 * @param order           The order to return the Rows in, or null to return them in the order that they are added
+	 * @param dedup           true to only return Rows with the same contents once
+	 * @param maxInMemoryRows The most Rows to hold in memory before writing them out
+	 * @param spillDir        Where to write the Rows that don't fit in memory, or null for the default temp directory
+	 */
+	public SpillableRowCollection(Comparator<Row> order, boolean dedup, int maxInMemoryRows, File spillDir) {
+		if (maxInMemoryRows <= 0) {
+			throw new IllegalArgumentException("maxInMemoryRows must be positive");
+		}
+		// To dedup across files, identical Rows have to end up next to each other
+		this.order = (order != null || dedup) ? new SortableRowComparator(order, dedup) : null;
+		this.dedup = dedup;
+		this.maxInMemoryRows = maxInMemoryRows;
+		this.spillDir = spillDir;
+		if (dedup) {
+			windowRows = new HashSet<>();
+		}
+	}
+
+	@Override
+	public boolean add(Row row) {
+		if (finished) {
+			throw new IllegalStateException("Can not add Rows after finish()");
+		}
+		if (windowRows != null && !windowRows.add(row)) {
+			return false;
+		}
+		// Work out the contents once, rather than every time two Rows are compared
+		window.add(new SortableRow(row, (dedup) ? contentsOf(row) : null));
+		size++;
+		if (window.size() >= maxInMemoryRows) {
+			try {
+				spill();
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to spill rows to " + spillDir, e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts whatever is left in memory.  No more Rows can be added after this is called.
+	 */
+	public void finish() {
+		if (!finished) {
+			if (order != null) {
+				Collections.sort(window, order);
+			}
+			window = Collections.unmodifiableList(window);
+			windowRows = null;
+			finished = true;
+		}
+	}
+
+	private void spill() throws IOException {
+		if (order != null) {
+			// Collections.sort is stable, so equal Rows stay in the order they were added
+			Collections.sort(window, order);
+		}
+
+		final File file;
+		if (order == null && !spillFiles.isEmpty()) {
+			// Without an order there's nothing to merge, so keep appending to the one file
+			file = spillFiles.get(0);
+		} else {
+			file = File.createTempFile("amino-dataset", ".spill", spillDir);
+			file.deleteOnExit();
+			spillFiles.add(file);
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+			for (SortableRow row : window) {
+				writeRow(out, row);
+			}
+		}
+		window.clear();
+		if (windowRows != null) {
+			windowRows.clear();
+			// The same Row may be in more than one file, so we can't know how many there are without merging
+			sizeKnown = false;
+		}
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+		finish();
+		if (spillFiles.isEmpty()) {
+			return Iterators.transform(window.iterator(), TO_ROW);
+		}
+
+		final List<Iterator<SortableRow>> runs = new ArrayList<>(spillFiles.size() + 1);
+		for (File file : spillFiles) {
+			runs.add(new FileIterator(file));
+		}
+		runs.add(window.iterator());
+
+		if (order == null) {
+			return Iterators.transform(Iterators.concat(runs.iterator()), TO_ROW);
+		}
+		final Iterator<SortableRow> merged = new MergingIterator(runs, order);
+		return Iterators.transform(dedup ? new DedupIterator(merged, order) : merged, TO_ROW);
+	}
+
+	@Override
+	public synchronized int size() {
+		if (!sizeKnown) {
+			size = Iterators.size(iterator());
+			sizeKnown = true;
+		}
+		return size;
+	}
+
+	/**
+	 * Removes the files that the Rows were written to.  The collection can not be iterated afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (openReaders) {
+			for (Closeable reader : openReaders) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					// Nothing else to do, the file is about to be deleted anyway
+				}
+			}
+			openReaders.clear();
+		}
+		for (File file : spillFiles) {
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+		spillFiles.clear();
+		window = Collections.emptyList();
+	}
+
+	/**
+	 * @return The fields and values of the Row, ordered by field, as field, value, field, value...
+	 */
+	private static String[] contentsOf(Row row) {
+		final String[] fields = row.keySet().toArray(new String[row.size()]);
+		Arrays.sort(fields);
+		final String[] contents = new String[fields.length * 2];
+		for (int i = 0; i < fields.length; i++) {
+			contents[i * 2] = fields[i];
+			contents[i * 2 + 1] = row.get(fields[i]);
+		}
+		return contents;
+	}
+
+	/**
+	 * Writes the Row, in the order of its contents if they are known so that they don't have to be sorted again when
+	 * read back
+	 */
+	private static void writeRow(DataOutput out, SortableRow row) throws IOException {
+		WritableUtils.writeVInt(out, row.row.size());
+		if (row.contents != null) {
+			for (String content : row.contents) {
+				WritableUtils.writeString(out, content);
+			}
+		} else {
+			for (Map.Entry<String, String> entry : row.row.entrySet()) {
+				WritableUtils.writeString(out, entry.getKey());
+				WritableUtils.writeString(out, entry.getValue());
+			}
+		}
+	}
+
+	private SortableRow readRow(DataInput in) throws IOException {
+		final int entries = WritableUtils.readVInt(in);
+		final Row row = new Row();
+		final String[] contents = (dedup) ? new String[entries * 2] : null;
+		for (int i = 0; i < entries; i++) {
+			final String field = WritableUtils.readString(in);
+			final String value = WritableUtils.readString(in);
+			row.put(field, value);
+			if (contents != null) {
+				contents[i * 2] = field;
+				contents[i * 2 + 1] = value;
+			}
+		}
+		return new SortableRow(row, contents);
+	}
+
+	/**
+	 * A Row along with its contents, which are only worked out if the collection dedups
+	 */
+	private static class SortableRow {
+		final Row row;
+		final String[] contents;
+
+		SortableRow(Row row, String[] contents) {
+			this.row = row;
+			this.contents = contents;
+		}
+	}
+
+	private static final Function<SortableRow, Row> TO_ROW = new Function<SortableRow, Row>() {
+		@Override
+		public Row apply(SortableRow row) {
+			return row.row;
+		}
+	};
+
+	/**
+	 * Orders Rows by one of their fields, with the Rows that don't have the field first.  This is the same order as
+	 * {@link RowComparable}.
+	 */
+	public static class FieldComparator implements Comparator<Row> {
+		private final String field;
+
+		public FieldComparator(String field) {
+			this.field = field;
+		}
+
+		@Override
+		public int compare(Row a, Row b) {
+			final String aValue = a.get(field);
+			final String bValue = b.get(field);
+			if (aValue == null) {
+				return (bValue == null) ? 0 : -1;
+			} else if (bValue == null) {
+				return 1;
+			}
+			return aValue.compareTo(bValue);
+		}
+	}
+
+	/**
+	 * Orders the Rows, breaking ties by comparing their contents if they are known, so that two Rows only compare equal
+	 * if they are equal
+	 */
+	private static class SortableRowComparator implements Comparator<SortableRow> {
+		private final Comparator<Row> order;
+		private final boolean compareContents;
+
+		SortableRowComparator(Comparator<Row> order, boolean compareContents) {
+			this.order = order;
+			this.compareContents = compareContents;
+		}
+
+		@Override
+		public int compare(SortableRow a, SortableRow b) {
+			if (order != null) {
+				final int result = order.compare(a.row, b.row);
+				if (result != 0 || !compareContents) {
+					return result;
+				}
+			}
+			final int length = Math.min(a.contents.length, b.contents.length);
+			for (int i = 0; i < length; i++) {
+				final int result = a.contents[i].compareTo(b.contents[i]);
+				if (result != 0) {
+					return result;
+				}
+			}
+			return Integer.compare(a.contents.length, b.contents.length);
+		}
+	}
+
+	/**
+	 * Reads back the Rows written to a file
+	 */
+	private class FileIterator extends UnmodifiableIterator<SortableRow> {
+		private final DataInputStream in;
+		private boolean closed = false;
+
+		FileIterator(File file) {
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			} catch (FileNotFoundException e) {
+				throw new IllegalStateException("Spilled rows are missing, was the collection closed?", e);
+			}
+			openReaders.add(in);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (closed) {
+				return false;
+			}
+			try {
+				in.mark(1);
+				if (in.read() < 0) {
+					in.close();
+					openReaders.remove(in);
+					closed = true;
+					return false;
+				}
+				in.reset();
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to read spilled rows", e);
+			}
+			return true;
+		}
+
+		@Override
+		public SortableRow next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				return readRow(in);
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to read spilled rows", e);
+			}
+		}
+	}
+
+	/**
+	 * Merges sorted runs of Rows.  Equal Rows are returned from the earlier run first, so the merge is stable.
+	 */
+	private static class MergingIterator extends UnmodifiableIterator<SortableRow> {
+		private final PriorityQueue<RunHead> heads;
+
+		MergingIterator(List<Iterator<SortableRow>> runs, final Comparator<SortableRow> order) {
+			heads = new PriorityQueue<>(runs.size(), new Comparator<RunHead>() {
+				@Override
+				public int compare(RunHead a, RunHead b) {
+					final int result = order.compare(a.row, b.row);
+					return (result != 0) ? result : Integer.compare(a.runIndex, b.runIndex);
+				}
+			});
+			for (int i = 0; i < runs.size(); i++) {
+				final Iterator<SortableRow> run = runs.get(i);
+				if (run.hasNext()) {
+					heads.add(new RunHead(run.next(), i, run));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public SortableRow next() {
+			final RunHead head = heads.poll();
+			if (head == null) {
+				throw new NoSuchElementException();
+			}
+			final SortableRow row = head.row;
+			if (head.run.hasNext()) {
+				head.row = head.run.next();
+				heads.add(head);
+			}
+			return row;
+		}
+	}
+
+	private static class RunHead {
+		SortableRow row;
+		final int runIndex;
+		final Iterator<SortableRow> run;
+
+		RunHead(SortableRow row, int runIndex, Iterator<SortableRow> run) {
+			this.row = row;
+			this.runIndex = runIndex;
+			this.run = run;
+		}
+	}
+
+	/**
+	 * Skips Rows that are equal to the one before, which in a merged order means all of the duplicates
+	 */
+	private static class DedupIterator extends UnmodifiableIterator<SortableRow> {
+		private final Iterator<SortableRow> source;
+		private final Comparator<SortableRow> order;
+		private SortableRow next;
+		private SortableRow last = null;
+
+		DedupIterator(Iterator<SortableRow> source, Comparator<SortableRow> order) {
+			this.source = source;
+			this.order = order;
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (source.hasNext()) {
+				final SortableRow candidate = source.next();
+				if (last == null || order.compare(last, candidate) != 0) {
+					next = candidate;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public SortableRow next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			last = next;
+			advance();
+			return last;
+		}
+	}
+}
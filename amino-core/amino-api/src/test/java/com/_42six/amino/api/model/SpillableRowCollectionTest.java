@@ -0,0 +1,167 @@
+package com._42six.amino.api.model;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpillableRowCollectionTest {
+
+	// Small enough that every test spills several runs
+	private static final int MAX_IN_MEMORY_ROWS = 7;
+
+	private File spillDir;
+
+	@Before
+	public void setUp() {
+		spillDir = Files.createTempDir();
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = spillDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		spillDir.delete();
+	}
+
+	private static Row row(String... fieldsAndValues) {
+		final Row row = new Row();
+		for (int i = 0; i < fieldsAndValues.length; i += 2) {
+			row.put(fieldsAndValues[i], fieldsAndValues[i + 1]);
+		}
+		return row;
+	}
+
+	private int spillFiles() {
+		final String[] files = spillDir.list();
+		return (files == null) ? 0 : files.length;
+	}
+
+	@Test
+	public void testSortedAcrossSpills() throws Exception {
+		final Random random = new Random(42);
+		final List<Row> expected = new ArrayList<>();
+		try (SpillableRowCollection rows = new SpillableRowCollection(
+				new SpillableRowCollection.FieldComparator("key"), false, MAX_IN_MEMORY_ROWS, spillDir)) {
+			for (int i = 0; i < 100; i++) {
+				// Plenty of ties, to check that equal Rows stay in the order they were added
+				final Row row = row("key", Integer.toString(random.nextInt(10)), "added", Integer.toString(i));
+				rows.add(row);
+				expected.add(row);
+			}
+			rows.finish();
+			assertTrue(spillFiles() > 1);
+
+			// Collections.sort is stable
+			Collections.sort(expected, new SpillableRowCollection.FieldComparator("key"));
+			assertEquals(expected, Lists.newArrayList(rows));
+			assertEquals(100, rows.size());
+
+			// Can be iterated more than once
+			assertEquals(expected, Lists.newArrayList(rows));
+		}
+	}
+
+	@Test
+	public void testMissingFieldSortsFirst() throws Exception {
+		try (SpillableRowCollection rows = new SpillableRowCollection(
+				new SpillableRowCollection.FieldComparator("key"), false, MAX_IN_MEMORY_ROWS, spillDir)) {
+			for (int i = 9; i >= 0; i--) {
+				rows.add(row("key", Integer.toString(i)));
+			}
+			rows.add(row("other", "x"));
+			assertEquals(row("other", "x"), rows.iterator().next());
+		}
+	}
+
+	@Test
+	public void testDedupAcrossSpills() throws Exception {
+		final Set<Row> expected = new HashSet<>();
+		try (SpillableRowCollection rows = new SpillableRowCollection(
+				new SpillableRowCollection.FieldComparator("key"), true, MAX_IN_MEMORY_ROWS, spillDir)) {
+			// Each Row is added three times, far enough apart that the copies are written to different files.  Rows
+			// that share the key but have different contents must all be kept
+			for (int pass = 0; pass < 3; pass++) {
+				for (int i = 0; i < 20; i++) {
+					final Row row = row("key", Integer.toString(i % 5), "value", Integer.toString(i));
+					rows.add(row);
+					expected.add(row);
+				}
+			}
+			rows.finish();
+			assertTrue(spillFiles() > 1);
+
+			final List<Row> found = Lists.newArrayList(rows);
+			assertEquals(20, found.size());
+			assertEquals(expected, new HashSet<>(found));
+			assertEquals(20, rows.size());
+			for (int i = 1; i < found.size(); i++) {
+				assertTrue(found.get(i - 1).get("key").compareTo(found.get(i).get("key")) <= 0);
+			}
+		}
+	}
+
+	@Test
+	public void testDedupWithoutOrder() throws Exception {
+		try (SpillableRowCollection rows = new SpillableRowCollection(null, true, MAX_IN_MEMORY_ROWS, spillDir)) {
+			for (int pass = 0; pass < 2; pass++) {
+				for (int i = 0; i < 10; i++) {
+					rows.add(row("a", Integer.toString(i), "b", "same"));
+				}
+			}
+			assertEquals(10, Lists.newArrayList(rows).size());
+			assertEquals(10, rows.size());
+		}
+	}
+
+	@Test
+	public void testUnorderedKeepsAddedOrder() throws Exception {
+		final List<Row> expected = new ArrayList<>();
+		try (SpillableRowCollection rows = new SpillableRowCollection(null, false, MAX_IN_MEMORY_ROWS, spillDir)) {
+			for (int i = 30; i > 0; i--) {
+				final Row row = row("key", Integer.toString(i));
+				rows.add(row);
+				expected.add(row);
+			}
+			assertEquals(expected, Lists.newArrayList(rows));
+			assertEquals(1, spillFiles());
+		}
+	}
+
+	@Test
+	public void testCloseRemovesSpillFiles() throws Exception {
+		final SpillableRowCollection rows = new SpillableRowCollection(
+				new SpillableRowCollection.FieldComparator("key"), true, MAX_IN_MEMORY_ROWS, spillDir);
+		for (int i = 0; i < 50; i++) {
+			rows.add(row("key", Integer.toString(i)));
+		}
+		assertTrue(spillFiles() > 0);
+
+		// Leave an iterator part way through a file, which closing has to deal with
+		final Iterator<Row> iterator = rows.iterator();
+		iterator.next();
+
+		rows.close();
+		assertEquals(0, spillFiles());
+		assertFalse(rows.iterator().hasNext());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAddAfterFinish() {
+		final SpillableRowCollection rows = new SpillableRowCollection(null, false, MAX_IN_MEMORY_ROWS, spillDir);
+		rows.finish();
+		rows.add(row("key", "1"));
+	}
+}
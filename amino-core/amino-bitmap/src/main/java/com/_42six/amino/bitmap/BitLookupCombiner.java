@@ -5,9 +5,11 @@ import org.apache.hadoop.mapreduce.Reducer;
 import java.io.IOException;
 
 public class BitLookupCombiner extends Reducer<BitLookupKey, BitmapValue, BitLookupKey, BitmapValue> {
+    private final BitmapValue combinedValue = new BitmapValue();
+
     @Override
     protected void reduce(BitLookupKey key, Iterable<BitmapValue> values, Context context) throws IOException, InterruptedException {
-        final BitmapValue combinedValue = new BitmapValue();
+        combinedValue.clear();
 
         for (BitmapValue value : values) {
             combinedValue.merge(value);
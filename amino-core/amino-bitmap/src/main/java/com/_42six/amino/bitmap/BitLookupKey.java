@@ -1,10 +1,12 @@
 package com._42six.amino.bitmap;
 
+import com._42six.amino.common.RawComparatorUtils;
 import org.apache.commons.lang.builder.CompareToBuilder;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -12,6 +14,10 @@ import java.io.IOException;
 
 public class BitLookupKey implements WritableComparable {
 
+    static {
+        WritableComparator.define(BitLookupKey.class, new Comparator());
+    }
+
     private int featureIndex;
     private String featureFact;
     private String visibility;
@@ -91,8 +97,12 @@ public class BitLookupKey implements WritableComparable {
 
     public int compareTo(Object o) {
         BitLookupKey other = (BitLookupKey) o;
+        // Same as comparing Integer.toString of each index, to match the row IDs
+        final int comparison = RawComparatorUtils.compareDecimal(featureIndex, other.featureIndex, false);
+        if(comparison != 0){
+            return comparison;
+        }
         return new CompareToBuilder()
-                .append(Integer.toString(featureIndex), Integer.toString(other.featureIndex))
                 .append(featureFact, other.featureFact)
                 .append(salt, other.salt)
                 .append(visibility, other.visibility)
@@ -122,4 +132,36 @@ public class BitLookupKey implements WritableComparable {
         salt = dataInput.readInt();
         visibility = dataInput.readUTF();
     }
+
+    /**
+     * Compares serialized BitLookupKeys in the same order as {@link #compareTo(Object)}, without deserializing them
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator(){
+            super(BitLookupKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // The layout is featureFact, featureIndex, salt, visibility
+            final int featureIndex1 = s1 + RawComparatorUtils.utfLength(b1, s1);
+            final int featureIndex2 = s2 + RawComparatorUtils.utfLength(b2, s2);
+
+            int comparison = RawComparatorUtils.compareDecimal(
+                    readInt(b1, featureIndex1), readInt(b2, featureIndex2), false);
+            if(comparison != 0){ return comparison; }
+
+            comparison = RawComparatorUtils.compareUTF(b1, s1, b2, s2);
+            if(comparison != 0){ return comparison; }
+
+            final int salt1 = readInt(b1, featureIndex1 + 4);
+            final int salt2 = readInt(b2, featureIndex2 + 4);
+            if(salt1 != salt2){
+                return salt1 < salt2 ? -1 : 1;
+            }
+
+            return RawComparatorUtils.compareUTF(b1, featureIndex1 + 8, b2, featureIndex2 + 8);
+        }
+    }
 }
@@ -1,42 +1,61 @@
 package com._42six.amino.bitmap;
 
-import com._42six.amino.common.*;
-import com._42six.amino.common.index.BitmapIndex;
-import com._42six.amino.common.service.datacache.BucketCache;
-import com._42six.amino.common.translator.FeatureFactTranslatorImpl;
-import org.apache.hadoop.mapreduce.Mapper;
+import com._42six.amino.common.AminoConfiguration;
+import com._42six.amino.common.BucketStripped;
+import org.apache.hadoop.conf.Configuration;
 
 import java.io.IOException;
 
-public class BitLookupMapper extends Mapper<BucketStripped, AminoWritable, BitLookupKey, BitmapValue> {
+public class BitLookupMapper extends IndexedBucketMapper<BitLookupKey, BitmapValue> {
+
+    private final BitmapValue bitmapValue = new BitmapValue();
+
+    // Only set when combining in the mapper.  The same feature facts come up in many buckets, so the keys are held
+    // until the aggregator fills up
+    private BitmapAggregator<BitLookupKey> aggregator = null;
 
-    private BucketCache bucketCache;
-    private int numberOfHashes = 1;
-    private final FeatureFactTranslatorImpl translator = new FeatureFactTranslatorImpl();
-    
     @Override
-	protected void setup(Context context) throws IOException, InterruptedException {
-    	super.setup(context);
-        numberOfHashes = context.getConfiguration().getInt(AminoConfiguration.NUM_HASHES, 1);
-    	bucketCache = new BucketCache(context.getConfiguration());
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        final Configuration conf = context.getConfiguration();
+        if (conf.getBoolean(AminoConfiguration.IN_MAPPER_COMBINING, false)) {
+            aggregator = new BitmapAggregator<>(conf.getInt(AminoConfiguration.IN_MAPPER_COMBINING_MAX_INDEXES,
+                    AminoConfiguration.DEFAULT_IN_MAPPER_COMBINING_MAX_INDEXES));
+        }
     }
 
     @Override
-    protected void map(BucketStripped bucketStripped, AminoWritable aw, Context context) throws IOException, InterruptedException {
-    	final Bucket bucket = bucketCache.getBucket(bucketStripped);
-        final Feature feature = aw.getFeature();
-        final FeatureFact featureFact = aw.getFeatureFact();
-        final int featureIndex = BitmapIndex.getFeatureIndex(feature);
-
-        final BitmapValue bitmapValue = new BitmapValue();
-        final BitLookupKey bitLookupKey = new BitLookupKey(featureIndex, featureFact.toText(translator).toString(), bucket.getBucketVisibility().toString());
+    protected void map(BucketStripped bucketStripped, IndexedBucket bucket, Context context) throws IOException, InterruptedException {
+        final String visibility = bucket.getVisibility().toString();
 
-        for (int i = 0; i < numberOfHashes; i++)
+        for (int feature = 0; feature < bucket.getFeatureCount(); feature++)
         {
-            bitmapValue.setIndex(BitmapIndex.getFeatureFactIndex(bucket, feature, featureFact, i));
-            bitLookupKey.setSalt(i);
+            if (aggregator != null) {
+                for (int i = 0; i < numberOfHashes; i++)
+                {
+                    final BitLookupKey bitLookupKey = new BitLookupKey(bucket.getFeatureIndex(feature), bucket.getFeatureFact(feature), visibility, i);
+                    aggregator.add(bitLookupKey, bucket.getFeatureFactIndex(feature, i), context);
+                }
+                continue;
+            }
+
+            final BitLookupKey bitLookupKey = new BitLookupKey(bucket.getFeatureIndex(feature), bucket.getFeatureFact(feature), visibility);
+
+            for (int i = 0; i < numberOfHashes; i++)
+            {
+                bitmapValue.setIndex(bucket.getFeatureFactIndex(feature, i));
+                bitLookupKey.setSalt(i);
+
+                context.write(bitLookupKey, bitmapValue);
+            }
+        }
+    }
 
-            context.write(bitLookupKey, bitmapValue);
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (aggregator != null) {
+            aggregator.flush(context);
         }
+        super.cleanup(context);
     }
 }
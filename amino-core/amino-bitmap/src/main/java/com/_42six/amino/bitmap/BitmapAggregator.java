@@ -0,0 +1,149 @@
+package com._42six.amino.bitmap;
+
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Combines the bitmap indexes written by a mapper before they leave it.  The indexes of each key are gathered together,
+ * and a single BitmapValue for each key is written out once too many indexes are held, or when {@link #flush} is
+ * called.
+ *
+ * The keys are numbered in the order they are first added and found through an open addressed table of key numbers.
+ * The indexes are kept in primitive arrays, as a linked list per key, so holding an index costs two ints and no objects.
+ * The arrays grow as needed, up to maxIndexes entries.
+ *
+ * The keys are held on to, so don't change a key after it has been added.
+ */
+public class BitmapAggregator<K> {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_ENTRY = -1;
+
+    private final int maxIndexes;
+
+    // The key number plus one of each slot, or 0 if the slot is empty.  Kept at most half full
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    // By key number
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] keyHashes = new int[INITIAL_CAPACITY];
+    private int[] firstEntries = new int[INITIAL_CAPACITY];
+    private int numKeys = 0;
+
+    // By entry, one for each index added.  The next entry is the one added before it for the same key
+    private int[] entryIndexes;
+    private int[] nextEntries;
+    private int numIndexes = 0;
+
+    // Written out for each key.  The context serializes it straight away, so it can be reused
+    private final BitmapValue value = new BitmapValue();
+
+    /**
+     * @param maxIndexes The most indexes to hold before they are written out
+     */
+    public BitmapAggregator(int maxIndexes) {
+        if (maxIndexes <= 0) {
+            throw new IllegalArgumentException("maxIndexes must be positive");
+        }
+        this.maxIndexes = maxIndexes;
+        entryIndexes = new int[Math.min(INITIAL_CAPACITY, maxIndexes)];
+        nextEntries = new int[entryIndexes.length];
+    }
+
+    /**
+     * Adds an index to the BitmapValue of a key, writing everything out first if there is no more room
+     */
+    public void add(K key, int index, TaskInputOutputContext<?, ?, ? super K, ? super BitmapValue> context)
+            throws IOException, InterruptedException {
+        if (numIndexes >= maxIndexes) {
+            flush(context);
+        }
+        final int keyNumber = findOrAddKey(key);
+        if (numIndexes == entryIndexes.length) {
+            final int capacity = (int) Math.min((long) maxIndexes, 2L * numIndexes);
+            entryIndexes = Arrays.copyOf(entryIndexes, capacity);
+            nextEntries = Arrays.copyOf(nextEntries, capacity);
+        }
+        entryIndexes[numIndexes] = index;
+        nextEntries[numIndexes] = firstEntries[keyNumber];
+        firstEntries[keyNumber] = numIndexes;
+        numIndexes++;
+    }
+
+    /**
+     * Writes out the BitmapValue of each key, in the order that the keys were first added
+     */
+    @SuppressWarnings("unchecked")
+    public void flush(TaskInputOutputContext<?, ?, ? super K, ? super BitmapValue> context)
+            throws IOException, InterruptedException {
+        for (int keyNumber = 0; keyNumber < numKeys; keyNumber++) {
+            value.clear();
+            for (int entry = firstEntries[keyNumber]; entry != NO_ENTRY; entry = nextEntries[entry]) {
+                value.addIndex(entryIndexes[entry]);
+            }
+            context.write((K) keys[keyNumber], value);
+        }
+        Arrays.fill(keys, 0, numKeys, null);
+        Arrays.fill(slots, 0);
+        numKeys = 0;
+        numIndexes = 0;
+    }
+
+    /**
+     * @return The number of keys being held
+     */
+    public int size() {
+        return numKeys;
+    }
+
+    /**
+     * @return The number of the key, which is added if it isn't held already
+     */
+    private int findOrAddKey(K key) {
+        final int hash = smear(key.hashCode());
+        int slot = hash & (slots.length - 1);
+        while (slots[slot] != 0) {
+            final int keyNumber = slots[slot] - 1;
+            if (keyHashes[keyNumber] == hash && keys[keyNumber].equals(key)) {
+                return keyNumber;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+
+        if (numKeys == keys.length) {
+            keys = Arrays.copyOf(keys, numKeys * 2);
+            keyHashes = Arrays.copyOf(keyHashes, numKeys * 2);
+            firstEntries = Arrays.copyOf(firstEntries, numKeys * 2);
+        }
+        final int keyNumber = numKeys++;
+        keys[keyNumber] = key;
+        keyHashes[keyNumber] = hash;
+        firstEntries[keyNumber] = NO_ENTRY;
+        slots[slot] = keyNumber + 1;
+        if (numKeys * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return keyNumber;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int keyNumber = 0; keyNumber < numKeys; keyNumber++) {
+            int slot = keyHashes[keyNumber] & (capacity - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            slots[slot] = keyNumber + 1;
+        }
+    }
+
+    /**
+     * Spreads the bits of a hash code, since linear probing on the low bits does badly with poorly distributed ones
+     */
+    private static int smear(int hashCode) {
+        final int hash = hashCode * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -1,73 +1,117 @@
 package com._42six.amino.bitmap;
 
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.apache.commons.lang.builder.ToStringBuilder;
-import org.apache.hadoop.io.ArrayWritable;
-import org.apache.hadoop.io.IntWritable;
+import com._42six.amino.common.bitmap.AminoBitmapBuilder;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.*;
-
-
+import java.util.Arrays;
+
+/**
+ * A set of bitmap indexes, backed by a primitive int array.
+ *
+ * On the wire the indexes are sorted and de-duplicated, then written as a VInt count followed by the first index and
+ * the VLong deltas between consecutive indexes.  Since the form is canonical, two equal values always serialize to the
+ * same bytes and can be compared without being deserialized.
+ */
 public final class BitmapValue implements Writable {
 
-	public static final class IntArrayWritable extends ArrayWritable {
-        public IntArrayWritable() {
-            super(IntWritable.class);
-        }
+    private static final int DEFAULT_CAPACITY = 8;
 
-        public IntArrayWritable(Collection<Integer> ints) {
-            super(IntWritable.class);
-            List<IntWritable> iwl = new ArrayList<>(ints.size());
-            for (Integer i : ints) {
-                iwl.add(new IntWritable(i));
-            }
+    private int[] indexes = new int[DEFAULT_CAPACITY];
+    private int size = 0;
+    private boolean normalized = true; // true if indexes[0..size) is sorted with no duplicates
 
-            set(iwl.toArray(new IntWritable[iwl.size()]));
-        }
-    }
+    public BitmapValue() { }
 
-    private Set<Integer> indexes;
+    public BitmapValue(int index){
+        setIndex(index);
+    }
 
-    public BitmapValue() {
-    	indexes = new HashSet<>();
+    /**
+     * @return The number of unique indexes
+     */
+    public int size() {
+        normalize();
+        return size;
     }
 
-    public BitmapValue(Integer index){
-        indexes = new HashSet<>();
-        indexes.add(index);
+    /**
+     * @return A copy of the indexes, sorted in increasing order
+     */
+    public int[] getIndexes() {
+        normalize();
+        return Arrays.copyOf(indexes, size);
     }
 
-    public Set<Integer> getIndexes() {
-        return indexes;
+    /**
+     * Adds all of the indexes to a bitmap builder without copying them first
+     *
+     * @param builder The builder to add the indexes to
+     */
+    public void addIndexesTo(AminoBitmapBuilder builder) {
+        builder.addAll(indexes, 0, size);
     }
 
     public void addIndex(int index) {
-        mergeIndex(Collections.singleton(index));
+        ensureCapacity(size + 1);
+        if(size > 0 && index <= indexes[size - 1]){
+            normalized = false;
+        }
+        indexes[size++] = index;
     }
 
     public void merge(BitmapValue other) {
-    	mergeIndex(other.getIndexes());
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.indexes, 0, indexes, size, other.size);
+        size += other.size;
+        normalized = false;
+    }
+
+    public void setIndex(int index){
+        clear();
+        addIndex(index);
+    }
+
+    public void clear(){
+        size = 0;
+        normalized = true;
     }
 
-    public void setIndex(Integer index){
-        indexes.clear();
-        indexes.add(index);
+    private void ensureCapacity(int capacity){
+        if(capacity > indexes.length){
+            indexes = Arrays.copyOf(indexes, Math.max(capacity, indexes.length * 2));
+        }
     }
 
-    private void mergeIndex(Set<Integer> others) {
-        indexes.addAll(others);
+    /**
+     * Sorts the indexes and removes any duplicates
+     */
+    private void normalize(){
+        if(normalized){
+            return;
+        }
+        Arrays.sort(indexes, 0, size);
+        int unique = 0;
+        for(int i = 0; i < size; i++){
+            if(unique == 0 || indexes[i] != indexes[unique - 1]){
+                indexes[unique++] = indexes[i];
+            }
+        }
+        size = unique;
+        normalized = true;
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder()
-                .append(indexes)
-                .toHashCode();
+        normalize();
+        int hash = 17;
+        for(int i = 0; i < size; i++){
+            hash = 31 * hash + indexes[i];
+        }
+        return hash;
     }
 
     @Override
@@ -77,32 +121,44 @@ public final class BitmapValue implements Writable {
         if (o.getClass() != getClass()) { return false; }
 
         BitmapValue other = (BitmapValue) o;
-        return new EqualsBuilder()
-                .append(indexes, other.indexes)
-                .isEquals();
+        normalize();
+        other.normalize();
+        if(size != other.size){
+            return false;
+        }
+        for(int i = 0; i < size; i++){
+            if(indexes[i] != other.indexes[i]){
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public String toString() {
-    	ToStringBuilder builder = new ToStringBuilder(this);
-    	builder.append("indexes", indexes);
-
-    	return builder.toString();
+        normalize();
+        return "BitmapValue[indexes=" + Arrays.toString(Arrays.copyOf(indexes, size)) + "]";
     }
 
     public void write(DataOutput dataOutput) throws IOException {
-    	IntArrayWritable i = new IntArrayWritable(indexes);
-    	i.write(dataOutput);
+        normalize();
+        WritableUtils.writeVInt(dataOutput, size);
+        long previous = 0;
+        for(int i = 0; i < size; i++){
+            WritableUtils.writeVLong(dataOutput, indexes[i] - previous);
+            previous = indexes[i];
+        }
     }
 
     public void readFields(DataInput dataInput) throws IOException {
-        indexes.clear();
-        IntArrayWritable i = new IntArrayWritable();
-        i.readFields(dataInput);
-        Set<Integer> inds = new HashSet<>();
-        for (Writable w : i.get()) {
-            inds.add(((IntWritable) w).get());
+        clear();
+        final int count = WritableUtils.readVInt(dataInput);
+        ensureCapacity(count);
+        long previous = 0;
+        for(int i = 0; i < count; i++){
+            previous += WritableUtils.readVLong(dataInput);
+            indexes[i] = (int) previous;
         }
-        indexes.addAll(inds);
+        size = count;
     }
 }
@@ -0,0 +1,52 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.common.AminoWritable;
+import com._42six.amino.common.BucketStripped;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * Converts the Bucket/AminoWritable pairs written by the framework into {@link IndexedBucket}s, so that the bitmap jobs
+ * don't each have to look up the buckets and hash the features again.  The framework writes all of the features of a
+ * bucket value together, so they are gathered into as few IndexedBuckets as possible.
+ */
+public class BucketIndexingMapper extends Mapper<BucketStripped, AminoWritable, BucketStripped, IndexedBucket> {
+
+    /** The most features to put in one IndexedBucket, so that a popular bucket value doesn't become one huge record */
+    public static final String MAX_FEATURES_PER_BUCKET = "amino.bitmap.index.maxFeaturesPerRecord";
+    public static final int DEFAULT_MAX_FEATURES_PER_BUCKET = 10000;
+
+    private IndexedBucketResolver resolver;
+    private int maxFeatures;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        resolver = new IndexedBucketResolver(context.getConfiguration());
+        maxFeatures = context.getConfiguration().getInt(MAX_FEATURES_PER_BUCKET, DEFAULT_MAX_FEATURES_PER_BUCKET);
+    }
+
+    @Override
+    protected void map(BucketStripped bucketStripped, AminoWritable aw, Context context) throws IOException, InterruptedException {
+        final IndexedBucket bucket = resolver.getIndexedBucket();
+        if (resolver.isNewBucket(bucketStripped) || bucket.getFeatureCount() >= maxFeatures) {
+            flush(context);
+        }
+        resolver.append(bucketStripped, aw);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        flush(context);
+        super.cleanup(context);
+    }
+
+    private void flush(Context context) throws IOException, InterruptedException {
+        final IndexedBucket bucket = resolver.getIndexedBucket();
+        if (bucket.getFeatureCount() > 0) {
+            context.write(resolver.getLastBucketStripped(), bucket);
+            bucket.clearFeatures();
+        }
+    }
+}
@@ -1,24 +1,40 @@
 package com._42six.amino.bitmap;
 
+import com._42six.amino.common.RawComparatorUtils;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
 
+import java.io.IOException;
 
+/**
+ * Sorts the Text keys by their UTF-8 bytes, which is the order that Accumulo sorts the rows in.  The serialized keys
+ * are compared in place, so nothing is deserialized or converted to a String during the sort.
+ */
 public class HypothesisKeyComparator extends WritableComparator 
 {
 	protected HypothesisKeyComparator()
 	{
-		super(Text.class, true);
+		super(Text.class);
+	}
+
+	@Override
+	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2)
+	{
+		try
+		{
+			return RawComparatorUtils.compareText(b1, s1, b2, s2);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalArgumentException(e);
+		}
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public int compare(WritableComparable w1, WritableComparable w2) 
 	{
-		Text k1 = (Text)w1;
-		Text k2 = (Text)w2;
-		
-		return k1.toString().compareTo(k2.toString());
+		return ((Text) w1).compareTo((Text) w2);
 	}
 }
@@ -0,0 +1,255 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.common.FeatureFactType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A bucket value and its features with every index that the bitmap jobs need already worked out, so that the jobs don't
+ * have to look up the bucket or recompute the hashes for each record.
+ *
+ * The bucket is written once, followed by the features a column at a time:
+ *  byte        format version
+ *  Text        datasource
+ *  VInt        datasource index + 1 (0 if the datasource wasn't in the cache)
+ *  Text        bucket name
+ *  Text        bucket value
+ *  Text        visibility
+ *  VInt        bucket value index
+ *  VInt        number of salts
+ *  VInt[]      value index, one per salt
+ *  VInt        number of features
+ *  VInt[]      feature index, one per feature
+ *  String[]    feature fact text, one per feature
+ *  VInt[]      feature fact type code + 1, one per feature (0 if unknown)
+ *  VInt[][]    feature fact index, one per salt for each feature
+ *
+ * The first format had no version byte and no feature fact types.  Since the start of an unversioned record can look
+ * like any version, the BucketIndexJob also writes {@link #VERSION} to a marker file next to its output, and the bitmap
+ * jobs only read indexed buckets whose marker matches.
+ */
+public class IndexedBucket implements Writable {
+
+    /** The version of the format written by {@link #write} */
+    public static final byte VERSION = 2;
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private final Text datasource = new Text();
+    private int datasourceIndex = -1;
+    private final Text bucketName = new Text();
+    private final Text bucketValue = new Text();
+    private final Text visibility = new Text();
+    private int bucketValueIndex;
+    private int[] valueIndexes = new int[0];
+
+    private int featureCount = 0;
+    private int[] featureIndexes = new int[DEFAULT_CAPACITY];
+    private String[] featureFacts = new String[DEFAULT_CAPACITY];
+    private FeatureFactType[] featureTypes = new FeatureFactType[DEFAULT_CAPACITY];
+    private int[] featureFactIndexes = new int[0]; // featureCount * number of salts, salts for each feature together
+
+    public IndexedBucket() { }
+
+    /**
+     * Sets the bucket and removes all of the features
+     *
+     * @param datasourceIndex The index of the datasource, or -1 if unknown
+     * @param valueIndexes    The value index of the bucket for each salt
+     */
+    public void setBucket(Text datasource, int datasourceIndex, Text bucketName, Text bucketValue, Text visibility,
+                          int bucketValueIndex, int[] valueIndexes) {
+        this.datasource.set(datasource);
+        this.datasourceIndex = datasourceIndex;
+        this.bucketName.set(bucketName);
+        this.bucketValue.set(bucketValue);
+        this.visibility.set(visibility);
+        this.bucketValueIndex = bucketValueIndex;
+        this.valueIndexes = valueIndexes;
+        clearFeatures();
+    }
+
+    public void clearFeatures() {
+        featureCount = 0;
+    }
+
+    /**
+     * @param featureIndex       The index of the feature
+     * @param featureFact        The text of the feature fact
+     * @param featureFactIndexes The index of the feature fact for each salt
+     */
+    public void addFeature(int featureIndex, String featureFact, int[] featureFactIndexes) {
+        addFeature(featureIndex, null, featureFact, featureFactIndexes);
+    }
+
+    /**
+     * @param featureIndex       The index of the feature
+     * @param featureType        The type of the feature fact, or null if unknown
+     * @param featureFact        The text of the feature fact
+     * @param featureFactIndexes The index of the feature fact for each salt
+     */
+    public void addFeature(int featureIndex, FeatureFactType featureType, String featureFact, int[] featureFactIndexes) {
+        if (featureFactIndexes.length != getNumberOfSalts()) {
+            throw new IllegalArgumentException("Expected " + getNumberOfSalts() + " feature fact indexes but got " +
+                    featureFactIndexes.length);
+        }
+        ensureCapacity(featureCount + 1);
+        this.featureIndexes[featureCount] = featureIndex;
+        this.featureFacts[featureCount] = featureFact;
+        this.featureTypes[featureCount] = featureType;
+        System.arraycopy(featureFactIndexes, 0, this.featureFactIndexes, featureCount * getNumberOfSalts(), getNumberOfSalts());
+        featureCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > featureIndexes.length) {
+            final int newCapacity = Math.max(capacity, featureIndexes.length * 2);
+            featureIndexes = Arrays.copyOf(featureIndexes, newCapacity);
+            featureFacts = Arrays.copyOf(featureFacts, newCapacity);
+            featureTypes = Arrays.copyOf(featureTypes, newCapacity);
+        }
+        final int factIndexes = Math.max(capacity, featureIndexes.length) * getNumberOfSalts();
+        if (factIndexes > featureFactIndexes.length) {
+            featureFactIndexes = Arrays.copyOf(featureFactIndexes, factIndexes);
+        }
+    }
+
+    public Text getDatasource() {
+        return datasource;
+    }
+
+    /**
+     * @return The index of the datasource, or -1 if it wasn't in the cache
+     */
+    public int getDatasourceIndex() {
+        return datasourceIndex;
+    }
+
+    public Text getBucketName() {
+        return bucketName;
+    }
+
+    public Text getBucketValue() {
+        return bucketValue;
+    }
+
+    public Text getVisibility() {
+        return visibility;
+    }
+
+    public int getBucketValueIndex() {
+        return bucketValueIndex;
+    }
+
+    public int getNumberOfSalts() {
+        return valueIndexes.length;
+    }
+
+    public int getValueIndex(int salt) {
+        return valueIndexes[salt];
+    }
+
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    public int getFeatureIndex(int feature) {
+        return featureIndexes[feature];
+    }
+
+    public String getFeatureFact(int feature) {
+        return featureFacts[feature];
+    }
+
+    /**
+     * @return The type of the feature fact, or null if unknown
+     */
+    public FeatureFactType getFeatureType(int feature) {
+        return featureTypes[feature];
+    }
+
+    public int getFeatureFactIndex(int feature, int salt) {
+        return featureFactIndexes[feature * getNumberOfSalts() + salt];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(VERSION);
+        datasource.write(out);
+        WritableUtils.writeVInt(out, datasourceIndex + 1);
+        bucketName.write(out);
+        bucketValue.write(out);
+        visibility.write(out);
+        WritableUtils.writeVInt(out, bucketValueIndex);
+        WritableUtils.writeVInt(out, valueIndexes.length);
+        for (int valueIndex : valueIndexes) {
+            WritableUtils.writeVInt(out, valueIndex);
+        }
+
+        WritableUtils.writeVInt(out, featureCount);
+        for (int i = 0; i < featureCount; i++) {
+            WritableUtils.writeVInt(out, featureIndexes[i]);
+        }
+        for (int i = 0; i < featureCount; i++) {
+            WritableUtils.writeString(out, featureFacts[i]);
+        }
+        for (int i = 0; i < featureCount; i++) {
+            WritableUtils.writeVInt(out, (featureTypes[i] != null) ? featureTypes[i].getCode() + 1 : 0);
+        }
+        for (int i = 0; i < featureCount * valueIndexes.length; i++) {
+            WritableUtils.writeVInt(out, featureFactIndexes[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        final byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported IndexedBucket format version " + version + ", expected " + VERSION +
+                    ".  Run the BucketIndexJob again");
+        }
+        datasource.readFields(in);
+        datasourceIndex = WritableUtils.readVInt(in) - 1;
+        bucketName.readFields(in);
+        bucketValue.readFields(in);
+        visibility.readFields(in);
+        bucketValueIndex = WritableUtils.readVInt(in);
+        final int salts = WritableUtils.readVInt(in);
+        if (valueIndexes.length != salts) {
+            valueIndexes = new int[salts];
+        }
+        for (int i = 0; i < salts; i++) {
+            valueIndexes[i] = WritableUtils.readVInt(in);
+        }
+
+        featureCount = 0;
+        final int features = WritableUtils.readVInt(in);
+        ensureCapacity(features);
+        for (int i = 0; i < features; i++) {
+            featureIndexes[i] = WritableUtils.readVInt(in);
+        }
+        for (int i = 0; i < features; i++) {
+            featureFacts[i] = WritableUtils.readString(in);
+        }
+        for (int i = 0; i < features; i++) {
+            final int typeCode = WritableUtils.readVInt(in);
+            featureTypes[i] = (typeCode > 0) ? FeatureFactType.get(typeCode - 1) : null;
+        }
+        for (int i = 0; i < features * salts; i++) {
+            featureFactIndexes[i] = WritableUtils.readVInt(in);
+        }
+        featureCount = features;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedBucket[datasource=" + datasource + ", bucketName=" + bucketName + ", bucketValue=" + bucketValue +
+                ", visibility=" + visibility + ", features=" + featureCount + "]";
+    }
+}
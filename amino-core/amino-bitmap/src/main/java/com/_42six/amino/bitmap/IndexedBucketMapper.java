@@ -0,0 +1,65 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.common.AminoConfiguration;
+import com._42six.amino.common.AminoWritable;
+import com._42six.amino.common.BucketStripped;
+import com._42six.amino.common.translator.FeatureFactTranslatorImpl;
+import com._42six.amino.common.translator.FeatureFactTranslatorInt;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * Base class for the mappers of the bitmap jobs.  The input can either be the {@link IndexedBucket}s written by the
+ * {@link BucketIndexingMapper}, whose indexes have already been worked out, or the AminoWritables written by the
+ * framework, which are resolved here one at a time.
+ */
+public abstract class IndexedBucketMapper<KEYOUT, VALUEOUT> extends Mapper<BucketStripped, Writable, KEYOUT, VALUEOUT> {
+
+    protected int numberOfHashes;
+    protected FeatureFactTranslatorInt ffTranslator = new FeatureFactTranslatorImpl();
+
+    // Only created if the input hasn't been indexed, since loading the caches isn't free
+    private IndexedBucketResolver resolver = null;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        numberOfHashes = context.getConfiguration().getInt(AminoConfiguration.NUM_HASHES, 1);
+    }
+
+    @Override
+    protected void map(BucketStripped bucketStripped, Writable value, Context context) throws IOException, InterruptedException {
+        final IndexedBucket bucket;
+        if (value instanceof IndexedBucket) {
+            bucket = (IndexedBucket) value;
+            if (bucket.getNumberOfSalts() != numberOfHashes) {
+                throw new IOException("The buckets were indexed with " + bucket.getNumberOfSalts() + " hashes, but " +
+                        AminoConfiguration.NUM_HASHES + " is " + numberOfHashes + ".  Rerun the BucketIndexJob");
+            }
+        } else if (value instanceof AminoWritable) {
+            if (resolver == null) {
+                resolver = new IndexedBucketResolver(context.getConfiguration(), ffTranslator);
+            }
+            bucket = resolver.resolve(bucketStripped, (AminoWritable) value);
+        } else {
+            throw new IOException("Unexpected input value of type " + value.getClass().getName());
+        }
+        map(bucketStripped, bucket, context);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        // Overridden so that the FusedBitmapMapper can call it on the mappers that it runs
+        super.cleanup(context);
+    }
+
+    /**
+     * Maps the features of a bucket value
+     *
+     * @param bucketStripped The key from the input
+     * @param bucket         The bucket value and its features.  Reused between calls
+     */
+    protected abstract void map(BucketStripped bucketStripped, IndexedBucket bucket, Context context) throws IOException, InterruptedException;
+}
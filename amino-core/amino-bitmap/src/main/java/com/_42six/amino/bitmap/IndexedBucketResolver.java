@@ -0,0 +1,109 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.common.AminoConfiguration;
+import com._42six.amino.common.AminoWritable;
+import com._42six.amino.common.Bucket;
+import com._42six.amino.common.BucketStripped;
+import com._42six.amino.common.Feature;
+import com._42six.amino.common.FeatureFact;
+import com._42six.amino.common.index.BitmapIndex;
+import com._42six.amino.common.service.datacache.BucketCache;
+import com._42six.amino.common.service.datacache.SortedIndexCache;
+import com._42six.amino.common.service.datacache.SortedIndexCacheFactory;
+import com._42six.amino.common.translator.FeatureFactTranslatorImpl;
+import com._42six.amino.common.translator.FeatureFactTranslatorInt;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.VIntWritable;
+
+import java.io.IOException;
+
+/**
+ * Works out the indexes of the Bucket/AminoWritable pairs written by the framework, filling in an {@link IndexedBucket}.
+ * The bucket lookups are only done when the bucket changes, since the framework writes all of a bucket's features
+ * together.
+ */
+public class IndexedBucketResolver {
+
+    private final BucketCache bucketCache;
+    private final SortedIndexCache dataSourceCache;
+    private final FeatureFactTranslatorInt translator;
+    private final int numberOfHashes;
+
+    private final IndexedBucket indexedBucket = new IndexedBucket();
+    private BucketStripped lastBS = null;
+    private Bucket bucket;
+
+    public IndexedBucketResolver(Configuration conf) throws IOException {
+        this(conf, new FeatureFactTranslatorImpl());
+    }
+
+    public IndexedBucketResolver(Configuration conf, FeatureFactTranslatorInt translator) throws IOException {
+        this.bucketCache = new BucketCache(conf);
+        this.dataSourceCache = SortedIndexCacheFactory.getCache(SortedIndexCacheFactory.CacheTypes.Datasource, conf);
+        this.translator = translator;
+        this.numberOfHashes = conf.getInt(AminoConfiguration.NUM_HASHES, 1);
+    }
+
+    /**
+     * @return true if the bucket is different than the one given to the last call of {@link #resolve} or {@link #append}
+     */
+    public boolean isNewBucket(BucketStripped bucketStripped) {
+        return lastBS == null || lastBS.compareTo(bucketStripped) != 0;
+    }
+
+    /**
+     * @return The bucket given to the last call of {@link #resolve} or {@link #append}, or null if there hasn't been one
+     */
+    public BucketStripped getLastBucketStripped() {
+        return lastBS;
+    }
+
+    /**
+     * @return The IndexedBucket that {@link #resolve} and {@link #append} fill in
+     */
+    public IndexedBucket getIndexedBucket() {
+        return indexedBucket;
+    }
+
+    /**
+     * Resolves the indexes of a single feature
+     *
+     * @return The IndexedBucket, holding only this feature.  It is reused between calls
+     */
+    public IndexedBucket resolve(BucketStripped bucketStripped, AminoWritable aw) throws IOException {
+        indexedBucket.clearFeatures();
+        return append(bucketStripped, aw);
+    }
+
+    /**
+     * Resolves the indexes of a feature.  If the bucket is the same as the last call, the feature is added to the
+     * features already in the IndexedBucket.  Otherwise the IndexedBucket is reset to the new bucket first.
+     *
+     * @return The IndexedBucket, which is reused between calls
+     */
+    public IndexedBucket append(BucketStripped bucketStripped, AminoWritable aw) throws IOException {
+        if (isNewBucket(bucketStripped)) {
+            lastBS = new BucketStripped(bucketStripped);
+            bucket = bucketCache.getBucket(bucketStripped);
+
+            final VIntWritable datasourceIndex = dataSourceCache.getIndexForValue(bucket.getBucketDataSource());
+            final int[] valueIndexes = new int[numberOfHashes];
+            for (int salt = 0; salt < numberOfHashes; salt++) {
+                valueIndexes[salt] = BitmapIndex.getValueIndex(bucket, salt);
+            }
+            indexedBucket.setBucket(bucket.getBucketDataSource(), (datasourceIndex != null) ? datasourceIndex.get() : -1,
+                    bucket.getBucketName(), bucket.getBucketValue(), bucket.getBucketVisibility(),
+                    BitmapIndex.getBucketValueIndex(bucketStripped), valueIndexes);
+        }
+
+        final Feature feature = aw.getFeature();
+        final FeatureFact featureFact = aw.getFeatureFact();
+        final int[] featureFactIndexes = new int[numberOfHashes];
+        for (int salt = 0; salt < numberOfHashes; salt++) {
+            featureFactIndexes[salt] = BitmapIndex.getFeatureFactIndex(bucket, feature, featureFact, salt);
+        }
+        indexedBucket.addFeature(BitmapIndex.getFeatureIndex(feature), featureFact.getType(),
+                featureFact.toText(translator).toString(), featureFactIndexes);
+        return indexedBucket;
+    }
+}
@@ -1,10 +1,13 @@
 package com._42six.amino.bitmap.reverse;
 
+import com._42six.amino.common.RawComparatorUtils;
 import org.apache.commons.lang.builder.CompareToBuilder;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.VIntWritable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -12,6 +15,10 @@ import java.io.IOException;
 
 public class ReverseBitmapKey implements WritableComparable
 {
+    static {
+        WritableComparator.define(ReverseBitmapKey.class, new Comparator());
+    }
+
 	private int shard;
 	private int salt;
 	private int featureId;
@@ -193,4 +200,50 @@ public class ReverseBitmapKey implements WritableComparable
         this.bucketName = bucketName;
     }
 
+    /**
+     * Compares serialized ReverseBitmapKeys in the same order as {@link #compareTo(Object)}, without deserializing them
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator(){
+            super(ReverseBitmapKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                // The layout is shard, salt, datasource, bucketName, featureId, featureValue, visibility
+                int comparison = compareInts(readInt(b1, s1), readInt(b2, s2));
+                if(comparison != 0){ return comparison; }
+
+                comparison = compareInts(readInt(b1, s1 + 4), readInt(b2, s2 + 4));
+                if(comparison != 0){ return comparison; }
+
+                final int datasource1 = s1 + 8;
+                final int datasource2 = s2 + 8;
+                final int bucketName1 = datasource1 + WritableUtils.decodeVIntSize(b1[datasource1]);
+                final int bucketName2 = datasource2 + WritableUtils.decodeVIntSize(b2[datasource2]);
+                final int featureId1 = bucketName1 + RawComparatorUtils.textLength(b1, bucketName1);
+                final int featureId2 = bucketName2 + RawComparatorUtils.textLength(b2, bucketName2);
+
+                comparison = compareInts(readInt(b1, featureId1), readInt(b2, featureId2));
+                if(comparison != 0){ return comparison; }
+
+                comparison = RawComparatorUtils.compareUTF(b1, featureId1 + 4, b2, featureId2 + 4);
+                if(comparison != 0){ return comparison; }
+
+                comparison = compareInts(readVInt(b1, datasource1), readVInt(b2, datasource2));
+                if(comparison != 0){ return comparison; }
+
+                return RawComparatorUtils.compareText(b1, bucketName1, b2, bucketName2);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        private static int compareInts(int a, int b){
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+    }
+
 }
@@ -1,36 +1,27 @@
 package com._42six.amino.bitmap.reverse;
 
+import com._42six.amino.bitmap.IndexedBucket;
+import com._42six.amino.bitmap.IndexedBucketMapper;
 import com._42six.amino.common.AminoConfiguration;
-import com._42six.amino.common.AminoWritable;
-import com._42six.amino.common.Bucket;
 import com._42six.amino.common.BucketStripped;
-import com._42six.amino.common.index.BitmapIndex;
-import com._42six.amino.common.service.datacache.BucketCache;
-import com._42six.amino.common.service.datacache.SortedIndexCache;
-import com._42six.amino.common.service.datacache.SortedIndexCacheFactory;
-import com._42six.amino.common.translator.FeatureFactTranslatorImpl;
+import com._42six.amino.common.index.RangeAggregates;
 import com._42six.amino.common.translator.FeatureFactTranslatorInt;
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.VIntWritable;
-import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
+import java.util.List;
 
-public class ReverseBitmapMapper extends Mapper<BucketStripped, AminoWritable, ReverseBitmapKey, IntWritable>
+public class ReverseBitmapMapper extends IndexedBucketMapper<ReverseBitmapKey, IntWritable>
 {
-	private BucketCache bucketCache;
-    private SortedIndexCache dataSourceCache;
-    private FeatureFactTranslatorInt ffTranslator = new FeatureFactTranslatorImpl();
     private int numberOfShards;
-    private int numberOfHashes;
+    private boolean rangeAggregates;
 
-    private BucketStripped previousBS = null;
-    private Bucket bucket;
-    private int currentShard;
-
-    private VIntWritable datasourceIndex;
+    private final IntWritable valueIndex = new IntWritable();
 
+    /**
+     * Sets the translator for the feature facts.  Only used if the input hasn't already been indexed
+     */
     public void setFfTranslator(FeatureFactTranslatorInt ffTranslator) {
         this.ffTranslator = ffTranslator;
     }
@@ -38,38 +29,44 @@ public class ReverseBitmapMapper extends Mapper<BucketStripped, AminoWritable, R
     @Override
 	protected void setup(Context context) throws IOException, InterruptedException {
     	super.setup(context);
-        final Configuration configuration = context.getConfiguration();
-    	bucketCache = new BucketCache(configuration);
-        dataSourceCache = SortedIndexCacheFactory.getCache(SortedIndexCacheFactory.CacheTypes.Datasource, configuration);
 		numberOfShards = context.getConfiguration().getInt(AminoConfiguration.NUM_SHARDS, 10);
-	    numberOfHashes = context.getConfiguration().getInt(AminoConfiguration.NUM_HASHES, 1);
+		rangeAggregates = context.getConfiguration().getBoolean(AminoConfiguration.REVERSE_RANGE_AGGREGATES, false);
     }
 
 	@Override
-	protected void map(BucketStripped bs, AminoWritable aw, Context context) throws IOException, InterruptedException
+	protected void map(BucketStripped bs, IndexedBucket bucket, Context context) throws IOException, InterruptedException
 	{
-        if(previousBS == null || bs.compareTo(previousBS) != 0){
-            previousBS = new BucketStripped(bs);
-		    bucket = bucketCache.getBucket(bs);
-            currentShard = BitmapIndex.getValueIndex(bucket, 0) % numberOfShards;
-            datasourceIndex = dataSourceCache.getIndexForValue(bucket.getBucketDataSource());
-        }
-
-        final int featureIndex = BitmapIndex.getFeatureIndex(aw.getFeature());
-
-        // Convert the feature fact into a db friendly value
-        final String featureValue = aw.getFeatureFact().toText(ffTranslator).toString();
-
         // Base the shard on the first index.  This way all salted values end up in the same shard.
-        final ReverseBitmapKey rbKey = new ReverseBitmapKey(currentShard, 0, datasourceIndex,
-                bucket.getBucketName(), featureIndex, featureValue, bucket.getBucketVisibility());
+        final int currentShard = bucket.getValueIndex(0) % numberOfShards;
+        final VIntWritable datasourceIndex = (bucket.getDatasourceIndex() >= 0) ? new VIntWritable(bucket.getDatasourceIndex()) : null;
 
-        // Create the rest of the salt values
-        for (int salt = 0; salt < numberOfHashes; salt++)
+        for (int feature = 0; feature < bucket.getFeatureCount(); feature++)
         {
-            rbKey.setSalt(salt);
-            context.write(rbKey, new IntWritable(BitmapIndex.getValueIndex(bucket, salt)));
-            System.out.println("Outputting Key: " + rbKey + " | Value: " + BitmapIndex.getValueIndex(bucket, salt));
+            final ReverseBitmapKey rbKey = new ReverseBitmapKey(currentShard, 0, datasourceIndex,
+                    bucket.getBucketName(), bucket.getFeatureIndex(feature), bucket.getFeatureFact(feature), bucket.getVisibility());
+
+            // Create the rest of the salt values
+            for (int salt = 0; salt < numberOfHashes; salt++)
+            {
+                rbKey.setSalt(salt);
+                valueIndex.set(bucket.getValueIndex(salt));
+                context.write(rbKey, valueIndex);
+            }
+
+            // Also put the bucket value in the bitmap of each block of values that the fact is in
+            if (rangeAggregates) {
+                final List<String> aggregates = RangeAggregates.aggregatesFor(bucket.getFeatureType(feature),
+                        bucket.getFeatureFact(feature));
+                for (String aggregate : aggregates) {
+                    rbKey.setFeatureValue(aggregate);
+                    for (int salt = 0; salt < numberOfHashes; salt++)
+                    {
+                        rbKey.setSalt(salt);
+                        valueIndex.set(bucket.getValueIndex(salt));
+                        context.write(rbKey, valueIndex);
+                    }
+                }
+            }
         }
 	}
 	
@@ -0,0 +1,144 @@
+package com._42six.amino.bitmap.reverse;
+
+import com._42six.amino.common.RawComparatorUtils;
+import com._42six.amino.common.service.datacache.SortedIndexCache;
+import com._42six.amino.common.service.datacache.SortedIndexCacheFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sorts serialized ReverseBitmapKeys in the order of the Accumulo Keys that the ReverseBitmapReducer creates from them,
+ * so that the reducer output can be written straight to an RFile:
+ *
+ *  row          shard:salt
+ *  family       datasource#bucketName#featureId
+ *  qualifier    featureValue
+ *  visibility   visibility
+ *
+ * The datasource names are looked up in the datasource cache, so the Configuration has to be set.
+ */
+public class ReverseBitmapTableComparator extends WritableComparator implements Configurable {
+
+    private Configuration conf;
+    private SortedIndexCache dataSourceCache;
+    private final Map<Integer, byte[]> datasourceNames = new HashMap<>();
+    private final VIntWritable datasourceIndex = new VIntWritable();
+
+    // Reused to build the column families in
+    private final DataOutputBuffer family1 = new DataOutputBuffer();
+    private final DataOutputBuffer family2 = new DataOutputBuffer();
+    private final byte[] digits = new byte[10];
+
+    public ReverseBitmapTableComparator() {
+        super(ReverseBitmapKey.class);
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        try {
+            dataSourceCache = SortedIndexCacheFactory.getCache(SortedIndexCacheFactory.CacheTypes.Datasource, conf);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load the datasource cache", e);
+        }
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        try {
+            // The layout is shard, salt, datasource, bucketName, featureId, featureValue, visibility
+            final int shard1 = readInt(b1, s1);
+            final int shard2 = readInt(b2, s2);
+            int comparison = (shard1 != shard2)
+                    ? RawComparatorUtils.compareDecimal(shard1, shard2, true)
+                    : RawComparatorUtils.compareDecimal(readInt(b1, s1 + 4), readInt(b2, s2 + 4), false);
+            if(comparison != 0){ return comparison; }
+
+            final int datasource1 = s1 + 8;
+            final int datasource2 = s2 + 8;
+            final int bucketName1 = datasource1 + WritableUtils.decodeVIntSize(b1[datasource1]);
+            final int bucketName2 = datasource2 + WritableUtils.decodeVIntSize(b2[datasource2]);
+            final int featureId1 = bucketName1 + RawComparatorUtils.textLength(b1, bucketName1);
+            final int featureId2 = bucketName2 + RawComparatorUtils.textLength(b2, bucketName2);
+
+            writeFamily(family1, b1, datasource1, bucketName1, featureId1);
+            writeFamily(family2, b2, datasource2, bucketName2, featureId2);
+            comparison = compareBytes(family1.getData(), 0, family1.getLength(), family2.getData(), 0, family2.getLength());
+            if(comparison != 0){ return comparison; }
+
+            final int featureValue1 = featureId1 + 4;
+            final int featureValue2 = featureId2 + 4;
+            comparison = RawComparatorUtils.compareUTF(b1, featureValue1, b2, featureValue2);
+            if(comparison != 0){ return comparison; }
+
+            return RawComparatorUtils.compareText(b1, featureValue1 + RawComparatorUtils.utfLength(b1, featureValue1),
+                    b2, featureValue2 + RawComparatorUtils.utfLength(b2, featureValue2));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Writes the column family, datasource#bucketName#featureId, of a serialized key into the buffer
+     */
+    private void writeFamily(DataOutputBuffer family, byte[] b, int datasource, int bucketName, int featureId) throws IOException {
+        family.reset();
+        family.write(getDatasourceName(readVInt(b, datasource)));
+        family.write('#');
+        final int prefix = WritableUtils.decodeVIntSize(b[bucketName]);
+        family.write(b, bucketName + prefix, readVInt(b, bucketName));
+        family.write('#');
+        writeDecimal(family, readInt(b, featureId));
+    }
+
+    /**
+     * Writes the same bytes as Integer.toString(value), without creating the String
+     */
+    private void writeDecimal(DataOutputBuffer out, int value) throws IOException {
+        if (value < 0) {
+            out.write(Integer.toString(value).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        out.write(digits, position, digits.length - position);
+    }
+
+    private byte[] getDatasourceName(int index) {
+        byte[] name = datasourceNames.get(index);
+        if (name == null) {
+            // Same as the reducer, which would write "null" for a datasource that isn't in the cache
+            name = String.valueOf(getDatasource(index)).getBytes(StandardCharsets.UTF_8);
+            datasourceNames.put(index, name);
+        }
+        return name;
+    }
+
+    /**
+     * @return The name of the datasource with the index, or null if it isn't in the cache
+     */
+    protected String getDatasource(int index) {
+        if (dataSourceCache == null) {
+            throw new IllegalStateException("setConf() was not called");
+        }
+        datasourceIndex.set(index);
+        return dataSourceCache.getItem(datasourceIndex);
+    }
+}
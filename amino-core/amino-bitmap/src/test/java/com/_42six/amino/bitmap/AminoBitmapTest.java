@@ -1,11 +1,26 @@
 package com._42six.amino.bitmap;
 
 import com._42six.amino.common.bitmap.AminoBitmap;
+import com._42six.amino.common.bitmap.AminoBitmapBuilder;
+import com._42six.amino.common.bitmap.AminoBitmapJsonAdapter;
+import com._42six.amino.common.bitmap.BitmapCodec;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 // Not really a test (yet), but it lets me play with bitmaps
 public class AminoBitmapTest {
@@ -58,4 +73,133 @@ public class AminoBitmapTest {
         assertEquals("1,245,102345,", bitmap.toString());
     }
 
+    @Test
+    public void testRoaringRoundTrip() {
+        AminoBitmap bitmap = new AminoBitmap(BitmapCodec.ROARING);
+        bitmap.set(102345);
+        bitmap.set(1);
+        bitmap.set(Integer.MAX_VALUE);
+
+        AminoBitmap read = AminoBitmap.fromByteArray(bitmap.toByteArray());
+        assertEquals(BitmapCodec.ROARING, read.getCodec());
+        assertEquals("1,102345," + Integer.MAX_VALUE + ",", read.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testRoaringNegativeIndex() {
+        new AminoBitmap(BitmapCodec.ROARING).set(-128);
+    }
+
+    @Test
+    public void testReadUntaggedEwah() throws IOException {
+        EWAHCompressedBitmap legacy = EWAHCompressedBitmap.bitmapOf(3, 64, 99999);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        legacy.serialize(new DataOutputStream(bytes));
+
+        AminoBitmap read = AminoBitmap.fromByteArray(bytes.toByteArray());
+        assertEquals(BitmapCodec.EWAH, read.getCodec());
+        assertEquals("3,64,99999,", read.toString());
+    }
+
+    @Test
+    public void testReadUntaggedEwahFromDataInput() throws IOException {
+        // Two untagged bitmaps and an int after them, read from a DataInput that isn't an InputStream
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        EWAHCompressedBitmap.bitmapOf(3, 64, 99999).serialize(out);
+        EWAHCompressedBitmap.bitmapOf(7).serialize(out);
+        out.writeInt(42);
+
+        ByteArrayDataInput in = ByteStreams.newDataInput(out.toByteArray());
+        AminoBitmap first = new AminoBitmap();
+        first.deserialize(in);
+        AminoBitmap second = new AminoBitmap();
+        second.deserialize(in);
+        assertEquals("3,64,99999,", first.toString());
+        assertEquals("7,", second.toString());
+        assertEquals(42, in.readInt());
+    }
+
+    @Test
+    public void testJsonRoundTrip() {
+        Gson gson = AminoBitmapJsonAdapter.createGson();
+        for(BitmapCodec codec : BitmapCodec.values()){
+            AminoBitmap bitmap = new AminoBitmap(codec).set(3).set(64).set(99999);
+            AminoBitmap read = gson.fromJson(gson.toJson(bitmap), AminoBitmap.class);
+            assertEquals(codec, read.getCodec());
+            assertEquals("3,64,99999,", read.toString());
+        }
+    }
+
+    @Test
+    public void testReadReflectedJson() {
+        // Before the codec tags, an AminoBitmap was written by reflection as {"bitmap": <the EWAHCompressedBitmap>}
+        EWAHCompressedBitmap legacy = EWAHCompressedBitmap.bitmapOf(3, 64, 99999, 100000, 100001);
+        JsonObject json = new JsonObject();
+        json.add("bitmap", new Gson().toJsonTree(legacy));
+
+        AminoBitmap read = AminoBitmapJsonAdapter.createGson().fromJson(json, AminoBitmap.class);
+        assertEquals(BitmapCodec.EWAH, read.getCodec());
+        assertEquals("3,64,99999,100000,100001,", read.toString());
+
+        // Bits can still be set after the last one
+        read.set(200000);
+        assertEquals(6, read.cardinality());
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testReadBadJson() {
+        AminoBitmapJsonAdapter.createGson().fromJson("{\"bitmap\": {\"sizeinbits\": 5}}", AminoBitmap.class);
+    }
+
+    @Test
+    public void testSerializeDoesNotChangeBitmap() {
+        AminoBitmap bitmap = new AminoBitmap(BitmapCodec.ROARING);
+        for(int i = 0; i < 10000; i++){
+            bitmap.set(i);
+        }
+        int sizeInBytes = bitmap.sizeInBytes();
+        byte[] bytes = bitmap.toByteArray();
+        assertEquals(sizeInBytes, bitmap.sizeInBytes());
+        assertEquals(bitmap.toString(), AminoBitmap.fromByteArray(bytes).toString());
+
+        // The builder run length encodes the bitmaps it builds, before anything else sees them
+        AminoBitmapBuilder builder = new AminoBitmapBuilder(BitmapCodec.ROARING);
+        for(int i = 9999; i >= 0; i--){
+            builder.add(i);
+        }
+        AminoBitmap built = builder.build();
+        assertTrue(built.sizeInBytes() < sizeInBytes);
+        assertTrue(built.toByteArray().length < bytes.length);
+        assertTrue(built.equals(bitmap));
+    }
+
+    @Test
+    public void testMixedCodecs() {
+        AminoBitmap ewah = new AminoBitmap(BitmapCodec.EWAH);
+        ewah.set(5).set(10).set(15);
+        AminoBitmap roaring = new AminoBitmap(BitmapCodec.ROARING);
+        roaring.set(10).set(20);
+
+        assertEquals(1, ewah.andCardiniality(roaring));
+        assertTrue(ewah.equals(AminoBitmap.fromByteArray(ewah.toCodec(BitmapCodec.ROARING).toByteArray())));
+
+        AminoBitmap combined = AminoBitmap.or(Arrays.asList(roaring, ewah));
+        assertEquals(BitmapCodec.ROARING, combined.getCodec());
+        assertEquals("5,10,15,20,", combined.toString());
+    }
+
+    @Test
+    public void testBuilderUnsorted() {
+        for(BitmapCodec codec : BitmapCodec.values()){
+            AminoBitmapBuilder builder = new AminoBitmapBuilder(codec);
+            builder.add(102345).add(1).add(245).add(1);
+            builder.addAll(new int[] {99, 245, 7}, 1, 2);
+            assertEquals(6, builder.size());
+            assertEquals("1,7,245,102345,", builder.build().toString());
+
+            builder.clear();
+            assertEquals("", builder.build().toString());
+        }
+    }
+
 }
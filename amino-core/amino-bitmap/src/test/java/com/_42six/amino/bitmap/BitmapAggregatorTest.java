@@ -0,0 +1,210 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.common.AminoConfiguration;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class BitmapAggregatorTest {
+
+    /**
+     * Collects what is written to a context, copying the values since the aggregator reuses them
+     */
+    private static class Output implements InvocationHandler {
+        private final Configuration conf = new Configuration(false);
+        private final List<Object> keys = new ArrayList<>();
+        private final List<BitmapValue> values = new ArrayList<>();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getConfiguration":
+                    return conf;
+                case "write":
+                    final BitmapValue copy = new BitmapValue();
+                    copy.merge((BitmapValue) args[1]);
+                    keys.add(args[0]);
+                    values.add(copy);
+                    return null;
+                case "toString":
+                    return "Output";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T context(Class<T> contextClass) {
+            return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{contextClass}, this);
+        }
+
+        Map<Object, String> written() {
+            final Map<Object, String> written = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                written.put(keys.get(i), Arrays.toString(values.get(i).getIndexes()));
+            }
+            assertEquals("A key was written more than once", keys.size(), written.size());
+            return written;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TaskInputOutputContext<?, ?, Object, BitmapValue> context(Output output) {
+        return output.context(TaskInputOutputContext.class);
+    }
+
+    @Test
+    public void testMergesRepeatedKeys() throws Exception {
+        final Output output = new Output();
+        final TaskInputOutputContext<?, ?, Object, BitmapValue> context = context(output);
+        final BitmapAggregator<Object> aggregator = new BitmapAggregator<>(100);
+        aggregator.add("b", 5, context);
+        aggregator.add("a", 3, context);
+        aggregator.add("b", 1, context);
+        aggregator.add("a", 3, context);
+        aggregator.add("c", 7, context);
+        aggregator.add("b", 9, context);
+        assertEquals(3, aggregator.size());
+        assertTrue(output.keys.isEmpty());
+
+        aggregator.flush(context);
+        assertEquals(0, aggregator.size());
+
+        // In the order the keys were first added, with the indexes sorted and without duplicates
+        final Map<Object, String> expected = new LinkedHashMap<>();
+        expected.put("b", "[1, 5, 9]");
+        expected.put("a", "[3]");
+        expected.put("c", "[7]");
+        assertEquals(expected, output.written());
+        assertEquals(Arrays.asList("b", "a", "c"), output.keys);
+
+        // Nothing is left to write
+        aggregator.flush(context);
+        assertEquals(3, output.keys.size());
+    }
+
+    @Test
+    public void testFlushAtMaxIndexes() throws Exception {
+        final Output output = new Output();
+        final TaskInputOutputContext<?, ?, Object, BitmapValue> context = context(output);
+        final BitmapAggregator<Object> aggregator = new BitmapAggregator<>(4);
+        aggregator.add("a", 1, context);
+        aggregator.add("b", 2, context);
+        aggregator.add("a", 3, context);
+        aggregator.add("b", 4, context);
+        assertTrue(output.keys.isEmpty());
+
+        // The fifth index doesn't fit, so the first four are written out before it is added
+        aggregator.add("a", 5, context);
+        assertEquals(Arrays.asList("a", "b"), output.keys);
+        assertEquals("[1, 3]", Arrays.toString(output.values.get(0).getIndexes()));
+        assertEquals("[2, 4]", Arrays.toString(output.values.get(1).getIndexes()));
+        assertEquals(1, aggregator.size());
+
+        aggregator.flush(context);
+        assertEquals(Arrays.asList("a", "b", "a"), output.keys);
+        assertEquals("[5]", Arrays.toString(output.values.get(2).getIndexes()));
+    }
+
+    @Test
+    public void testManyKeys() throws Exception {
+        final Output output = new Output();
+        final TaskInputOutputContext<?, ?, Object, BitmapValue> context = context(output);
+        final BitmapAggregator<Object> aggregator = new BitmapAggregator<>(1 << 20);
+
+        // Enough keys to grow the table several times, with hash codes that only differ in the high bits
+        final int numKeys = 5000;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < numKeys; i++) {
+                aggregator.add(new CollidingKey(i), i + round, context);
+            }
+        }
+        assertEquals(numKeys, aggregator.size());
+        aggregator.flush(context);
+
+        final Map<Object, String> written = output.written();
+        assertEquals(numKeys, written.size());
+        for (int i = 0; i < numKeys; i++) {
+            assertEquals(new CollidingKey(i), output.keys.get(i));
+            assertEquals(Arrays.toString(new int[]{i, i + 1, i + 2}), written.get(new CollidingKey(i)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxIndexesMustBePositive() {
+        new BitmapAggregator<>(0);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Test
+    public void testMapperFlushesInCleanup() throws Exception {
+        final Output output = new Output();
+        output.conf.setBoolean(AminoConfiguration.IN_MAPPER_COMBINING, true);
+        output.conf.setInt(AminoConfiguration.NUM_HASHES, 2);
+        final Mapper.Context context = new WrappedMapper().new Context(output.context(MapContext.class));
+
+        final BitLookupMapper mapper = new BitLookupMapper();
+        mapper.setup(context);
+
+        // Two buckets that share a feature fact
+        final IndexedBucket bucket = new IndexedBucket();
+        bucket.setBucket(new Text("numbers"), 0, new Text("number"), new Text("1"), new Text("U"), 1, new int[]{1, 2});
+        bucket.addFeature(3, "odd", new int[]{10, 20});
+        mapper.map(null, bucket, context);
+        bucket.setBucket(new Text("numbers"), 0, new Text("number"), new Text("3"), new Text("U"), 3, new int[]{3, 4});
+        bucket.addFeature(3, "odd", new int[]{30, 40});
+        bucket.addFeature(4, "prime", new int[]{50, 60});
+        mapper.map(null, bucket, context);
+        assertTrue(output.keys.isEmpty());
+
+        mapper.cleanup(context);
+        final Map<Object, String> expected = new LinkedHashMap<>();
+        expected.put(new BitLookupKey(3, "odd", "U", 0), "[10, 30]");
+        expected.put(new BitLookupKey(3, "odd", "U", 1), "[20, 40]");
+        expected.put(new BitLookupKey(4, "prime", "U", 0), "[50]");
+        expected.put(new BitLookupKey(4, "prime", "U", 1), "[60]");
+        assertEquals(expected, output.written());
+    }
+
+    /**
+     * A key whose hash codes all have the same low bits
+     */
+    private static class CollidingKey {
+        private final int id;
+
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id << 16;
+        }
+
+        @Override
+        public String toString() {
+            return "CollidingKey[" + id + "]";
+        }
+    }
+}
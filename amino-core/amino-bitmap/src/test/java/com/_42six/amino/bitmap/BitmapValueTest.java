@@ -3,6 +3,7 @@ package com._42six.amino.bitmap;
 import org.junit.Test;
 
 import java.io.*;
+import java.util.Arrays;
 
 import static junit.framework.Assert.assertEquals;
 
@@ -25,4 +26,38 @@ public class BitmapValueTest {
 
         assertEquals(value1, value2);
     }
+
+    @Test
+    public void testUnsortedMerge() throws Exception {
+        final BitmapValue value1 = new BitmapValue(30);
+        value1.addIndex(10);
+        final BitmapValue value2 = new BitmapValue(20);
+        value2.addIndex(10);
+        value1.merge(value2);
+
+        assertEquals(3, value1.size());
+        assertEquals("[10, 20, 30]", Arrays.toString(value1.getIndexes()));
+
+        final BitmapValue expected = new BitmapValue(10);
+        expected.addIndex(20);
+        expected.addIndex(30);
+        assertEquals(expected, value1);
+        assertEquals(expected.hashCode(), value1.hashCode());
+    }
+
+    @Test
+    public void testDeltaEncoding() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final BitmapValue value = new BitmapValue(Integer.MAX_VALUE - 1);
+        value.addIndex(Integer.MAX_VALUE - 2);
+        value.addIndex(Integer.MAX_VALUE - 3);
+        value.write(new DataOutputStream(outputStream));
+
+        // count + one large first index + two single byte deltas
+        assertEquals(1 + 5 + 1 + 1, outputStream.size());
+
+        final BitmapValue read = new BitmapValue();
+        read.readFields(new DataInputStream(new ByteArrayInputStream(outputStream.toByteArray())));
+        assertEquals(value, read);
+    }
 }
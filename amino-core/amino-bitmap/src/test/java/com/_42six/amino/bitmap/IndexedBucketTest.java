@@ -0,0 +1,84 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.common.FeatureFactType;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+
+public class IndexedBucketTest {
+
+    @Test
+    public void testReadWrite() throws Exception {
+        final IndexedBucket bucket1 = new IndexedBucket();
+        bucket1.setBucket(new Text("numbers"), 3, new Text("number"), new Text("42"), new Text("U"), 7, new int[]{100, 200});
+        for (int i = 0; i < 20; i++) {
+            bucket1.addFeature(i, (i % 2 == 0) ? FeatureFactType.RATIO : null, "fact" + i, new int[]{i * 2, i * 2 + 1});
+        }
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bucket1.write(new DataOutputStream(outputStream));
+
+        // Read into an instance that already holds a smaller bucket to make sure it gets resized
+        final IndexedBucket bucket2 = new IndexedBucket();
+        bucket2.setBucket(new Text("other"), -1, new Text("b"), new Text("v"), new Text(""), 0, new int[]{1});
+        bucket2.addFeature(1, "f", new int[]{1});
+        bucket2.readFields(new DataInputStream(new ByteArrayInputStream(outputStream.toByteArray())));
+
+        assertEquals("numbers", bucket2.getDatasource().toString());
+        assertEquals(3, bucket2.getDatasourceIndex());
+        assertEquals("number", bucket2.getBucketName().toString());
+        assertEquals("42", bucket2.getBucketValue().toString());
+        assertEquals("U", bucket2.getVisibility().toString());
+        assertEquals(7, bucket2.getBucketValueIndex());
+        assertEquals(2, bucket2.getNumberOfSalts());
+        assertEquals(200, bucket2.getValueIndex(1));
+        assertEquals(20, bucket2.getFeatureCount());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, bucket2.getFeatureIndex(i));
+            assertEquals("fact" + i, bucket2.getFeatureFact(i));
+            assertEquals((i % 2 == 0) ? FeatureFactType.RATIO : null, bucket2.getFeatureType(i));
+            assertEquals(i * 2, bucket2.getFeatureFactIndex(i, 0));
+            assertEquals(i * 2 + 1, bucket2.getFeatureFactIndex(i, 1));
+        }
+    }
+
+    @Test
+    public void testUnknownDatasource() throws Exception {
+        final IndexedBucket bucket1 = new IndexedBucket();
+        bucket1.setBucket(new Text("numbers"), -1, new Text("number"), new Text("42"), new Text(""), 0, new int[]{5});
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bucket1.write(new DataOutputStream(outputStream));
+        final IndexedBucket bucket2 = new IndexedBucket();
+        bucket2.readFields(new DataInputStream(new ByteArrayInputStream(outputStream.toByteArray())));
+
+        assertEquals(-1, bucket2.getDatasourceIndex());
+        assertEquals(0, bucket2.getFeatureCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnversioned() throws Exception {
+        final IndexedBucket bucket1 = new IndexedBucket();
+        bucket1.setBucket(new Text("numbers"), 3, new Text("number"), new Text("42"), new Text(""), 0, new int[]{5});
+        bucket1.addFeature(2, FeatureFactType.NOMINAL, "fact", new int[]{9});
+
+        // Written the way the first format was, without the version byte in front
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bucket1.write(new DataOutputStream(outputStream));
+        final byte[] bytes = outputStream.toByteArray();
+        final byte[] unversioned = Arrays.copyOfRange(bytes, 1, bytes.length);
+
+        new IndexedBucket().readFields(new DataInputStream(new ByteArrayInputStream(unversioned)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongNumberOfSalts() {
+        final IndexedBucket bucket = new IndexedBucket();
+        bucket.setBucket(new Text("numbers"), 0, new Text("number"), new Text("42"), new Text(""), 0, new int[]{1, 2});
+        bucket.addFeature(0, "fact", new int[]{1});
+    }
+}
@@ -0,0 +1,140 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.bitmap.reverse.ReverseBitmapKey;
+import com._42six.amino.bitmap.reverse.ReverseBitmapTableComparator;
+import com._42six.amino.common.ByBucketKey;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeyComparatorTest {
+
+    private static final String[] STRINGS = {"", "a", "ab", "b", "\u0000", "a\u0000", "é", "中", "z"};
+    private static final int[] NUMBERS = {0, 1, 2, 9, 10, 12, 100, 1234567};
+
+    private static byte[] serialize(WritableComparable key) throws IOException {
+        final DataOutputBuffer out = new DataOutputBuffer();
+        key.write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void checkAgrees(WritableComparator comparator, List<? extends WritableComparable> keys)
+            throws IOException {
+        for(WritableComparable k1 : keys){
+            final byte[] b1 = serialize(k1);
+            for(WritableComparable k2 : keys){
+                final byte[] b2 = serialize(k2);
+                assertEquals(k1 + " vs " + k2, Integer.signum(k1.compareTo(k2)),
+                        Integer.signum(comparator.compare(b1, 0, b1.length, b2, 0, b2.length)));
+            }
+        }
+    }
+
+    @Test
+    public void testByBucketKey() throws IOException {
+        final List<ByBucketKey> keys = new ArrayList<>();
+        for(int bin : NUMBERS){
+            for(String s : STRINGS){
+                keys.add(new ByBucketKey(new Text(s), bin, new Text("name" + s), new VIntWritable(bin % 3),
+                        new Text(s), bin % 2));
+                keys.add(new ByBucketKey(new Text("v"), bin, new Text(s), bin % 2, new Text("")));
+            }
+        }
+        checkAgrees(new ByBucketKey.Comparator(), keys);
+    }
+
+    @Test
+    public void testBitLookupKey() throws IOException {
+        final List<BitLookupKey> keys = new ArrayList<>();
+        for(int index : NUMBERS){
+            for(String s : STRINGS){
+                keys.add(new BitLookupKey(index, s, "vis", index % 3));
+                keys.add(new BitLookupKey(index, "fact", s, 1));
+            }
+        }
+        checkAgrees(new BitLookupKey.Comparator(), keys);
+    }
+
+    @Test
+    public void testReverseBitmapKey() throws IOException {
+        final List<ReverseBitmapKey> keys = new ArrayList<>();
+        for(int n : NUMBERS){
+            for(String s : STRINGS){
+                keys.add(new ReverseBitmapKey(n % 4, n % 2, new VIntWritable(n % 3), new Text(s), n, s, new Text("")));
+                keys.add(new ReverseBitmapKey(1, 0, new VIntWritable(n), new Text("b"), 7, "value", new Text(s)));
+            }
+        }
+        checkAgrees(new ReverseBitmapKey.Comparator(), keys);
+    }
+
+    @Test
+    public void testReverseBitmapTableComparator() throws IOException {
+        final String[] datasources = {"ds", "ds2", "d", "é"};
+        final ReverseBitmapTableComparator comparator = new ReverseBitmapTableComparator() {
+            @Override
+            protected String getDatasource(int index) {
+                return datasources[index];
+            }
+        };
+
+        final List<ReverseBitmapKey> keys = new ArrayList<>();
+        for(int n : NUMBERS){
+            for(String s : STRINGS){
+                keys.add(new ReverseBitmapKey(n % 12, n % 11, new VIntWritable(n % 4), new Text(s), n, s, new Text("")));
+                keys.add(new ReverseBitmapKey(1, 0, new VIntWritable(n % 4), new Text("b"), 7, "value", new Text(s)));
+            }
+        }
+
+        // Should sort the same as the row, family, qualifier and visibility that the reducer writes
+        for(ReverseBitmapKey k1 : keys){
+            final byte[] b1 = serialize(k1);
+            for(ReverseBitmapKey k2 : keys){
+                final byte[] b2 = serialize(k2);
+                int expected = (k1.getShard() + ":" + k1.getSalt()).compareTo(k2.getShard() + ":" + k2.getSalt());
+                if(expected == 0){
+                    expected = (datasources[k1.getDatasource().get()] + "#" + k1.getBucketName() + "#" + k1.getFeatureId())
+                            .compareTo(datasources[k2.getDatasource().get()] + "#" + k2.getBucketName() + "#" + k2.getFeatureId());
+                }
+                if(expected == 0){
+                    expected = k1.getFeatureValue().compareTo(k2.getFeatureValue());
+                }
+                if(expected == 0){
+                    expected = k1.getVisibility().compareTo(k2.getVisibility());
+                }
+                assertEquals(k1 + " vs " + k2, Integer.signum(expected),
+                        Integer.signum(comparator.compare(b1, 0, b1.length, b2, 0, b2.length)));
+            }
+        }
+    }
+
+    @Test
+    public void testHypothesisKeyComparator() throws IOException {
+        final List<Text> keys = new ArrayList<>();
+        for(String s : STRINGS){
+            keys.add(new Text(s));
+        }
+        checkAgrees(new HypothesisKeyComparator(), keys);
+    }
+
+    @Test
+    public void testRegistered() {
+        // Loading the key classes registers their comparators
+        new ByBucketKey();
+        new BitLookupKey();
+        new ReverseBitmapKey();
+        assertEquals(ByBucketKey.Comparator.class, WritableComparator.get(ByBucketKey.class).getClass());
+        assertEquals(BitLookupKey.Comparator.class, WritableComparator.get(BitLookupKey.class).getClass());
+        assertEquals(ReverseBitmapKey.Comparator.class, WritableComparator.get(ReverseBitmapKey.class).getClass());
+    }
+}
@@ -32,6 +32,30 @@ public class AminoConfiguration extends Configuration {
     public static final String NUM_SHARDS_HYPOTHESIS = "amino.bigtable.number.of.shards.hypothesis";
     public static final String NUM_REDUCERS = "amino.num.reducers";
 
+    /** The BitmapCodec name (EWAH or ROARING) to write the bitmap tables with */
+    public static final String BITMAP_CODEC = "amino.bitmap.codec";
+
+    /**
+     * Whether the bitmap jobs that would otherwise write Mutations (StatsJob and ReverseBitmapJob) should write RFiles
+     * and bulk import them instead
+     */
+    public static final String BULK_IMPORT = "amino.bitmap.bulkImport";
+
+    /**
+     * Whether the ByBucketMapper and BitLookupMapper should combine the bitmap indexes of each key before writing them
+     */
+    public static final String IN_MAPPER_COMBINING = "amino.bitmap.inMapperCombining";
+
+    /** The most bitmap indexes a mapper holds on to when combining before writing them out */
+    public static final String IN_MAPPER_COMBINING_MAX_INDEXES = "amino.bitmap.inMapperCombining.maxIndexes";
+    public static final int DEFAULT_IN_MAPPER_COMBINING_MAX_INDEXES = 1 << 20;
+
+    /**
+     * Whether the ReverseBitmapJob should also write the pre-OR'd bitmaps of blocks of date and ratio values, so that
+     * ranges of them can be looked up without OR'ing every value.  See RangeAggregates
+     */
+    public static final String REVERSE_RANGE_AGGREGATES = "amino.bitmap.reverse.rangeAggregates";
+
     public static final String NUM_REDUCERS_BITMAP = "amino.num.reducers.job.bitmap";
     public static final String NUM_REDUCERS_STATS = "amino.num.reducers.job.stats";
 
@@ -42,6 +66,12 @@ public class AminoConfiguration extends Configuration {
     public static final String WORKING_DIR = "amino.working";
     public static final String CACHE_DIR = "amino.cache";
 
+    /** Whether to memory map the bucket cache files, instead of loading all of the Buckets on to the heap */
+    public static final String MAPPED_BUCKET_CACHE = "amino.cache.buckets.mapped";
+
+    /** Where the SortedIndexCaches claim the numbers of the segments that they write, so that their indexes don't overlap */
+    public static final String CACHE_SEGMENT_REGISTRY = "amino.cache.segment.registry";
+
     public static final String JOB_NAME = "amino.bitmap.job.name";
     public static final String INPUT_PATH = "amino.bitmap.input.path";
 
@@ -1,9 +1,12 @@
 package com._42six.amino.common;
 
+import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.VIntWritable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -11,6 +14,10 @@ import java.io.IOException;
 
 public class ByBucketKey implements WritableComparable<ByBucketKey>{
 
+    static {
+        WritableComparator.define(ByBucketKey.class, new Comparator());
+    }
+
     private Text bucketValue;
     private int binNumber = -1;
     private Text bucketName;
@@ -133,7 +140,7 @@ public class ByBucketKey implements WritableComparable<ByBucketKey>{
 
         // Lexicographically sort.  Must append : otherwise 1:12345:foo will come after 10:12345:foo
         if(this.binNumber != other.binNumber){
-            return (String.valueOf(this.binNumber) + ':').compareTo(String.valueOf(other.binNumber) + ':');
+            return RawComparatorUtils.compareDecimal(this.binNumber, other.binNumber, true);
         }
 
         if(this.datasourceNameIndex == null){
@@ -249,6 +256,22 @@ public class ByBucketKey implements WritableComparable<ByBucketKey>{
     }
 
 
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        // The binNumber is left out, the same as in equals()
+        return new HashCodeBuilder()
+                .append(bucketName)
+                .append(datasourceNameIndex)
+                .append(bucketValue)
+                .append(salt)
+                .append(visibility)
+                .toHashCode();
+    }
+
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -261,4 +284,55 @@ public class ByBucketKey implements WritableComparable<ByBucketKey>{
                 .append("bucketValue", bucketValue)
                 .append("visibility", visibility).toString();
     }
+
+    /**
+     * Compares serialized ByBucketKeys in the same order as {@link #compareTo(ByBucketKey)}, without deserializing them
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator(){
+            super(ByBucketKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                // Offsets of each field.  The layout is bucketValue, bucketName, datasourceNameIndex, binNumber,
+                // visibility, salt
+                final int bucketName1 = s1 + RawComparatorUtils.textLength(b1, s1);
+                final int bucketName2 = s2 + RawComparatorUtils.textLength(b2, s2);
+                final int datasource1 = bucketName1 + RawComparatorUtils.textLength(b1, bucketName1);
+                final int datasource2 = bucketName2 + RawComparatorUtils.textLength(b2, bucketName2);
+                final int bin1 = datasource1 + WritableUtils.decodeVIntSize(b1[datasource1]);
+                final int bin2 = datasource2 + WritableUtils.decodeVIntSize(b2[datasource2]);
+
+                int comparison = RawComparatorUtils.compareDecimal(readInt(b1, bin1), readInt(b2, bin2), true);
+                if(comparison != 0){ return comparison; }
+
+                final int ds1 = readVInt(b1, datasource1);
+                final int ds2 = readVInt(b2, datasource2);
+                if(ds1 != ds2){
+                    return ds1 < ds2 ? -1 : 1;
+                }
+
+                comparison = RawComparatorUtils.compareText(b1, bucketName1, b2, bucketName2);
+                if(comparison != 0){ return comparison; }
+
+                comparison = RawComparatorUtils.compareText(b1, s1, b2, s2);
+                if(comparison != 0){ return comparison; }
+
+                final int visibility1 = bin1 + 4;
+                final int visibility2 = bin2 + 4;
+                final byte salt1 = b1[visibility1 + RawComparatorUtils.textLength(b1, visibility1)];
+                final byte salt2 = b2[visibility2 + RawComparatorUtils.textLength(b2, visibility2)];
+                if(salt1 != salt2){
+                    return salt1 < salt2 ? -1 : 1;
+                }
+
+                return RawComparatorUtils.compareText(b1, visibility1, b2, visibility2);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package com._42six.amino.common;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.IOException;
+
+/**
+ * Helpers for comparing serialized Writable fields directly from the sort buffer, in the same order that the fields'
+ * object comparisons would give.
+ */
+public class RawComparatorUtils {
+
+    private static final int[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    /**
+     * Compares two ints by their decimal strings, the same as {@code Integer.toString(a).compareTo(Integer.toString(b))},
+     * without creating the Strings.
+     *
+     * @param a The first int
+     * @param b The second int
+     * @param colonTerminated true to compare them as if each were followed by a ':', as in the byBucket row IDs
+     * @return negative, zero or positive like compareTo
+     */
+    public static int compareDecimal(int a, int b, boolean colonTerminated){
+        if(a == b){
+            return 0;
+        }
+        if(a < 0 || b < 0){
+            // Never happens for bin numbers and indexes, which are non-negative
+            final String suffix = colonTerminated ? ":" : "";
+            return (Integer.toString(a) + suffix).compareTo(Integer.toString(b) + suffix);
+        }
+
+        final int aDigits = numberOfDigits(a);
+        final int bDigits = numberOfDigits(b);
+        final int shared = Math.min(aDigits, bDigits);
+        for(int i = 0; i < shared; i++){
+            final int aDigit = (a / POWERS_OF_TEN[aDigits - 1 - i]) % 10;
+            final int bDigit = (b / POWERS_OF_TEN[bDigits - 1 - i]) % 10;
+            if(aDigit != bDigit){
+                return aDigit - bDigit;
+            }
+        }
+
+        // One is a prefix of the other.  ':' sorts after every digit, while the end of a String sorts before them
+        return colonTerminated ? bDigits - aDigits : aDigits - bDigits;
+    }
+
+    private static int numberOfDigits(int value){
+        int digits = 1;
+        while(digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]){
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * @return The total number of bytes of a serialized Text (or BytesWritable style VInt prefixed field)
+     */
+    public static int textLength(byte[] b, int s) throws IOException {
+        return WritableUtils.decodeVIntSize(b[s]) + WritableComparator.readVInt(b, s);
+    }
+
+    /**
+     * Compares two serialized Texts by their bytes, which is the same as Text.compareTo
+     */
+    public static int compareText(byte[] b1, int s1, byte[] b2, int s2) throws IOException {
+        final int prefix1 = WritableUtils.decodeVIntSize(b1[s1]);
+        final int prefix2 = WritableUtils.decodeVIntSize(b2[s2]);
+        return WritableComparator.compareBytes(b1, s1 + prefix1, WritableComparator.readVInt(b1, s1),
+                b2, s2 + prefix2, WritableComparator.readVInt(b2, s2));
+    }
+
+    /**
+     * @return The total number of bytes of a String written with DataOutput.writeUTF
+     */
+    public static int utfLength(byte[] b, int s){
+        return 2 + WritableComparator.readUnsignedShort(b, s);
+    }
+
+    /**
+     * Compares two Strings written with DataOutput.writeUTF in the same order as String.compareTo.
+     *
+     * Modified UTF-8 sorts the same as the UTF-16 chars that String compares, except for the NUL char, which is
+     * written as 0xC0 0x80.  0xC0 is never used for anything else, so it is handled on its own.
+     */
+    public static int compareUTF(byte[] b1, int s1, byte[] b2, int s2){
+        final int l1 = WritableComparator.readUnsignedShort(b1, s1);
+        final int l2 = WritableComparator.readUnsignedShort(b2, s2);
+        final int shared = Math.min(l1, l2);
+        for(int i = 0; i < shared; i++){
+            final int c1 = b1[s1 + 2 + i] & 0xff;
+            final int c2 = b2[s2 + 2 + i] & 0xff;
+            if(c1 != c2){
+                if(c1 == 0xC0){
+                    return -1;
+                } else if(c2 == 0xC0){
+                    return 1;
+                }
+                return c1 - c2;
+            }
+        }
+        return l1 - l2;
+    }
+}
@@ -53,6 +53,9 @@ public class TableConstants {
 	public static final Text HASHCOUNT_FIELD = new Text("hashcount");
 	public static final Text SHARDCOUNT_FIELD = new Text("shardcount");
 
+	/** Changes every time an ingest publishes new metadata, so that anything cached from the old tables can be dropped */
+	public static final Text INGEST_GENERATION_FIELD = new Text("ingest_generation");
+
     /** The prefix pre-pended to groups to signify that the String is a group and not an individual user */
     public static final String GROUP_PREFIX = "GROUP|";
 
@@ -1,88 +1,180 @@
 package com._42six.amino.common.bitmap;
 
-import com.googlecode.javaewah.EWAHCompressedBitmap;
-
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
-public class AminoBitmap implements Iterable<Integer>{  // EWAHCompressedBitmap is final class, so can't extend it
+/**
+ * A compressed bitmap of feature fact or bucket value positions.  The actual compression scheme is pluggable through
+ * {@link BitmapCodec}.  The serialized form starts with a tag naming the codec; bitmaps written before the tag existed
+ * are read as EWAH.
+ */
+public class AminoBitmap implements Iterable<Integer>{
+
+    /** The upper bits of the int written before every serialized bitmap.  The low byte is the codec id.  Since it is
+     * negative it can never collide with the EWAH size in bits, which is how untagged bitmaps start */
+    static final int CODEC_TAG = 0xA3190000;
+    static final int CODEC_TAG_MASK = 0xFFFFFF00;
 
-    private EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+    private BitmapStore store;
+
+    public AminoBitmap(){
+        this(BitmapCodec.DEFAULT);
+    }
 
-    public AminoBitmap(){}
+    public AminoBitmap(BitmapCodec codec){
+        this.store = codec.newStore();
+    }
 
     // Create a bitmap, setting a bit while doing so
     public AminoBitmap(int bit){
-        this.bitmap.set(bit);
+        this(BitmapCodec.DEFAULT, bit);
+    }
+
+    public AminoBitmap(BitmapCodec codec, int bit){
+        this(codec);
+        this.store.set(bit);
+    }
+
+    private AminoBitmap(BitmapStore store){
+        this.store = store;
     }
 
-    public void setBitmap(EWAHCompressedBitmap bitmap){
-        this.bitmap = bitmap;
+    public BitmapCodec getCodec(){
+        return store.codec();
     }
 
-    public EWAHCompressedBitmap getBitmap(){
-        return this.bitmap;
+    /**
+     * Returns this bitmap in the given codec
+     *
+     * @param codec The codec to use
+     * @return this if it is already in that codec, otherwise a copy of this bitmap in the new codec
+     */
+    public AminoBitmap toCodec(BitmapCodec codec){
+        return (codec == store.codec()) ? this : new AminoBitmap(codec.convert(store));
     }
 
     /**
-     * Sets the bit at a particular position.  *IMPORTANT* bits must be set in increasing order.
+     * Sets the bit at a particular position.  *IMPORTANT* for the EWAH codec bits must be set in increasing order.
      * If you do not set the bits in increasing order, the set will silently fail.
      * @param bit The bit position to set
      * @return The updated bitmap
      */
     public AminoBitmap set(int bit){
-        this.bitmap.set(bit);
+        this.store.set(bit);
+        return this;
+    }
+
+    /**
+     * Compacts the bitmap once all of its bits have been set, such as by run length encoding the dense parts of a
+     * Roaring bitmap.  This changes the bitmap, so only call it before the bitmap is shared between threads
+     *
+     * @return This bitmap
+     */
+    public AminoBitmap optimize(){
+        store.optimize();
         return this;
     }
 
     public void serialize(DataOutput out) throws IOException{
-        this.bitmap.serialize(out);
+        out.writeInt(CODEC_TAG | (store.codec().getId() & 0xff));
+        this.store.serialize(out);
     }
 
     public void deserialize(DataInput in) throws IOException{
-        this.bitmap.deserialize(in);
+        final int header = in.readInt();
+        if((header & CODEC_TAG_MASK) == CODEC_TAG){
+            store = BitmapCodec.fromId((byte) header).newStore();
+            store.deserialize(in);
+        } else {
+            final EwahBitmapStore legacy = new EwahBitmapStore();
+            legacy.deserializeLegacy(header, in);
+            store = legacy;
+        }
+    }
+
+    public byte[] toByteArray(){
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)){
+            serialize(out);
+        } catch (IOException e) {
+            throw new RuntimeException("Bitmap serialization error!\n" + e.toString());
+        }
+        return bytes.toByteArray();
+    }
+
+    public static AminoBitmap fromByteArray(byte[] value){
+        final AminoBitmap bitmap = new AminoBitmap();
+        try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))){
+            bitmap.deserialize(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Bitmap de-serialization error!\n" + e.toString());
+        }
+        return bitmap;
     }
 
     public Iterator<Integer> iterator(){
-        return bitmap.iterator();
+        return store.iterator();
     }
 
     public int cardinality(){
-        return bitmap.cardinality();
+        return store.cardinality();
     }
 
     public List<Integer> getPositions(){
-        return bitmap.getPositions();
+        return store.getPositions();
     }
 
     // creates an iterator of unset bits, up to the largest index of the set bits.
     public Iterator<Integer> notIterator(){
-        final EWAHCompressedBitmap notBitmap = bitmap.clone();
-        notBitmap.not();
-        return notBitmap.iterator(); // memory leak?
+        return store.notIterator();
     }
 
     public int sizeInBytes(){
-        return this.bitmap.sizeInBytes();
+        return this.store.sizeInBytes();
     }
 
     public void OR(AminoBitmap other){
-        this.bitmap = this.bitmap.or(other.bitmap);
+        this.store = this.store.or(store.codec().convert(other.store));
     }
 
     public void AND(AminoBitmap other){
-        this.bitmap = this.bitmap.and(other.bitmap);
+        this.store = this.store.and(store.codec().convert(other.store));
     }
 
     public int andCardiniality(AminoBitmap other) {
-        return bitmap.andCardinality(other.bitmap);
+        return store.andCardinality(store.codec().convert(other.store));
+    }
+
+    /**
+     * OR's a group of bitmaps together in one pass.  This can be MUCH faster than OR'ing them together one at a time.
+     *
+     * @param bitmaps The bitmaps to combine.  Any that are not in the codec of the first bitmap are converted to it
+     * @return A new bitmap that is the union of all of the bitmaps
+     */
+    public static AminoBitmap or(Collection<AminoBitmap> bitmaps){
+        if(bitmaps.isEmpty()){
+            return new AminoBitmap();
+        }
+
+        final BitmapCodec codec = bitmaps.iterator().next().getCodec();
+        final List<BitmapStore> stores = new ArrayList<>(bitmaps.size());
+        for(AminoBitmap bitmap : bitmaps){
+            stores.add(codec.convert(bitmap.store));
+        }
+        return new AminoBitmap(codec.or(stores));
     }
 
     public boolean equals(AminoBitmap other){
-        return this.bitmap.equals(other.bitmap);
+        return this.store.equals(store.codec().convert(other.store));
     }
 
     public String toString(){
@@ -92,5 +184,5 @@ public class AminoBitmap implements Iterable<Integer>{  // EWAHCompressedBitmap
         }
         return sb.toString();
     }
-  
+
 }
@@ -0,0 +1,91 @@
+package com._42six.amino.common.bitmap;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Builds an AminoBitmap from bits that are added in any order, possibly with duplicates.  The bits are collected in a
+ * primitive int array and sorted in place when the bitmap is built, so no boxing or TreeSet is needed to satisfy the
+ * increasing order that EWAH requires.
+ *
+ * The builder can be reused by calling {@link #clear()}, which keeps the array that has already been allocated.
+ */
+public class AminoBitmapBuilder {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final BitmapCodec codec;
+    private int[] bits;
+    private int size = 0;
+
+    public AminoBitmapBuilder(){
+        this(BitmapCodec.DEFAULT);
+    }
+
+    public AminoBitmapBuilder(BitmapCodec codec){
+        this.codec = codec;
+        this.bits = new int[DEFAULT_CAPACITY];
+    }
+
+    public AminoBitmapBuilder add(int bit){
+        ensureCapacity(size + 1);
+        bits[size++] = bit;
+        return this;
+    }
+
+    public AminoBitmapBuilder addAll(int[] others, int offset, int length){
+        ensureCapacity(size + length);
+        System.arraycopy(others, offset, bits, size, length);
+        size += length;
+        return this;
+    }
+
+    public AminoBitmapBuilder addAll(int[] others){
+        return addAll(others, 0, others.length);
+    }
+
+    public AminoBitmapBuilder addAll(Collection<Integer> others){
+        ensureCapacity(size + others.size());
+        for(int bit : others){
+            bits[size++] = bit;
+        }
+        return this;
+    }
+
+    /**
+     * @return The number of bits added so far, including duplicates
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Removes all of the bits so that the builder can be used again
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    /**
+     * Sorts and de-duplicates the bits that were added and sets them in a new bitmap, which is then optimized
+     *
+     * @return The bitmap with all of the bits set
+     */
+    public AminoBitmap build(){
+        Arrays.sort(bits, 0, size);
+
+        final AminoBitmap bitmap = new AminoBitmap(codec);
+        for(int i = 0; i < size; i++){
+            if(i == 0 || bits[i] != bits[i - 1]){
+                bitmap.set(bits[i]);
+            }
+        }
+        return bitmap.optimize();
+    }
+
+    private void ensureCapacity(int capacity){
+        if(capacity > bits.length){
+            bits = Arrays.copyOf(bits, Math.max(capacity, bits.length + (bits.length >> 1)));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com._42six.amino.common.bitmap;
+
+import com.google.common.io.BaseEncoding;
+import com.google.gson.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Gson adapter that writes an AminoBitmap as the Base64 of its serialized (codec tagged) form.  Register this with any
+ * Gson that has to handle AminoBitmaps, since the backing store is an interface that Gson can't reflect on.
+ *
+ * Before codec tags were added, AminoBitmaps were written by reflection, as an object whose bitmap field held the fields
+ * of its EWAHCompressedBitmap.  That form is still read.
+ */
+public class AminoBitmapJsonAdapter implements JsonSerializer<AminoBitmap>, JsonDeserializer<AminoBitmap> {
+
+    private static final BaseEncoding BASE64 = BaseEncoding.base64();
+
+    /**
+     * @return A Gson that knows how to handle AminoBitmaps
+     */
+    public static Gson createGson(){
+        return new GsonBuilder().registerTypeAdapter(AminoBitmap.class, new AminoBitmapJsonAdapter()).create();
+    }
+
+    @Override
+    public JsonElement serialize(AminoBitmap bitmap, Type type, JsonSerializationContext context) {
+        return new JsonPrimitive(BASE64.encode(bitmap.toByteArray()));
+    }
+
+    @Override
+    public AminoBitmap deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
+        try {
+            if(json.isJsonObject()){
+                final JsonObject ewah = member(json.getAsJsonObject(), "bitmap").getAsJsonObject();
+                return AminoBitmap.fromByteArray(fromReflectedEwah(ewah));
+            }
+            return AminoBitmap.fromByteArray(BASE64.decode(json.getAsString()));
+        } catch (IllegalArgumentException | IllegalStateException | ClassCastException | IndexOutOfBoundsException e) {
+            throw new JsonParseException("Could not read AminoBitmap from " + json, e);
+        }
+    }
+
+    /**
+     * Writes the fields of a reflected EWAHCompressedBitmap in the same order as EWAHCompressedBitmap.serialize, which
+     * AminoBitmap reads as an untagged EWAH bitmap.  The running length word's copy of the buffer is ignored, since
+     * only its position is serialized.
+     */
+    private static byte[] fromReflectedEwah(JsonObject ewah){
+        final int actualSizeInWords = member(ewah, "actualsizeinwords").getAsInt();
+        final JsonArray buffer = member(ewah, "buffer").getAsJsonArray();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)){
+            out.writeInt(member(ewah, "sizeinbits").getAsInt());
+            out.writeInt(actualSizeInWords);
+            for(int i = 0; i < actualSizeInWords; i++){
+                out.writeLong(buffer.get(i).getAsLong());
+            }
+            out.writeInt(member(member(ewah, "rlw").getAsJsonObject(), "position").getAsInt());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write to a byte array", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static JsonElement member(JsonObject json, String name){
+        final JsonElement member = json.get(name);
+        if(member == null){
+            throw new JsonParseException("Missing " + name + " in " + json);
+        }
+        return member;
+    }
+}
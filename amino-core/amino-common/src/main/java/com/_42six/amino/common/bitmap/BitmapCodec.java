@@ -0,0 +1,108 @@
+package com._42six.amino.common.bitmap;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The compressed bitmap formats that an {@link AminoBitmap} can be stored in.  The id is written in front of every
+ * serialized bitmap so that tables holding a mix of formats can still be read.
+ */
+public enum BitmapCodec {
+
+    /** Word aligned hybrid compression.  Good for dense, clustered positions.  This was the original Amino format */
+    EWAH((byte) 0) {
+        @Override
+        BitmapStore newStore() {
+            return new EwahBitmapStore();
+        }
+
+        @Override
+        BitmapStore or(List<BitmapStore> stores) {
+            final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[stores.size()];
+            for(int i = 0; i < bitmaps.length; i++){
+                bitmaps[i] = ((EwahBitmapStore) stores.get(i)).getBitmap();
+            }
+            return new EwahBitmapStore(EWAHCompressedBitmap.or(bitmaps));
+        }
+    },
+
+    /** Roaring bitmaps.  Much smaller and faster for the sparse, hash scattered positions that BitmapIndex produces */
+    ROARING((byte) 1) {
+        @Override
+        BitmapStore newStore() {
+            return new RoaringBitmapStore();
+        }
+
+        @Override
+        BitmapStore or(List<BitmapStore> stores) {
+            final RoaringBitmap[] bitmaps = new RoaringBitmap[stores.size()];
+            for(int i = 0; i < bitmaps.length; i++){
+                bitmaps[i] = ((RoaringBitmapStore) stores.get(i)).getBitmap();
+            }
+            return new RoaringBitmapStore(FastAggregation.or(bitmaps));
+        }
+    };
+
+    /** The codec used when one isn't specified */
+    public static final BitmapCodec DEFAULT = EWAH;
+
+    private final byte id;
+
+    BitmapCodec(byte id){
+        this.id = id;
+    }
+
+    public byte getId(){
+        return id;
+    }
+
+    /**
+     * Looks up the codec for the id that was written with a serialized bitmap
+     *
+     * @param id The id of the codec
+     * @return The matching BitmapCodec
+     * @throws IllegalArgumentException if there is no codec for the id
+     */
+    public static BitmapCodec fromId(byte id){
+        for(BitmapCodec codec : values()){
+            if(codec.id == id){
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown bitmap codec id: " + id);
+    }
+
+    abstract BitmapStore newStore();
+
+    /**
+     * OR's all of the stores together at once, which is much faster than OR'ing them together one at a time
+     *
+     * @param stores The stores to combine.  They must all be of this codec
+     * @return A new store containing the union of the stores
+     */
+    abstract BitmapStore or(List<BitmapStore> stores);
+
+    /**
+     * Copies a store in to this codec
+     *
+     * @param other The store to copy
+     * @return other if it is already of this codec, otherwise a new store with the same bits set
+     */
+    BitmapStore convert(BitmapStore other){
+        if(other.codec() == this){
+            return other;
+        }
+
+        // Both codecs iterate in increasing order, which is what EWAH needs when setting bits
+        final BitmapStore converted = newStore();
+        final Iterator<Integer> bits = other.iterator();
+        while(bits.hasNext()){
+            converted.set(bits.next());
+        }
+        return converted;
+    }
+}
@@ -0,0 +1,52 @@
+package com._42six.amino.common.bitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The compressed bitmap implementation that backs an {@link AminoBitmap}.  Binary operations are only ever called with
+ * another store of the same {@link BitmapCodec}; AminoBitmap takes care of converting between codecs.
+ */
+interface BitmapStore {
+
+    BitmapCodec codec();
+
+    void set(int bit);
+
+    Iterator<Integer> iterator();
+
+    int cardinality();
+
+    List<Integer> getPositions();
+
+    /**
+     * @return An iterator over the unset bits, up to the largest index of the set bits
+     */
+    Iterator<Integer> notIterator();
+
+    int sizeInBytes();
+
+    BitmapStore or(BitmapStore other);
+
+    BitmapStore and(BitmapStore other);
+
+    int andCardinality(BitmapStore other);
+
+    /**
+     * Compacts the store once all of its bits have been set.  This changes the store, so only call it before the bitmap
+     * is shared
+     */
+    void optimize();
+
+    /**
+     * Writes the codec specific body of the bitmap.  The codec tag is written by AminoBitmap
+     */
+    void serialize(DataOutput out) throws IOException;
+
+    void deserialize(DataInput in) throws IOException;
+
+    boolean equals(BitmapStore other);
+}
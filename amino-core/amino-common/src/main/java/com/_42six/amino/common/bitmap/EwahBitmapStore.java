@@ -0,0 +1,142 @@
+package com._42six.amino.common.bitmap;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * BitmapStore backed by an EWAHCompressedBitmap.  Bits must be set in increasing order.
+ */
+final class EwahBitmapStore implements BitmapStore {
+
+    private EWAHCompressedBitmap bitmap;
+
+    EwahBitmapStore(){
+        this(new EWAHCompressedBitmap());
+    }
+
+    EwahBitmapStore(EWAHCompressedBitmap bitmap){
+        this.bitmap = bitmap;
+    }
+
+    EWAHCompressedBitmap getBitmap(){
+        return bitmap;
+    }
+
+    @Override
+    public BitmapCodec codec() {
+        return BitmapCodec.EWAH;
+    }
+
+    @Override
+    public void set(int bit) {
+        bitmap.set(bit);
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return bitmap.iterator();
+    }
+
+    @Override
+    public int cardinality() {
+        return bitmap.cardinality();
+    }
+
+    @Override
+    public List<Integer> getPositions() {
+        return bitmap.getPositions();
+    }
+
+    @Override
+    public Iterator<Integer> notIterator() {
+        final EWAHCompressedBitmap notBitmap = bitmap.clone();
+        notBitmap.not();
+        return notBitmap.iterator();
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return bitmap.sizeInBytes();
+    }
+
+    @Override
+    public BitmapStore or(BitmapStore other) {
+        return new EwahBitmapStore(bitmap.or(((EwahBitmapStore) other).bitmap));
+    }
+
+    @Override
+    public BitmapStore and(BitmapStore other) {
+        return new EwahBitmapStore(bitmap.and(((EwahBitmapStore) other).bitmap));
+    }
+
+    @Override
+    public int andCardinality(BitmapStore other) {
+        return bitmap.andCardinality(((EwahBitmapStore) other).bitmap);
+    }
+
+    @Override
+    public void optimize() {
+        // EWAH is always run length encoded
+    }
+
+    @Override
+    public void serialize(DataOutput out) throws IOException {
+        bitmap.serialize(out);
+    }
+
+    @Override
+    public void deserialize(DataInput in) throws IOException {
+        bitmap.deserialize(in);
+    }
+
+    /**
+     * Reads a bitmap that was written before codec tags were added.  The first int of those is the EWAH size in bits,
+     * which AminoBitmap has already consumed while looking for a tag.
+     *
+     * @param sizeInBits The first int of the serialized bitmap
+     * @param in The rest of the serialized bitmap
+     */
+    void deserializeLegacy(int sizeInBits, DataInput in) throws IOException {
+        // Replay the int that was already read in front of the rest.  Neither stream reads ahead, so nothing past the
+        // end of the bitmap is taken from in
+        final byte[] first = {(byte) (sizeInBits >>> 24), (byte) (sizeInBits >>> 16), (byte) (sizeInBits >>> 8),
+                (byte) sizeInBits};
+        bitmap.deserialize(new DataInputStream(new SequenceInputStream(new ByteArrayInputStream(first),
+                asInputStream(in))));
+    }
+
+    @Override
+    public boolean equals(BitmapStore other) {
+        return bitmap.equals(((EwahBitmapStore) other).bitmap);
+    }
+
+    /**
+     * @return The DataInput as an InputStream, so that it can be read by a DataInputStream.  Most DataInputs already are
+     * one; the rest are read a byte at a time
+     */
+    private static InputStream asInputStream(final DataInput in){
+        if(in instanceof InputStream){
+            return (InputStream) in;
+        }
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    return in.readUnsignedByte();
+                } catch (EOFException e){
+                    return -1;
+                }
+            }
+        };
+    }
+}
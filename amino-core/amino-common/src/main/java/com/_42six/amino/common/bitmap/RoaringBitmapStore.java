@@ -0,0 +1,115 @@
+package com._42six.amino.common.bitmap;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * BitmapStore backed by a RoaringBitmap.  Unlike EWAH, bits can be set in any order.
+ */
+final class RoaringBitmapStore implements BitmapStore {
+
+    private RoaringBitmap bitmap;
+
+    RoaringBitmapStore(){
+        this(new RoaringBitmap());
+    }
+
+    RoaringBitmapStore(RoaringBitmap bitmap){
+        this.bitmap = bitmap;
+    }
+
+    RoaringBitmap getBitmap(){
+        return bitmap;
+    }
+
+    @Override
+    public BitmapCodec codec() {
+        return BitmapCodec.ROARING;
+    }
+
+    @Override
+    public void set(int bit) {
+        // Roaring would treat negative values as unsigned.  Keep the same contract as EWAH
+        if(bit < 0){
+            throw new IndexOutOfBoundsException("Bit positions must be non-negative: " + bit);
+        }
+        bitmap.add(bit);
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return bitmap.iterator();
+    }
+
+    @Override
+    public int cardinality() {
+        return bitmap.getCardinality();
+    }
+
+    @Override
+    public List<Integer> getPositions() {
+        final List<Integer> positions = new ArrayList<>(bitmap.getCardinality());
+        final IntIterator bits = bitmap.getIntIterator();
+        while(bits.hasNext()){
+            positions.add(bits.next());
+        }
+        return positions;
+    }
+
+    @Override
+    public Iterator<Integer> notIterator() {
+        if(bitmap.isEmpty()){
+            return Collections.<Integer>emptyList().iterator();
+        }
+        final long last = bitmap.getReverseIntIterator().next();
+        return RoaringBitmap.flip(bitmap, 0L, last + 1).iterator();
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return (int) bitmap.getSizeInBytes();
+    }
+
+    @Override
+    public BitmapStore or(BitmapStore other) {
+        return new RoaringBitmapStore(RoaringBitmap.or(bitmap, ((RoaringBitmapStore) other).bitmap));
+    }
+
+    @Override
+    public BitmapStore and(BitmapStore other) {
+        return new RoaringBitmapStore(RoaringBitmap.and(bitmap, ((RoaringBitmapStore) other).bitmap));
+    }
+
+    @Override
+    public int andCardinality(BitmapStore other) {
+        return RoaringBitmap.andCardinality(bitmap, ((RoaringBitmapStore) other).bitmap);
+    }
+
+    @Override
+    public void optimize() {
+        bitmap.runOptimize();
+    }
+
+    @Override
+    public void serialize(DataOutput out) throws IOException {
+        bitmap.serialize(out);
+    }
+
+    @Override
+    public void deserialize(DataInput in) throws IOException {
+        bitmap.deserialize(in);
+    }
+
+    @Override
+    public boolean equals(BitmapStore other) {
+        return bitmap.equals(((RoaringBitmapStore) other).bitmap);
+    }
+}
@@ -0,0 +1,217 @@
+package com._42six.amino.common.bitmap;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Answers bit lookups directly against the serialized form of an AminoBitmap without deserializing it.  For EWAH the
+ * compressed words are walked in place, so once created a reader can be reset and reused for every value without
+ * allocating.  Roaring bitmaps are mapped over the bytes rather than copied.
+ *
+ * Lookups must be made in non-decreasing order of position, and windows read with {@link #orInto} in non-decreasing
+ * order of their start.  Call {@link #rewind()} to start over from the beginning of the same bitmap.
+ *
+ * This class is not thread safe.
+ */
+public final class SerializedBitmapReader {
+
+    private static final int WORD_IN_BITS = 64;
+    private static final int RUNNING_LENGTH_BITS = 32;
+    private static final long LARGEST_RUNNING_LENGTH = (1L << RUNNING_LENGTH_BITS) - 1;
+
+    private byte[] bytes;
+    private BitmapCodec codec;
+
+    // EWAH state
+    private int wordsOffset; // byte offset of the first word
+    private int numWords;
+    private long sizeInBits;
+    private int marker;      // word index of the current running length word
+    private long markerStart; // bit position that the current running length word starts at
+    private long runningLength;
+    private int literalWords;
+    private boolean runningBit;
+
+    // Roaring state
+    private ImmutableRoaringBitmap roaring;
+    private PeekableIntIterator roaringIterator;
+
+    /**
+     * Points the reader at a new serialized bitmap
+     *
+     * @param bytes The serialized bitmap, as written by {@link AminoBitmap#serialize}.  Untagged EWAH bitmaps are
+     *              also accepted
+     */
+    public void reset(byte[] bytes){
+        this.bytes = bytes;
+        final int header = readInt(0);
+        int offset;
+        if((header & AminoBitmap.CODEC_TAG_MASK) == AminoBitmap.CODEC_TAG){
+            codec = BitmapCodec.fromId((byte) header);
+            offset = 4;
+        } else {
+            codec = BitmapCodec.EWAH;
+            offset = 0;
+        }
+
+        if(codec == BitmapCodec.ROARING){
+            roaring = new ImmutableRoaringBitmap(ByteBuffer.wrap(bytes, offset, bytes.length - offset));
+        } else {
+            roaring = null;
+            sizeInBits = readInt(offset) & 0xffffffffL;
+            numWords = readInt(offset + 4);
+            wordsOffset = offset + 8;
+        }
+        rewind();
+    }
+
+    /**
+     * @return The codec of the bitmap currently being read
+     */
+    public BitmapCodec getCodec(){
+        return codec;
+    }
+
+    /**
+     * Moves back to the start of the bitmap so that positions lower than the last lookup can be checked
+     */
+    public void rewind(){
+        if(codec == BitmapCodec.EWAH){
+            marker = 0;
+            markerStart = 0;
+            loadMarker();
+        } else {
+            roaringIterator = roaring.getIntIterator();
+        }
+    }
+
+    /**
+     * @return One more than the largest position that could be set, so that every set bit is below it
+     */
+    public long sizeInBits(){
+        if(roaring != null){
+            return roaring.isEmpty() ? 0 : (roaring.getReverseIntIterator().next() & 0xffffffffL) + 1;
+        }
+        return sizeInBits;
+    }
+
+    /**
+     * ORs the set bits of a window of positions in to an array of words.  The bit for position p is bit
+     * (p - windowStart) % 64 of word (p - windowStart) / 64, so the window covers words.length * 64 positions.
+     * Windows must be read in non-decreasing order of windowStart until {@link #rewind()} is called.
+     *
+     * @param words The words to OR the window in to
+     * @param windowStart The first position of the window.  Must be a multiple of 64
+     */
+    public void orInto(long[] words, long windowStart){
+        if(windowStart % WORD_IN_BITS != 0){
+            throw new IllegalArgumentException("The window must start on a word boundary, not " + windowStart);
+        }
+        final long windowEnd = windowStart + (long) words.length * WORD_IN_BITS;
+
+        if(roaring != null){
+            if(windowStart > Integer.MAX_VALUE){
+                return;
+            }
+            roaringIterator.advanceIfNeeded((int) windowStart);
+            while(roaringIterator.hasNext() && roaringIterator.peekNext() < windowEnd){
+                final long offset = roaringIterator.next() - windowStart;
+                words[(int) (offset / WORD_IN_BITS)] |= 1L << (offset % WORD_IN_BITS);
+            }
+            return;
+        }
+
+        final long firstWord = windowStart / WORD_IN_BITS;
+        final long endWord = windowEnd / WORD_IN_BITS;
+        while(marker < numWords){
+            final long markerWord = markerStart / WORD_IN_BITS;
+            if(markerWord >= endWord){
+                break;
+            }
+
+            // The running length words, which are either all 0's or all 1's
+            if(runningBit){
+                final long from = Math.max(markerWord, firstWord);
+                final long to = Math.min(markerWord + runningLength, endWord);
+                for(long w = from; w < to; w++){
+                    words[(int) (w - firstWord)] = -1L;
+                }
+            }
+
+            // The literal words that follow them
+            final long literalsStart = markerWord + runningLength;
+            final long from = Math.max(literalsStart, firstWord);
+            final long to = Math.min(literalsStart + literalWords, endWord);
+            for(long w = from; w < to; w++){
+                words[(int) (w - firstWord)] |= readLong(wordsOffset + (int) (marker + 1 + w - literalsStart) * 8);
+            }
+
+            // Stay on a running length word that carries on in to the next window
+            if(literalsStart + literalWords > endWord){
+                break;
+            }
+            markerStart += (runningLength + literalWords) * WORD_IN_BITS;
+            marker += 1 + literalWords;
+            loadMarker();
+        }
+    }
+
+    /**
+     * Checks if a bit is set.  Positions must be passed in non-decreasing order until {@link #rewind()} is called
+     *
+     * @param position The bit position to check
+     * @return true if the bit is set
+     */
+    public boolean contains(int position){
+        if(roaring != null){
+            return roaring.contains(position);
+        }
+
+        if(position < 0 || position >= sizeInBits){
+            return false;
+        }
+
+        // Skip forward to the running length word that covers the position
+        while(position >= markerStart + (runningLength + literalWords) * WORD_IN_BITS){
+            markerStart += (runningLength + literalWords) * WORD_IN_BITS;
+            marker += 1 + literalWords;
+            loadMarker();
+            if(marker >= numWords){
+                return false;
+            }
+        }
+
+        final long offsetInMarker = position - markerStart;
+        if(offsetInMarker < runningLength * WORD_IN_BITS){
+            return runningBit;
+        }
+
+        final int literal = (int) (offsetInMarker / WORD_IN_BITS - runningLength);
+        final long word = readLong(wordsOffset + (marker + 1 + literal) * 8);
+        return ((word >>> (offsetInMarker % WORD_IN_BITS)) & 1) != 0;
+    }
+
+    private void loadMarker(){
+        if(marker >= numWords){
+            runningLength = 0;
+            literalWords = 0;
+            runningBit = false;
+            return;
+        }
+        final long rlw = readLong(wordsOffset + marker * 8);
+        runningBit = (rlw & 1) != 0;
+        runningLength = (rlw >>> 1) & LARGEST_RUNNING_LENGTH;
+        literalWords = (int) (rlw >>> (1 + RUNNING_LENGTH_BITS));
+    }
+
+    private int readInt(int offset){
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) |
+                ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    private long readLong(int offset){
+        return ((long) readInt(offset) << 32) | (readInt(offset + 4) & 0xffffffffL);
+    }
+}
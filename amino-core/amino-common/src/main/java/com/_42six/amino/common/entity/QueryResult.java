@@ -29,5 +29,7 @@ public class QueryResult {
 	public String bucketid;
 	public Hypothesis hypothesis_at_runtime;
 	public String error;
+	/** How the query was run, and why */
+	public String query_plan;
 	public List<QueryEntry> result_set;
 }
@@ -0,0 +1,29 @@
+package com._42six.amino.common.entity;
+
+import com.google.gson.Gson;
+
+import java.util.List;
+
+/**
+ * One page of the QueryEntry's of a {@link QueryResult}.  Pass the cursor back to get the next page.  When the cursor
+ * is null there are no more pages.
+ */
+public class QueryResultPage {
+	public String toJson() {
+		Gson gson = new Gson();
+		return gson.toJson(this);
+	}
+
+	public static QueryResultPage fromJson(String json) {
+		Gson gson = new Gson();
+		return gson.fromJson(json, QueryResultPage.class);
+	}
+
+	public String owner;
+	public String id;
+	public Long result_count;
+	public String hypothesisid;
+	public String hypothesisname;
+	public List<QueryEntry> entries;
+	public String cursor;
+}
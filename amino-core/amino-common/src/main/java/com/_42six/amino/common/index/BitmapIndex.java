@@ -104,8 +104,20 @@ public class BitmapIndex {
     public static int getValueIndex(Bucket bucket, int seed)
     {
     	// This is just the bucketValue only, no need for datasource
-        int hashcode = hasher.hash(bucket.getBucketName().toString().getBytes(), seed);
-        hashcode = hasher.hash(TextUtils.getBytes(bucket.getBucketValue()), hashcode);
+        return getValueIndex(bucket.getBucketName().toString(), TextUtils.getBytes(bucket.getBucketValue()), seed);
+    }
+
+    /**
+     * Returns the bitmap position for a given BucketName/BucketValue/seed
+     * @param bucketName The name of the bucket
+     * @param bucketValue The bytes of the bucket value
+     * @param seed The salt that the return value is valid for
+     * @return The index in a bitmap for the given salt
+     */
+    public static int getValueIndex(String bucketName, byte[] bucketValue, int seed)
+    {
+        int hashcode = hasher.hash(bucketName.getBytes(), seed);
+        hashcode = hasher.hash(bucketValue, hashcode);
         return getEwah(hashcode);
     }
 
@@ -0,0 +1,233 @@
+package com._42six.amino.common.index;
+
+import com._42six.amino.common.FeatureFactType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Works out the pre-OR'd bitmaps that the reverse tables hold for the interval features, so that a range of values can
+ * be looked up with a handful of bitmaps instead of one per value.
+ *
+ * The values written by the FeatureFactTranslatorImpl are fixed width and sort in numeric order, so each prefix of a
+ * value names a block of consecutive values.  Dates are 16 hex digits of milliseconds, and prefixes of 6 to 10 digits
+ * are used, so their blocks are 16^10 down to 16^6 ms (about 35 years down to 4.7 hours).  Ratios and intervals are 9
+ * integer digits, a '.', and 8 fraction digits, and prefixes of 4 to 9 digits and of 11 are used, so their blocks are
+ * 100000, 10000, 1000, 100, 10, 1 and 0.1 wide.  The bitmap of a block is stored under the column qualifier
+ * ~LL~prefix, where LL is the length of the prefix.  The '~' sorts after every value, so a range over the values never
+ * picks up a block by mistake, and the blocks of a level are consecutive in the order of their prefixes.
+ *
+ * Values that don't have the fixed width (huge or negative ratios, "max", "min", ...) aren't in any block.  A range
+ * whose ends are like that is looked up over the values only.
+ */
+public final class RangeAggregates {
+
+    /** Starts the column qualifier of every block, and sorts after every value */
+    public static final char AGGREGATE_PREFIX = '~';
+
+    private static final Format DATE_FORMAT = new Format(16, 16, -1, new int[]{6, 7, 8, 9, 10});
+    private static final Format RATIO_FORMAT = new Format(18, 10, 9, new int[]{4, 5, 6, 7, 8, 9, 11});
+
+    private RangeAggregates() { }
+
+    /**
+     * The layout of the text of a feature fact type
+     */
+    private static final class Format {
+        final int width;
+        final int radix;
+        final int pointIndex; // The position of the '.', or -1 if there isn't one
+        final int[] levels; // The prefix lengths of the blocks, from the biggest blocks to the smallest
+        final long[] blockSizes; // The number of values in a block of each level
+
+        Format(int width, int radix, int pointIndex, int[] levels) {
+            this.width = width;
+            this.radix = radix;
+            this.pointIndex = pointIndex;
+            this.levels = levels;
+            this.blockSizes = new long[levels.length];
+            for (int i = 0; i < levels.length; i++) {
+                long size = 1;
+                for (int position = levels[i]; position < width; position++) {
+                    if (position != pointIndex) {
+                        size *= radix;
+                    }
+                }
+                blockSizes[i] = size;
+            }
+        }
+
+        /**
+         * @return The position of the value among all of the fixed width values, or -1 if it isn't fixed width
+         */
+        long rank(String value) {
+            if (value == null || value.length() != width) {
+                return -1;
+            }
+            long rank = 0;
+            for (int position = 0; position < width; position++) {
+                final char c = value.charAt(position);
+                if (position == pointIndex) {
+                    if (c != '.') {
+                        return -1;
+                    }
+                    continue;
+                }
+                // Only upper case, since that's what the translator writes
+                final int digit = (c >= 'a') ? -1 : Character.digit(c, radix);
+                if (digit < 0 || (radix == 16 && position == 0 && digit > 7)) {
+                    // A leading hex digit of 8 or more would overflow the rank.  Those dates are in the year 2500000+
+                    return -1;
+                }
+                rank = rank * radix + digit;
+            }
+            return rank;
+        }
+
+        String value(long rank) {
+            final char[] chars = new char[width];
+            for (int position = width - 1; position >= 0; position--) {
+                if (position == pointIndex) {
+                    chars[position] = '.';
+                } else {
+                    chars[position] = Character.toUpperCase(Character.forDigit((int) (rank % radix), radix));
+                    rank /= radix;
+                }
+            }
+            return new String(chars);
+        }
+
+        String aggregate(int level, long block) {
+            return aggregate(levels[level], value(block * blockSizes[level]));
+        }
+
+        /**
+         * @return The number of the block that a column qualifier from {@link #aggregate(int, long)} names, among the
+         * blocks of its level
+         */
+        long block(String aggregate) {
+            final int prefixLength = Integer.parseInt(aggregate.substring(1, 3));
+            for (int level = 0; level < levels.length; level++) {
+                if (levels[level] == prefixLength) {
+                    return rank(aggregate.substring(4) + value(0).substring(prefixLength)) / blockSizes[level];
+                }
+            }
+            throw new IllegalArgumentException("Not the column qualifier of a block: " + aggregate);
+        }
+
+        static String aggregate(int prefixLength, String value) {
+            return String.format("%c%02d%c%s", AGGREGATE_PREFIX, prefixLength, AGGREGATE_PREFIX,
+                    value.substring(0, prefixLength));
+        }
+    }
+
+    private static Format formatOf(FeatureFactType type) {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case DATE:
+            case DATEHOUR:
+                return DATE_FORMAT;
+            case RATIO:
+            case INTERVAL:
+                return RATIO_FORMAT;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return true if the values of the type are pre-OR'd in to blocks
+     */
+    public static boolean hasAggregates(FeatureFactType type) {
+        return formatOf(type) != null;
+    }
+
+    /**
+     * @return true if the value is in blocks, meaning that a range starting or ending with it can use the blocks
+     */
+    public static boolean isAggregated(FeatureFactType type, String value) {
+        final Format format = formatOf(type);
+        return format != null && format.rank(value) >= 0;
+    }
+
+    /**
+     * @param type The type of the feature
+     * @param value The text of the feature fact, as written by the FeatureFactTranslatorImpl
+     * @return The column qualifiers of the blocks that the value is in, from the biggest block to the smallest.  Empty
+     * if the value isn't in any
+     */
+    public static List<String> aggregatesFor(FeatureFactType type, String value) {
+        final Format format = formatOf(type);
+        if (format == null || format.rank(value) < 0) {
+            return Collections.emptyList();
+        }
+        final List<String> aggregates = new ArrayList<>(format.levels.length);
+        for (int level : format.levels) {
+            aggregates.add(Format.aggregate(level, value));
+        }
+        return aggregates;
+    }
+
+    /**
+     * Covers a range of values with as few column qualifiers as it can.  Each level of blocks adds at most two runs of
+     * blocks, so the range is covered by a few ranges of column qualifiers no matter how many values it spans.  Below
+     * the biggest level, each run holds fewer than radix blocks.
+     *
+     * @param type The type of the feature
+     * @param from The first value in the range, as written by the FeatureFactTranslatorImpl
+     * @param to The last value in the range
+     * @return Pairs of the first and last column qualifiers, inclusive, whose bitmaps OR'd together are the bitmap of
+     * the range.  Empty if the range is empty
+     */
+    public static List<String[]> cover(FeatureFactType type, String from, String to) {
+        final List<String[]> pieces = new ArrayList<>();
+        if (from.compareTo(to) > 0) {
+            return pieces;
+        }
+        final Format format = formatOf(type);
+        final long first = (format != null) ? format.rank(from) : -1;
+        final long last = (format != null) ? format.rank(to) : -1;
+        if (first < 0 || last < 0) {
+            pieces.add(new String[]{from, to});
+        } else {
+            cover(format, first, last, 0, pieces);
+        }
+        return pieces;
+    }
+
+    /**
+     * @param type The type of the feature
+     * @param piece One of the pieces returned by {@link #cover(FeatureFactType, String, String)}
+     * @return The number of blocks in the piece, or -1 if the piece is a range of the values themselves
+     */
+    public static long countBlocks(FeatureFactType type, String[] piece) {
+        final Format format = formatOf(type);
+        if (format == null || piece[0].isEmpty() || piece[0].charAt(0) != AGGREGATE_PREFIX) {
+            return -1;
+        }
+        return format.block(piece[1]) - format.block(piece[0]) + 1;
+    }
+
+    private static void cover(Format format, long first, long last, int level, List<String[]> pieces) {
+        for (; level < format.levels.length; level++) {
+            final long size = format.blockSizes[level];
+            final long firstBlock = (first + size - 1) / size;
+            final long lastBlock = (last + 1) / size - 1;
+            if (firstBlock <= lastBlock) {
+                // The ends are smaller than a block of this level, so only the smaller blocks can cover them
+                if (first < firstBlock * size) {
+                    cover(format, first, firstBlock * size - 1, level + 1, pieces);
+                }
+                pieces.add(new String[]{format.aggregate(level, firstBlock), format.aggregate(level, lastBlock)});
+                if ((lastBlock + 1) * size <= last) {
+                    cover(format, (lastBlock + 1) * size, last, level + 1, pieces);
+                }
+                return;
+            }
+        }
+        pieces.add(new String[]{format.value(first), format.value(last)});
+    }
+}
@@ -1,22 +1,38 @@
 package com._42six.amino.common.service.datacache;
 
+import com._42six.amino.common.AminoConfiguration;
 import com._42six.amino.common.Bucket;
 import com._42six.amino.common.BucketStripped;
 import com._42six.amino.common.index.BitmapIndex;
 import com._42six.amino.common.util.PathUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
+/**
+ * The Buckets of the framework jobs, keyed by their cache index.
+ *
+ * Along with the MapFile of the Buckets, {@link #writeToDisk} writes a {@link MappedBucketFile}.  When
+ * {@link AminoConfiguration#MAPPED_BUCKET_CACHE} is set, the tasks memory map those files instead of loading every
+ * Bucket on to the heap.  The files in the DistributedCache are mapped where they were localized, so all of the tasks
+ * on a node share one copy.  Caches written before there were mapped files are still loaded from the MapFiles.
+ */
 public class BucketCache {
-	
+
+	private static final Logger logger = LoggerFactory.getLogger(BucketCache.class);
+
 	private Map<IntWritable, Bucket> bucketCache;
+	private final List<MappedBucketFile> mappedFiles = new ArrayList<>();
 	public static final String BUCKET_CACHE_FOLDER = "/buckets";
 	private static final Text MAPWRITABLE_BUCKET_KEY = new Text("bk");
 	
@@ -26,8 +42,17 @@ public class BucketCache {
 	
 	public BucketCache(Configuration conf) throws IOException {
 		bucketCache = new HashMap<>();
-		
+		final boolean mapped = conf.getBoolean(AminoConfiguration.MAPPED_BUCKET_CACHE, true);
+
 		for (String cachePath : PathUtils.getCachePaths(conf)) {
+			if (mapped) {
+				final File mappedFile = LocalCacheFiles.find(conf, new Path(cachePath, MappedBucketFile.FILE_NAME));
+				if (mappedFile != null) {
+					mappedFiles.add(MappedBucketFile.open(mappedFile));
+					continue;
+				}
+			}
+
 			String bucketCachePath = cachePath + BUCKET_CACHE_FOLDER;
             MapFile.Reader reader = new MapFile.Reader(new Path(bucketCachePath), conf);
 			IntWritable key = new IntWritable();
@@ -35,14 +60,12 @@ public class BucketCache {
 			while (reader.next(key, value)) {
 				bucketCache.put(new IntWritable(key.get()), new Bucket(value));
 			}
+			reader.close();
 		}
-		
-		for (IntWritable i : bucketCache.keySet()) {
-			System.out.println("Loaded bucket from cache:" + i.get() + ":" + bucketCache.get(i));
-		}
-		
+
+		logger.info("Loaded " + bucketCache.size() + " buckets from the cache, and mapped " + mappedFiles.size() + " bucket files");
 	}
-	
+
 	public void addBucket(Bucket bucket) {
 		int index = BitmapIndex.getBucketCacheIndex(bucket);
 		bucketCache.put(new IntWritable(index), bucket);
@@ -51,6 +74,7 @@ public class BucketCache {
 	@SuppressWarnings("unchecked")
 	public void writeToDisk(Configuration conf, boolean writeToDistributedCache) throws IOException {
 		String bucketCachePath = PathUtils.getCachePath(conf) + BUCKET_CACHE_FOLDER;
+		final Path mappedFilePath = new Path(PathUtils.getCachePath(conf), MappedBucketFile.FILE_NAME);
 
 		FileSystem fs = FileSystem.get(conf);
 		MapFile.Writer writer = null; 
@@ -77,6 +101,14 @@ public class BucketCache {
 				IOUtils.closeStream(writer);
 			}
 		}
+
+		final Map<Integer, Bucket> buckets = new HashMap<>();
+		for (Map.Entry<IntWritable, Bucket> entry : bucketCache.entrySet()) {
+			buckets.put(entry.getKey().get(), entry.getValue());
+		}
+		try (FSDataOutputStream out = fs.create(mappedFilePath, true)) {
+			MappedBucketFile.write(buckets, out);
+		}
 		
 		if (writeToDistributedCache) {
 			for (FileStatus status : fs.listStatus(new Path(bucketCachePath))) {
@@ -84,19 +116,46 @@ public class BucketCache {
 					DistributedCache.addCacheFile(status.getPath().toUri(), conf);
 				}
 			}
+			DistributedCache.addCacheFile(fs.makeQualified(mappedFilePath).toUri(), conf);
 		}
 	}
+
+	/**
+	 * @return The Bucket with the cache index, or null if it isn't in the cache.  Buckets from the mapped files are new
+	 * copies
+	 */
+	private Bucket lookup(IntWritable cacheIndex) throws IOException {
+		final Bucket bucket = bucketCache.get(cacheIndex);
+		if (bucket != null) {
+			return bucket;
+		}
+		for (MappedBucketFile mappedFile : mappedFiles) {
+			final Bucket mappedBucket = mappedFile.get(cacheIndex.get());
+			if (mappedBucket != null) {
+				return mappedBucket;
+			}
+		}
+		return null;
+	}
 	
 	public Bucket getBucket(BucketStripped bucketStripped) throws IOException {
-		Bucket bucket = new Bucket(bucketCache.get(bucketStripped.getCacheHash()));
+		final Bucket cached = lookup(bucketStripped.getCacheHash());
+		if (cached == null) {
+			throw new IOException("Bucket " + bucketStripped.getCacheHash() + " is not in the cache");
+		}
+		Bucket bucket = new Bucket(cached);
 		bucket.setBucketValue(new Text(bucketStripped.getBucketValue()));
 		bucket.computeHash();
 		return bucket;
 	}
 	
 	public Text getBucketName(BucketStripped bucketStripped) {
-		Bucket bucket = bucketCache.get(bucketStripped.getCacheHash());
-		return bucket.getBucketName();
+		try {
+			final Bucket bucket = lookup(bucketStripped.getCacheHash());
+			return (bucket != null) ? bucket.getBucketName() : null;
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read bucket " + bucketStripped.getCacheHash() + " from the cache", e);
+		}
 	}
 
 	public MapWritable toMapWritableKey() {
@@ -106,6 +165,11 @@ public class BucketCache {
 		for (IntWritable key : bucketCache.keySet()) {
 			bucketMap.put(key, bucketCache.get(key));
 		}
+		for (MappedBucketFile mappedFile : mappedFiles) {
+			for (Bucket bucket : mappedFile) {
+				bucketMap.put(new IntWritable(BitmapIndex.getBucketCacheIndex(bucket)), bucket);
+			}
+		}
 		mw.put(MAPWRITABLE_BUCKET_KEY, bucketMap);		
 		
 		return mw;
@@ -0,0 +1,63 @@
+package com._42six.amino.common.service.datacache;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds local copies of the cache files, so that they can be memory mapped
+ */
+final class LocalCacheFiles {
+
+    // The files that have already been copied by this JVM, so that each is only copied once
+    private static final Map<Path, File> copies = new HashMap<>();
+
+    private LocalCacheFiles() {
+        // Static methods only
+    }
+
+    /**
+     * Finds a local copy of a file.  If it was put in the DistributedCache the localized file is used, so that every
+     * task on the node shares it.  Otherwise it is copied to the local temp directory, once per JVM.
+     *
+     * @param path The file in the FileSystem
+     * @return The local file, or null if the file doesn't exist
+     */
+    static File find(Configuration conf, Path path) throws IOException {
+        final Path[] localFiles = DistributedCache.getLocalCacheFiles(conf);
+        if (localFiles != null) {
+            // The localized files keep the path that they had in the FileSystem
+            final String fsPath = path.toUri().getPath();
+            for (Path localFile : localFiles) {
+                if (localFile.toUri().getPath().endsWith(fsPath)) {
+                    return new File(localFile.toUri().getPath());
+                }
+            }
+        }
+
+        synchronized (copies) {
+            final File copy = copies.get(path);
+            if (copy != null && copy.exists()) {
+                return copy;
+            }
+        }
+
+        final FileSystem fs = path.getFileSystem(conf);
+        if (!fs.exists(path)) {
+            return null;
+        }
+        final File localFile = File.createTempFile("amino-cache", "." + path.getName());
+        localFile.deleteOnExit();
+        fs.copyToLocalFile(path, new Path(localFile.getAbsolutePath()));
+        synchronized (copies) {
+            copies.put(path, localFile);
+        }
+        return localFile;
+    }
+}
@@ -0,0 +1,215 @@
+package com._42six.amino.common.service.datacache;
+
+import com._42six.amino.common.Bucket;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable file of Buckets, keyed by their cache index, that is read through a memory map.  Nothing is loaded on to
+ * the heap when it is opened, and every task on a node that maps the same file shares its pages through the OS page
+ * cache.
+ *
+ * The file is laid out as:
+ *  int         magic number
+ *  int         version
+ *  int         number of slots, a power of two
+ *  int         number of buckets
+ *  (int, int)  cache index and record offset of each slot, with an offset of 0 for an empty slot
+ *  records     int length followed by the serialized Bucket
+ *
+ * Lookups hash the cache index into the slots and probe linearly until the index or an empty slot is found.
+ */
+public class MappedBucketFile implements Iterable<Bucket> {
+
+    public static final String FILE_NAME = "buckets.mapped";
+
+    private static final int MAGIC = 0x414d4243; // AMBC
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 8;
+
+    private final ByteBuffer buffer;
+    private final int slotMask;
+    private final int size;
+
+    private MappedBucketFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapped bucket file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported mapped bucket file version " + buffer.getInt(4));
+        }
+        final int slots = buffer.getInt(8);
+        if (Integer.bitCount(slots) != 1) {
+            throw new IOException("Corrupt mapped bucket file, " + slots + " slots is not a power of two");
+        }
+        this.slotMask = slots - 1;
+        this.size = buffer.getInt(12);
+    }
+
+    /**
+     * Maps a file into memory.  The mapping stays valid after the file is closed, until it is garbage collected.
+     */
+    public static MappedBucketFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Mapped bucket file " + file + " is too large to map");
+            }
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedBucketFile(mapped);
+        }
+    }
+
+    /**
+     * Writes out Buckets in the format that {@link #open} reads
+     *
+     * @param buckets The Buckets, keyed by their cache index
+     * @param out     Where to write them.  It is not closed
+     */
+    public static void write(Map<Integer, Bucket> buckets, OutputStream out) throws IOException {
+        int slots = 1;
+        while (slots < buckets.size() * 2) {
+            slots <<= 1;
+        }
+        final int mask = slots - 1;
+
+        // Lay out the records first so that the slots can point at them
+        final int[] slotKeys = new int[slots];
+        final int[] slotOffsets = new int[slots];
+        final DataOutputBuffer records = new DataOutputBuffer();
+        final DataOutputBuffer record = new DataOutputBuffer();
+        final long recordsStart = HEADER_SIZE + (long) slots * SLOT_SIZE;
+        for (Map.Entry<Integer, Bucket> entry : buckets.entrySet()) {
+            final long offset = recordsStart + records.getLength();
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Too many buckets to write to a mapped bucket file");
+            }
+            record.reset();
+            entry.getValue().write(record);
+            records.writeInt(record.getLength());
+            records.write(record.getData(), 0, record.getLength());
+
+            int slot = mix(entry.getKey()) & mask;
+            while (slotOffsets[slot] != 0) {
+                if (slotKeys[slot] == entry.getKey()) {
+                    throw new IOException("Duplicate bucket cache index " + entry.getKey());
+                }
+                slot = (slot + 1) & mask;
+            }
+            slotKeys[slot] = entry.getKey();
+            slotOffsets[slot] = (int) offset;
+        }
+
+        final DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+        dataOut.writeInt(MAGIC);
+        dataOut.writeInt(VERSION);
+        dataOut.writeInt(slots);
+        dataOut.writeInt(buckets.size());
+        for (int slot = 0; slot < slots; slot++) {
+            dataOut.writeInt(slotKeys[slot]);
+            dataOut.writeInt(slotOffsets[slot]);
+        }
+        dataOut.write(records.getData(), 0, records.getLength());
+        dataOut.flush();
+    }
+
+    /**
+     * @param cacheIndex The cache index of the Bucket
+     * @return A new copy of the Bucket, or null if it isn't in the file
+     */
+    public Bucket get(int cacheIndex) throws IOException {
+        int slot = mix(cacheIndex) & slotMask;
+        while (true) {
+            final int position = HEADER_SIZE + slot * SLOT_SIZE;
+            final int offset = buffer.getInt(position + 4);
+            if (offset == 0) {
+                return null;
+            }
+            if (buffer.getInt(position) == cacheIndex) {
+                return readBucket(offset);
+            }
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    /**
+     * @return The number of Buckets in the file
+     */
+    public int size() {
+        return size;
+    }
+
+    private Bucket readBucket(int offset) throws IOException {
+        final byte[] bytes = new byte[buffer.getInt(offset)];
+        // Read from a duplicate so that the position of the shared buffer is never touched
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset + 4);
+        view.get(bytes);
+
+        final DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        final Bucket bucket = new Bucket();
+        bucket.readFields(in);
+        return bucket;
+    }
+
+    /**
+     * Iterates over a copy of every Bucket in the file, in no particular order
+     */
+    @Override
+    public Iterator<Bucket> iterator() {
+        return new Iterator<Bucket>() {
+            private int slot = nextSlot(0);
+
+            private int nextSlot(int from) {
+                for (int s = from; s <= slotMask; s++) {
+                    if (buffer.getInt(HEADER_SIZE + s * SLOT_SIZE + 4) != 0) {
+                        return s;
+                    }
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot >= 0;
+            }
+
+            @Override
+            public Bucket next() {
+                if (slot < 0) {
+                    throw new NoSuchElementException();
+                }
+                final int offset = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4);
+                slot = nextSlot(slot + 1);
+                try {
+                    return readBucket(offset);
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to read bucket from the mapped file", e);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Spreads the cache index over the slots, since the low bits of the indexes may not be well distributed
+     */
+    private static int mix(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
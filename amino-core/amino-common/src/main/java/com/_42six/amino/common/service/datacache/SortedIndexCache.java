@@ -1,15 +1,14 @@
 package com._42six.amino.common.service.datacache;
 
+import com._42six.amino.common.AminoConfiguration;
 import com._42six.amino.common.util.PathUtils;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableMap;
-import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.CuratorFrameworkFactory;
-import org.apache.curator.framework.recipes.shared.SharedCount;
-import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.VIntWritable;
@@ -25,16 +24,32 @@ import java.util.*;
  * and at the same time allows the the sorters to work properly by sorting the indexes based on how the underlying value
  * would have been lexicographically sorted.
  *
- * NOTE!
- * Serializing the cache to HDFS is not thread safe.  You must do this as a singleton operation or you will get incorrect results
+ * Each time the cache is persisted the values are written to new, immutable segments in the job's cache folder.  A
+ * segment is a {@link SortedStringDictionary} that owns its own range of {@link #SEGMENT_SIZE} indexes, which is
+ * claimed by atomically creating a file named for the segment number under
+ * {@link AminoConfiguration#CACHE_SEGMENT_REGISTRY}.  Jobs never wait on each other to persist, and since the ranges
+ * don't overlap the caches of any jobs can be loaded together.  The segments are memory mapped when loaded.
+ *
+ * Caches written before there were segments hold their values in a MapFile, with indexes below
+ * {@link #FIRST_SEGMENT_INDEX}, and are still loaded.  A MapFile with a larger index fails to load, since its value
+ * would be looked for in the segments.
  */
 public class SortedIndexCache  {
 
     private static final Logger logger = LoggerFactory.getLogger(SortedIndexCache.class);
-    private static final String LOCK_PATH = "/ezbatch/amino/LUTLock";
 
-    /** The map indexed map of values */
-    protected ImmutableMap<VIntWritable, String> dataMap; // TODO - This should either be a bimap or indexed backwards
+    /** The number of indexes in the range of each segment */
+    public static final int SEGMENT_SIZE = 1 << 10;
+    /** The first index of the segments.  The indexes below are from caches written before there were segments */
+    public static final int FIRST_SEGMENT_INDEX = 1 << 20;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String DEFAULT_SEGMENT_REGISTRY = "/amino/cacheSegments";
+
+    /** The segments that were loaded, by segment number */
+    protected Map<Integer, SortedStringDictionary> segments = new HashMap<>();
+    /** The values from caches written before there were segments, or null if there weren't any */
+    protected SortedStringDictionary legacyValues;
     protected SortedSet<String> valuesToStore = new TreeSet<>(); // TODO This probably doesn't need to be sorted anymore
     protected String subFolder;
     protected Configuration conf;
@@ -52,79 +67,121 @@ public class SortedIndexCache  {
     }
 
     public void loadFromStorage() throws IOException {
-        final HashMap<VIntWritable, String> mapFromDisk = new HashMap<>();
+        final Map<Integer, SortedStringDictionary> segmentsFromDisk = new HashMap<>();
+        final HashMap<Integer, String> mapFromDisk = new HashMap<>();
         final VIntWritable key = new VIntWritable();
         final Text value = new Text();
 
         final FileSystem fs = FileSystem.get(conf);
         for(String cachePath : PathUtils.getCachePaths(conf)) {
             final Path cacheFolder = new Path(PathUtils.concat(cachePath, subFolder));
-            if(fs.exists(cacheFolder)){
+            if(!fs.exists(cacheFolder)){
+                fs.mkdirs(cacheFolder);
+                continue;
+            }
+
+            for(FileStatus status : fs.listStatus(cacheFolder, new SegmentFilter())){
+                final int segment = Integer.parseInt(status.getPath().getName().substring(SEGMENT_PREFIX.length()));
+                if(segmentsFromDisk.containsKey(segment)){
+                    logger.error("Index collision.  Segment {} was found more than once, the second time in {}", segment, cacheFolder);
+                    throw new IOException("Index collision");
+                }
+                segmentsFromDisk.put(segment, SortedStringDictionary.open(LocalCacheFiles.find(conf, status.getPath())));
+            }
+
+            if(fs.exists(new Path(cacheFolder, MapFile.DATA_FILE_NAME))){
                 try(MapFile.Reader reader = new MapFile.Reader(cacheFolder, conf)){
-//                try(MapFile.Reader reader = new MapFile.Reader(FileSystem.get(conf), cacheFolder, conf)) {
                     while(reader.next(key, value)){
-                        final VIntWritable mfdKey = new VIntWritable(key.get());
-                        if(mapFromDisk.containsKey(mfdKey)){
+                        if(key.get() < 0 || key.get() >= FIRST_SEGMENT_INDEX){
+                            // It would be looked up in the segments instead, so its value could never be found
+                            logger.error("Index {}:{} in {} is outside of the legacy indexes, which must be from 0 to {}",
+                                    key.toString(), value.toString(), cacheFolder, FIRST_SEGMENT_INDEX - 1);
+                            throw new IOException("Legacy index " + key.get() + " in " + cacheFolder +
+                                    " overlaps the segment indexes, which start at " + FIRST_SEGMENT_INDEX);
+                        }
+                        if(mapFromDisk.containsKey(key.get())){
                             logger.error("Index collision.  Attempting to load {}:{} but there is already the value {}:{}",
-                                    key.toString(), value.toString(), key.toString(), mapFromDisk.get(mfdKey));
+                                    key.toString(), value.toString(), key.toString(), mapFromDisk.get(key.get()));
                             throw new IOException("Index collision");
                         }
-                        mapFromDisk.put(mfdKey, value.toString());
+                        mapFromDisk.put(key.get(), value.toString());
                     }
                 }
-            } else {
-                fs.mkdirs(cacheFolder);
             }
         }
 
         // We don't want the user to be able to change the map as it will change the order of items causing things pointing
         // to this cache to be invalid
-        dataMap = ImmutableMap.copyOf(mapFromDisk);
+        segments = Collections.unmodifiableMap(segmentsFromDisk);
+        legacyValues = mapFromDisk.isEmpty() ? null : SortedStringDictionary.build(mapFromDisk);
+    }
+
+    /**
+     * Claims the next free segment number, by creating a file for it in the registry.  Creating a file that already
+     * exists fails, so only one writer can claim each number.
+     *
+     * @return The claimed segment number
+     */
+    private int claimSegment(FileSystem fs, Path registry) throws IOException {
+        fs.mkdirs(registry);
+        int segment = 0;
+        for(FileStatus status : fs.listStatus(registry)){
+            try {
+                segment = Math.max(segment, Integer.parseInt(status.getPath().getName()) + 1);
+            } catch (NumberFormatException e) {
+                // Not a segment claim
+            }
+        }
+
+        while(true){
+            if(segment > (Integer.MAX_VALUE - FIRST_SEGMENT_INDEX) / SEGMENT_SIZE - 1){
+                throw new IOException("There are no more segments left in " + registry);
+            }
+            final Path claim = new Path(registry, Integer.toString(segment));
+            try {
+                fs.create(claim, false).close();
+                return segment;
+            } catch (IOException e) {
+                if(!fs.exists(claim)){
+                    throw e;
+                }
+                // Someone else claimed it first, so try the next one
+                segment++;
+            }
+        }
     }
 
     /**
-     * Fetches a unique index key from Zookeeper to help deconflict when we combine caches from different jobs together
-     * @return The unique index key
+     * @return The first index in the range of a segment
      */
-    private int fetchUniqueKey(SharedCount counter) throws Exception {
-        int retVal;
-        int newCount;
-        boolean updated;
-        do{
-            retVal = counter.getCount();
-            newCount = retVal + 1;
-            updated = counter.trySetCount(newCount);
-        } while(!updated);
-        return retVal;
+    private static int firstIndex(int segment) {
+        return FIRST_SEGMENT_INDEX + segment * SEGMENT_SIZE;
     }
 
     /**
-     * Serialize the values out to HDFS.  This will fetch unique IDs from the global cache index to assure combining
-     * cache lookups won't be messed up
+     * Serialize the values out to HDFS.  The values are written to as many new segments as it takes to hold them, each
+     * with a range of indexes that no other segment uses.
      */
     public void persist() throws Exception {
         final String cachePath = PathUtils.concat(PathUtils.getCachePath(conf), subFolder);
         logger.info("Writing cache data to: " + cachePath);
-        final String connectString = conf.get("dataloader.zookeepers"); // TODO UNDO MAGIC STRING
-        Preconditions.checkNotNull(connectString, "Could not find Zookeepers in the config");
-        final CuratorFramework client = CuratorFrameworkFactory.newClient(connectString, new ExponentialBackoffRetry(1000, 3));
-        client.start();
-        final SharedCount counter = new SharedCount(client, LOCK_PATH, 0);
-
-        try(MapFile.Writer writer = new MapFile.Writer(conf, new Path(PathUtils.getCachePath(conf) + subFolder),
-                MapFile.Writer.keyClass(VIntWritable.class), MapFile.Writer.valueClass(Text.class))){
-            counter.start();
-            final Text value = new Text();
-            final VIntWritable key = new VIntWritable();
-            for(String v : valuesToStore){
-                key.set(fetchUniqueKey(counter));
-                value.set(v);
-                logger.debug("Storing {} : {}", key, value);
-                writer.append(key, value);
+        final FileSystem fs = FileSystem.get(conf);
+        final Path registry = new Path(PathUtils.concat(
+                conf.get(AminoConfiguration.CACHE_SEGMENT_REGISTRY, DEFAULT_SEGMENT_REGISTRY), subFolder));
+
+        final Iterator<String> values = valuesToStore.iterator();
+        while(values.hasNext()){
+            final int segment = claimSegment(fs, registry);
+            final Map<Integer, String> segmentValues = new HashMap<>();
+            for(int index = firstIndex(segment); segmentValues.size() < SEGMENT_SIZE && values.hasNext(); index++){
+                final String value = values.next();
+                logger.debug("Storing {} : {}", index, value);
+                segmentValues.put(index, value);
+            }
+
+            try(FSDataOutputStream out = fs.create(new Path(cachePath, SEGMENT_PREFIX + segment), false)){
+                SortedStringDictionary.write(segmentValues, out);
             }
-        } finally {
-            counter.close();
-            client.close();
         }
     }
 
@@ -139,16 +196,21 @@ public class SortedIndexCache  {
     /**
      * Returns the index for the given value
      * @param value The value to look up
-     * @return The cache index for this value, null if it was not found
+     * @return The cache index for this value, null if it was not found.  If more than one index has the value, the
+     * smallest of them
      */
     public VIntWritable getIndexForValue(String value){
-        for(Map.Entry<VIntWritable, String> entry : dataMap.entrySet()){
-            if(entry.getValue().compareTo(value) == 0){
-                // TODO - Make it so that users don't accidentally modify the key
-                return entry.getKey();
+        int found = (legacyValues != null) ? legacyValues.getIndex(value) : -1;
+        if(found < 0){
+            // Every segment index is larger than the legacy ones
+            for(SortedStringDictionary segment : segments.values()){
+                final int index = segment.getIndex(value);
+                if(index >= 0 && (found < 0 || index < found)){
+                    found = index;
+                }
             }
         }
-        return null;
+        return (found >= 0) ? new VIntWritable(found) : null;
     }
 
     /**
@@ -166,13 +228,23 @@ public class SortedIndexCache  {
      * @return The value associated with the key, or null if the key is not in the map
      */
     public String getItem(VIntWritable key){
-        // Strings are immutable so we can just return the
-        return dataMap.get(key);
+        final int index = key.get();
+        if(index < FIRST_SEGMENT_INDEX){
+            return (legacyValues != null) ? legacyValues.getValue(index) : null;
+        }
+        final SortedStringDictionary segment = segments.get((index - FIRST_SEGMENT_INDEX) / SEGMENT_SIZE);
+        return (segment != null) ? segment.getValue(index) : null;
     }
 
     @Override
     public String toString(){
-        return dataMap.toString();
+        return "SortedIndexCache[legacy=" + legacyValues + ", segments=" + segments + "]";
     }
 
+    private static class SegmentFilter implements PathFilter {
+        @Override
+        public boolean accept(Path path) {
+            return path.getName().startsWith(SEGMENT_PREFIX);
+        }
+    }
 }
@@ -0,0 +1,342 @@
+package com._42six.amino.common.service.datacache;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * An immutable, two way lookup between Strings and their int indexes.  The Strings are sorted by their UTF-8 bytes and
+ * front coded in blocks, so that a value is found with a binary search over the first String of each block followed by
+ * a scan of one block.  An index is found with a binary search over the sorted indexes.
+ *
+ * The dictionary is read straight out of a ByteBuffer, which is either built in memory or memory mapped from a file,
+ * laid out as:
+ *  int         magic number
+ *  int         version
+ *  int         number of values
+ *  int         number of values in each block
+ *  int         number of blocks
+ *  int[]       the indexes, sorted
+ *  int[]       the sorted position of the value of each of the sorted indexes
+ *  int[]       the index of the value at each sorted position
+ *  int[]       offset of each block from the start of the blocks
+ *  blocks      the first value as a VInt length and its bytes, then for each of the others a VInt of the bytes it shares
+ *              with the value before, a VInt length of the rest and the rest of its bytes
+ *
+ * Indexes can't be negative, but more than one index can have the same value.
+ */
+public class SortedStringDictionary {
+
+    private static final int MAGIC = 0x414d5344; // AMSD
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int DEFAULT_BLOCK_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int blockSize;
+    private final int numBlocks;
+    private final int sortedIndexesStart;
+    private final int positionsStart;
+    private final int indexesStart;
+    private final int blockOffsetsStart;
+    private final int blocksStart;
+
+    private SortedStringDictionary(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a sorted string dictionary");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported sorted string dictionary version " + buffer.getInt(4));
+        }
+        size = buffer.getInt(8);
+        blockSize = buffer.getInt(12);
+        numBlocks = buffer.getInt(16);
+        sortedIndexesStart = HEADER_SIZE;
+        positionsStart = sortedIndexesStart + size * 4;
+        indexesStart = positionsStart + size * 4;
+        blockOffsetsStart = indexesStart + size * 4;
+        blocksStart = blockOffsetsStart + numBlocks * 4;
+    }
+
+    /**
+     * Builds a dictionary in memory
+     *
+     * @param values The values, keyed by their index
+     */
+    public static SortedStringDictionary build(Map<Integer, String> values) {
+        final DataOutputBuffer out = new DataOutputBuffer();
+        try {
+            write(values, out, DEFAULT_BLOCK_SIZE);
+            return new SortedStringDictionary(ByteBuffer.wrap(out.getData(), 0, out.getLength()).slice());
+        } catch (IOException e) {
+            // Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Maps a dictionary file into memory.  The mapping stays valid after the file is closed, until it is garbage
+     * collected.
+     */
+    public static SortedStringDictionary open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Dictionary " + file + " is too large to map");
+            }
+            return new SortedStringDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes out a dictionary in the format that {@link #open} reads
+     *
+     * @param values The values, keyed by their index
+     * @param out    Where to write the dictionary.  It is not closed
+     */
+    public static void write(Map<Integer, String> values, OutputStream out) throws IOException {
+        final DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+        write(values, dataOut, DEFAULT_BLOCK_SIZE);
+        dataOut.flush();
+    }
+
+    private static void write(Map<Integer, String> values, DataOutput out, int blockSize) throws IOException {
+        final int size = values.size();
+        final int[] indexes = new int[size];
+        final byte[][] bytes = new byte[size][];
+        final Integer[] order = new Integer[size];
+        int i = 0;
+        for (Map.Entry<Integer, String> entry : values.entrySet()) {
+            if (entry.getKey() < 0) {
+                throw new IllegalArgumentException("Negative index " + entry.getKey() + " for " + entry.getValue());
+            }
+            indexes[i] = entry.getKey();
+            bytes[i] = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            order[i] = i;
+            i++;
+        }
+
+        // order[position] is the entry with the position'th smallest value
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                // Equal values, from caches that were merged, are ordered by index
+                final int comparison = compareBytes(bytes[a], bytes[b], bytes[a].length);
+                return (comparison != 0) ? comparison : Integer.compare(indexes[a], indexes[b]);
+            }
+        });
+        final int[] positionOfEntry = new int[size];
+        for (int position = 0; position < size; position++) {
+            positionOfEntry[order[position]] = position;
+        }
+
+        // byIndex[n] is the entry with the n'th smallest index
+        final Integer[] byIndex = new Integer[size];
+        for (int n = 0; n < size; n++) {
+            byIndex[n] = n;
+        }
+        Arrays.sort(byIndex, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(indexes[a], indexes[b]);
+            }
+        });
+
+        // Front code the blocks
+        final int numBlocks = (size + blockSize - 1) / blockSize;
+        final int[] blockOffsets = new int[numBlocks];
+        final DataOutputBuffer blocks = new DataOutputBuffer();
+        for (int position = 0; position < size; position++) {
+            final byte[] value = bytes[order[position]];
+            if (position % blockSize == 0) {
+                blockOffsets[position / blockSize] = blocks.getLength();
+                WritableUtils.writeVInt(blocks, value.length);
+                blocks.write(value);
+            } else {
+                final byte[] previous = bytes[order[position - 1]];
+                int shared = 0;
+                while (shared < previous.length && shared < value.length && previous[shared] == value[shared]) {
+                    shared++;
+                }
+                WritableUtils.writeVInt(blocks, shared);
+                WritableUtils.writeVInt(blocks, value.length - shared);
+                blocks.write(value, shared, value.length - shared);
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        out.writeInt(blockSize);
+        out.writeInt(numBlocks);
+        for (int n = 0; n < size; n++) {
+            out.writeInt(indexes[byIndex[n]]);
+        }
+        for (int n = 0; n < size; n++) {
+            out.writeInt(positionOfEntry[byIndex[n]]);
+        }
+        for (int position = 0; position < size; position++) {
+            out.writeInt(indexes[order[position]]);
+        }
+        for (int offset : blockOffsets) {
+            out.writeInt(offset);
+        }
+        out.write(blocks.getData(), 0, blocks.getLength());
+    }
+
+    /**
+     * @return The number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param value The value to look up
+     * @return The index of the value, or -1 if it isn't in the dictionary.  If more than one index has the value, the
+     * smallest of them
+     */
+    public int getIndex(String value) {
+        final byte[] target = value.getBytes(StandardCharsets.UTF_8);
+        final Cursor cursor = new Cursor();
+
+        // Find the last block whose first value is less than the target.  The first value that is >= the target is
+        // either in that block or the first value of the next one
+        int low = 0;
+        int high = numBlocks - 1;
+        int block = 0;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            cursor.seek(mid);
+            if (compareBytes(cursor.value, target, cursor.length) < 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        final int end = Math.min(size, (block + 2) * blockSize);
+        for (int position = block * blockSize; position < end; position++) {
+            if (position % blockSize == 0) {
+                cursor.seek(position / blockSize);
+            } else {
+                cursor.next();
+            }
+            final int comparison = compareBytes(cursor.value, target, cursor.length);
+            if (comparison == 0) {
+                return buffer.getInt(indexesStart + position * 4);
+            } else if (comparison > 0) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index The index to look up
+     * @return The value with the index, or null if there isn't one
+     */
+    public String getValue(int index) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midIndex = buffer.getInt(sortedIndexesStart + mid * 4);
+            if (midIndex < index) {
+                low = mid + 1;
+            } else if (midIndex > index) {
+                high = mid - 1;
+            } else {
+                return getValueAt(buffer.getInt(positionsStart + mid * 4));
+            }
+        }
+        return null;
+    }
+
+    private String getValueAt(int position) {
+        final Cursor cursor = new Cursor();
+        cursor.seek(position / blockSize);
+        for (int i = position % blockSize; i > 0; i--) {
+            cursor.next();
+        }
+        return new String(cursor.value, 0, cursor.length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the first length bytes of a to all of b, as unsigned bytes
+     */
+    private static int compareBytes(byte[] a, byte[] b, int length) {
+        final int common = Math.min(length, b.length);
+        for (int i = 0; i < common; i++) {
+            final int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - b.length;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        for (int n = 0; n < size; n++) {
+            if (n > 0) {
+                sb.append(", ");
+            }
+            sb.append(buffer.getInt(sortedIndexesStart + n * 4)).append('=')
+                    .append(getValueAt(buffer.getInt(positionsStart + n * 4)));
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Decodes the values of a block one after the other.  Each lookup uses its own, so lookups are thread safe.
+     */
+    private class Cursor {
+        byte[] value = new byte[64];
+        int length = 0;
+        private int position; // Where the next value starts in the buffer
+
+        void seek(int block) {
+            position = blocksStart + buffer.getInt(blockOffsetsStart + block * 4);
+            length = 0;
+            append(readVInt());
+        }
+
+        void next() {
+            length = readVInt();
+            append(readVInt());
+        }
+
+        private void append(int count) {
+            if (length + count > value.length) {
+                value = Arrays.copyOf(value, Math.max(length + count, value.length * 2));
+            }
+            for (int i = 0; i < count; i++) {
+                value[length++] = buffer.get(position++);
+            }
+        }
+
+        private int readVInt() {
+            final byte first = buffer.get(position++);
+            final int len = WritableUtils.decodeVIntSize(first);
+            if (len == 1) {
+                return first;
+            }
+            long i = 0;
+            for (int idx = 0; idx < len - 1; idx++) {
+                i = (i << 8) | (buffer.get(position++) & 0xFF);
+            }
+            return (int) (WritableUtils.isNegativeVInt(first) ? (i ^ -1L) : i);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com._42six.amino.common;
+
+import com._42six.amino.common.index.RangeAggregates;
+import com._42six.amino.common.translator.FeatureFactTranslatorImpl;
+import com._42six.amino.common.translator.FeatureFactTranslatorInt;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RangeAggregatesTest {
+
+    private final FeatureFactTranslatorInt translator = new FeatureFactTranslatorImpl();
+
+    /**
+     * Builds what the reverse table would hold for the values: a row per value and a row per block, each holding the
+     * values that it covers
+     */
+    private static TreeMap<String, Set<String>> createTable(FeatureFactType type, List<String> values){
+        final TreeMap<String, Set<String>> table = new TreeMap<>();
+        for(String value : values){
+            final List<String> cqs = new ArrayList<>(RangeAggregates.aggregatesFor(type, value));
+            cqs.add(value);
+            for(String cq : cqs){
+                if(!table.containsKey(cq)){
+                    table.put(cq, new HashSet<String>());
+                }
+                table.get(cq).add(value);
+            }
+        }
+        return table;
+    }
+
+    private static void checkCover(FeatureFactType type, List<String> values, String from, String to){
+        final TreeMap<String, Set<String>> table = createTable(type, values);
+        final Set<String> expected = new HashSet<>();
+        for(String value : values){
+            if(value.compareTo(from) >= 0 && value.compareTo(to) <= 0){
+                expected.add(value);
+            }
+        }
+
+        final Set<String> covered = new HashSet<>();
+        final List<String[]> pieces = RangeAggregates.cover(type, from, to);
+        for(String[] piece : pieces){
+            for(Set<String> cqValues : table.subMap(piece[0], true, piece[1], true).values()){
+                covered.addAll(cqValues);
+            }
+        }
+        assertEquals("Covering " + from + " to " + to, expected, covered);
+    }
+
+    @Test
+    public void testRatioCover(){
+        final Random random = new Random(42);
+        for(int test = 0; test < 200; test++){
+            final List<String> values = new ArrayList<>();
+            for(int i = 0; i < 200; i++){
+                values.add(translator.fromRatio(Math.round(random.nextDouble() * 2000000) / 100.0).toString());
+            }
+            final String from = translator.fromRatio(random.nextDouble() * 10000).toString();
+            final String to = translator.fromRatio(random.nextDouble() * 20000).toString();
+            checkCover(FeatureFactType.RATIO, values, from, to);
+        }
+    }
+
+    @Test
+    public void testDateCover(){
+        final Random random = new Random(42);
+        for(int test = 0; test < 200; test++){
+            final List<String> values = new ArrayList<>();
+            for(int i = 0; i < 200; i++){
+                final long time = 1400000000000L + (long) (random.nextDouble() * 100000000000L);
+                values.add(translator.fromDate(time - time % 3600000).toString());
+            }
+            final String from = values.get(random.nextInt(values.size()));
+            final String to = values.get(random.nextInt(values.size()));
+            checkCover(FeatureFactType.DATE, values, from, to);
+        }
+    }
+
+    private static void assertOneBlock(FeatureFactType type, String from, String to, int prefixLength){
+        final String aggregate = String.format("~%02d~", prefixLength);
+        final List<String[]> pieces = RangeAggregates.cover(type, from, to);
+        assertEquals("Covering " + from + " to " + to, 1, pieces.size());
+        assertTrue(pieces.get(0)[0].startsWith(aggregate));
+        assertTrue(pieces.get(0)[1].startsWith(aggregate));
+    }
+
+    private static void assertNoBlock(FeatureFactType type, String from, String to){
+        for(String[] piece : RangeAggregates.cover(type, from, to)){
+            assertFalse(piece[0].charAt(0) == RangeAggregates.AGGREGATE_PREFIX);
+        }
+    }
+
+    @Test
+    public void testDateBlockSizes(){
+        // The smallest blocks are 16^6 ms
+        final long smallest = 16L * 16 * 16 * 16 * 16 * 16;
+        final long start = 100 * smallest;
+        assertOneBlock(FeatureFactType.DATE, translator.fromDate(start).toString(),
+                translator.fromDate(start + smallest - 1).toString(), 10);
+        assertNoBlock(FeatureFactType.DATE, translator.fromDate(start).toString(),
+                translator.fromDate(start + smallest - 2).toString());
+
+        // The biggest blocks are 16^10 ms, and sixteen of them are still a run of that level
+        final long biggest = smallest * 16 * 16 * 16 * 16;
+        assertOneBlock(FeatureFactType.DATE, translator.fromDate(biggest).toString(),
+                translator.fromDate(2 * biggest - 1).toString(), 6);
+        assertOneBlock(FeatureFactType.DATE, translator.fromDate(0).toString(),
+                translator.fromDate(16 * biggest - 1).toString(), 6);
+    }
+
+    @Test
+    public void testRatioBlockSizes(){
+        // The smallest blocks are 0.1
+        assertOneBlock(FeatureFactType.RATIO, "100000042.50000000", "100000042.59999999", 11);
+        assertNoBlock(FeatureFactType.RATIO, "100000042.50000000", "100000042.59999998");
+
+        // The biggest blocks are 100000, and a run of them covers everything from 0 up
+        assertOneBlock(FeatureFactType.RATIO, "100100000.00000000", "100199999.99999999", 4);
+        assertOneBlock(FeatureFactType.RATIO, "100000000.00000000", "199999999.99999999", 4);
+    }
+
+    @Test
+    public void testCountBlocks(){
+        assertEquals(1000, RangeAggregates.countBlocks(FeatureFactType.RATIO, new String[]{"~04~1000", "~04~1999"}));
+        assertEquals(10, RangeAggregates.countBlocks(FeatureFactType.RATIO,
+                new String[]{"~11~100000042.0", "~11~100000042.9"}));
+        assertEquals(17, RangeAggregates.countBlocks(FeatureFactType.DATE, new String[]{"~06~00000F", "~06~00001F"}));
+        assertEquals(-1, RangeAggregates.countBlocks(FeatureFactType.RATIO,
+                new String[]{"100000042.50000000", "100000042.59999998"}));
+    }
+
+    @Test
+    public void testFewPieces(){
+        // Three years of hours is about 26000 values
+        final List<String[]> pieces = RangeAggregates.cover(FeatureFactType.DATEHOUR,
+                translator.fromDate(1400000000000L).toString(), translator.fromDate(1500000000000L).toString());
+        assertTrue(pieces.size() <= 11);
+        for(String[] piece : pieces){
+            assertTrue(piece[0].compareTo(piece[1]) <= 0);
+        }
+    }
+
+    @Test
+    public void testNotAggregated(){
+        assertTrue(RangeAggregates.aggregatesFor(FeatureFactType.RATIO, "max").isEmpty());
+        assertTrue(RangeAggregates.aggregatesFor(FeatureFactType.RATIO, translator.fromRatio(-200000000).toString()).isEmpty());
+        assertTrue(RangeAggregates.aggregatesFor(FeatureFactType.NOMINAL, "100000042.00000000").isEmpty());
+        assertFalse(RangeAggregates.hasAggregates(FeatureFactType.NOMINAL));
+        assertFalse(RangeAggregates.isAggregated(FeatureFactType.DATE, "hello"));
+
+        // Falls back to the values
+        final String to = translator.fromRatio(5).toString();
+        final List<String[]> pieces = RangeAggregates.cover(FeatureFactType.RATIO, "-99999999.00000000", to);
+        assertEquals(1, pieces.size());
+        assertEquals("-99999999.00000000", pieces.get(0)[0]);
+        assertEquals(to, pieces.get(0)[1]);
+    }
+
+    @Test
+    public void testAggregatesSortAfterValues(){
+        final String value = translator.fromRatio(42.5).toString();
+        final List<String> aggregates = RangeAggregates.aggregatesFor(FeatureFactType.RATIO, value);
+        assertEquals(7, aggregates.size());
+        assertEquals("~09~100000042", aggregates.get(5));
+        for(String aggregate : aggregates){
+            assertTrue(aggregate.compareTo("max") > 0);
+            assertTrue(aggregate.compareTo(value) > 0);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com._42six.amino.common;
+
+import com._42six.amino.common.bitmap.AminoBitmap;
+import com._42six.amino.common.bitmap.BitmapCodec;
+import com._42six.amino.common.bitmap.SerializedBitmapReader;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SerializedBitmapReaderTest {
+
+    private static AminoBitmap createBitmap(BitmapCodec codec, TreeSet<Integer> bits){
+        final AminoBitmap bitmap = new AminoBitmap(codec);
+        for(int bit : bits){
+            bitmap.set(bit);
+        }
+        return bitmap;
+    }
+
+    private static void checkMatchesBitmap(BitmapCodec codec) {
+        final Random random = new Random(42);
+        final TreeSet<Integer> bits = new TreeSet<>();
+        // A dense run, then sparse hash-like positions
+        for(int i = 100; i < 400; i++){
+            bits.add(i);
+        }
+        for(int i = 0; i < 200; i++){
+            bits.add(random.nextInt(Integer.MAX_VALUE - 64));
+        }
+
+        final SerializedBitmapReader reader = new SerializedBitmapReader();
+        reader.reset(createBitmap(codec, bits).toByteArray());
+        assertEquals(codec, reader.getCodec());
+
+        // Walk every set bit and its neighbors in increasing order
+        final TreeSet<Integer> probes = new TreeSet<>();
+        for(int bit : bits){
+            probes.add(bit);
+            probes.add(bit + 1);
+            if(bit > 0){
+                probes.add(bit - 1);
+            }
+        }
+        for(int probe : probes){
+            assertEquals("Position " + probe, bits.contains(probe), reader.contains(probe));
+        }
+
+        reader.rewind();
+        assertTrue(reader.contains(bits.first()));
+        assertFalse(reader.contains(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testEwah() {
+        checkMatchesBitmap(BitmapCodec.EWAH);
+    }
+
+    @Test
+    public void testRoaring() {
+        checkMatchesBitmap(BitmapCodec.ROARING);
+    }
+
+    private static void checkWindowsMatchBitmap(BitmapCodec codec) {
+        final Random random = new Random(7);
+        final TreeSet<Integer> bits = new TreeSet<>();
+        // Runs of 1's that cross the windows, and scattered bits in between
+        for(int i = 1000; i < 5000; i++){
+            bits.add(i);
+        }
+        for(int i = 0; i < 500; i++){
+            bits.add(random.nextInt(20000));
+        }
+
+        final SerializedBitmapReader reader = new SerializedBitmapReader();
+        reader.reset(createBitmap(codec, bits).toByteArray());
+        assertEquals(bits.last() + 1L, reader.sizeInBits());
+
+        final TreeSet<Integer> found = new TreeSet<>();
+        final long[] window = new long[5];
+        for(long windowStart = 0; windowStart < reader.sizeInBits(); windowStart += window.length * 64){
+            Arrays.fill(window, 0L);
+            reader.orInto(window, windowStart);
+            for(int w = 0; w < window.length; w++){
+                for(int bit = 0; bit < 64; bit++){
+                    if((window[w] & (1L << bit)) != 0){
+                        found.add((int) (windowStart + w * 64 + bit));
+                    }
+                }
+            }
+        }
+        assertEquals(bits, found);
+    }
+
+    @Test
+    public void testEwahWindows() {
+        checkWindowsMatchBitmap(BitmapCodec.EWAH);
+    }
+
+    @Test
+    public void testRoaringWindows() {
+        checkWindowsMatchBitmap(BitmapCodec.ROARING);
+    }
+
+    @Test
+    public void testEmpty() {
+        final SerializedBitmapReader reader = new SerializedBitmapReader();
+        reader.reset(new AminoBitmap().toByteArray());
+        assertFalse(reader.contains(0));
+        assertFalse(reader.contains(12345));
+    }
+}
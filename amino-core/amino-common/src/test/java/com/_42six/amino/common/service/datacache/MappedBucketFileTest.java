@@ -0,0 +1,83 @@
+package com._42six.amino.common.service.datacache;
+
+import com._42six.amino.common.Bucket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class MappedBucketFileTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("MappedBucketFileTest", ".mapped");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private MappedBucketFile writeAndOpen(Map<Integer, Bucket> buckets) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            MappedBucketFile.write(buckets, out);
+        }
+        return MappedBucketFile.open(file);
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        final Map<Integer, Bucket> buckets = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            // Negative and clustered indexes to exercise the probing
+            final int index = (i % 2 == 0) ? i * 1024 : -i;
+            buckets.put(index, new Bucket("ds" + i, "name" + i, "", "display" + i, "U", "UNCLASSIFIED"));
+        }
+
+        final MappedBucketFile mapped = writeAndOpen(buckets);
+        assertEquals(100, mapped.size());
+        for (Map.Entry<Integer, Bucket> entry : buckets.entrySet()) {
+            final Bucket bucket = mapped.get(entry.getKey());
+            assertNotNull(bucket);
+            assertEquals(entry.getValue(), bucket);
+            assertEquals(entry.getValue().getBucketDisplayName(), bucket.getBucketDisplayName());
+            assertEquals(entry.getValue().getBucketVisibility(), bucket.getBucketVisibility());
+        }
+        assertNull(mapped.get(1));
+        assertNull(mapped.get(12345));
+    }
+
+    @Test
+    public void testIterator() throws IOException {
+        final Map<Integer, Bucket> buckets = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            buckets.put(i, new Bucket("ds", "name" + i, "", "display", "U", "UNCLASSIFIED"));
+        }
+
+        final Set<Bucket> read = new HashSet<>();
+        for (Bucket bucket : writeAndOpen(buckets)) {
+            read.add(bucket);
+        }
+        assertEquals(new HashSet<>(buckets.values()), read);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        final MappedBucketFile mapped = writeAndOpen(new HashMap<Integer, Bucket>());
+        assertEquals(0, mapped.size());
+        assertNull(mapped.get(0));
+        assertFalse(mapped.iterator().hasNext());
+    }
+}
@@ -0,0 +1,68 @@
+package com._42six.amino.common.service.datacache;
+
+import com._42six.amino.common.util.PathUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class SortedIndexCacheTest {
+
+    private Configuration conf;
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        conf = new Configuration();
+        cacheDir = Files.createTempDirectory("SortedIndexCacheTest").toFile();
+        PathUtils.setCachePath(conf, cacheDir.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileSystem.getLocal(conf).delete(new Path(cacheDir.getAbsolutePath()), true);
+    }
+
+    /**
+     * Writes a MapFile the way caches were written before there were segments
+     */
+    private void writeLegacyCache(String subFolder, int... indexes) throws IOException {
+        try(MapFile.Writer writer = new MapFile.Writer(conf, new Path(new Path(cacheDir.getAbsolutePath()), subFolder),
+                MapFile.Writer.keyClass(VIntWritable.class), MapFile.Writer.valueClass(Text.class))){
+            for(int index : indexes){
+                writer.append(new VIntWritable(index), new Text("value" + index));
+            }
+        }
+    }
+
+    @Test
+    public void testLoadLegacyCache() throws IOException {
+        writeLegacyCache("legacy", 0, 5, SortedIndexCache.FIRST_SEGMENT_INDEX - 1);
+        final SortedIndexCache cache = new SortedIndexCache("legacy", conf);
+        cache.loadFromStorage();
+
+        assertEquals("value5", cache.getItem(new VIntWritable(5)));
+        assertEquals("value" + (SortedIndexCache.FIRST_SEGMENT_INDEX - 1),
+                cache.getItem(new VIntWritable(SortedIndexCache.FIRST_SEGMENT_INDEX - 1)));
+        assertEquals(new VIntWritable(0), cache.getIndexForValue("value0"));
+        assertNull(cache.getItem(new VIntWritable(1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLegacyIndexInSegmentRange() throws IOException {
+        // Would be looked up in the segments, so it could never be found
+        writeLegacyCache("overlap", 0, SortedIndexCache.FIRST_SEGMENT_INDEX);
+        new SortedIndexCache("overlap", conf).loadFromStorage();
+    }
+}
@@ -0,0 +1,84 @@
+package com._42six.amino.common.service.datacache;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SortedStringDictionaryTest {
+
+    private static Map<Integer, String> values() {
+        final Map<Integer, String> values = new HashMap<>();
+        final String[] strings = {"", "a", "ab", "abc", "abd", "b", "datasource", "datasource2", "datasource10", "é", "zz",
+                "中文"};
+        for (int i = 0; i < strings.length; i++) {
+            // Indexes out of order with the values, and sparse
+            values.put((strings.length - i) * 7, strings[i]);
+        }
+        // Enough values for several blocks
+        for (int i = 0; i < 100; i++) {
+            values.put(1000 + i, "value" + i);
+        }
+        return values;
+    }
+
+    private static void checkLookups(SortedStringDictionary dictionary, Map<Integer, String> values) {
+        assertEquals(values.size(), dictionary.size());
+        for (Map.Entry<Integer, String> entry : values.entrySet()) {
+            assertEquals(entry.getValue(), dictionary.getValue(entry.getKey()));
+            assertEquals(entry.getKey().intValue(), dictionary.getIndex(entry.getValue()));
+        }
+        assertNull(dictionary.getValue(1));
+        assertNull(dictionary.getValue(5000));
+        assertEquals(-1, dictionary.getIndex("aa"));
+        assertEquals(-1, dictionary.getIndex("value"));
+        assertEquals(-1, dictionary.getIndex("zzz"));
+    }
+
+    @Test
+    public void testBuild() {
+        final Map<Integer, String> values = values();
+        checkLookups(SortedStringDictionary.build(values), values);
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        final Map<Integer, String> values = values();
+        final File file = File.createTempFile("SortedStringDictionaryTest", ".dict");
+        try {
+            try (OutputStream out = new FileOutputStream(file)) {
+                SortedStringDictionary.write(values, out);
+            }
+            checkLookups(SortedStringDictionary.open(file), values);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDuplicateValues() {
+        final Map<Integer, String> values = new HashMap<>();
+        for (int i = 0; i < 40; i++) {
+            values.put(i, (i < 20) ? "dup" : "other" + i);
+        }
+        values.put(100, "dup");
+        final SortedStringDictionary dictionary = SortedStringDictionary.build(values);
+        assertEquals(0, dictionary.getIndex("dup"));
+        assertEquals("dup", dictionary.getValue(100));
+        assertEquals(25, dictionary.getIndex("other25"));
+    }
+
+    @Test
+    public void testEmpty() {
+        final SortedStringDictionary dictionary = SortedStringDictionary.build(new HashMap<Integer, String>());
+        assertEquals(0, dictionary.size());
+        assertEquals(-1, dictionary.getIndex("a"));
+        assertNull(dictionary.getValue(0));
+    }
+}
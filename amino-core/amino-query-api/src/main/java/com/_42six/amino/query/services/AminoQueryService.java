@@ -2,6 +2,7 @@ package com._42six.amino.query.services;
 
 import com._42six.amino.common.entity.Hypothesis;
 import com._42six.amino.common.entity.QueryResult;
+import com._42six.amino.common.entity.QueryResultPage;
 import com._42six.amino.common.query.requests.bta.BtaByValuesRequest;
 import com._42six.amino.query.exception.BigTableException;
 
@@ -59,6 +60,35 @@ public interface AminoQueryService {
 	 */
 	public QueryResult createResult(String owner, String hypothesisId, Integer maxResults, String justification, String userid, String[] visibility) throws InterruptedException, ExecutionException, TimeoutException;
 
+	/**
+	 * Executes a query, handing the results to the handler in batches as they are found and writing them to the data
+	 * store a page at a time.  The results are never all held in memory, so the returned QueryResult does not have its
+	 * result_set filled in.  Use {@link #getResultPage} to read them back.
+	 *
+	 * @param owner         The owner of the result
+	 * @param hypothesisId  The id of the hypothesis to use as the basis for the query
+	 * @param maxResults    The maximum number of results to hit before giving up
+	 * @param justification A justification for this query
+	 * @param userid        The name of the user executing the query.
+	 * @param visibility    A list of string corresponding to allowed visibilities for the user.
+	 * @param handler       Receives the results as they are found
+	 * @return An AminoQueryResult with the count of the results, but not the results themselves.
+	 */
+	public QueryResult createResult(String owner, String hypothesisId, Integer maxResults, String justification, String userid, String[] visibility,
+			QueryEntryHandler handler) throws InterruptedException, ExecutionException, TimeoutException;
+
+	/**
+	 * Gets one page of an already existing result from the data store.
+	 *
+	 * @param requester  The ID String of the person making the request
+	 * @param owner      The owner string of the QueryResult
+	 * @param id         The id of the result.
+	 * @param cursor     The cursor from the previous page, or null for the first page
+	 * @param visibility A list of string corresponding to allowed visibilities for the user.
+	 * @return The page, with the cursor for the next one.
+	 */
+	public QueryResultPage getResultPage(String requester, String owner, String id, String cursor, String[] visibility) throws Exception;
+
 	/**
 	 * Deletes a QueryResult
 	 *
@@ -0,0 +1,18 @@
+package com._42six.amino.query.services;
+
+import com._42six.amino.common.entity.QueryEntry;
+
+import java.util.List;
+
+/**
+ * Receives the QueryEntry's of a query as they are found, instead of waiting for all of them to be gathered.
+ */
+public interface QueryEntryHandler {
+
+	/**
+	 * Called with each batch of QueryEntry's, in the order they are found
+	 *
+	 * @param entries The next batch
+	 */
+	public void handle(List<QueryEntry> entries) throws Exception;
+}
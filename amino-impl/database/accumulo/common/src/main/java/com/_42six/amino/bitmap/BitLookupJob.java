@@ -61,6 +61,7 @@ public class BitLookupJob extends BitmapJob {
 
         job.setMapperClass(BitLookupMapper.class);
         job.setMapOutputKeyClass(BitLookupKey.class);
+        job.setSortComparatorClass(BitLookupKey.Comparator.class);
         job.setMapOutputValueClass(BitmapValue.class);
         job.setCombinerClass(BitLookupCombiner.class);
         job.setReducerClass(BitLookupReducer.class);
@@ -139,7 +140,6 @@ public class BitLookupJob extends BitmapJob {
             job.setOutputFormatClass(AccumuloFileOutputFormat.class);
             AccumuloFileOutputFormat.setOutputPath(job, new Path(workingDir + "/files"));
             // job.setPartitionerClass(RangePartitioner.class);
-            // job.setSortComparatorClass(FeatureKeyComparator.class); // This will ensure the values come in sorted so we don't have to do that TreeMap...
             // RangePartitioner.setSplitFile(job, splitfile);
         }
         catch (AccumuloException | AccumuloSecurityException e)
@@ -2,24 +2,35 @@ package com._42six.amino.bitmap;
 
 import com._42six.amino.api.framework.FrameworkDriver;
 import com._42six.amino.common.AminoConfiguration;
+import com._42six.amino.common.JobUtilities;
 import com._42six.amino.common.accumulo.IteratorUtils;
 import com._42six.amino.common.bigtable.TableConstants;
 import com._42six.amino.common.util.PathUtils;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import org.apache.accumulo.core.client.admin.TableOperations;
+import org.apache.accumulo.core.util.TextUtil;
 import org.apache.commons.cli.*;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.util.Tool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Base class for all of the Jobs related to indexing of the Amino bitmaps
@@ -69,6 +80,49 @@ public abstract class BitmapJob extends Configured implements Tool {
     }
 
 
+    /**
+     * @return The name of the table that the job should write to, which is the temp table on the first run
+     */
+    protected String getTargetTableName(String tableName) {
+        return (!blastIndex) ? tableName : tableName + AminoConfiguration.TEMP_SUFFIX;
+    }
+
+    /**
+     * Writes the splits of a table to a file that a RangePartitioner can read
+     *
+     * @param tableName The table to get the splits of.  It is created if it doesn't exist yet
+     * @param splitFile The file to write the splits to
+     * @return The number of splits
+     */
+    protected int writeSplitFile(String tableName, String splitFile) throws Exception {
+        final TableOperations tableOps = IteratorUtils.connect(instanceName, zooKeepers, user, password).tableOperations();
+        IteratorUtils.createTable(tableOps, tableName, tableContext, false, blastIndex);
+
+        final Collection<Text> splits = tableOps.listSplits(getTargetTableName(tableName));
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(FileSystem.get(getConf()).create(new Path(splitFile))))) {
+            for (Text split : splits) {
+                out.println(new String(Base64.encodeBase64(TextUtil.getBytes(split))));
+            }
+        }
+        return splits.size();
+    }
+
+    /**
+     * Bulk imports the RFiles that the job wrote to &lt;workingDir&gt;/files
+     *
+     * @param tableName The table to import into.  On the first run this is the temp table
+     * @param workingDir The working directory of the job
+     * @return 0 on success, 1 if any of the files failed to import
+     */
+    protected int bulkImport(String tableName, String workingDir) throws Exception {
+        final TableOperations tableOps = IteratorUtils.connect(instanceName, zooKeepers, user, password).tableOperations();
+        final String tb = getTargetTableName(tableName);
+        System.out.println("Importing the files in '" + workingDir + "/files' to the table: " + tb);
+        JobUtilities.setupAccumuloBulkImport(getConf(), workingDir);
+        tableOps.importDirectory(tb, workingDir + "/files", workingDir + "/failures", false);
+        return JobUtilities.failureDirHasFiles(getConf(), workingDir + "/failures");
+    }
+
     /**
      * Checks the Configuration and command line parameters for a value.  It first checks the command line to see if the
      * option is there, and if not then checks the Configuration.  If it can't be found, returns null
@@ -156,24 +210,106 @@ public abstract class BitmapJob extends Configured implements Tool {
     }
 
     /**
-     * Initializes all of the common Job parameters
+     * Initializes all of the common Job parameters.  The input is the output of the {@link BucketIndexJob} if it is
+     * newer than the framework output, otherwise the framework output itself.
      *
      * @param job The Job to configure
      */
     protected void initializeJob(Job job) throws IOException {
+        initializeJob(job, true);
+    }
+
+    /**
+     * Initializes all of the common Job parameters
+     *
+     * @param job The Job to configure
+     * @param useIndexedBuckets Whether to read the output of the {@link BucketIndexJob} if it is up to date
+     */
+    protected void initializeJob(Job job, boolean useIndexedBuckets) throws IOException {
         final Configuration conf = getConf();
         final String outputBaseDir = fromOptionOrConfig(Optional.of("o"), Optional.of(AminoConfiguration.OUTPUT_DIR));
         PathUtils.pathsExists(outputBaseDir, conf);
-        final String dataPaths = StringUtils.join(PathUtils.getMultipleJobDataPaths(conf, outputBaseDir), ',');
-        final String cachePaths = StringUtils.join(PathUtils.getMultipleJobCachePaths(conf, outputBaseDir), ',');
+        final Set<String> dataPathSet = PathUtils.getMultipleJobDataPaths(conf, outputBaseDir);
+        final String dataPaths = StringUtils.join(dataPathSet, ',');
+        final Set<String> cachePathSet = PathUtils.getMultipleJobCachePaths(conf, outputBaseDir);
+        final String cachePaths = StringUtils.join(cachePathSet, ',');
 
         System.out.println("Data paths: [" + dataPaths + "].");
         System.out.println("Cache paths: [" + cachePaths + "].");
 
         PathUtils.setCachePath(job.getConfiguration(), cachePaths);
-        SequenceFileInputFormat.setInputPaths(job, dataPaths);
+
+        final Path indexedBuckets = BucketIndexJob.getIndexedBucketsPath(conf);
+        if (useIndexedBuckets && indexedBucketsAreCurrent(conf, indexedBuckets, dataPathSet, cachePathSet)) {
+            System.out.println("Reading indexed buckets from: [" + indexedBuckets + "].");
+            SequenceFileInputFormat.setInputPaths(job, indexedBuckets);
+        } else {
+            SequenceFileInputFormat.setInputPaths(job, dataPaths);
+        }
 
         job.setInputFormatClass(SequenceFileInputFormat.class);
     }
 
+    /**
+     * Checks that the BucketIndexJob finished after the last of the framework output and the caches were written, and
+     * that it wrote the current IndexedBucket format.  The IndexedBuckets hold cache indexes, so they are stale once the
+     * caches are rebuilt, such as by the DatabasePrepJob
+     */
+    private static boolean indexedBucketsAreCurrent(Configuration conf, Path indexedBuckets, Set<String> dataPaths,
+                                                    Set<String> cachePaths) throws IOException {
+        if (indexedBuckets == null) {
+            return false;
+        }
+        final FileSystem fs = FileSystem.get(conf);
+        final Path success = new Path(indexedBuckets, "_SUCCESS");
+        if (!fs.exists(success)) {
+            return false;
+        }
+        final int version = BucketIndexJob.readFormatVersion(fs, indexedBuckets);
+        if (version != IndexedBucket.VERSION) {
+            logger.info("Not using the indexed buckets, they are format version " + version + " instead of " +
+                    IndexedBucket.VERSION);
+            return false;
+        }
+        final long indexedTime = fs.getFileStatus(success).getModificationTime();
+        for (String dataPath : dataPaths) {
+            final Path path = new Path(dataPath);
+            if (!fs.exists(path)) {
+                continue;
+            }
+            for (FileStatus status : fs.listStatus(path)) {
+                if (status.getModificationTime() > indexedTime) {
+                    logger.info("Not using the indexed buckets, " + status.getPath() + " is newer");
+                    return false;
+                }
+            }
+        }
+        for (String cachePath : cachePaths) {
+            final Path path = new Path(cachePath);
+            if (fs.exists(path) && isNewer(fs, fs.getFileStatus(path), indexedTime)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the file, or anything under the directory, was changed after the time.  The caches add files to
+     * their sub directories, which doesn't change the time of the top directory
+     */
+    private static boolean isNewer(FileSystem fs, FileStatus status, long time) throws IOException {
+        if (status.getModificationTime() > time) {
+            logger.info("Not using the indexed buckets, " + status.getPath() + " is newer");
+            return true;
+        }
+        if (status.isDirectory()) {
+            for (FileStatus child : fs.listStatus(status.getPath())) {
+                if (isNewer(fs, child, time)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
 }
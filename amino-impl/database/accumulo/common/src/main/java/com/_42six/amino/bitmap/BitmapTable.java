@@ -0,0 +1,131 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.bitmap.reverse.ReverseBitmapKey;
+import com._42six.amino.bitmap.reverse.ReverseBitmapMapper;
+import com._42six.amino.bitmap.reverse.ReverseBitmapReducer;
+import com._42six.amino.bitmap.reverse.ReverseBitmapTableComparator;
+import com._42six.amino.bitmap.reverse.ReverseFeatureLookupMapper;
+import com._42six.amino.common.AminoConfiguration;
+import com._42six.amino.common.ByBucketKey;
+import org.apache.accumulo.core.data.Key;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.util.EnumSet;
+
+/**
+ * The tables that the {@link FusedBitmapJob} fills in, along with the mapper and reducer that the stand alone job for
+ * each table uses.  The ordinal is written in front of each map output key, so don't reorder these.
+ */
+public enum BitmapTable {
+    BY_BUCKET(ByBucketMapper.class, ByBucketReducer.class, ByBucketKey.class, true),
+    BIT_LOOKUP(BitLookupMapper.class, BitLookupReducer.class, BitLookupKey.class, true),
+    STATS(StatsMapper.class, StatsReducer.class, StatsKey.class, false),
+    HYPOTHESIS(HypothesisMapper.class, HypothesisReducer.class, Text.class, true),
+    REVERSE_BITMAP(ReverseBitmapMapper.class, ReverseBitmapReducer.class, ReverseBitmapKey.class, false),
+    REVERSE_FEATURE_LOOKUP(ReverseFeatureLookupMapper.class, Reducer.class, Key.class, true);
+
+    /** Comma separated list of the tables for the FusedBitmapJob to fill in.  Defaults to all of them */
+    public static final String FUSED_TABLES = "amino.bitmap.fused.tables";
+
+    private final Class<? extends IndexedBucketMapper> mapperClass;
+    private final Class<? extends Reducer> reducerClass;
+    private final Class<? extends WritableComparable> keyClass;
+    private final boolean bulkImported;
+
+    BitmapTable(Class<? extends IndexedBucketMapper> mapperClass, Class<? extends Reducer> reducerClass,
+                Class<? extends WritableComparable> keyClass, boolean bulkImported) {
+        this.mapperClass = mapperClass;
+        this.reducerClass = reducerClass;
+        this.keyClass = keyClass;
+        this.bulkImported = bulkImported;
+    }
+
+    public Class<? extends IndexedBucketMapper> getMapperClass() {
+        return mapperClass;
+    }
+
+    /**
+     * @return The reducer, which writes either Key/Values to be bulk imported or Text/Mutations
+     */
+    public Class<? extends Reducer> getReducerClass() {
+        return reducerClass;
+    }
+
+    /**
+     * @return The class of the map output key
+     */
+    public Class<? extends WritableComparable> getKeyClass() {
+        return keyClass;
+    }
+
+    /**
+     * @return true if the reducer writes Key/Values to RFiles that are bulk imported, false if it writes Mutations.  The
+     * reducers that write Mutations by default switch to RFiles when {@link AminoConfiguration#BULK_IMPORT} is set
+     */
+    public boolean isBulkImported(Configuration conf) {
+        return bulkImported || conf.getBoolean(AminoConfiguration.BULK_IMPORT, false);
+    }
+
+    /**
+     * @return A new instance of the comparator that the stand alone job sorts the map output keys with
+     */
+    public RawComparator<?> newComparator(Configuration conf) {
+        switch (this) {
+            case BY_BUCKET:
+                return new ByBucketKey.Comparator();
+            case BIT_LOOKUP:
+                return new BitLookupKey.Comparator();
+            case HYPOTHESIS:
+                return ReflectionUtils.newInstance(HypothesisKeyComparator.class, null);
+            case REVERSE_BITMAP:
+                if (isBulkImported(conf)) {
+                    return ReflectionUtils.newInstance(ReverseBitmapTableComparator.class, conf);
+                }
+                return new ReverseBitmapKey.Comparator();
+            default:
+                return WritableComparator.get(keyClass);
+        }
+    }
+
+    /**
+     * @return The name of the table, without the temp suffix
+     */
+    public String getTableName(Configuration conf) {
+        switch (this) {
+            case BY_BUCKET:
+                return conf.get(AminoConfiguration.TABLE_BUCKET);
+            case BIT_LOOKUP:
+            case STATS:
+                return conf.get(AminoConfiguration.TABLE_INDEX);
+            case HYPOTHESIS:
+                return conf.get(AminoConfiguration.TABLE_FEATURE_LOOKUP);
+            case REVERSE_BITMAP:
+                return conf.get(AminoConfiguration.TABLE_BUCKET).replace("amino_", "amino_reverse_");
+            case REVERSE_FEATURE_LOOKUP:
+                return conf.get(AminoConfiguration.TABLE_FEATURE_LOOKUP).replace("amino_", "amino_reverse_");
+            default:
+                throw new IllegalStateException("Unknown table " + this);
+        }
+    }
+
+    /**
+     * @return The tables listed in {@link #FUSED_TABLES}, or all of them if it isn't set
+     */
+    public static EnumSet<BitmapTable> fromConfiguration(Configuration conf) {
+        final String[] names = conf.getStrings(FUSED_TABLES);
+        if (names == null || names.length == 0) {
+            return EnumSet.allOf(BitmapTable.class);
+        }
+        final EnumSet<BitmapTable> tables = EnumSet.noneOf(BitmapTable.class);
+        for (String name : names) {
+            tables.add(BitmapTable.valueOf(name.trim().toUpperCase()));
+        }
+        return tables;
+    }
+}
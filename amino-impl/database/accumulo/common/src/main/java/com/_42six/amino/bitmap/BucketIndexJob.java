@@ -0,0 +1,111 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.common.AminoConfiguration;
+import com._42six.amino.common.BucketStripped;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import org.apache.commons.cli.Option;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+
+/**
+ * Works out the bucket, feature and feature fact indexes of the framework output once, writing them out as
+ * {@link IndexedBucket}s.  The rest of the bitmap jobs read these instead of the framework output, so they don't each
+ * have to load the bucket cache and hash every feature again.
+ *
+ * Has to be run after the DatabasePrepJob, since the datasource indexes aren't known until then.  If the framework
+ * output changes afterwards the bitmap jobs go back to reading it directly until this job is run again.
+ */
+public class BucketIndexJob extends BitmapJob {
+
+    /** The sub directory of the working directory that the IndexedBuckets are written to */
+    public static final String INDEXED_BUCKETS_DIR = "BucketIndexJob/buckets";
+
+    /**
+     * The marker file holding the {@link IndexedBucket#VERSION} that the output was written with.  The leading
+     * underscore keeps it from being read as input
+     */
+    public static final String FORMAT_VERSION_FILE = "_FORMAT_VERSION";
+
+    /**
+     * @return Where the IndexedBuckets are written to, or null if there is no working directory
+     */
+    public static Path getIndexedBucketsPath(Configuration conf) {
+        final String workingDir = conf.get(AminoConfiguration.WORKING_DIR);
+        return (workingDir == null) ? null : new Path(workingDir, INDEXED_BUCKETS_DIR);
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+
+        // Create the command line options to be parsed
+        final Option o1 = new Option("o", "outputDir", true, "The output directory");
+        final Option o2 = new Option("w", "workingDir", true, "The working directory");
+
+        initializeConfigAndOptions(args, Optional.of(Sets.newHashSet(o1, o2)));
+        final Configuration conf = getConf();
+        loadConfigValues(conf);
+        System.out.println("\n========================" + conf.get("mapreduce.job.name","Bucket Index Job") +"======================\n");
+
+        final String workingDirectory = fromOptionOrConfig(Optional.of("w"), Optional.of(AminoConfiguration.WORKING_DIR));
+        final Path outputPath = new Path(workingDirectory, INDEXED_BUCKETS_DIR);
+        final FileSystem fs = FileSystem.get(conf);
+        if (fs.exists(outputPath)) {
+            fs.delete(outputPath, true);
+        }
+
+        final Job job = new Job(conf, conf.get("mapreduce.job.name","Amino bucket indexing job"));
+        job.setJarByClass(BucketIndexJob.class);
+
+        // Always read the framework output, never what an earlier run of this job wrote
+        initializeJob(job, false);
+
+        job.setMapperClass(BucketIndexingMapper.class);
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(BucketStripped.class);
+        job.setOutputValueClass(IndexedBucket.class);
+
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        SequenceFileOutputFormat.setOutputPath(job, outputPath);
+        SequenceFileOutputFormat.setCompressOutput(job, true);
+        SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+
+        boolean complete = job.waitForCompletion(true);
+        if (complete) {
+            writeFormatVersion(fs, outputPath);
+        }
+        return complete ? 0 : 1;
+    }
+
+    private static void writeFormatVersion(FileSystem fs, Path outputPath) throws IOException {
+        try (FSDataOutputStream out = fs.create(new Path(outputPath, FORMAT_VERSION_FILE), true)) {
+            out.writeByte(IndexedBucket.VERSION);
+        }
+    }
+
+    /**
+     * @return The IndexedBucket format version of the output, or -1 if it was written before the version was recorded
+     */
+    public static int readFormatVersion(FileSystem fs, Path outputPath) throws IOException {
+        final Path versionFile = new Path(outputPath, FORMAT_VERSION_FILE);
+        if (!fs.exists(versionFile)) {
+            return -1;
+        }
+        try (FSDataInputStream in = fs.open(versionFile)) {
+            return in.readByte();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new BucketIndexJob(), args));
+    }
+}
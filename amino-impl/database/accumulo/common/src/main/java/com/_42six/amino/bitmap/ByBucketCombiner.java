@@ -6,9 +6,11 @@ import org.apache.hadoop.mapreduce.Reducer;
 import java.io.IOException;
 
 public class ByBucketCombiner extends Reducer<ByBucketKey, BitmapValue, ByBucketKey, BitmapValue> {
+    private final BitmapValue combinedValue = new BitmapValue();
+
     @Override
     protected void reduce(ByBucketKey key, Iterable<BitmapValue> values, Context context) throws IOException, InterruptedException {
-        final BitmapValue combinedValue = new BitmapValue();
+        combinedValue.clear();
 
         for (BitmapValue value : values) {
             combinedValue.merge(value);
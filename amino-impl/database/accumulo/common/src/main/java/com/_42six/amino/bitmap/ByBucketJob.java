@@ -53,6 +53,7 @@ public class ByBucketJob extends BitmapJob {
 
         job.setMapperClass(ByBucketMapper.class);
         job.setMapOutputKeyClass(ByBucketKey.class);
+        job.setSortComparatorClass(ByBucketKey.Comparator.class);
         job.setMapOutputValueClass(BitmapValue.class);
         job.setCombinerClass(ByBucketCombiner.class);
         job.setReducerClass(ByBucketReducer.class);
@@ -134,7 +135,6 @@ public class ByBucketJob extends BitmapJob {
 
             job.setPartitionerClass(ByBucketPartitioner.class);
             ByBucketPartitioner.setSplitFile(job, splitFile);
-            //job.setSortComparatorClass(BucketKeyComparator.class); // This will ensure the values come in sorted so we don't have to do that TreeMap...
         }
         catch (AccumuloException | AccumuloSecurityException e)
         {
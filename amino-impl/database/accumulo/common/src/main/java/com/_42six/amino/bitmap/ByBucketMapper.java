@@ -1,67 +1,89 @@
 package com._42six.amino.bitmap;
 
 import com._42six.amino.common.*;
-import com._42six.amino.common.index.BitmapIndex;
-import com._42six.amino.common.service.datacache.BucketCache;
-import com._42six.amino.common.service.datacache.SortedIndexCache;
-import com._42six.amino.common.service.datacache.SortedIndexCacheFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.VIntWritable;
-import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
 
-public class ByBucketMapper extends Mapper<BucketStripped, AminoWritable, ByBucketKey, BitmapValue> {
+public class ByBucketMapper extends IndexedBucketMapper<ByBucketKey, BitmapValue> {
 
-    private BucketCache bucketCache;
-    private SortedIndexCache dataSourceCache;
-    private int numberOfHashes;
     private int numberOfShards;
 
-    private BucketStripped lastBS = new BucketStripped();
-    private Bucket bucket;
-    private ByBucketKey byBucketKey;
+    private final BitmapValue bitmapValue = new BitmapValue();
+
+    // Only set when combining in the mapper.  The features of a bucket come in together, so the indexes are only held
+    // until the bucket changes
+    private BitmapAggregator<ByBucketKey> aggregator = null;
+    private ByBucketKey[] saltKeys = null; // The keys of the bucket being combined, one for each salt
 
     @Override
     protected void setup(Context context) throws IOException, InterruptedException {
         super.setup(context);
         final Configuration conf = context.getConfiguration();
-        bucketCache = new BucketCache(conf);
-        dataSourceCache = SortedIndexCacheFactory.getCache(SortedIndexCacheFactory.CacheTypes.Datasource, conf);
-        numberOfHashes = conf.getInt(AminoConfiguration.NUM_HASHES, 1);
         numberOfShards = conf.getInt(AminoConfiguration.NUM_SHARDS, 10);
+        if (conf.getBoolean(AminoConfiguration.IN_MAPPER_COMBINING, false)) {
+            aggregator = new BitmapAggregator<>(conf.getInt(AminoConfiguration.IN_MAPPER_COMBINING_MAX_INDEXES,
+                    AminoConfiguration.DEFAULT_IN_MAPPER_COMBINING_MAX_INDEXES));
+        }
     }
 
     @Override
-    protected void map(BucketStripped bucketStripped, AminoWritable aw, Context context) throws IOException, InterruptedException {
+    protected void map(BucketStripped bucketStripped, IndexedBucket bucket, Context context) throws IOException, InterruptedException {
+        if(bucket.getDatasourceIndex() < 0){
+            throw new IOException("Could not find index in cache for datasource: " + bucket.getDatasource());
+        }
+        final int binNumber = bucket.getBucketValueIndex() % numberOfShards;
+        final ByBucketKey byBucketKey = new ByBucketKey(bucket.getBucketValue(), binNumber, bucket.getBucketName(),
+                bucket.getDatasourceIndex(), bucket.getVisibility());
 
-        // There are lots of repeated bucketStripped keys with different aw.  Cache results to save time/memory
-        if(lastBS.compareTo(bucketStripped) != 0){
-            lastBS = new BucketStripped(bucketStripped);
+        if (aggregator != null) {
+            combine(byBucketKey, bucket, context);
+            return;
+        }
 
-            bucket = bucketCache.getBucket(bucketStripped);
-            final int binNumber = BitmapIndex.getBucketValueIndex(bucketStripped) % numberOfShards;
-            final VIntWritable datasourceNameIndex = dataSourceCache.getIndexForValue(bucket.getBucketDataSource());
-            if(datasourceNameIndex == null){
-                throw new IOException("Could not find index in cache for datasource: " + bucket.getBucketDataSource());
+        for (int feature = 0; feature < bucket.getFeatureCount(); feature++)
+        {
+            for (int salt = 0; salt < numberOfHashes; salt++)
+            {
+                byBucketKey.setSalt(salt);
+                bitmapValue.setIndex(bucket.getFeatureFactIndex(feature, salt));
+                context.write(byBucketKey, bitmapValue);
             }
-            final Text visibility = bucket.getBucketVisibility();
-            byBucketKey = new ByBucketKey(bucket.getBucketValue(), binNumber, bucket.getBucketName(), datasourceNameIndex, visibility);
         }
+    }
 
-        final Feature feature = aw.getFeature();
-        final FeatureFact featureFact = aw.getFeatureFact();
+    private void combine(ByBucketKey byBucketKey, IndexedBucket bucket, Context context) throws IOException, InterruptedException {
+        byBucketKey.setSalt(0);
+        if (saltKeys == null || !saltKeys[0].equals(byBucketKey)) {
+            aggregator.flush(context);
 
-        final BitmapValue bitmapValue = new BitmapValue();
-        final Text saltText = new Text();
+            // The Texts of the IndexedBucket are reused, so the held keys need their own copies
+            final Text bucketValue = new Text(bucket.getBucketValue());
+            final Text bucketName = new Text(bucket.getBucketName());
+            final VIntWritable datasourceIndex = new VIntWritable(bucket.getDatasourceIndex());
+            final Text visibility = new Text(bucket.getVisibility());
+            saltKeys = new ByBucketKey[numberOfHashes];
+            for (int salt = 0; salt < numberOfHashes; salt++) {
+                saltKeys[salt] = new ByBucketKey(bucketValue, byBucketKey.getBinNumber(), bucketName, datasourceIndex, visibility, salt);
+            }
+        }
 
-        for (int salt = 0; salt < numberOfHashes; salt++)
+        for (int feature = 0; feature < bucket.getFeatureCount(); feature++)
         {
-            saltText.set(Integer.toString(salt));
-            byBucketKey.setSalt(salt);
-            bitmapValue.setIndex(BitmapIndex.getFeatureFactIndex(bucket, feature, featureFact, salt));
-            context.write(byBucketKey, bitmapValue);
+            for (int salt = 0; salt < numberOfHashes; salt++)
+            {
+                aggregator.add(saltKeys[salt], bucket.getFeatureFactIndex(feature, salt), context);
+            }
+        }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (aggregator != null) {
+            aggregator.flush(context);
         }
+        super.cleanup(context);
     }
-}
\ No newline at end of file
+}
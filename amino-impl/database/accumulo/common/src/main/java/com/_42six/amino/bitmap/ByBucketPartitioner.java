@@ -11,9 +11,13 @@ public class ByBucketPartitioner extends Partitioner<ByBucketKey, Writable> {
 
     protected final RangePartitioner rp = new RangePartitioner();
 
+    /**
+     * Each bin goes to a single reducer, so that its rows are written to one sorted file.  The bin is read straight off
+     * of the key, so no Text or String is built for each record
+     */
     @Override
     public int getPartition(ByBucketKey byBucketKey, Writable bitmapValue, int numPartitions) {
-        return byBucketKey.getBinNumber();
+        return (byBucketKey.getBinNumber() & Integer.MAX_VALUE) % numPartitions;
     }
 
     public Configuration getConf(){
@@ -1,7 +1,10 @@
 package com._42six.amino.bitmap;
 
+import com._42six.amino.common.AminoConfiguration;
 import com._42six.amino.common.ByBucketKey;
 import com._42six.amino.common.bitmap.AminoBitmap;
+import com._42six.amino.common.bitmap.AminoBitmapBuilder;
+import com._42six.amino.common.bitmap.BitmapCodec;
 import com._42six.amino.common.bitmap.BitmapUtils;
 import com._42six.amino.common.service.datacache.SortedIndexCache;
 import com._42six.amino.common.service.datacache.SortedIndexCacheFactory;
@@ -12,35 +15,29 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
 import java.io.IOException;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 public class ByBucketReducer extends Reducer<ByBucketKey, BitmapValue, Key, Value>
 {
     private SortedIndexCache dataSourceCache;
+    private AminoBitmapBuilder builder;
 
     @Override
     protected void setup(Context context) throws IOException, InterruptedException {
         super.setup(context);
         final Configuration conf = context.getConfiguration();
         dataSourceCache = SortedIndexCacheFactory.getCache(SortedIndexCacheFactory.CacheTypes.Datasource, conf);
+        builder = new AminoBitmapBuilder(BitmapCodec.valueOf(conf.get(AminoConfiguration.BITMAP_CODEC, BitmapCodec.DEFAULT.name())));
     }
 
     @Override
     protected void reduce(ByBucketKey key, Iterable<BitmapValue> values, Context context) throws IOException, InterruptedException
     {
-        final SortedSet<Integer> sortedBits = new TreeSet<>();
-
-        // The bits must be sorted first before they can be added to the AminoBitmap.
+        // The builder takes care of sorting the bits before they are added to the AminoBitmap.
+        builder.clear();
         for(BitmapValue value : values){
-            sortedBits.addAll(value.getIndexes());
-        }
-
-        final AminoBitmap bitmap = new AminoBitmap();
-        for (int index : sortedBits)
-        {
-            bitmap.set(index);
+            value.addIndexesTo(builder);
         }
+        final AminoBitmap bitmap = builder.build();
 
         final int binNumber = key.getBinNumber();
         final String dataSource = dataSourceCache.getItem(key.getDatasourceNameIndex());
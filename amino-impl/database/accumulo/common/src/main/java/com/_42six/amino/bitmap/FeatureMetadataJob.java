@@ -781,6 +781,10 @@ public final class FeatureMetadataJob extends BitmapJob {
 			shardCountMutation.put("", "", cv, Integer.toString(numberOfShards));
 			writer.addMutation(shardCountMutation);
 
+			final Mutation generationMutation = new Mutation("ingest_generation");
+			generationMutation.put("", "", cv, Long.toString(System.currentTimeMillis()));
+			writer.addMutation(generationMutation);
+
 			writer.flush();
 		} catch (TableNotFoundException | MutationsRejectedException e) {
 			throw new IOException(e);
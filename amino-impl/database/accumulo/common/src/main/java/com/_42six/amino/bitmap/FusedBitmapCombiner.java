@@ -0,0 +1,31 @@
+package com._42six.amino.bitmap;
+
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+
+/**
+ * Merges the BitmapValues of the tables whose stand alone jobs use a combiner.  Everything else is passed through.
+ */
+public class FusedBitmapCombiner extends Reducer<FusedKey, FusedValue, FusedKey, FusedValue> {
+    private final BitmapValue combinedValue = new BitmapValue();
+    private final FusedValue fusedValue = new FusedValue(combinedValue);
+
+    @Override
+    protected void reduce(FusedKey key, Iterable<FusedValue> values, Context context) throws IOException, InterruptedException {
+        switch (key.getTable()) {
+            case BY_BUCKET:
+            case BIT_LOOKUP:
+                combinedValue.clear();
+                for (FusedValue value : values) {
+                    combinedValue.merge((BitmapValue) value.get());
+                }
+                context.write(key, fusedValue);
+                break;
+            default:
+                for (FusedValue value : values) {
+                    context.write(key, value);
+                }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.common.AminoConfiguration;
+import com._42six.amino.common.JobUtilities;
+import com._42six.amino.common.accumulo.IteratorUtils;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import org.apache.accumulo.core.client.*;
+import org.apache.accumulo.core.client.mapreduce.AccumuloFileOutputFormat;
+import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.commons.cli.Option;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Fills in the tables of the ByBucketJob, BitLookupJob, StatsJob, HypothesisJob, ReverseBitmapJob and
+ * ReverseFeatureLookupJob in a single pass over the input, instead of each job reading all of it again.  Which tables
+ * to fill in can be limited with {@link BitmapTable#FUSED_TABLES}.
+ *
+ * The tables are created without the sampled splits that the BitLookupJob and HypothesisJob use.  The Key/Values of
+ * the bulk imported tables are spread over the reducers by hash, so each RFile may cover more than one tablet.
+ */
+public class FusedBitmapJob extends BitmapJob {
+
+    @Override
+    public int run(String[] args) throws Exception {
+
+        // Create the command line options to be parsed
+        final Option o1 = new Option("o", "outputDir", true, "The output directory");
+        final Option o2 = new Option("w", "workingDir", true, "The working directory");
+
+        initializeConfigAndOptions(args, Optional.of(Sets.newHashSet(o1, o2)));
+        final Configuration conf = getConf();
+        loadConfigValues(conf);
+        System.out.println("\n========================" + conf.get("mapreduce.job.name","Fused Bitmap Job") +"======================\n");
+
+        final EnumSet<BitmapTable> tables = BitmapTable.fromConfiguration(conf);
+        System.out.println("Filling in the tables: " + tables);
+
+        final String workingDirectory = fromOptionOrConfig(Optional.of("w"), Optional.of(AminoConfiguration.WORKING_DIR)) + "/FusedBitmapJob";
+        final String filesPath = workingDirectory + "/files";
+        JobUtilities.deleteDirectory(conf, workingDirectory);
+
+        final Connector connector = new ZooKeeperInstance(instanceName, zooKeepers).getConnector(user, new PasswordToken(password));
+        if (!createTables(connector, tables)) {
+            System.out.println("Unable to create the tables");
+            return 1;
+        }
+
+        final Job job = new Job(conf, conf.get("mapreduce.job.name","Amino fused bitmap index job"));
+        job.setJarByClass(FusedBitmapJob.class);
+        initializeJob(job);
+
+        job.setMapperClass(FusedBitmapMapper.class);
+        job.setMapOutputKeyClass(FusedKey.class);
+        job.setMapOutputValueClass(FusedValue.class);
+        job.setSortComparatorClass(FusedKey.Comparator.class);
+        job.setCombinerClass(FusedBitmapCombiner.class);
+        job.setPartitionerClass(FusedBitmapPartitioner.class);
+        job.setReducerClass(FusedBitmapReducer.class);
+        job.setNumReduceTasks(conf.getInt(AminoConfiguration.NUM_REDUCERS, AminoConfiguration.DEFAULT_NUM_REDUCERS));
+
+        // Everything is written through the named outputs, so don't create empty files for the default output
+        LazyOutputFormat.setOutputFormatClass(job, AccumuloFileOutputFormat.class);
+        AccumuloFileOutputFormat.setOutputPath(job, new Path(filesPath));
+        job.setOutputKeyClass(Key.class);
+        job.setOutputValueClass(Value.class);
+
+        MultipleOutputs.addNamedOutput(job, FusedBitmapReducer.RFILE_OUTPUT, AccumuloFileOutputFormat.class, Key.class, Value.class);
+        MultipleOutputs.addNamedOutput(job, FusedBitmapReducer.MUTATION_OUTPUT, AccumuloOutputFormat.class, Text.class, Mutation.class);
+        AccumuloOutputFormat.setZooKeeperInstance(job, new ClientConfiguration().withInstance(instanceName).withZkHosts(zooKeepers));
+        AccumuloOutputFormat.setConnectorInfo(job, user, new PasswordToken(password.getBytes("UTF-8")));
+        AccumuloOutputFormat.setCreateTables(job, true);
+
+        if (!job.waitForCompletion(true)) {
+            System.out.println("FusedBitmapJob MapReduce job failed. Job results will not be imported into Accumulo.");
+            return 1;
+        }
+
+        System.out.println("Importing job results to Accumulo....");
+        int result = 0;
+        try
+        {
+            JobUtilities.setupAccumuloBulkImport(conf, workingDirectory);
+            for (BitmapTable table : tables) {
+                if (table.isBulkImported(conf)) {
+                    result |= importTable(connector, table, filesPath, workingDirectory + "/failures");
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            result = 1;
+            e.printStackTrace();
+        }
+
+        return result;
+    }
+
+    private boolean createTables(Connector connector, EnumSet<BitmapTable> tables) throws IOException {
+        final Configuration conf = getConf();
+        final int numShards = conf.getInt(AminoConfiguration.NUM_SHARDS, 10);
+
+        boolean success = true;
+        for (BitmapTable table : tables) {
+            final String tableName = table.getTableName(conf);
+            switch (table) {
+                case BY_BUCKET:
+                case REVERSE_BITMAP:
+                    success &= recreateTable(tableName, numShards);
+                    break;
+                case REVERSE_FEATURE_LOOKUP:
+                    // The rows are just the shard numbers
+                    final SortedSet<Text> splits = new TreeSet<>();
+                    for (int shard = 0; shard < numShards; shard++) {
+                        splits.add(new Text(Integer.toString(shard)));
+                    }
+                    success &= IteratorUtils.createTable(connector.tableOperations(), tableName, tableContext, splits, blastIndex, blastIndex);
+                    break;
+                case STATS:
+                    // Shares the table with the BIT_LOOKUP.  Mutations create it if need be, but RFiles need it to exist
+                    if (table.isBulkImported(conf) && !tables.contains(BitmapTable.BIT_LOOKUP)) {
+                        success &= IteratorUtils.createTable(connector.tableOperations(), tableName, tableContext, false, blastIndex);
+                    }
+                    break;
+                default:
+                    success &= recreateTable(tableName);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Bulk imports the RFiles that the reducers wrote for a table
+     *
+     * @return 0 on success, 1 if any of the files failed to import
+     */
+    private int importTable(Connector connector, BitmapTable table, String filesPath, String failuresPath) throws Exception {
+        final Configuration conf = getConf();
+        final String directory = FusedBitmapReducer.getOutputDirectory(table);
+        final Path tableFiles = new Path(filesPath, directory);
+        final Path tableFailures = new Path(failuresPath, directory);
+
+        // Nothing was written for the table.  JobUtilities closes the FileSystem, so get it again each time
+        final FileSystem fs = FileSystem.get(conf);
+        if (!fs.exists(tableFiles)) {
+            System.out.println("No files were written for " + table);
+            return 0;
+        }
+        fs.mkdirs(tableFailures);
+
+        final String tableName = getTargetTableName(table.getTableName(conf));
+        System.out.println("Importing the files in '" + tableFiles + "' to the table: " + tableName);
+        connector.tableOperations().importDirectory(tableName, tableFiles.toString(), tableFailures.toString(), false);
+        return JobUtilities.failureDirHasFiles(conf, tableFailures.toString());
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new FusedBitmapJob(), args));
+    }
+}
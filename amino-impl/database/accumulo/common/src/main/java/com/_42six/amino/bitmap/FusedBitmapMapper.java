@@ -0,0 +1,75 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.common.BucketStripped;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the mapper of each of the {@link BitmapTable}s over the same input, tagging what they write with the table that
+ * it is for.  The input is only read, and the buckets only resolved, once for all of the tables.
+ */
+public class FusedBitmapMapper extends IndexedBucketMapper<FusedKey, FusedValue> {
+
+    private final List<IndexedBucketMapper> mappers = new ArrayList<>();
+    private final List<Mapper.Context> contexts = new ArrayList<>();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        final Configuration conf = context.getConfiguration();
+
+        for (BitmapTable table : BitmapTable.fromConfiguration(conf)) {
+            final IndexedBucketMapper mapper = ReflectionUtils.newInstance(table.getMapperClass(), conf);
+            final Mapper.Context tableContext = taggingContext(table, context);
+            mapper.setup(tableContext);
+            mappers.add(mapper);
+            contexts.add(tableContext);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void map(BucketStripped bucketStripped, IndexedBucket bucket, Context context) throws IOException, InterruptedException {
+        for (int i = 0; i < mappers.size(); i++) {
+            mappers.get(i).map(bucketStripped, bucket, contexts.get(i));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        // Some of the mappers hold on to what they write until cleanup
+        for (int i = 0; i < mappers.size(); i++) {
+            mappers.get(i).cleanup(contexts.get(i));
+        }
+        super.cleanup(context);
+    }
+
+    /**
+     * Creates a Context for the mapper of a table, which wraps everything it writes in a FusedKey and FusedValue
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Mapper.Context taggingContext(final BitmapTable table, final Context context) {
+        final FusedKey fusedKey = new FusedKey();
+        final FusedValue fusedValue = new FusedValue();
+
+        return new WrappedMapper().new Context(context) {
+            @Override
+            public void write(Object key, Object value) throws IOException, InterruptedException {
+                // The map output is serialized as soon as it is written, so the wrappers can be reused
+                fusedKey.set(table, (WritableComparable) key);
+                fusedValue.set((Writable) value);
+                context.write(fusedKey, fusedValue);
+            }
+        };
+    }
+}
@@ -0,0 +1,33 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.bitmap.reverse.ReverseBitmapKey;
+import com._42six.amino.common.ByBucketKey;
+import org.apache.accumulo.core.data.Key;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitions the keys of each table the same way as its stand alone job where that keeps a shard in one file, and by
+ * hash otherwise
+ */
+public class FusedBitmapPartitioner extends Partitioner<FusedKey, FusedValue> {
+
+    @Override
+    public int getPartition(FusedKey fusedKey, FusedValue value, int numPartitions) {
+        final int hash;
+        switch (fusedKey.getTable()) {
+            case BY_BUCKET:
+                hash = ((ByBucketKey) fusedKey.getKey()).getBinNumber();
+                break;
+            case REVERSE_BITMAP:
+                hash = ((ReverseBitmapKey) fusedKey.getKey()).getShard();
+                break;
+            case REVERSE_FEATURE_LOOKUP:
+                // The row is the shard number
+                hash = Integer.parseInt(((Key) fusedKey.getKey()).getRow().toString());
+                break;
+            default:
+                hash = fusedKey.hashCode();
+        }
+        return (hash & Integer.MAX_VALUE) % numPartitions;
+    }
+}
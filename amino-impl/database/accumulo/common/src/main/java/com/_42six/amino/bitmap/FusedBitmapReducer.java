@@ -0,0 +1,141 @@
+package com._42six.amino.bitmap;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.ReduceContext;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+
+/**
+ * Runs the reducer of each of the {@link BitmapTable}s over the keys tagged for it.  The keys are sorted by table, so
+ * each table reducer is run once over a contiguous run of keys, the same as in its stand alone job.
+ *
+ * The Key/Values of the bulk imported tables are written to a directory per table under the job's output path, and the
+ * Mutations of the rest are written straight to Accumulo.
+ */
+public class FusedBitmapReducer extends Reducer<FusedKey, FusedValue, Writable, Writable> {
+
+    /** The named output for the Key/Values that are bulk imported */
+    public static final String RFILE_OUTPUT = "rfiles";
+
+    /** The named output for the Text/Mutations that are written to Accumulo */
+    public static final String MUTATION_OUTPUT = "mutations";
+
+    private MultipleOutputs<Writable, Writable> outputs;
+
+    /**
+     * @return The directory, relative to the job's output path, that a table's RFiles are written to
+     */
+    public static String getOutputDirectory(BitmapTable table) {
+        return table.name().toLowerCase();
+    }
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        outputs = new MultipleOutputs<>(context);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+        setup(context);
+        try {
+            boolean hasKey = context.nextKey();
+            while (hasKey) {
+                final BitmapTable table = context.getCurrentKey().getTable();
+                final Reducer reducer = newTableReducer(table, context.getConfiguration());
+                final TableContext tableContext = new TableContext(new WrappedReducer(), context, table, outputs);
+                reducer.run(tableContext);
+                hasKey = tableContext.hasKey;
+            }
+        } finally {
+            cleanup(context);
+        }
+    }
+
+    /**
+     * @return A new instance of the reducer to run over the keys of the table
+     */
+    protected Reducer newTableReducer(BitmapTable table, Configuration conf) {
+        return ReflectionUtils.newInstance(table.getReducerClass(), conf);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        outputs.close();
+        super.cleanup(context);
+    }
+
+    /**
+     * The Context for the reducer of a table.  Only hands out the keys for the table, unwrapped, and sends what it
+     * writes to the right output.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static class TableContext extends WrappedReducer.Context {
+        private final ReduceContext<FusedKey, FusedValue, Writable, Writable> fusedContext;
+        private final BitmapTable table;
+        private final MultipleOutputs<Writable, Writable> outputs;
+        private final String baseOutputPath;
+        private final boolean bulkImported;
+
+        private boolean started = false;
+        boolean hasKey = true; // Whether the fused context is still on a key, which may belong to the next table
+
+        TableContext(WrappedReducer wrapper, ReduceContext<FusedKey, FusedValue, Writable, Writable> fusedContext,
+                     BitmapTable table, MultipleOutputs<Writable, Writable> outputs) {
+            wrapper.super(fusedContext);
+            this.fusedContext = fusedContext;
+            this.table = table;
+            this.outputs = outputs;
+            this.baseOutputPath = getOutputDirectory(table) + "/part";
+            this.bulkImported = table.isBulkImported(fusedContext.getConfiguration());
+        }
+
+        @Override
+        public boolean nextKey() throws IOException, InterruptedException {
+            if (!started) {
+                // The fused context is already on the first key of this table
+                started = true;
+                return true;
+            }
+            hasKey = fusedContext.nextKey();
+            return hasKey && fusedContext.getCurrentKey().getTable() == table;
+        }
+
+        @Override
+        public Object getCurrentKey() throws IOException, InterruptedException {
+            return fusedContext.getCurrentKey().getKey();
+        }
+
+        @Override
+        public Object getCurrentValue() throws IOException, InterruptedException {
+            return fusedContext.getCurrentValue().get();
+        }
+
+        @Override
+        public Iterable getValues() throws IOException, InterruptedException {
+            return Iterables.transform(fusedContext.getValues(), new Function<FusedValue, Writable>() {
+                @Override
+                public Writable apply(FusedValue value) {
+                    return value.get();
+                }
+            });
+        }
+
+        @Override
+        public void write(Object key, Object value) throws IOException, InterruptedException {
+            if (bulkImported) {
+                outputs.write(RFILE_OUTPUT, key, value, baseOutputPath);
+            } else {
+                outputs.write(MUTATION_OUTPUT, key, value);
+            }
+        }
+    }
+}
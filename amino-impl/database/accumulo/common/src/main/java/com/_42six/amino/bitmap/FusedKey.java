@@ -0,0 +1,138 @@
+package com._42six.amino.bitmap;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A map output key of the {@link FusedBitmapJob}.  Wraps the key of one of the {@link BitmapTable}s, tagged with the
+ * table it is for.  Keys are sorted by table first and then in the same order as the stand alone job for the table.
+ */
+public class FusedKey implements WritableComparable<FusedKey> {
+
+    private static final BitmapTable[] TABLES = BitmapTable.values();
+
+    private BitmapTable table;
+    private WritableComparable key;
+
+    // One key of each type to read into, so that they aren't created for every record
+    private final WritableComparable[] readKeys = new WritableComparable[TABLES.length];
+
+    public FusedKey() {
+        // EMPTY
+    }
+
+    public FusedKey(BitmapTable table, WritableComparable key) {
+        set(table, key);
+    }
+
+    public void set(BitmapTable table, WritableComparable key) {
+        this.table = table;
+        this.key = key;
+    }
+
+    public BitmapTable getTable() {
+        return table;
+    }
+
+    public WritableComparable getKey() {
+        return key;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(table.ordinal());
+        key.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        table = TABLES[in.readByte()];
+        key = readKeys[table.ordinal()];
+        if (key == null) {
+            key = ReflectionUtils.newInstance(table.getKeyClass(), null);
+            readKeys[table.ordinal()] = key;
+        }
+        key.readFields(in);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int compareTo(FusedKey other) {
+        if (table != other.table) {
+            return table.compareTo(other.table);
+        }
+        return key.compareTo(other.key);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) { return true; }
+        if (!(o instanceof FusedKey)) { return false; }
+        final FusedKey other = (FusedKey) o;
+        return table == other.table && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * table.ordinal() + key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return table + ":" + key;
+    }
+
+    /**
+     * Compares serialized FusedKeys by table, and then with the comparator of the table's stand alone job.
+     *
+     * Isn't registered with {@link WritableComparator#define}, since the comparators of some of the tables depend on
+     * the job's Configuration.  The job has to set it as the sort comparator, so that it is created with
+     * {@link ReflectionUtils#newInstance} and given the Configuration.
+     */
+    public static class Comparator extends WritableComparator implements Configurable {
+
+        // Each instance gets its own comparators, since some of them hold buffers and aren't thread safe
+        private final RawComparator[] comparators = new RawComparator[TABLES.length];
+        private Configuration conf;
+
+        public Comparator() {
+            super(FusedKey.class);
+            setConf(new Configuration(false));
+        }
+
+        /**
+         * Rebuilds the comparators of the tables, since some of them depend on the configuration
+         */
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            for (BitmapTable table : TABLES) {
+                comparators[table.ordinal()] = table.newComparator(conf);
+            }
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            final byte table1 = b1[s1];
+            final byte table2 = b2[s2];
+            if (table1 != table2) {
+                return table1 < table2 ? -1 : 1;
+            }
+            return comparators[table1].compare(b1, s1 + 1, l1 - 1, b2, s2 + 1, l2 - 1);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com._42six.amino.bitmap;
+
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * A map output value of the {@link FusedBitmapJob}, which can hold the map output value of any of the
+ * {@link BitmapTable}s
+ */
+public class FusedValue extends GenericWritable {
+
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends Writable>[] TYPES = new Class[] {
+            BitmapValue.class,
+            Text.class,
+            StatsKey.class,
+            IntWritable.class,
+            Value.class
+    };
+
+    public FusedValue() {
+        // EMPTY
+    }
+
+    public FusedValue(Writable value) {
+        set(value);
+    }
+
+    @Override
+    protected Class<? extends Writable>[] getTypes() {
+        return TYPES;
+    }
+}
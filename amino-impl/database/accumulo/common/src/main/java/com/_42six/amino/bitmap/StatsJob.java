@@ -1,13 +1,18 @@
 package com._42six.amino.bitmap;
 
 import com._42six.amino.common.AminoConfiguration;
+import com._42six.amino.common.JobUtilities;
 import com.google.common.base.Optional;
 import com.google.common.collect.Sets;
 import org.apache.accumulo.core.client.ClientConfiguration;
+import org.apache.accumulo.core.client.mapreduce.AccumuloFileOutputFormat;
 import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
 import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
 import org.apache.commons.cli.Option;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.ToolRunner;
@@ -22,7 +27,8 @@ public class StatsJob extends BitmapJob {
 
         // Create the command line options to be parsed
         final Option o1 = new Option("o", "outputDir", true, "The output directory");
-        initializeConfigAndOptions(args, Optional.of(Sets.newHashSet(o1)));
+        final Option o2 = new Option("w", "workingDir", true, "The working directory");
+        initializeConfigAndOptions(args, Optional.of(Sets.newHashSet(o1, o2)));
         final Configuration conf = getConf();
         loadConfigValues(conf);
         System.out.println("\n========================" + conf.get("mapreduce.job.name","Stats Job") +"======================\n");
@@ -38,13 +44,37 @@ public class StatsJob extends BitmapJob {
         
         // Set number of reducers
         int statsNumReducers = conf.getInt(AminoConfiguration.NUM_REDUCERS_STATS, 0);
-        if (statsNumReducers > 0) {
-        	job.setNumReduceTasks(statsNumReducers);
+        if (statsNumReducers <= 0) {
+        	statsNumReducers = conf.getInt(AminoConfiguration.NUM_REDUCERS, AminoConfiguration.DEFAULT_NUM_REDUCERS);
         }
-        else {
-        	job.setNumReduceTasks(conf.getInt(AminoConfiguration.NUM_REDUCERS, AminoConfiguration.DEFAULT_NUM_REDUCERS));
+
+        if (conf.getBoolean(AminoConfiguration.BULK_IMPORT, false)) {
+            final String workingDir = fromOptionOrConfig(Optional.of("w"), Optional.of(AminoConfiguration.WORKING_DIR)) + "/StatsJob";
+            JobUtilities.deleteDirectory(conf, workingDir);
+            final String tableName = conf.get(AminoConfiguration.TABLE_INDEX);
+
+            // Partition along the tablets that the BitLookupJob already made, splitting each one into enough bins to
+            // keep about the configured number of reducers busy
+            final String splitFile = workingDir + "/indexSplits.txt";
+            final int numTablets = writeSplitFile(tableName, splitFile) + 1;
+            final int subBins = Math.max(1, statsNumReducers / numTablets);
+            job.setPartitionerClass(StatsPartitioner.class);
+            StatsPartitioner.setSplitFile(job, splitFile);
+            StatsPartitioner.setNumSubBins(job, subBins);
+            job.setNumReduceTasks(numTablets * subBins);
+
+            job.setOutputFormatClass(AccumuloFileOutputFormat.class);
+            AccumuloFileOutputFormat.setOutputPath(job, new Path(workingDir + "/files"));
+            job.setOutputKeyClass(Key.class);
+            job.setOutputValueClass(Value.class);
+
+            if (!job.waitForCompletion(true)) {
+                return 1;
+            }
+            return bulkImport(tableName, workingDir);
         }
 
+        job.setNumReduceTasks(statsNumReducers);
         job.setOutputFormatClass(AccumuloOutputFormat.class);
         AccumuloOutputFormat.setZooKeeperInstance(job, new ClientConfiguration().withInstance(instanceName).withZkHosts(zooKeepers));
         AccumuloOutputFormat.setConnectorInfo(job, user, new PasswordToken(password.getBytes("UTF-8")));
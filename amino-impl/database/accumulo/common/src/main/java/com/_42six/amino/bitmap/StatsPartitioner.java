@@ -0,0 +1,42 @@
+package com._42six.amino.bitmap;
+
+import org.apache.accumulo.core.client.mapreduce.lib.partition.RangePartitioner;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitions the StatsKeys by the tablet that their row falls in, so that each reducer writes RFiles for one tablet
+ */
+public class StatsPartitioner extends Partitioner<StatsKey, Writable> implements Configurable {
+
+    protected final RangePartitioner rp = new RangePartitioner();
+    private final Text row = new Text();
+
+    @Override
+    public int getPartition(StatsKey statsKey, Writable value, int numPartitions) {
+        row.set(statsKey.getRow());
+        return rp.getPartition(row, value, numPartitions);
+    }
+
+    @Override
+    public Configuration getConf(){
+        return rp.getConf();
+    }
+
+    @Override
+    public void setConf(Configuration conf){
+        rp.setConf(conf);
+    }
+
+    public static void setSplitFile(Job job, String file){
+        RangePartitioner.setSplitFile(job, file);
+    }
+
+    public static void setNumSubBins(Job job, int num){
+        RangePartitioner.setNumSubBins(job, num);
+    }
+}
@@ -1,21 +1,41 @@
 package com._42six.amino.bitmap;
 
 import com._42six.amino.common.AminoConfiguration;
+import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Reducer;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
 
-public class StatsReducer extends Reducer<StatsKey, Text, Text, Mutation> 
+/**
+ * Writes the COUNT, FIRST and LAST of each feature fact per bucket either as Mutations, or, if
+ * {@link AminoConfiguration#BULK_IMPORT} is set, as Key/Values for an RFile.
+ *
+ * The keys are sorted by row and feature fact first, which is the row and column family, but the stats of one feature
+ * fact under different buckets and visibilities interleave in the table.  So for RFiles the Key/Values of each row and
+ * column family are held until the next one starts, and then written out in order.
+ */
+public class StatsReducer extends Reducer<StatsKey, Text, Writable, Writable>
 {
 	private boolean blastIndex = true;
+	private boolean bulkImport = false;
+
+	private String pendingRow = null;
+	private String pendingFamily = null;
+	private final TreeMap<Key, Value> pending = new TreeMap<>();
 
 	@Override
 	protected void setup(Context context) throws IOException, InterruptedException {
 		super.setup(context);
 		blastIndex = context.getConfiguration().getBoolean(AminoConfiguration.FIRST_RUN, true);
+		bulkImport = context.getConfiguration().getBoolean(AminoConfiguration.BULK_IMPORT, false);
 	}
 
 	@Override
@@ -43,13 +63,41 @@ public class StatsReducer extends Reducer<StatsKey, Text, Text, Mutation>
 				last = test;
 			}
 		}
-		
+
+		if (bulkImport) {
+			if (!key.getRow().equals(pendingRow) || !key.getVal().equals(pendingFamily)) {
+				flush(context);
+				pendingRow = key.getRow();
+				pendingFamily = key.getVal();
+			}
+			final Text row = new Text(key.getRow());
+			final Text family = new Text(key.getVal());
+			final Text visibility = new Text(key.getVis());
+			pending.put(new Key(row, family, new Text(String.format("%s:COUNT", key.bucketName)), visibility), new Value(Integer.toString(count).getBytes(StandardCharsets.UTF_8)));
+			pending.put(new Key(row, family, new Text(String.format("%s:FIRST", key.bucketName)), visibility), new Value(first.getBytes(StandardCharsets.UTF_8)));
+			pending.put(new Key(row, family, new Text(String.format("%s:LAST", key.bucketName)), visibility), new Value(last.getBytes(StandardCharsets.UTF_8)));
+			return;
+		}
+
 		final ColumnVisibility cv = new ColumnVisibility(key.getVis().getBytes());
 		final Mutation m = new Mutation(key.getRow());
 		m.put(key.getVal(),	String.format("%s:COUNT", key.bucketName), cv, Integer.toString(count));
 		m.put(key.getVal(),	String.format("%s:FIRST", key.bucketName), cv, first);
-		m.put(key.getVal(),	String.format("%s:LAST",  key.bucketName), cv, last);
+		m.put(key.getVal(),	String.format("%s:LAST", key.bucketName), cv, last);
 
         context.write(new Text(table), m);
 	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		flush(context);
+		super.cleanup(context);
+	}
+
+	private void flush(Context context) throws IOException, InterruptedException {
+		for (Map.Entry<Key, Value> entry : pending.entrySet()) {
+			context.write(entry.getKey(), entry.getValue());
+		}
+		pending.clear();
+	}
 }
@@ -2,14 +2,19 @@ package com._42six.amino.bitmap.reverse;
 
 import com._42six.amino.bitmap.BitmapJob;
 import com._42six.amino.common.AminoConfiguration;
+import com._42six.amino.common.JobUtilities;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 import org.apache.accumulo.core.client.ClientConfiguration;
+import org.apache.accumulo.core.client.mapreduce.AccumuloFileOutputFormat;
 import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
 import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
 import org.apache.commons.cli.Option;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.ToolRunner;
@@ -21,8 +26,9 @@ public class ReverseBitmapJob extends BitmapJob
 	{
         // Create the command line options to be parsed
         final Option o1 = new Option("o", "outputDir", true, "The output directory");
+        final Option o2 = new Option("w", "workingDir", true, "The working directory");
 
-        initializeConfigAndOptions(args, Optional.of(Sets.newHashSet(o1)));
+        initializeConfigAndOptions(args, Optional.of(Sets.newHashSet(o1, o2)));
         final Configuration conf = getConf();
         loadConfigValues(conf);
         System.out.println("\n========================"+ conf.get("mapreduce.job.name","ReverseBitmap Job") +"=======================\n");
@@ -42,6 +48,28 @@ public class ReverseBitmapJob extends BitmapJob
         job.setMapOutputKeyClass(ReverseBitmapKey.class);
         job.setMapOutputValueClass(IntWritable.class);
         job.setReducerClass(ReverseBitmapReducer.class);
+
+        if (conf.getBoolean(AminoConfiguration.BULK_IMPORT, false)) {
+            final String workingDir = fromOptionOrConfig(Optional.of("w"), Optional.of(AminoConfiguration.WORKING_DIR)) + "/ReverseBitmap";
+            JobUtilities.deleteDirectory(conf, workingDir);
+
+            // Sort in the table's order and give each shard's tablet its own reducer
+            job.setSortComparatorClass(ReverseBitmapTableComparator.class);
+            job.setPartitionerClass(ReverseBitmapPartitioner.class);
+            job.setNumReduceTasks(numShards);
+
+            job.setOutputFormatClass(AccumuloFileOutputFormat.class);
+            AccumuloFileOutputFormat.setOutputPath(job, new Path(workingDir + "/files"));
+            job.setOutputKeyClass(Key.class);
+            job.setOutputValueClass(Value.class);
+
+            if (!job.waitForCompletion(true)) {
+                return 1;
+            }
+            return bulkImport(tableName, workingDir);
+        }
+
+        job.setSortComparatorClass(ReverseBitmapKey.Comparator.class);
         job.setNumReduceTasks(conf.getInt(AminoConfiguration.NUM_REDUCERS, AminoConfiguration.DEFAULT_NUM_REDUCERS));
 
         job.setOutputFormatClass(AccumuloOutputFormat.class);
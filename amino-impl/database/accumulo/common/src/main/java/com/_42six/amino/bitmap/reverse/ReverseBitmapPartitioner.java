@@ -0,0 +1,16 @@
+package com._42six.amino.bitmap.reverse;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Sends each shard to a single reducer.  The tables are created with a tablet per shard (see IteratorUtils.createTable),
+ * so with as many reducers as shards each RFile covers exactly one tablet.
+ */
+public class ReverseBitmapPartitioner extends Partitioner<ReverseBitmapKey, Writable> {
+
+    @Override
+    public int getPartition(ReverseBitmapKey key, Writable value, int numPartitions) {
+        return (key.getShard() & Integer.MAX_VALUE) % numPartitions;
+    }
+}
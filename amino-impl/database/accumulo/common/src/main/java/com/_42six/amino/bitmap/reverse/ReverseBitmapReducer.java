@@ -1,25 +1,34 @@
 package com._42six.amino.bitmap.reverse;
 
 import com._42six.amino.common.AminoConfiguration;
-import com._42six.amino.common.bitmap.AminoBitmap;
+import com._42six.amino.common.bitmap.AminoBitmapBuilder;
+import com._42six.amino.common.bitmap.BitmapCodec;
 import com._42six.amino.common.bitmap.BitmapUtils;
 import com._42six.amino.common.service.datacache.SortedIndexCache;
 import com._42six.amino.common.service.datacache.SortedIndexCacheFactory;
+import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Reducer;
 
 import java.io.IOException;
-import java.util.TreeSet;
 
-public class ReverseBitmapReducer extends Reducer<ReverseBitmapKey, IntWritable, Text, Mutation>
+/**
+ * Writes the reverse bitmaps either as Mutations, or, if {@link AminoConfiguration#BULK_IMPORT} is set, as Key/Values
+ * for an RFile.  The Key/Values are only in order if the keys were sorted with the {@link ReverseBitmapTableComparator}.
+ */
+public class ReverseBitmapReducer extends Reducer<ReverseBitmapKey, IntWritable, Writable, Writable>
 {
     private Text RB_BUCKET_TABLE;
 
     private SortedIndexCache dataSourceCache;
+    private AminoBitmapBuilder builder;
+    private boolean bulkImport;
 
     @Override
     protected void setup(Context context) throws IOException, InterruptedException
@@ -29,6 +38,8 @@ public class ReverseBitmapReducer extends Reducer<ReverseBitmapKey, IntWritable,
         tableName = tableName.replace("amino_", "amino_reverse_") + AminoConfiguration.TEMP_SUFFIX;
         RB_BUCKET_TABLE = new Text(tableName);
         dataSourceCache = SortedIndexCacheFactory.getCache(SortedIndexCacheFactory.CacheTypes.Datasource, configuration);
+        builder = new AminoBitmapBuilder(BitmapCodec.valueOf(configuration.get(AminoConfiguration.BITMAP_CODEC, BitmapCodec.DEFAULT.name())));
+        bulkImport = configuration.getBoolean(AminoConfiguration.BULK_IMPORT, false);
         super.setup(context);
     }
 
@@ -38,28 +49,24 @@ public class ReverseBitmapReducer extends Reducer<ReverseBitmapKey, IntWritable,
         final String datasource = dataSourceCache.getItem(rbk.getDatasource());
         final Text bucketName = rbk.getBucketName();
 
-        final AminoBitmap bitmap = new AminoBitmap();
-        final Mutation mutation = new Mutation(rbk.getShard() + ":" + rbk.getSalt());
-        final ColumnVisibility colVis = new ColumnVisibility(rbk.getVisibility());
-
+        final Text row = new Text(rbk.getShard() + ":" + rbk.getSalt());
         final Text colFamily = new Text(datasource + "#" + bucketName + "#" + Integer.toString(rbk.getFeatureId()));
         final Text colQualifier = new Text(rbk.getFeatureValue());
 
-        // Sort out all of the indexes since we can only add them to the bitmap in sorted order
-        final TreeSet<Integer> sortedIndexes = new TreeSet<>();
-
-        // Gotta pull out the indexes because MR reuses the indexes
+        // Gotta pull out the indexes because MR reuses the indexes.  The builder sorts them for the bitmap
+        builder.clear();
         for(IntWritable i : indexes){
-            sortedIndexes.add(i.get());
+            builder.add(i.get());
         }
+        final Value value = BitmapUtils.toValue(builder.build());
 
-        // Add the bits to the bitmap
-        for(Integer index : sortedIndexes){
-            bitmap.set(index);
+        if (bulkImport) {
+            context.write(new Key(row, colFamily, colQualifier, rbk.getVisibility()), value);
+        } else {
+            // Write the row out to the database
+            final Mutation mutation = new Mutation(row);
+            mutation.put(colFamily, colQualifier, new ColumnVisibility(rbk.getVisibility()), value);
+            context.write(RB_BUCKET_TABLE, mutation);
         }
-
-        // Write the row out to the database
-        mutation.put(colFamily, colQualifier, colVis, BitmapUtils.toValue(bitmap));
-        context.write(RB_BUCKET_TABLE, mutation);
     }
 }
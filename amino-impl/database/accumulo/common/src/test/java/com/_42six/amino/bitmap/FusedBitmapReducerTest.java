@@ -0,0 +1,143 @@
+package com._42six.amino.bitmap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.ReduceContext;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FusedBitmapReducerTest {
+
+    /**
+     * Stands in for the reducer of a table, logging everything it is handed
+     */
+    private static class LoggingReducer extends Reducer<Writable, Writable, Writable, Writable> {
+        private final BitmapTable table;
+        private final List<String> log;
+
+        LoggingReducer(BitmapTable table, List<String> log) {
+            this.table = table;
+            this.log = log;
+        }
+
+        @Override
+        protected void setup(Context context) {
+            log.add("setup " + table);
+        }
+
+        @Override
+        protected void reduce(Writable key, Iterable<Writable> values, Context context) {
+            final StringBuilder sb = new StringBuilder(table + " " + key + ":");
+            for (Writable value : values) {
+                sb.append(' ').append(value);
+            }
+            log.add(sb.toString());
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            log.add("cleanup " + table);
+        }
+    }
+
+    /**
+     * Hands out the sorted keys and their values, the same as the framework's ReduceContext
+     */
+    private static class KeysHandler implements InvocationHandler {
+        private final Configuration conf = new Configuration(false);
+        private final List<FusedKey> keys = new ArrayList<>();
+        private final List<List<FusedValue>> values = new ArrayList<>();
+        private int current = -1;
+
+        KeysHandler add(BitmapTable table, String key, String... keyValues) {
+            keys.add(new FusedKey(table, new Text(key)));
+            final List<FusedValue> fusedValues = new ArrayList<>();
+            for (String value : keyValues) {
+                fusedValues.add(new FusedValue(new Text(value)));
+            }
+            values.add(fusedValues);
+            return this;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getConfiguration":
+                    return conf;
+                case "nextKey":
+                    current++;
+                    return current < keys.size();
+                case "getCurrentKey":
+                    return keys.get(current);
+                case "getValues":
+                    return values.get(current);
+                case "toString":
+                    return "KeysHandler";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> reduce(KeysHandler keys) throws IOException, InterruptedException {
+        final List<String> log = new ArrayList<>();
+        final ReduceContext<FusedKey, FusedValue, Writable, Writable> reduceContext =
+                (ReduceContext<FusedKey, FusedValue, Writable, Writable>) Proxy.newProxyInstance(
+                        FusedBitmapReducerTest.class.getClassLoader(), new Class[]{ReduceContext.class}, keys);
+        final WrappedReducer<FusedKey, FusedValue, Writable, Writable> wrapper = new WrappedReducer<>();
+
+        new FusedBitmapReducer() {
+            @Override
+            protected Reducer newTableReducer(BitmapTable table, Configuration conf) {
+                return new LoggingReducer(table, log);
+            }
+        }.run(wrapper.new Context(reduceContext));
+        return log;
+    }
+
+    @Test
+    public void testTableBoundaries() throws Exception {
+        final KeysHandler keys = new KeysHandler()
+                .add(BitmapTable.BY_BUCKET, "a", "1", "2")
+                .add(BitmapTable.BY_BUCKET, "b", "3")
+                .add(BitmapTable.BIT_LOOKUP, "c", "4")
+                .add(BitmapTable.HYPOTHESIS, "d", "5")
+                .add(BitmapTable.HYPOTHESIS, "e", "6", "7")
+                .add(BitmapTable.REVERSE_FEATURE_LOOKUP, "f", "8");
+
+        // Each table's reducer is run once over its own keys, and none of the keys at the boundaries are lost
+        assertEquals(Arrays.asList(
+                "setup BY_BUCKET", "BY_BUCKET a: 1 2", "BY_BUCKET b: 3", "cleanup BY_BUCKET",
+                "setup BIT_LOOKUP", "BIT_LOOKUP c: 4", "cleanup BIT_LOOKUP",
+                "setup HYPOTHESIS", "HYPOTHESIS d: 5", "HYPOTHESIS e: 6 7", "cleanup HYPOTHESIS",
+                "setup REVERSE_FEATURE_LOOKUP", "REVERSE_FEATURE_LOOKUP f: 8", "cleanup REVERSE_FEATURE_LOOKUP"),
+                reduce(keys));
+    }
+
+    @Test
+    public void testOneTable() throws Exception {
+        final KeysHandler keys = new KeysHandler()
+                .add(BitmapTable.STATS, "a", "1")
+                .add(BitmapTable.STATS, "b", "2");
+        assertEquals(Arrays.asList("setup STATS", "STATS a: 1", "STATS b: 2", "cleanup STATS"), reduce(keys));
+    }
+
+    @Test
+    public void testNoKeys() throws Exception {
+        // No table reducers are run at all
+        assertEquals(new ArrayList<String>(), reduce(new KeysHandler()));
+    }
+}
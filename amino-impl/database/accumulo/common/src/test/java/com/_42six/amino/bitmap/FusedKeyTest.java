@@ -0,0 +1,110 @@
+package com._42six.amino.bitmap;
+
+import com._42six.amino.bitmap.reverse.ReverseBitmapKey;
+import com._42six.amino.common.ByBucketKey;
+import org.apache.accumulo.core.data.Key;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class FusedKeyTest {
+
+    private static final String[] STRINGS = {"", "a", "ab", "b", "\u0000", "é", "中", "z"};
+    private static final int[] NUMBERS = {0, 1, 2, 10, 1234567};
+
+    private static byte[] serialize(FusedKey key) throws IOException {
+        final DataOutputBuffer out = new DataOutputBuffer();
+        key.write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    /**
+     * @return Keys of every table, in no particular order
+     */
+    private static List<FusedKey> createKeys() {
+        final List<FusedKey> keys = new ArrayList<>();
+        for(int n : NUMBERS){
+            for(String s : STRINGS){
+                keys.add(new FusedKey(BitmapTable.BY_BUCKET, new ByBucketKey(new Text(s), n, new Text("name" + s),
+                        new VIntWritable(n % 3), new Text(s), n % 2)));
+                keys.add(new FusedKey(BitmapTable.BIT_LOOKUP, new BitLookupKey(n, s, "vis", n % 3)));
+                keys.add(new FusedKey(BitmapTable.STATS, new StatsKey(s, "val", "bucket", "vis", n % 2, n)));
+                keys.add(new FusedKey(BitmapTable.HYPOTHESIS, new Text(s)));
+                keys.add(new FusedKey(BitmapTable.REVERSE_BITMAP, new ReverseBitmapKey(n % 4, n % 2,
+                        new VIntWritable(n % 3), new Text(s), n, s, new Text(""))));
+                keys.add(new FusedKey(BitmapTable.REVERSE_FEATURE_LOOKUP,
+                        new Key(new Text(Integer.toString(n)), new Text(s), new Text("cq"))));
+            }
+        }
+        return keys;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testComparator() throws IOException {
+        final WritableComparator comparator = new FusedKey.Comparator();
+        final List<FusedKey> keys = createKeys();
+        for(FusedKey k1 : keys){
+            final byte[] b1 = serialize(k1);
+            for(FusedKey k2 : keys){
+                final byte[] b2 = serialize(k2);
+                assertEquals(k1 + " vs " + k2, Integer.signum(k1.compareTo(k2)),
+                        Integer.signum(comparator.compare(b1, 0, b1.length, b2, 0, b2.length)));
+            }
+        }
+    }
+
+    @Test
+    public void testSortsByTableFirst() throws IOException {
+        final WritableComparator comparator = new FusedKey.Comparator();
+        final byte[] byBucket = serialize(new FusedKey(BitmapTable.BY_BUCKET,
+                new ByBucketKey(new Text("z"), 1234567, new Text("z"), 1, new Text("z"))));
+        final byte[] hypothesis = serialize(new FusedKey(BitmapTable.HYPOTHESIS, new Text("")));
+        assertEquals(-1, Integer.signum(comparator.compare(byBucket, 0, byBucket.length, hypothesis, 0,
+                hypothesis.length)));
+        assertEquals(1, Integer.signum(comparator.compare(hypothesis, 0, hypothesis.length, byBucket, 0,
+                byBucket.length)));
+    }
+
+    @Test
+    public void testWriteReadFields() throws IOException {
+        final List<FusedKey> keys = createKeys();
+        final DataOutputBuffer out = new DataOutputBuffer();
+        for(FusedKey key : keys){
+            key.write(out);
+        }
+
+        // Read them all back into the same FusedKey, the way the framework does, switching between the tables
+        final DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        final FusedKey read = new FusedKey();
+        for(FusedKey key : keys){
+            read.readFields(in);
+            assertEquals(key.getTable(), read.getTable());
+            assertEquals(key, read);
+            assertEquals(key.hashCode(), read.hashCode());
+            assertEquals(0, key.compareTo(read));
+        }
+        assertEquals(out.getLength(), in.getPosition());
+    }
+
+    @Test
+    public void testEquals() {
+        // The same key for different tables isn't equal
+        final FusedKey hypothesis = new FusedKey(BitmapTable.HYPOTHESIS, new Text("a"));
+        assertEquals(hypothesis, new FusedKey(BitmapTable.HYPOTHESIS, new Text("a")));
+        assertNotEquals(hypothesis, new FusedKey(BitmapTable.HYPOTHESIS, new Text("b")));
+        assertNotEquals(hypothesis, new FusedKey(BitmapTable.BY_BUCKET, new Text("a")));
+    }
+}
@@ -1,15 +1,12 @@
 package com._42six.amino.bitmap.iterators;
 
 import com._42six.amino.common.bitmap.AminoBitmap;
-import com._42six.amino.common.bitmap.BitmapUtils;
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
+import com._42six.amino.common.bitmap.SerializedBitmapReader;
 import org.apache.accumulo.core.data.*;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
 import org.apache.accumulo.core.iterators.OptionDescriber;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.WrappingIterator;
-import org.apache.hadoop.io.Text;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
@@ -29,7 +26,10 @@ public class BitmapANDIterator extends WrappingIterator implements OptionDescrib
   
   public static final String OPTION_BITS = "bits";
   
-  private ArrayList<CompareBits> bitsPerHash = null;
+  private List<CompareBits> bitsPerHash = null;
+
+  // Reused for every value so that filtering doesn't allocate
+  private final SerializedBitmapReader reader = new SerializedBitmapReader();
   
   private Key topKey = null;
   final Value topValue = new Value(new byte[0]);
@@ -73,41 +73,43 @@ public class BitmapANDIterator extends WrappingIterator implements OptionDescrib
   /**
    *  Setup the iterator based on the user options
    * @param options map of user given options which should just be 
-   *                OPTION_BITS (a list of lists) and 
-   *                the OPTION_TARGET (number of bits to match)
+   *                OPTION_BITS (the CompareBits per hash, from BitmapIteratorOptions.encodeCompareBits)
    * 
    */
   private void init(Map<String, String> options) {
       if(this.validateOptions(options) ){
 		  String bits = options.get(OPTION_BITS);
-          bitsPerHash = new Gson().fromJson(bits, new TypeToken<ArrayList<CompareBits>>(){}.getType());
+          bitsPerHash = BitmapIteratorOptions.decodeCompareBits(bits);
     } else {
     	throw new IllegalArgumentException("All iterator options not set!\n" + this.describeOptions());
     }
   }
   
   /**
-   * Check to see if has the appropriate number of bits for a bitmap
+   * Check to see if has the appropriate number of bits for a bitmap.  The bits are checked directly against the
+   * serialized value, stopping as soon as the value can no longer match.
    * @param golden the master bitmap to check against
    * @param testValue the value form the database to check against
    * @return false if the bits don't match the golden, true otherwise
    */
   public boolean filter(CompareBits golden, Value testValue) {
-      AminoBitmap testBitmap = BitmapUtils.fromValue(testValue.get());
-
-      // Check all of the non-Range features and make sure they are all present
-      if(testBitmap.andCardiniality(golden.getNonRangeBitmap()) != golden.getNonRangeCardinality()){
-          return false;
-      }
+      reader.reset(testValue.get());
+      return golden.matches(reader);
+  }
 
-      // For each of the range features, make sure that at least one of them was set
-      for(AminoBitmap bitmap : golden.rangeBitmaps){
-          if(testBitmap.andCardiniality(bitmap) < 1){
-              return false;
+  /**
+   * Parses the hash seed out of the column qualifier without creating a String
+   */
+  static int parseHashSeed(ByteSequence cq){
+      int seed = 0;
+      for(int i = 0; i < cq.length(); i++){
+          final int digit = cq.byteAt(i) - '0';
+          if(digit < 0 || digit > 9){
+              throw new NumberFormatException("Invalid hash seed: " + cq.toString());
           }
+          seed = seed * 10 + digit;
       }
-
-      return true;
+      return seed;
   }
   
  /**
@@ -144,12 +146,11 @@ public class BitmapANDIterator extends WrappingIterator implements OptionDescrib
   /**
    * Validate that we are in the same row and column family pair
    * @param testKey is the key that we are going to use to test against
-   * @param expectedRow is the expected row we want to be in
-   * @param expectedColumnFamily is the expected column family that we want to be in
+   * @param expectedKey is the key with the row and column family we want to be in
    * @return true or false if we are in both that row and column family
    */
-  private boolean sameRowAndColumnFamily(Key testKey, Text expectedRow, Text expectedColumnFamily) {
-	 return (testKey.getRow().equals(expectedRow)) && (testKey.getColumnFamily().equals(expectedColumnFamily));
+  private boolean sameRowAndColumnFamily(Key testKey, Key expectedKey) {
+	 return testKey.equals(expectedKey, PartialKey.ROW_COLFAM);
   }
   
   
@@ -181,17 +182,17 @@ public class BitmapANDIterator extends WrappingIterator implements OptionDescrib
 	  
 	  int numberOfMatchingHashSeeds;
 	  while(sourceIter.hasTop()) {
-		  // Get the row information
-		  final Key compareKey = sourceIter.getTopKey();
-		  final Text compareRow = compareKey.getRow();
-		  final Text compareColumnFamily = compareKey.getColumnFamily();
+		  // Get the row information.  Copy it since the source is free to reuse its Key
+		  final Key compareKey = new Key(sourceIter.getTopKey());
 		  numberOfMatchingHashSeeds = 0;
 		  // loop through the source iterator while the row key and column family match
-		  while(sourceIter.hasTop() && sameRowAndColumnFamily(sourceIter.getTopKey(), compareRow, compareColumnFamily)) {
-			  int hashSeed = Integer.parseInt(sourceIter.getTopKey().getColumnQualifier().toString());
+		  while(sourceIter.hasTop() && sameRowAndColumnFamily(sourceIter.getTopKey(), compareKey)) {
+			  int hashSeed = parseHashSeed(sourceIter.getTopKey().getColumnQualifierData());
 			  // if our hash seed is greater then our masterBitmap break the loop or this value does not match then break the loop
 			  if(hashSeed >= bitsPerHash.size() || !filter(bitsPerHash.get(hashSeed), sourceIter.getTopValue())) {
-				  log.debug("Failed to match using key: " + sourceIter.getTopKey().toStringNoTime());
+				  if(log.isDebugEnabled()) {
+					  log.debug("Failed to match using key: " + sourceIter.getTopKey().toStringNoTime());
+				  }
 				  numberOfMatchingHashSeeds = -1;
 				  break;
 			  }
@@ -201,11 +202,13 @@ public class BitmapANDIterator extends WrappingIterator implements OptionDescrib
 		  
 		  // We found a match, so lets send it back
 		  if(numberOfMatchingHashSeeds == bitsPerHash.size()) {
-			  log.debug("Found a match for: " + compareKey.toStringNoTime());
+			  if(log.isDebugEnabled()) {
+				  log.debug("Found a match for: " + compareKey.toStringNoTime());
+			  }
 			  topKey = compareKey;
 			  return;
-		  } else {
-			  log.debug(sourceIter.getTopKey().toStringNoTime() + " matched " + numberOfMatchingHashSeeds + " out of " + bitsPerHash.size() + " hash seeds!");
+		  } else if(log.isDebugEnabled()) {
+			  log.debug(compareKey.toStringNoTime() + " matched " + numberOfMatchingHashSeeds + " out of " + bitsPerHash.size() + " hash seeds!");
 		  }
 		
 		  // we have exhuasted all the keys
@@ -257,6 +260,10 @@ public class BitmapANDIterator extends WrappingIterator implements OptionDescrib
         int nonRangeCardinality;
         List<AminoBitmap> rangeBitmaps;
 
+        // The bits of the bitmaps, cached the first time they are needed.  Not sent along with the iterator options
+        private transient int[] nonRangePositions;
+        private transient int[][] rangePositions;
+
         public CompareBits() {
             nonRangeBitmap = new AminoBitmap();
             nonRangeCardinality = 0;
@@ -269,6 +276,85 @@ public class BitmapANDIterator extends WrappingIterator implements OptionDescrib
             this.rangeBitmaps = rangeBitmaps;
         }
 
+        /**
+         * @return The positions set in the non-range bitmap, in increasing order
+         */
+        public int[] getNonRangePositions(){
+            if(nonRangePositions == null){
+                nonRangePositions = toPositions(nonRangeBitmap);
+            }
+            return nonRangePositions;
+        }
+
+        /**
+         * @return The positions set in each of the range bitmaps, in increasing order
+         */
+        public int[][] getRangePositions(){
+            if(rangePositions == null){
+                final int[][] positions = new int[rangeBitmaps.size()][];
+                for(int i = 0; i < positions.length; i++){
+                    positions[i] = toPositions(rangeBitmaps.get(i));
+                }
+                rangePositions = positions;
+            }
+            return rangePositions;
+        }
+
+        /**
+         * Checks the bits against a serialized bitmap value
+         *
+         * @param reader The reader, already reset to the value to check.  It is rewound before it is used, so the same
+         *               value can be checked against several CompareBits in a row
+         * @return true if all of the non-range bits and at least one bit of each range bitmap are set
+         */
+        public boolean matches(SerializedBitmapReader reader){
+            reader.rewind();
+
+            // Check all of the non-Range features and make sure they are all present.  This is the same as checking
+            // that the AND cardinality equals the non-range cardinality
+            final int[] nonRangePositions = getNonRangePositions();
+            int allowedMisses = nonRangePositions.length - nonRangeCardinality;
+            if(allowedMisses < 0){
+                return false;
+            }
+            for(int position : nonRangePositions){
+                if(!reader.contains(position) && --allowedMisses < 0){
+                    return false;
+                }
+            }
+            if(allowedMisses != 0){
+                return false;
+            }
+
+            // For each of the range features, make sure that at least one of them was set
+            for(int[] positions : getRangePositions()){
+                reader.rewind();
+                if(!containsAny(reader, positions)){
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static boolean containsAny(SerializedBitmapReader reader, int[] positions){
+            for(int position : positions){
+                if(reader.contains(position)){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int[] toPositions(AminoBitmap bitmap){
+            final List<Integer> bits = bitmap.getPositions();
+            final int[] positions = new int[bits.size()];
+            for(int i = 0; i < positions.length; i++){
+                positions[i] = bits.get(i);
+            }
+            return positions;
+        }
+
         public void incrementNonRangeCardinality(){
             this.nonRangeCardinality += 1;
         }
@@ -279,6 +365,7 @@ public class BitmapANDIterator extends WrappingIterator implements OptionDescrib
 
         public void setNonRangeBitmap(AminoBitmap nonRangeBitmap) {
             this.nonRangeBitmap = nonRangeBitmap;
+            this.nonRangePositions = null;
         }
 
         public int getNonRangeCardinality() {
@@ -295,6 +382,7 @@ public class BitmapANDIterator extends WrappingIterator implements OptionDescrib
 
         public void setRangeBitmaps(ArrayList<AminoBitmap> rangeBitmaps) {
             this.rangeBitmaps = rangeBitmaps;
+            this.rangePositions = null;
         }
 
     }
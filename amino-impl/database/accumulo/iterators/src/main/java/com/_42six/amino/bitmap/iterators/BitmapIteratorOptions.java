@@ -0,0 +1,341 @@
+package com._42six.amino.bitmap.iterators;
+
+import com._42six.amino.common.bitmap.AminoBitmap;
+import com._42six.amino.common.bitmap.AminoBitmapJsonAdapter;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.reflect.TypeToken;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes the masks sent to the bitmap iterators.  The masks are written in a compact binary form, with the serialized
+ * bitmaps embedded directly, and then Base64 wrapped so they can be passed as an iterator option:
+ *
+ *  byte    version (1)
+ *  byte    type ('B' for a list of CompareBits, 'H' for a list of HypothesisMasks, 'R' for bitmaps keyed by row)
+ *  VInt    count
+ *  ...     the entries
+ *
+ * Decoded masks are cached per tablet server, keyed by a hash of the option, so a query that is run against many
+ * tablets, or run again, only has to decode its masks once.  The cached masks are shared and must not be modified.
+ *
+ * Options that were written as JSON by older clients are still accepted, including their reflected EWAH bitmaps.
+ */
+public final class BitmapIteratorOptions {
+
+    private static final byte VERSION = 1;
+    private static final byte TYPE_COMPARE_BITS = 'B';
+    private static final byte TYPE_HYPOTHESES = 'H';
+    private static final byte TYPE_ROW_BITMAPS = 'R';
+
+    private static final BaseEncoding BASE64 = BaseEncoding.base64();
+
+    /** Upper bound on the decoded size of the cached masks, counting the bitmaps and their prepared bit positions */
+    private static final long MAX_CACHED_BYTES = 64 * 1024 * 1024;
+
+    private static final Cache<HashCode, CachedOption> CACHE = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_BYTES)
+            .weigher(new Weigher<HashCode, CachedOption>() {
+                @Override
+                public int weigh(HashCode key, CachedOption value) {
+                    return value.weight;
+                }
+            })
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    private BitmapIteratorOptions(){
+        // Static helpers only
+    }
+
+    /**
+     * @return The option value for the CompareBits, one per hash
+     */
+    public static String encodeCompareBits(List<BitmapANDIterator.CompareBits> bitsPerHash){
+        try {
+            final DataOutputBuffer out = startOption(TYPE_COMPARE_BITS, bitsPerHash.size());
+            for(BitmapANDIterator.CompareBits bits : bitsPerHash){
+                writeCompareBits(out, bits);
+            }
+            return BASE64.encode(out.getData(), 0, out.getLength());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode CompareBits", e);
+        }
+    }
+
+    /**
+     * @return The option value for the HypothesisMasks
+     */
+    public static String encodeHypothesisMasks(List<MultiHypothesisIterator.HypothesisMask> masks){
+        try {
+            final DataOutputBuffer out = startOption(TYPE_HYPOTHESES, masks.size());
+            for(MultiHypothesisIterator.HypothesisMask mask : masks){
+                WritableUtils.writeString(out, mask.getId());
+                WritableUtils.writeString(out, mask.getFirst());
+                WritableUtils.writeString(out, mask.getLast());
+                WritableUtils.writeVInt(out, mask.getBitsPerHash().size());
+                for(BitmapANDIterator.CompareBits bits : mask.getBitsPerHash()){
+                    writeCompareBits(out, bits);
+                }
+            }
+            return BASE64.encode(out.getData(), 0, out.getLength());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode HypothesisMasks", e);
+        }
+    }
+
+    /**
+     * @return The option value for bitmaps keyed by the row they belong to
+     */
+    public static String encodeRowBitmaps(Map<String, AminoBitmap> bitmapsByRow){
+        try {
+            final DataOutputBuffer out = startOption(TYPE_ROW_BITMAPS, bitmapsByRow.size());
+            for(Map.Entry<String, AminoBitmap> entry : bitmapsByRow.entrySet()){
+                WritableUtils.writeString(out, entry.getKey());
+                entry.getValue().serialize(out);
+            }
+            return BASE64.encode(out.getData(), 0, out.getLength());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode row bitmaps", e);
+        }
+    }
+
+    /**
+     * Decodes CompareBits, using the cached copy if this option has been seen before
+     *
+     * @param option The option value, either from {@link #encodeCompareBits(List)} or a JSON list of CompareBits
+     * @return The CompareBits, one per hash.  Must not be modified
+     */
+    @SuppressWarnings("unchecked")
+    public static List<BitmapANDIterator.CompareBits> decodeCompareBits(final String option){
+        return (List<BitmapANDIterator.CompareBits>) getCached(option, new Callable<CachedOption>() {
+            @Override
+            public CachedOption call() throws IOException {
+                final List<BitmapANDIterator.CompareBits> bitsPerHash;
+                if(isJson(option)){
+                    bitsPerHash = AminoBitmapJsonAdapter.createGson().fromJson(option,
+                            new TypeToken<ArrayList<BitmapANDIterator.CompareBits>>(){}.getType());
+                } else {
+                    final DataInput in = openOption(option, TYPE_COMPARE_BITS);
+                    final int count = WritableUtils.readVInt(in);
+                    bitsPerHash = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++){
+                        bitsPerHash.add(readCompareBits(in));
+                    }
+                }
+                for(BitmapANDIterator.CompareBits bits : bitsPerHash){
+                    prepare(bits);
+                }
+                return new CachedOption(Collections.unmodifiableList(bitsPerHash), weighCompareBits(bitsPerHash));
+            }
+        });
+    }
+
+    /**
+     * Decodes HypothesisMasks, using the cached copy if this option has been seen before
+     *
+     * @param option The option value, either from {@link #encodeHypothesisMasks(List)} or a JSON list of HypothesisMasks
+     * @return The HypothesisMasks.  Must not be modified
+     */
+    @SuppressWarnings("unchecked")
+    public static List<MultiHypothesisIterator.HypothesisMask> decodeHypothesisMasks(final String option){
+        return (List<MultiHypothesisIterator.HypothesisMask>) getCached(option, new Callable<CachedOption>() {
+            @Override
+            public CachedOption call() throws IOException {
+                final List<MultiHypothesisIterator.HypothesisMask> masks;
+                if(isJson(option)){
+                    masks = AminoBitmapJsonAdapter.createGson().fromJson(option,
+                            new TypeToken<ArrayList<MultiHypothesisIterator.HypothesisMask>>(){}.getType());
+                } else {
+                    final DataInput in = openOption(option, TYPE_HYPOTHESES);
+                    final int count = WritableUtils.readVInt(in);
+                    masks = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++){
+                        final String id = WritableUtils.readString(in);
+                        final String first = WritableUtils.readString(in);
+                        final String last = WritableUtils.readString(in);
+                        final int hashes = WritableUtils.readVInt(in);
+                        final List<BitmapANDIterator.CompareBits> bitsPerHash = new ArrayList<>(hashes);
+                        for(int j = 0; j < hashes; j++){
+                            bitsPerHash.add(readCompareBits(in));
+                        }
+                        masks.add(new MultiHypothesisIterator.HypothesisMask(id, first, last, bitsPerHash));
+                    }
+                }
+                for(MultiHypothesisIterator.HypothesisMask mask : masks){
+                    mask.prepare();
+                    for(BitmapANDIterator.CompareBits bits : mask.getBitsPerHash()){
+                        prepare(bits);
+                    }
+                }
+                return new CachedOption(Collections.unmodifiableList(masks), weighHypothesisMasks(masks));
+            }
+        });
+    }
+
+    /**
+     * Decodes bitmaps keyed by row, using the cached copy if this option has been seen before
+     *
+     * @param option The option value from {@link #encodeRowBitmaps(Map)}
+     * @return The bitmaps keyed by row.  Must not be modified
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, AminoBitmap> decodeRowBitmaps(final String option){
+        return (Map<String, AminoBitmap>) getCached(option, new Callable<CachedOption>() {
+            @Override
+            public CachedOption call() throws IOException {
+                final DataInput in = openOption(option, TYPE_ROW_BITMAPS);
+                final int count = WritableUtils.readVInt(in);
+                final Map<String, AminoBitmap> bitmapsByRow = new HashMap<>(count * 2);
+                for(int i = 0; i < count; i++){
+                    final String row = WritableUtils.readString(in);
+                    final AminoBitmap bitmap = new AminoBitmap();
+                    bitmap.deserialize(in);
+                    bitmapsByRow.put(row, bitmap);
+                }
+                return new CachedOption(Collections.unmodifiableMap(bitmapsByRow), weighRowBitmaps(bitmapsByRow));
+            }
+        });
+    }
+
+    private static Object getCached(String option, Callable<CachedOption> decoder){
+        final HashCode key = Hashing.murmur3_128().hashString(option, Charsets.UTF_8);
+        try {
+            return CACHE.get(key, decoder).value;
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("Could not decode bitmap iterator option", e.getCause());
+        }
+    }
+
+    private static boolean isJson(String option){
+        return option.startsWith("[");
+    }
+
+    /**
+     * Works out the bit positions up front, so that the CompareBits are never written to once they are shared between
+     * threads
+     */
+    private static void prepare(BitmapANDIterator.CompareBits bits){
+        bits.getNonRangePositions();
+        bits.getRangePositions();
+    }
+
+    /**
+     * @return Roughly the bytes held by prepared CompareBits, which for dense bitmaps is mostly their bit positions
+     */
+    static int weighCompareBits(List<BitmapANDIterator.CompareBits> bitsPerHash){
+        long weight = 0;
+        for(BitmapANDIterator.CompareBits bits : bitsPerHash){
+            weight += bits.getNonRangeBitmap().sizeInBytes() + 4L * bits.getNonRangePositions().length;
+            for(AminoBitmap rangeBitmap : bits.getRangeBitmaps()){
+                weight += rangeBitmap.sizeInBytes();
+            }
+            for(int[] positions : bits.getRangePositions()){
+                weight += 4L * positions.length;
+            }
+        }
+        return toWeight(weight);
+    }
+
+    static int weighHypothesisMasks(List<MultiHypothesisIterator.HypothesisMask> masks){
+        long weight = 0;
+        for(MultiHypothesisIterator.HypothesisMask mask : masks){
+            // The strings, plus the Text copies of first and last
+            weight += 2L * (length(mask.getId()) + length(mask.getFirst()) + length(mask.getLast()))
+                    + length(mask.getFirst()) + length(mask.getLast());
+            weight += weighCompareBits(mask.getBitsPerHash());
+        }
+        return toWeight(weight);
+    }
+
+    static int weighRowBitmaps(Map<String, AminoBitmap> bitmapsByRow){
+        long weight = 0;
+        for(Map.Entry<String, AminoBitmap> entry : bitmapsByRow.entrySet()){
+            weight += 2L * entry.getKey().length() + entry.getValue().sizeInBytes();
+        }
+        return toWeight(weight);
+    }
+
+    private static int length(String s){
+        return s == null ? 0 : s.length();
+    }
+
+    private static int toWeight(long weight){
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    private static DataOutputBuffer startOption(byte type, int count) throws IOException {
+        final DataOutputBuffer out = new DataOutputBuffer();
+        out.writeByte(VERSION);
+        out.writeByte(type);
+        WritableUtils.writeVInt(out, count);
+        return out;
+    }
+
+    private static DataInput openOption(String option, byte type) throws IOException {
+        final byte[] bytes = BASE64.decode(option);
+        final DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        final byte version = in.readByte();
+        if(version != VERSION){
+            throw new IOException("Unknown bitmap iterator option version: " + version);
+        }
+        final byte actualType = in.readByte();
+        if(actualType != type){
+            throw new IOException("Expected bitmap iterator option of type " + (char) type + " but was " + (char) actualType);
+        }
+        return in;
+    }
+
+    private static void writeCompareBits(DataOutput out, BitmapANDIterator.CompareBits bits) throws IOException {
+        WritableUtils.writeVInt(out, bits.getNonRangeCardinality());
+        bits.getNonRangeBitmap().serialize(out);
+        WritableUtils.writeVInt(out, bits.getRangeBitmaps().size());
+        for(AminoBitmap rangeBitmap : bits.getRangeBitmaps()){
+            rangeBitmap.serialize(out);
+        }
+    }
+
+    private static BitmapANDIterator.CompareBits readCompareBits(DataInput in) throws IOException {
+        final int nonRangeCardinality = WritableUtils.readVInt(in);
+        final AminoBitmap nonRangeBitmap = new AminoBitmap();
+        nonRangeBitmap.deserialize(in);
+        final int rangeCount = WritableUtils.readVInt(in);
+        final List<AminoBitmap> rangeBitmaps = new ArrayList<>(rangeCount);
+        for(int i = 0; i < rangeCount; i++){
+            final AminoBitmap rangeBitmap = new AminoBitmap();
+            rangeBitmap.deserialize(in);
+            rangeBitmaps.add(rangeBitmap);
+        }
+        return new BitmapANDIterator.CompareBits(nonRangeBitmap, nonRangeCardinality, rangeBitmaps);
+    }
+
+    private static class CachedOption {
+        final Object value;
+        final int weight;
+
+        CachedOption(Object value, int weight){
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com._42six.amino.bitmap.iterators;
+
+import com._42six.amino.common.bitmap.SerializedBitmapReader;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.apache.accumulo.core.data.*;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Evaluates a batch of hypotheses against the Bitmap_byBucket table in a single pass.  The entries in that table
+ * should look like:
+ *  Row ID                                          Column Family  Column Qualifier     Value
+ *  Shard_Number:Data Source:Bucket Name            Bucket Value   Hash Salt            Amino Bitmap (Feature Facet Value Index)
+ *
+ * Each value is read once and checked against the masks of every hypothesis that still matches the bucket value, the
+ * same way that {@link BitmapANDIterator} checks a single hypothesis.  For every hypothesis that matches all of the
+ * hash salts, a key is returned with the position of the hypothesis in the batch as the column qualifier:
+ *  Row ID                                          Column Family  Column Qualifier     Value
+ *  Shard_Number:Data Source:Bucket Name            Bucket Value   Hypothesis Position  (empty)
+ *
+ * The positions are zero padded so that they sort in order, and can be turned back into a position with
+ * {@link #getHypothesisPosition(Key)}.  The hypothesis IDs are only used for logging, since they may be missing or
+ * repeated.
+ */
+public class MultiHypothesisIterator extends WrappingIterator implements OptionDescriber {
+
+    public static final Logger log = Logger.getLogger(MultiHypothesisIterator.class);
+
+    public static final String OPTION_HYPOTHESES = "hypotheses";
+
+    // The hypotheses in the order they were sent, and the column qualifier of the keys returned for each
+    private HypothesisMask[] hypotheses;
+    private byte[][] hitQualifiers;
+    private boolean[] stillMatching;
+    private int[] matchingHashSeeds;
+
+    // Reused for every value so that filtering doesn't allocate
+    private final SerializedBitmapReader reader = new SerializedBitmapReader();
+
+    private Range seekRange;
+    private final Deque<Key> pendingKeys = new ArrayDeque<>();
+    private Key topKey = null;
+    private final Value topValue = new Value(new byte[0]);
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+        this.setSource(source);
+        if(!validateOptions(options)){
+            throw new IllegalArgumentException("All iterator options not set!\n" + this.describeOptions());
+        }
+
+        setHypotheses(BitmapIteratorOptions.decodeHypothesisMasks(options.get(OPTION_HYPOTHESES)));
+    }
+
+    private void setHypotheses(List<HypothesisMask> masks){
+        hypotheses = masks.toArray(new HypothesisMask[masks.size()]);
+        hitQualifiers = new byte[hypotheses.length][];
+        for(int i = 0; i < hypotheses.length; i++){
+            hitQualifiers[i] = getHitQualifier(i, hypotheses.length).getBytes(Charsets.UTF_8);
+        }
+        stillMatching = new boolean[hypotheses.length];
+        matchingHashSeeds = new int[hypotheses.length];
+    }
+
+    /**
+     * @return The column qualifier of the keys returned for the hypothesis at a position in a batch of count hypotheses.
+     * Zero padded to the same width for the whole batch, so that the qualifiers sort in the same order as the positions
+     */
+    static String getHitQualifier(int position, int count){
+        final int width = Integer.toString(Math.max(count - 1, 0)).length();
+        return Strings.padStart(Integer.toString(position), width, '0');
+    }
+
+    /**
+     * @param hit A key returned by this iterator
+     * @return The position in the batch of the hypothesis that matched
+     */
+    public static int getHypothesisPosition(Key hit){
+        return Integer.parseInt(hit.getColumnQualifier().toString());
+    }
+
+    @Override
+    public Key getTopKey() {
+        return topKey;
+    }
+
+    @Override
+    public Value getTopValue() {
+        // We do not really care about the value
+        return topValue;
+    }
+
+    @Override
+    public boolean hasTop() {
+        return topKey != null;
+    }
+
+    @Override
+    public void next() throws IOException {
+        topKey = null;
+        getNextKey();
+    }
+
+    /**
+     * Seeks to the first bucket value in the range.  If the range starts part way through a bucket value, because a
+     * scan is being resumed after one of our own keys, the whole bucket value is read again and the hypotheses that were
+     * already returned are skipped.
+     */
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+        topKey = null;
+        pendingKeys.clear();
+
+        final Key startKey = range.getStartKey();
+        Range sourceRange = range;
+        if(startKey != null && startKey.getColumnFamilyData().length() == 0 &&
+                startKey.getColumnQualifierData().length() == 0 &&
+                startKey.getColumnVisibilityData().length() == 0 &&
+                startKey.getTimestamp() == Long.MAX_VALUE &&
+                !range.isStartKeyInclusive()) {
+            final Key followingKey = startKey.followingKey(PartialKey.ROW);
+            if(range.getEndKey() != null && followingKey.compareTo(range.getEndKey()) > 0)
+                return;
+            range = new Range(followingKey, true, range.getEndKey(), range.isEndKeyInclusive());
+            sourceRange = range;
+        } else if(startKey != null && startKey.getColumnFamilyData().length() != 0){
+            sourceRange = new Range(new Key(startKey.getRow(), startKey.getColumnFamily()), true,
+                    range.getEndKey(), range.isEndKeyInclusive());
+        }
+        seekRange = range;
+
+        super.seek(sourceRange, columnFamilies, inclusive);
+        getNextKey();
+    }
+
+    /**
+     * Gathers the hash seeds of each bucket value, checking every hypothesis that still matches, until at least one
+     * hypothesis matches all of them
+     */
+    private void getNextKey() throws IOException {
+        final SortedKeyValueIterator<Key, Value> sourceIter = getSource();
+        while(pendingKeys.isEmpty() && sourceIter.hasTop()) {
+            // Copy the key since the source is free to reuse it
+            final Key compareKey = new Key(sourceIter.getTopKey());
+            final ByteSequence bucketValue = compareKey.getColumnFamilyData();
+
+            int remaining = 0;
+            for(int i = 0; i < hypotheses.length; i++){
+                stillMatching[i] = hypotheses[i].inBounds(bucketValue);
+                matchingHashSeeds[i] = 0;
+                if(stillMatching[i]){
+                    remaining++;
+                }
+            }
+
+            // loop through the source iterator while the row key and column family match
+            while(sourceIter.hasTop() && sourceIter.getTopKey().equals(compareKey, PartialKey.ROW_COLFAM)) {
+                if(remaining > 0){
+                    final int hashSeed = BitmapANDIterator.parseHashSeed(sourceIter.getTopKey().getColumnQualifierData());
+                    reader.reset(sourceIter.getTopValue().get());
+                    for(int i = 0; i < hypotheses.length; i++){
+                        if(!stillMatching[i]){
+                            continue;
+                        }
+                        final List<BitmapANDIterator.CompareBits> bits = hypotheses[i].bitsPerHash;
+                        if(hashSeed >= bits.size() || !bits.get(hashSeed).matches(reader)){
+                            stillMatching[i] = false;
+                            remaining--;
+                        } else {
+                            matchingHashSeeds[i]++;
+                        }
+                    }
+                }
+                sourceIter.next();
+            }
+
+            for(int i = 0; i < hypotheses.length; i++){
+                if(stillMatching[i] && matchingHashSeeds[i] == hypotheses[i].bitsPerHash.size()){
+                    final Key hit = new Key(compareKey.getRowData().toArray(), bucketValue.toArray(),
+                            hitQualifiers[i], compareKey.getColumnVisibilityData().toArray(),
+                            compareKey.getTimestamp());
+                    if(seekRange.afterEndKey(hit)){
+                        break;
+                    }
+                    if(!seekRange.beforeStartKey(hit)){
+                        pendingKeys.add(hit);
+                    }
+                }
+            }
+
+            if(log.isDebugEnabled()) {
+                final List<String> matchedIds = new ArrayList<>();
+                for(Key hit : pendingKeys){
+                    matchedIds.add(hypotheses[getHypothesisPosition(hit)].id);
+                }
+                log.debug(compareKey.toStringNoTime() + " matched " + pendingKeys.size() + " out of " +
+                        hypotheses.length + " hypotheses: " + matchedIds);
+            }
+        }
+
+        topKey = pendingKeys.poll();
+    }
+
+    @Override
+    public IteratorOptions describeOptions() {
+        String iterName = "Amino Multi Hypothesis Iterator";
+        String iterDesc = "Checks each bucket value against a batch of hypotheses' masks in one pass, returning the IDs of the hypotheses that match";
+        Map<String,String> optionMap = new HashMap<>();
+        optionMap.put(OPTION_HYPOTHESES, "HypothesisMasks from BitmapIteratorOptions.encodeHypothesisMasks, each with a CompareBits per hash.  Matches are returned with the position of the hypothesis as the column qualifier");
+        return new IteratorOptions(iterName, iterDesc, optionMap, null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options) {
+        return options.containsKey(OPTION_HYPOTHESES);
+    }
+
+    /**
+     * We will not allow the user to deep copy the iterator
+     */
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        throw new UnsupportedOperationException("Deep Copy is not allowed with this iterator");
+    }
+
+    /**
+     * The masks of one hypothesis, along with the bucket values it can possibly match
+     */
+    public static class HypothesisMask {
+        String id;    // Only used for logging, so may be null
+        String first; // The lowest bucket value that can match, or null for no lower bound
+        String last;  // The highest bucket value that can match, or null for no upper bound
+        List<BitmapANDIterator.CompareBits> bitsPerHash;
+
+        private transient Text firstText;
+        private transient Text lastText;
+
+        public HypothesisMask() {
+            bitsPerHash = new ArrayList<>();
+        }
+
+        public HypothesisMask(String id, String first, String last, List<BitmapANDIterator.CompareBits> bitsPerHash){
+            this.id = id;
+            this.first = first;
+            this.last = last;
+            this.bitsPerHash = bitsPerHash;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFirst() {
+            return first;
+        }
+
+        public String getLast() {
+            return last;
+        }
+
+        public List<BitmapANDIterator.CompareBits> getBitsPerHash() {
+            return bitsPerHash;
+        }
+
+        /**
+         * Converts the bounds to Text up front, so that the mask is never written to once it is shared between threads
+         */
+        void prepare(){
+            if(first != null && firstText == null){
+                firstText = new Text(first);
+            }
+            if(last != null && lastText == null){
+                lastText = new Text(last);
+            }
+        }
+
+        /**
+         * @return true if the bucket value falls between first and last
+         */
+        boolean inBounds(ByteSequence bucketValue){
+            prepare();
+            if(firstText != null && compare(bucketValue, firstText) < 0){
+                return false;
+            }
+            if(lastText != null && compare(bucketValue, lastText) > 0){
+                return false;
+            }
+            return true;
+        }
+
+        private static int compare(ByteSequence bytes, Text text){
+            return WritableComparator.compareBytes(bytes.getBackingArray(), bytes.offset(), bytes.length(),
+                    text.getBytes(), 0, text.getLength());
+        }
+    }
+}
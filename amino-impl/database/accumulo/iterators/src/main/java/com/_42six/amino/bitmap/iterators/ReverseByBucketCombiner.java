@@ -2,9 +2,9 @@ package com._42six.amino.bitmap.iterators;
 
 import com._42six.amino.common.bitmap.AminoBitmap;
 import com._42six.amino.common.bitmap.BitmapUtils;
+import com._42six.amino.common.bitmap.SerializedBitmapReader;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
-import com.googlecode.javaewah.EWAHCompressedBitmap;
 import org.apache.accumulo.core.data.*;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
 import org.apache.accumulo.core.iterators.OptionDescriber;
@@ -28,6 +28,15 @@ import java.util.*;
  *  Per shard:salt, this will AND together all of the nominal values that it finds, in addition to AND'ing together the
  *  OR result of ratio features.  If a similar ratio is passed in (i.e. Has Digit 3-5 and Has Digit 7-9) that will be
  *  treated as one feature of (Has Digit 3-5 OR 7-9) before being AND'ed with the other features.
+ *
+ *  The bitmaps of an OR'd feature are held in memory so that they can all be OR'd together at once.  If holding them
+ *  would take more than OPTION_BITMAP_MEM_THRESHOLD bytes, the feature is paged instead: its rows are read again for
+ *  each window of bit positions, and the bits of each window are OR'd straight out of the serialized bitmaps.  Only one
+ *  window, one serialized bitmap and the results are held at a time, at the cost of reading the rows once per window.
+ *
+ *  An OR'd feature can also be given as pieces of column qualifiers, for the ranges of dates and ratios that are covered
+ *  by the pre-OR'd bitmaps of blocks of values (see RangeAggregates).  The Range for the feature then spans its whole
+ *  column family, and only the bitmaps of the pieces are OR'd together.
  */
 public class ReverseByBucketCombiner extends WrappingIterator implements OptionDescriber {
 
@@ -46,9 +55,19 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
     /** The option that signifies how many Ranges are being iterated over */
     public static final String OPTION_NUM_RANGES = "num_ranges";
 
-    /** The amount of memory to use when trying to optimize combining of bitmaps.  This is is the trigger, not the upper limit */
+    /**
+     * The option holding the pieces of column qualifiers to OR together for some of the OR'd features.  This should be a
+     * map from the column family to an array of inclusive [first, last] column qualifier pairs
+     */
+    public static final String OPTION_OR_PIECES = "or_pieces";
+
+    /** The amount of memory to hold the bitmaps of an OR'd feature in.  Past this the feature is paged in windows */
     public static final String OPTION_BITMAP_MEM_THRESHOLD = "max_bitmap_memory_bytes";
 
+    /** The most words in a window when paging, so that a huge threshold doesn't allocate a huge window */
+    private static final int MAX_WINDOW_WORDS = 1 << 22;
+    private static final int MIN_WINDOW_WORDS = 1 << 10;
+
     // PRIVATE VARS
     private int numberOfRanges = 0; // The number of Ranges being compared.
     private int rangesCounted = 0; // Keeps track of how many times getNext() was called
@@ -63,6 +82,9 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
     // The cf of features to be OR'd
     private Set<String> orIds = new HashSet<>();
 
+    // The pieces of column qualifiers of the OR'd features that were given them
+    private Map<String, List<String[]>> orPieces = new HashMap<>();
+
     // To keep track of which features we actually got back to make sure we got back values of every feature type
     private HashMap<AbstractMap.SimpleImmutableEntry<String, String>, Boolean> andFeatureIds = new HashMap<>();
     private HashMap<String, Boolean> orFeatureIds = new HashMap<>();
@@ -71,6 +93,14 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
     private Key topKey = null;
     private Value topValue = BitmapUtils.toValue(new AminoBitmap());
     AminoBitmap topValueBitmap = null;
+
+    // What the source was last seeked to, so that it can be read again when paging
+    private Range seekRange = null;
+    private Collection<ByteSequence> seekColumnFamilies = Collections.emptySet();
+    private boolean seekInclusive = false;
+
+    // The most bytes of bitmaps held at once for the current row
+    private long peakBitmapBytes = 0;
  
     /**
     * Return the current matching key
@@ -113,6 +143,7 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
     *                whose values should be AND'ed together
     *                OPTION_OR_IDS  - JSON String array of AbstractMap.SimpleImmutableEntry<String, String> cf/cq's
     *                whose values first need to be OR'd before being AND'd together with other features
+    *                OPTION_OR_PIECES - JSON map of the OR'd cf's to the [first, last] cq pairs to OR for them
     *                OPTION_NUM_RANGES - The number of Ranges being iterated over
     *                OPTION_BITMAP_MEM_THRESHOLD - Amount of memory that is acceptible to use before having to "page" our bitmaps
     */
@@ -147,6 +178,11 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
             }
         }
 
+        final String pieces = options.get(OPTION_OR_PIECES);
+        if(pieces != null){
+            orPieces = gson.fromJson(pieces, new TypeToken<Map<String, List<String[]>>>(){static final long serialVersionUID = 426L;}.getType());
+        }
+
         if(options.containsKey(OPTION_BITMAP_MEM_THRESHOLD)){
             bitmapMemoryThreshold = Long.parseLong(options.get(OPTION_BITMAP_MEM_THRESHOLD));
 
@@ -171,8 +207,9 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
 
         optionMap.put(OPTION_AND_IDS, "Feature IDs that just need to be AND'ed together with other features");
         optionMap.put(OPTION_OR_IDS, "Feature IDs that need to first be OR togeter before AND'ing with other features");
+        optionMap.put(OPTION_OR_PIECES, "Map of the OR'd feature IDs to the pieces of column qualifiers to OR together for them, instead of all of them");
         optionMap.put(OPTION_NUM_RANGES, "The number of Ranges that are being scanned over");
-        optionMap.put(OPTION_BITMAP_MEM_THRESHOLD, "The threshold of memory to consume before the iterator starts paging the bitmaps for comparison");
+        optionMap.put(OPTION_BITMAP_MEM_THRESHOLD, "The most memory to hold the bitmaps of an OR'd feature in before the iterator starts paging them in windows of bit positions.  0 for no limit");
 
         return new IteratorOptions(iterName, iterDesc, optionMap, null);
     }
@@ -198,7 +235,7 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
 
         // If the memory threshold was passed in, make sure it's non-negative.  0 means MAX
         if(options.containsKey(OPTION_BITMAP_MEM_THRESHOLD)){
-            if(Integer.parseInt(options.get(OPTION_BITMAP_MEM_THRESHOLD)) < 0){
+            if(Long.parseLong(options.get(OPTION_BITMAP_MEM_THRESHOLD)) < 0){
                 return false;
             }
         }
@@ -225,6 +262,22 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
         topValue = BitmapUtils.toValue(new AminoBitmap());
         topKey = INVALID_KEY;
         topValueBitmap = null;
+        peakBitmapBytes = 0;
+    }
+
+    /**
+     * @return The most bytes of bitmaps that were held at once while combining the current row
+     */
+    public long getPeakBitmapBytes(){
+        return peakBitmapBytes;
+    }
+
+    private long topValueBytes(){
+        return (topValueBitmap != null) ? topValueBitmap.sizeInBytes() : 0;
+    }
+
+    private void notePeak(long bytes){
+        peakBitmapBytes = Math.max(peakBitmapBytes, bytes);
     }
 
     /**
@@ -277,9 +330,15 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
                 }
             }
 
+            if(type == FeatureType.OR && orPieces.containsKey(compareColumnFamily.toString())){
+                combineOrPieces(compareKey.getRow(), compareColumnFamily);
+                topKey = compareKey;
+                continue;
+            }
+
             AminoBitmap runningBitmap = null; // The culmination to combine with the topValueBitmap
             long currentBytes = 0;
-            final HashSet<EWAHCompressedBitmap> currentBitmaps = new HashSet<>();
+            final List<AminoBitmap> currentBitmaps = new ArrayList<>();
 
             // Loop through all of the rows of the feature type
             while(sourceIter.hasTop() && compareColumnFamily.equals(sourceIter.getTopKey().getColumnFamily())){
@@ -299,24 +358,26 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
                     }
                 } else {
                     currentBytes += currentBitmap.sizeInBytes();
+                    notePeak(currentBytes + topValueBytes());
+
+                    if(currentBytes > bitmapMemoryThreshold){
+                        // Too big to hold.  Start the feature over, a window at a time, which also ANDs it in to the
+                        // topValueBitmap
+                        currentBitmaps.clear();
+                        runningBitmap = null;
+                        pageOrFeature(compareKey.getRow(), compareColumnFamily,
+                                featureRanges(compareKey.getRow(), compareColumnFamily));
+                        seekPastFeature(compareKey.getRow(), compareColumnFamily);
+                        break;
+                    }
 
                     // Must OR together values first before ANDing them with the topValueBitmap
                     if(runningBitmap == null){
                         runningBitmap = currentBitmap;
                     } else {
-                        // Using the static "or" method can be MUCH faster than OR'ng individual bitmaps together.  Keep
-                        // track of bitmaps until we hit a threshold and then or what we have together.
-                        currentBitmaps.add(currentBitmap.getBitmap());
-
-                        if(currentBytes >= bitmapMemoryThreshold){
-                            currentBitmaps.add(runningBitmap.getBitmap());
-                            runningBitmap.setBitmap(EWAHCompressedBitmap.or(currentBitmaps.toArray(new EWAHCompressedBitmap[currentBitmaps.size()])));
-
-                            log.info("Hit memory threshold. Combining " + currentBitmaps.size() + " bitmaps");
-                            // Get rid of the old references so that the memory can be gc'd if need be
-                            currentBitmaps.clear();
-                            currentBytes = 0;
-                        }
+                        // Using the static "or" method can be MUCH faster than OR'ng individual bitmaps together, so
+                        // keep track of the bitmaps and OR them all at once
+                        currentBitmaps.add(currentBitmap);
                     }
                 }
 
@@ -330,8 +391,8 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
             if(runningBitmap != null){
                 // Add in any remaining OR values
                 if(!currentBitmaps.isEmpty()){
-                    currentBitmaps.add(runningBitmap.getBitmap());
-                    runningBitmap.setBitmap(EWAHCompressedBitmap.or(currentBitmaps.toArray(new EWAHCompressedBitmap[currentBitmaps.size()])));
+                    currentBitmaps.add(runningBitmap);
+                    runningBitmap = AminoBitmap.or(currentBitmaps);
 
                     // Get rid of the old references so that the memory can be gc'd if need be
                     currentBitmaps.clear();
@@ -351,6 +412,161 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
         computeTopValue();
     }
 
+    /**
+     * @return The parts of the seeked Range holding the bitmaps of an OR'd feature.  Either its pieces or the whole
+     * feature
+     */
+    private List<Range> featureRanges(Text row, Text columnFamily){
+        final List<Range> ranges = new ArrayList<>();
+        final List<String[]> pieces = orPieces.get(columnFamily.toString());
+        if(pieces == null){
+            final Key featureStart = new Key(row, columnFamily);
+            ranges.add(new Range(featureStart, true, featureStart.followingKey(PartialKey.ROW_COLFAM), false));
+        } else {
+            for(String[] piece : pieces){
+                ranges.add(new Range(new Key(row, columnFamily, new Text(piece[0])), true,
+                        new Key(row, columnFamily, new Text(piece[1])).followingKey(PartialKey.ROW_COLFAM_COLQUAL), false));
+            }
+        }
+
+        final List<Range> clipped = new ArrayList<>(ranges.size());
+        for(Range range : ranges){
+            final Range clip = seekRange.clip(range, true);
+            if(clip != null){
+                clipped.add(clip);
+            }
+        }
+        return clipped;
+    }
+
+    /**
+     * ORs together the bitmaps of the pieces of a feature and ANDs the result in to the topValueBitmap, paging them if
+     * they don't fit in memory.  Finding none of the pieces means that none of the bucket values match.  The source is
+     * left at the first key after the feature.
+     *
+     * @param row The shard:salt row being combined
+     * @param columnFamily The column family of the feature
+     */
+    private void combineOrPieces(Text row, Text columnFamily) throws IOException {
+        final SortedKeyValueIterator<Key, Value> sourceIter = getSource();
+        final List<Range> ranges = featureRanges(row, columnFamily);
+        final List<AminoBitmap> bitmaps = new ArrayList<>();
+        long currentBytes = 0;
+        boolean paged = false;
+
+        pieces:
+        for(Range range : ranges){
+            sourceIter.seek(range, seekColumnFamilies, seekInclusive);
+            while(sourceIter.hasTop()){
+                final AminoBitmap bitmap = BitmapUtils.fromValue(sourceIter.getTopValue());
+                currentBytes += bitmap.sizeInBytes();
+                notePeak(currentBytes + topValueBytes());
+                if(currentBytes > bitmapMemoryThreshold){
+                    bitmaps.clear();
+                    pageOrFeature(row, columnFamily, ranges);
+                    paged = true;
+                    break pieces;
+                }
+                bitmaps.add(bitmap);
+                sourceIter.next();
+            }
+        }
+
+        if(!paged){
+            final AminoBitmap or = AminoBitmap.or(bitmaps);
+            if(topValueBitmap == null){
+                topValueBitmap = or;
+            } else {
+                topValueBitmap.AND(or);
+            }
+        }
+        seekPastFeature(row, columnFamily);
+    }
+
+    /**
+     * Seeks the source to the first key after a feature, within the seeked Range
+     */
+    private void seekPastFeature(Text row, Text columnFamily) throws IOException {
+        final Key featureEnd = new Key(row, columnFamily).followingKey(PartialKey.ROW_COLFAM);
+        final Range rest = seekRange.clip(new Range(featureEnd, true, seekRange.getEndKey(),
+                seekRange.isEndKeyInclusive()), true);
+        if(rest != null){
+            getSource().seek(rest, seekColumnFamilies, seekInclusive);
+        }
+    }
+
+    /**
+     * ORs together the bitmaps of a feature a window of bit positions at a time and ANDs the result in to the
+     * topValueBitmap.  The feature's rows are read again for each window, straight out of their serialized form, until a
+     * window starts past the last bit of every bitmap.  The source is left wherever the last window ended.
+     *
+     * @param row The shard:salt row being combined
+     * @param columnFamily The column family of the feature
+     * @param featureRanges Where the feature's bitmaps are, from {@link #featureRanges}
+     */
+    private void pageOrFeature(Text row, Text columnFamily, List<Range> featureRanges) throws IOException {
+        final SortedKeyValueIterator<Key, Value> sourceIter = getSource();
+
+        final long[] window = new long[(int) Math.max(MIN_WINDOW_WORDS, Math.min(MAX_WINDOW_WORDS, bitmapMemoryThreshold / 16))];
+        final long windowBits = window.length * 64L;
+        final SerializedBitmapReader reader = new SerializedBitmapReader();
+
+        // Only the bits that are already set in the topValueBitmap can survive the AND, so the result is masked by it
+        // as each window is finished rather than holding the whole OR
+        final Iterator<Integer> andBits = (topValueBitmap != null) ? topValueBitmap.iterator() : null;
+        int nextAndBit = (andBits != null && andBits.hasNext()) ? andBits.next() : -1;
+        AminoBitmap result = null;
+
+        long featureBits = 1;
+        int windows = 0;
+        int bitmaps = 0;
+        for(long windowStart = 0; windowStart < featureBits; windowStart += windowBits){
+            Arrays.fill(window, 0L);
+            featureBits = 0;
+            bitmaps = 0;
+            for(Range featureRange : featureRanges){
+                sourceIter.seek(featureRange, seekColumnFamilies, seekInclusive);
+                while(sourceIter.hasTop()){
+                    final byte[] serialized = sourceIter.getTopValue().get();
+                    reader.reset(serialized);
+                    if(result == null){
+                        result = new AminoBitmap((topValueBitmap != null) ? topValueBitmap.getCodec() : reader.getCodec());
+                    }
+                    featureBits = Math.max(featureBits, Math.min(reader.sizeInBits(), Integer.MAX_VALUE + 1L));
+                    reader.orInto(window, windowStart);
+                    notePeak(window.length * 8L + serialized.length + result.sizeInBytes() + topValueBytes());
+                    bitmaps++;
+                    sourceIter.next();
+                }
+            }
+
+            for(int w = 0; w < window.length; w++){
+                long word = window[w];
+                while(word != 0){
+                    final int bit = (int) (windowStart + w * 64L + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                    if(andBits == null){
+                        result.set(bit);
+                    } else {
+                        while(nextAndBit >= 0 && nextAndBit < bit){
+                            nextAndBit = andBits.hasNext() ? andBits.next() : -1;
+                        }
+                        if(nextAndBit == bit){
+                            result.set(bit);
+                        }
+                    }
+                }
+            }
+            windows++;
+        }
+
+        if(result != null){
+            topValueBitmap = result;
+        }
+        log.info("Paged " + bitmaps + " bitmaps of " + columnFamily + " in row " + row + " over " + windows +
+                " windows of " + windowBits + " bits.  Peak bitmap memory " + peakBitmapBytes + " bytes");
+    }
+
     /**
      * The topKey and topValue will only be valid after we have checked every Range
      */
@@ -360,7 +576,10 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
             // in the above code that you never got any of the missing feature
             if(!(andFeatureIds.containsValue(false) || orFeatureIds.containsValue(false))){
                 // Success!  Set the result Key/Value
-                topValue = BitmapUtils.toValue(topValueBitmap);
+                topValue = BitmapUtils.toValue(topValueBitmap.optimize());
+                if(log.isDebugEnabled()){
+                    log.debug("Combined row " + currentRow + " with a peak bitmap memory of " + peakBitmapBytes + " bytes");
+                }
             }
         }
     }
@@ -397,6 +616,9 @@ public class ReverseByBucketCombiner extends WrappingIterator implements OptionD
             }
             range = new Range(startKey.followingKey(PartialKey.ROW), true, range.getEndKey(), range.isEndKeyInclusive());
         }
+        seekRange = range;
+        seekColumnFamilies = columnFamilies;
+        seekInclusive = inclusive;
         super.seek(range, columnFamilies, inclusive);
         getNextKey();
     }
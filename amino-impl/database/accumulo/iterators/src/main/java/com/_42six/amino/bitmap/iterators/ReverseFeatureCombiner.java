@@ -9,6 +9,7 @@ import org.apache.accumulo.core.iterators.IteratorEnvironment;
 import org.apache.accumulo.core.iterators.OptionDescriber;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.hadoop.io.Text;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
@@ -25,7 +26,12 @@ import java.util.Map;
  *  Row ID            Column Family                               Column Qualifier  |  Value
  *  -------------------------------------------------------------------------------------------
  *  Shard_Number      Index Position#Datasource#BucketName#salt   BucketValue       | <empty>
- *  
+ *
+ *  Every salt of a bucket value is written to the same shard, so the counts are streamed a row at a time and dropped
+ *  when the row changes, rather than being held for the whole scan.  If OPTION_SALT_FILTERS is given, a value is only
+ *  counted if its positions under the other salts might have been looked up too (see {@link SaltFilters}).  That way
+ *  the collisions, which would never reach the salt number of values, are thrown away as they are read instead of
+ *  being held until the row is done.
  */
 public class ReverseFeatureCombiner extends WrappingIterator implements OptionDescriber {
 
@@ -37,9 +43,18 @@ public class ReverseFeatureCombiner extends WrappingIterator implements OptionDe
     /** Option to be passed in to limit the number of results that can be returned */
     public static final String OPTION_MAX_RESULTS = "max_results";
 
+    /** Option holding the Bloom filters of the positions being looked up, from {@link SaltFilters#encode} */
+    public static final String OPTION_SALT_FILTERS = "salt_filters";
+
     // Keeps track of the count of values that have been seen
     private final HashMultiset<String> seenValues = HashMultiset.create();
 
+    // The row that seenValues was counted in
+    private Text currentRow = null;
+
+    // Throws away collisions before they are counted.  Null if not given
+    private SaltFilters saltFilters = null;
+
     private int numSalts;
     private int resultsReturned = 0;
     private int maxResults;
@@ -105,6 +120,10 @@ public class ReverseFeatureCombiner extends WrappingIterator implements OptionDe
             } else {
                 maxResults = 4000;
             }
+
+            if(options.containsKey(OPTION_SALT_FILTERS)){
+                saltFilters = SaltFilters.decode(options.get(OPTION_SALT_FILTERS));
+            }
         } else {
             throw new IllegalArgumentException("Invalid options for iterator\n" + this.describeOptions());
         }
@@ -123,6 +142,7 @@ public class ReverseFeatureCombiner extends WrappingIterator implements OptionDe
         Map<String,String> optionMap = new HashMap<>();
         optionMap.put(OPTION_SALTS, "Number of salts in use.  Default is one");
         optionMap.put(OPTION_MAX_RESULTS, "Maximum number of results to return");
+        optionMap.put(OPTION_SALT_FILTERS, "Bloom filters of the positions being looked up, to throw away collisions before counting them");
 
         return new IteratorOptions(iterName, iterDesc, optionMap, null);
     }
@@ -172,6 +192,21 @@ public class ReverseFeatureCombiner extends WrappingIterator implements OptionDe
 
         while(sourceIter.hasTop()){
             final Key currentKey = sourceIter.getTopKey();
+
+            // All of the salts of a value are in the same row, so nothing counted in the last row can still be emitted
+            if(currentRow == null || currentKey.compareRow(currentRow) != 0){
+                seenValues.clear();
+                currentRow = currentKey.getRow();
+            }
+
+            if(saltFilters != null && !saltFilters.mightMatch(currentRow.toString(), getSalt(currentKey),
+                    currentKey.getColumnQualifierData().toArray())){
+                // A collision.  Its other salts weren't looked up, so it could never reach numSalts
+                sourceIter.next();
+                topValue = INVALID_VALUE;
+                continue;
+            }
+
             final String value = currentKey.getColumnQualifier().toString();
 
             sourceIter.next();
@@ -202,6 +237,18 @@ public class ReverseFeatureCombiner extends WrappingIterator implements OptionDe
         }
     }
 
+    /**
+     * @return The salt at the end of the column family
+     */
+    private static int getSalt(Key key) throws IOException {
+        final String columnFamily = key.getColumnFamily().toString();
+        try {
+            return Integer.parseInt(columnFamily.substring(columnFamily.lastIndexOf('#') + 1));
+        } catch (NumberFormatException e) {
+            throw new IOException("No salt at the end of the column family " + columnFamily, e);
+        }
+    }
+
     /**
      * Assume that we were given a previous key and seek to the next 'row' that matches
      * @param range is the range that we want to seek to
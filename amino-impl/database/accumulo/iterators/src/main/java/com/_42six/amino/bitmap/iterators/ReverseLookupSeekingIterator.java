@@ -0,0 +1,169 @@
+package com._42six.amino.bitmap.iterators;
+
+import com._42six.amino.common.bitmap.AminoBitmap;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Seeks through the amino_reverse_feature_lookup table to the column families of the bit positions found by the
+ *  {@link ReverseByBucketCombiner}, so that the client can send one Range per shard along with the bitmaps instead of
+ *  one Range per bit.
+ *
+ *  amino_reverse_feature_lookup
+ *  Row ID            Column Family                               Column Qualifier  |  Value
+ *  -------------------------------------------------------------------------------------------
+ *  Shard_Number      Index Position#Datasource#BucketName#salt   BucketValue       | <empty>
+ *
+ *  The bitmaps are keyed by the shard:salt rows of the reverse byBucket table.  When seeked to a shard, the column
+ *  families of every bit of that shard's bitmaps are worked out and sorted, and the source is seeked to each in turn.
+ *  Only the keys under those column families are returned, so this should sit beneath the
+ *  {@link ReverseFeatureCombiner}.  The iterator must be seeked within a single row.
+ */
+public class ReverseLookupSeekingIterator extends WrappingIterator implements OptionDescriber {
+
+    public static final Logger log = Logger.getLogger(ReverseLookupSeekingIterator.class);
+
+    /** The option holding the bitmaps of each shard:salt, from {@link BitmapIteratorOptions#encodeRowBitmaps} */
+    public static final String OPTION_ROW_BITMAPS = "row_bitmaps";
+
+    /** The option holding the Datasource#BucketName# part of the column families */
+    public static final String OPTION_DATASOURCE_BUCKET = "datasource_bucket";
+
+    private Map<String, AminoBitmap> bitmapsByRow;
+    private String datasourceBucket;
+
+    // What the iterator was seeked to, and the column families left to seek the source to in that row
+    private Range seekRange;
+    private Collection<ByteSequence> seekColumnFamilies;
+    private boolean seekInclusive;
+    private Text row;
+    private Text[] rowColumnFamilies = new Text[0];
+    private int nextColumnFamily = 0;
+    private boolean exhausted = true;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+        this.setSource(source);
+        if(!validateOptions(options)){
+            throw new IllegalArgumentException("Invalid options for iterator\n" + this.describeOptions());
+        }
+        bitmapsByRow = BitmapIteratorOptions.decodeRowBitmaps(options.get(OPTION_ROW_BITMAPS));
+        datasourceBucket = options.get(OPTION_DATASOURCE_BUCKET);
+    }
+
+    @Override
+    public IteratorOptions describeOptions() {
+        final String iterName = "Amino Reverse Lookup Seeking Iterator";
+        final String iterDesc = "Seeks to the column families of the bit positions being looked up for the reverse query";
+        final Map<String,String> optionMap = new HashMap<>();
+        optionMap.put(OPTION_ROW_BITMAPS, "The bitmaps of the positions to look up, keyed by shard:salt");
+        optionMap.put(OPTION_DATASOURCE_BUCKET, "The Datasource#BucketName# in the middle of the column families");
+
+        return new IteratorOptions(iterName, iterDesc, optionMap, null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options) {
+        return options.containsKey(OPTION_ROW_BITMAPS) && options.containsKey(OPTION_DATASOURCE_BUCKET);
+    }
+
+    /**
+     * We will not allow the user to deep copy the iterator
+     */
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        throw new UnsupportedOperationException("Deep Copy is not allowed with this iterator");
+    }
+
+    @Override
+    public boolean hasTop() {
+        return !exhausted && getSource().hasTop();
+    }
+
+    @Override
+    public void next() throws IOException {
+        getSource().next();
+        if(!getSource().hasTop()){
+            seekNextColumnFamily();
+        }
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+        if(range.getStartKey() == null || range.getEndKey() == null){
+            throw new IllegalArgumentException("Must be seeked within a single row, not " + range);
+        }
+        final Text startRow = range.getStartKey().getRow();
+        if(range.getEndKey().compareTo(new Key(startRow).followingKey(PartialKey.ROW)) > 0){
+            throw new IllegalArgumentException("Must be seeked within a single row, not " + range);
+        }
+
+        seekRange = range;
+        seekColumnFamilies = columnFamilies;
+        seekInclusive = inclusive;
+        if(!startRow.equals(row)){
+            row = startRow;
+            rowColumnFamilies = columnFamiliesOf(row.toString());
+        }
+        nextColumnFamily = 0;
+        seekNextColumnFamily();
+    }
+
+    /**
+     * @return The column families of every bit of the shard, in the order they are in the table
+     */
+    private Text[] columnFamiliesOf(String shard){
+        final List<Text> families = new ArrayList<>();
+        final String rowPrefix = shard + ":";
+        for(Map.Entry<String, AminoBitmap> entry : bitmapsByRow.entrySet()){
+            if(entry.getKey().startsWith(rowPrefix)){
+                final String salt = entry.getKey().substring(rowPrefix.length());
+                for(Integer bit : entry.getValue()){
+                    families.add(new Text(bit + "#" + datasourceBucket + salt));
+                }
+            }
+        }
+        final Text[] sorted = families.toArray(new Text[families.size()]);
+        Arrays.sort(sorted);
+        if(log.isDebugEnabled()){
+            log.debug("Seeking to " + sorted.length + " column families in shard " + shard);
+        }
+        return sorted;
+    }
+
+    /**
+     * Seeks the source to the next column family that has keys in the seeked Range, or marks the iterator exhausted
+     */
+    private void seekNextColumnFamily() throws IOException {
+        while(nextColumnFamily < rowColumnFamilies.length){
+            final Key start = new Key(row, rowColumnFamilies[nextColumnFamily++]);
+            final Range clipped = seekRange.clip(new Range(start, true, start.followingKey(PartialKey.ROW_COLFAM), false), true);
+            if(clipped == null){
+                continue;
+            }
+            super.seek(clipped, seekColumnFamilies, seekInclusive);
+            if(getSource().hasTop()){
+                exhausted = false;
+                return;
+            }
+        }
+        exhausted = true;
+    }
+}
@@ -0,0 +1,147 @@
+package com._42six.amino.bitmap.iterators;
+
+import com._42six.amino.common.bitmap.AminoBitmap;
+import com._42six.amino.common.index.BitmapIndex;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.io.BaseEncoding;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bloom filters of the bit positions that a reverse query is looking up, one per shard:salt, so that the
+ * {@link ReverseFeatureCombiner} can throw away hash collisions as soon as it reads them.  A bucket value read under one
+ * salt can only be a match if its positions under every other salt were looked up too.  The filters never turn away a
+ * match, so the combiner still counts the values that get through and the results stay exact.
+ *
+ * The filters are written in a compact binary form and then Base64 wrapped so they can be passed as an iterator option:
+ *
+ *  byte    version (1)
+ *  String  bucket name
+ *  VInt    number of salts
+ *  VInt    count
+ *  String  shard, VInt salt, VInt length, byte[] Bloom filter, for each of the count
+ */
+public final class SaltFilters {
+
+    private static final byte VERSION = 1;
+    private static final BaseEncoding BASE64 = BaseEncoding.base64();
+
+    private final String bucketName;
+    private final int numSalts;
+    private final Map<String, BloomFilter<Integer>[]> filtersByShard;
+
+    private SaltFilters(String bucketName, int numSalts, Map<String, BloomFilter<Integer>[]> filtersByShard){
+        this.bucketName = bucketName;
+        this.numSalts = numSalts;
+        this.filtersByShard = filtersByShard;
+    }
+
+    /**
+     * @param bucketName The bucket name being looked up
+     * @param numSalts The number of salts in use
+     * @param bitsByRow The bit positions being looked up, keyed by their shard:salt row in the reverse tables
+     * @param fpp The false positive probability of each filter.  Lower means bigger filters, but fewer collisions for
+     *            the combiner to count
+     * @return The option value
+     */
+    public static String encode(String bucketName, int numSalts, Map<String, AminoBitmap> bitsByRow, double fpp){
+        try {
+            final DataOutputBuffer out = new DataOutputBuffer();
+            out.writeByte(VERSION);
+            WritableUtils.writeString(out, bucketName);
+            WritableUtils.writeVInt(out, numSalts);
+            WritableUtils.writeVInt(out, bitsByRow.size());
+            final ByteArrayOutputStream filterBytes = new ByteArrayOutputStream();
+            for(Map.Entry<String, AminoBitmap> entry : bitsByRow.entrySet()){
+                final String[] shardSalt = entry.getKey().split(":");
+                final AminoBitmap bits = entry.getValue();
+                final BloomFilter<Integer> filter = BloomFilter.create(Funnels.integerFunnel(),
+                        Math.max(1, bits.cardinality()), fpp);
+                for(Integer bit : bits){
+                    filter.put(bit);
+                }
+
+                filterBytes.reset();
+                filter.writeTo(filterBytes);
+                WritableUtils.writeString(out, shardSalt[0]);
+                WritableUtils.writeVInt(out, Integer.parseInt(shardSalt[1]));
+                WritableUtils.writeVInt(out, filterBytes.size());
+                out.write(filterBytes.toByteArray());
+            }
+            return BASE64.encode(out.getData(), 0, out.getLength());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode salt filters", e);
+        }
+    }
+
+    /**
+     * @param option The option value from {@link #encode}
+     */
+    @SuppressWarnings("unchecked")
+    public static SaltFilters decode(String option){
+        try {
+            final byte[] bytes = BASE64.decode(option);
+            final DataInputBuffer in = new DataInputBuffer();
+            in.reset(bytes, bytes.length);
+            final byte version = in.readByte();
+            if(version != VERSION){
+                throw new IOException("Unsupported salt filter version " + version);
+            }
+            final String bucketName = WritableUtils.readString(in);
+            final int numSalts = WritableUtils.readVInt(in);
+            final int count = WritableUtils.readVInt(in);
+            final Map<String, BloomFilter<Integer>[]> filtersByShard = new HashMap<>();
+            for(int i = 0; i < count; i++){
+                final String shard = WritableUtils.readString(in);
+                final int salt = WritableUtils.readVInt(in);
+                final byte[] filterBytes = new byte[WritableUtils.readVInt(in)];
+                in.readFully(filterBytes);
+                if(salt < 0 || salt >= numSalts){
+                    throw new IOException("Salt " + salt + " is out of range for " + numSalts + " salts");
+                }
+
+                BloomFilter<Integer>[] filters = filtersByShard.get(shard);
+                if(filters == null){
+                    filters = new BloomFilter[numSalts];
+                    filtersByShard.put(shard, filters);
+                }
+                filters[salt] = BloomFilter.readFrom(new ByteArrayInputStream(filterBytes), Funnels.integerFunnel());
+            }
+            return new SaltFilters(bucketName, numSalts, filtersByShard);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not decode salt filters", e);
+        }
+    }
+
+    /**
+     * @param shard The shard the value was read from
+     * @param salt The salt the value was read under
+     * @param bucketValue The bytes of the bucket value
+     * @return false if the value is definitely a collision, meaning that one of its positions under the other salts
+     * wasn't looked up.  true if it might be a match
+     */
+    public boolean mightMatch(String shard, int salt, byte[] bucketValue){
+        final BloomFilter<Integer>[] filters = filtersByShard.get(shard);
+        if(filters == null){
+            return false;
+        }
+        for(int otherSalt = 0; otherSalt < numSalts; otherSalt++){
+            if(otherSalt == salt){
+                continue;
+            }
+            if(filters[otherSalt] == null ||
+                    !filters[otherSalt].mightContain(BitmapIndex.getValueIndex(bucketName, bucketValue, otherSalt))){
+                return false;
+            }
+        }
+        return true;
+    }
+}
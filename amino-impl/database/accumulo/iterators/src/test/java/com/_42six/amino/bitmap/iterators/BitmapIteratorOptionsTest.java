@@ -0,0 +1,119 @@
+package com._42six.amino.bitmap.iterators;
+
+import com._42six.amino.common.bitmap.AminoBitmap;
+import com._42six.amino.common.bitmap.AminoBitmapBuilder;
+import com._42six.amino.common.bitmap.AminoBitmapJsonAdapter;
+import com._42six.amino.common.bitmap.BitmapCodec;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BitmapIteratorOptionsTest {
+
+    private static BitmapANDIterator.CompareBits createBits(int offset){
+        final AminoBitmap nonRange = new AminoBitmap().set(offset).set(offset + 100);
+        final AminoBitmap range = new AminoBitmap(BitmapCodec.ROARING).set(offset + 5).set(offset + 70000);
+        return new BitmapANDIterator.CompareBits(nonRange, 2, Arrays.asList(range));
+    }
+
+    private static void assertSameBits(BitmapANDIterator.CompareBits expected, BitmapANDIterator.CompareBits actual){
+        Assert.assertEquals(expected.getNonRangeCardinality(), actual.getNonRangeCardinality());
+        Assert.assertArrayEquals(expected.getNonRangePositions(), actual.getNonRangePositions());
+        Assert.assertArrayEquals(expected.getRangePositions(), actual.getRangePositions());
+    }
+
+    @Test
+    public void testCompareBitsRoundTrip() {
+        final List<BitmapANDIterator.CompareBits> bits = Arrays.asList(createBits(1), createBits(12345));
+        final String option = BitmapIteratorOptions.encodeCompareBits(bits);
+
+        final List<BitmapANDIterator.CompareBits> decoded = BitmapIteratorOptions.decodeCompareBits(option);
+        Assert.assertEquals(2, decoded.size());
+        assertSameBits(bits.get(0), decoded.get(0));
+        assertSameBits(bits.get(1), decoded.get(1));
+
+        // The second decode comes from the cache
+        Assert.assertSame(decoded, BitmapIteratorOptions.decodeCompareBits(option));
+    }
+
+    @Test
+    public void testHypothesisMasksRoundTrip() {
+        final List<MultiHypothesisIterator.HypothesisMask> masks = Arrays.asList(
+                new MultiHypothesisIterator.HypothesisMask("h1", "a", "m", Arrays.asList(createBits(7))),
+                new MultiHypothesisIterator.HypothesisMask("h2", null, null, Arrays.asList(createBits(8), createBits(9))));
+
+        final List<MultiHypothesisIterator.HypothesisMask> decoded =
+                BitmapIteratorOptions.decodeHypothesisMasks(BitmapIteratorOptions.encodeHypothesisMasks(masks));
+        Assert.assertEquals(2, decoded.size());
+        Assert.assertEquals("h1", decoded.get(0).getId());
+        Assert.assertEquals("a", decoded.get(0).getFirst());
+        Assert.assertEquals("m", decoded.get(0).getLast());
+        Assert.assertNull(decoded.get(1).getFirst());
+        Assert.assertNull(decoded.get(1).getLast());
+        Assert.assertEquals(2, decoded.get(1).getBitsPerHash().size());
+        assertSameBits(masks.get(1).getBitsPerHash().get(1), decoded.get(1).getBitsPerHash().get(1));
+    }
+
+    @Test
+    public void testJsonStillAccepted() {
+        final List<BitmapANDIterator.CompareBits> bits = Arrays.asList(createBits(3));
+        final String json = AminoBitmapJsonAdapter.createGson().toJson(bits);
+
+        final List<BitmapANDIterator.CompareBits> decoded = BitmapIteratorOptions.decodeCompareBits(json);
+        Assert.assertEquals(1, decoded.size());
+        assertSameBits(bits.get(0), decoded.get(0));
+    }
+
+    /**
+     * @return An AminoBitmap as older clients wrote it, by reflection on the EWAHCompressedBitmap it wrapped
+     */
+    private static JsonObject reflectedBitmap(int... bits){
+        final JsonObject bitmap = new JsonObject();
+        bitmap.add("bitmap", new Gson().toJsonTree(EWAHCompressedBitmap.bitmapOf(bits)));
+        return bitmap;
+    }
+
+    @Test
+    public void testOlderClientJsonAccepted() {
+        final JsonArray rangeBitmaps = new JsonArray();
+        rangeBitmaps.add(reflectedBitmap(8, 70003));
+        final JsonObject bits = new JsonObject();
+        bits.add("nonRangeBitmap", reflectedBitmap(3, 103));
+        bits.addProperty("nonRangeCardinality", 2);
+        bits.add("rangeBitmaps", rangeBitmaps);
+        final JsonArray option = new JsonArray();
+        option.add(bits);
+
+        final List<BitmapANDIterator.CompareBits> decoded = BitmapIteratorOptions.decodeCompareBits(option.toString());
+        Assert.assertEquals(1, decoded.size());
+        assertSameBits(createBits(3), decoded.get(0));
+    }
+
+    @Test
+    public void testWeighedByDecodedSize() {
+        // A run of bits is tiny once encoded, but each of its positions is held once decoded
+        final AminoBitmap dense = new AminoBitmapBuilder(BitmapCodec.ROARING).addAll(denseBits(100000)).build();
+        final List<BitmapANDIterator.CompareBits> bits = Arrays.asList(
+                new BitmapANDIterator.CompareBits(dense, 100000, new ArrayList<AminoBitmap>()));
+        final String option = BitmapIteratorOptions.encodeCompareBits(bits);
+
+        final int weight = BitmapIteratorOptions.weighCompareBits(BitmapIteratorOptions.decodeCompareBits(option));
+        Assert.assertTrue(weight >= 4 * 100000);
+        Assert.assertTrue(weight > 100 * option.length());
+    }
+
+    private static int[] denseBits(int count){
+        final int[] bits = new int[count];
+        for(int i = 0; i < count; i++){
+            bits[i] = i;
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,91 @@
+package com._42six.amino.bitmap.iterators;
+
+import com._42six.amino.common.bitmap.AminoBitmap;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+public class MultiHypothesisIteratorTest {
+
+    private static final String ROW = "0:numbers:number";
+
+    private static MultiHypothesisIterator.HypothesisMask mask(String id, int bit){
+        final BitmapANDIterator.CompareBits bits = new BitmapANDIterator.CompareBits(new AminoBitmap(bit), 1,
+                new ArrayList<AminoBitmap>());
+        return new MultiHypothesisIterator.HypothesisMask(id, null, null, Arrays.asList(bits));
+    }
+
+    private static TreeMap<Key, Value> createTable(){
+        // "a" only has bit 1, "b" only has bit 2 and "c" has both
+        final TreeMap<Key, Value> table = new TreeMap<>();
+        table.put(new Key(ROW, "a", "0"), new Value(new AminoBitmap(1).toByteArray()));
+        table.put(new Key(ROW, "b", "0"), new Value(new AminoBitmap(2).toByteArray()));
+        table.put(new Key(ROW, "c", "0"), new Value(new AminoBitmap().set(1).set(2).toByteArray()));
+        return table;
+    }
+
+    private static MultiHypothesisIterator createIterator(List<MultiHypothesisIterator.HypothesisMask> masks)
+            throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(MultiHypothesisIterator.OPTION_HYPOTHESES, BitmapIteratorOptions.encodeHypothesisMasks(masks));
+        final MultiHypothesisIterator iterator = new MultiHypothesisIterator();
+        iterator.init(new SortedMapIterator(createTable()), options, null);
+        return iterator;
+    }
+
+    private static List<Key> scan(MultiHypothesisIterator iterator, Range range) throws IOException {
+        final List<Key> keys = new ArrayList<>();
+        iterator.seek(range, Collections.<ByteSequence>emptySet(), false);
+        while(iterator.hasTop()){
+            keys.add(new Key(iterator.getTopKey()));
+            iterator.next();
+        }
+        return keys;
+    }
+
+    /**
+     * @return The bucket value and hypothesis position of each hit
+     */
+    private static List<String> hits(List<Key> keys){
+        final List<String> hits = new ArrayList<>();
+        for(Key key : keys){
+            hits.add(key.getColumnFamily() + ":" + MultiHypothesisIterator.getHypothesisPosition(key));
+        }
+        return hits;
+    }
+
+    @Test
+    public void testNullAndDuplicateIds() throws IOException {
+        // The IDs don't identify the hypotheses, so none of them can be lost or merged
+        final MultiHypothesisIterator iterator = createIterator(Arrays.asList(
+                mask(null, 1), mask("dup", 2), mask("dup", 1)));
+        final List<Key> keys = scan(iterator, new Range(ROW));
+        Assert.assertEquals(Arrays.asList("a:0", "a:2", "b:1", "c:0", "c:1", "c:2"), hits(keys));
+
+        // The keys come back sorted
+        final List<Key> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        Assert.assertEquals(sorted, keys);
+
+        // Picking up after a hit part way through a bucket value, as a scan that was continued would
+        Assert.assertEquals(Arrays.asList("c:1", "c:2"),
+                hits(scan(iterator, new Range(keys.get(3), false, null, false))));
+    }
+
+    @Test
+    public void testHitQualifiersSortByPosition() {
+        Assert.assertEquals("0", MultiHypothesisIterator.getHitQualifier(0, 1));
+        Assert.assertEquals("9", MultiHypothesisIterator.getHitQualifier(9, 10));
+        Assert.assertEquals("03", MultiHypothesisIterator.getHitQualifier(3, 11));
+        Assert.assertEquals("099", MultiHypothesisIterator.getHitQualifier(99, 101));
+        Assert.assertEquals(42, MultiHypothesisIterator.getHypothesisPosition(
+                new Key(ROW, "a", MultiHypothesisIterator.getHitQualifier(42, 1000))));
+    }
+}
@@ -0,0 +1,146 @@
+package com._42six.amino.bitmap.iterators;
+
+import com._42six.amino.common.bitmap.AminoBitmap;
+import com._42six.amino.common.bitmap.BitmapCodec;
+import com._42six.amino.common.bitmap.BitmapUtils;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+public class ReverseByBucketCombinerTest {
+
+    private static final String ROW = "3:0";
+    private static final String AND_CF = "ds#bucket#100";
+    private static final String OR_CF = "ds#bucket#200";
+
+    private static AminoBitmap randomBitmap(BitmapCodec codec, Random random, int count, int maxBit){
+        final TreeSet<Integer> bits = new TreeSet<>();
+        for(int i = 0; i < count; i++){
+            bits.add(random.nextInt(maxBit));
+        }
+        // A run of 1's that crosses the windows
+        for(int bit = 65000; bit < 66000; bit++){
+            bits.add(bit);
+        }
+        final AminoBitmap bitmap = new AminoBitmap(codec);
+        for(int bit : bits){
+            bitmap.set(bit);
+        }
+        return bitmap;
+    }
+
+    private static TreeMap<Key, Value> createTable(BitmapCodec codec){
+        final Random random = new Random(42);
+        final TreeMap<Key, Value> table = new TreeMap<>();
+        table.put(new Key(ROW, AND_CF, "NOMINAL"), BitmapUtils.toValue(randomBitmap(codec, random, 20000, 300000)));
+        for(int value = 0; value < 5; value++){
+            table.put(new Key(ROW, OR_CF, Integer.toString(value)),
+                    BitmapUtils.toValue(randomBitmap(codec, random, 5000, 300000)));
+        }
+        return table;
+    }
+
+    private static ReverseByBucketCombiner createCombiner(TreeMap<Key, Value> table, boolean withAnd, long threshold)
+            throws IOException {
+        return createCombiner(table, withAnd, threshold, null);
+    }
+
+    private static ReverseByBucketCombiner createCombiner(TreeMap<Key, Value> table, boolean withAnd, long threshold,
+                                                          String orPieces) throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(ReverseByBucketCombiner.OPTION_NUM_RANGES, "1");
+        options.put(ReverseByBucketCombiner.OPTION_OR_IDS, "[\"" + OR_CF + "\"]");
+        if(withAnd){
+            options.put(ReverseByBucketCombiner.OPTION_AND_IDS, "[{\"key\":\"" + AND_CF + "\",\"value\":\"NOMINAL\"}]");
+        }
+        options.put(ReverseByBucketCombiner.OPTION_BITMAP_MEM_THRESHOLD, Long.toString(threshold));
+        if(orPieces != null){
+            options.put(ReverseByBucketCombiner.OPTION_OR_PIECES, orPieces);
+        }
+
+        final ReverseByBucketCombiner combiner = new ReverseByBucketCombiner();
+        combiner.init(new SortedMapIterator(table), options, null);
+        combiner.seek(new Range(), Collections.<ByteSequence>emptySet(), false);
+        return combiner;
+    }
+
+    private static List<Integer> expected(TreeMap<Key, Value> table, boolean withAnd){
+        return expected(table, withAnd, null);
+    }
+
+    private static List<Integer> expected(TreeMap<Key, Value> table, boolean withAnd, Set<String> orValues){
+        AminoBitmap or = null;
+        for(Map.Entry<Key, Value> entry : table.entrySet()){
+            if(entry.getKey().getColumnFamily().toString().equals(OR_CF) &&
+                    (orValues == null || orValues.contains(entry.getKey().getColumnQualifier().toString()))){
+                final AminoBitmap bitmap = BitmapUtils.fromValue(entry.getValue());
+                if(or == null){
+                    or = bitmap;
+                } else {
+                    or.OR(bitmap);
+                }
+            }
+        }
+        if(withAnd){
+            final AminoBitmap and = BitmapUtils.fromValue(table.firstEntry().getValue());
+            and.AND(or);
+            return and.getPositions();
+        }
+        return or.getPositions();
+    }
+
+    private static void checkPagedMatchesInMemory(BitmapCodec codec, boolean withAnd) throws IOException {
+        final TreeMap<Key, Value> table = createTable(codec);
+
+        final ReverseByBucketCombiner inMemory = createCombiner(table, withAnd, 0);
+        // Small enough that every OR'd feature is paged
+        final ReverseByBucketCombiner paged = createCombiner(table, withAnd, 1);
+
+        final List<Integer> expected = expected(table, withAnd);
+        Assert.assertEquals(expected, BitmapUtils.fromValue(inMemory.getTopValue()).getPositions());
+        Assert.assertEquals(expected, BitmapUtils.fromValue(paged.getTopValue()).getPositions());
+        Assert.assertEquals(ROW, paged.getTopKey().getRow().toString());
+        Assert.assertTrue(paged.getPeakBitmapBytes() > 0);
+    }
+
+    @Test
+    public void testPagedOrOnly() throws IOException {
+        checkPagedMatchesInMemory(BitmapCodec.EWAH, false);
+    }
+
+    @Test
+    public void testPagedWithAnd() throws IOException {
+        checkPagedMatchesInMemory(BitmapCodec.EWAH, true);
+    }
+
+    @Test
+    public void testPagedRoaring() throws IOException {
+        checkPagedMatchesInMemory(BitmapCodec.ROARING, true);
+    }
+
+    @Test
+    public void testOrPieces() throws IOException {
+        final TreeMap<Key, Value> table = createTable(BitmapCodec.EWAH);
+        final String pieces = "{\"" + OR_CF + "\":[[\"1\",\"2\"],[\"4\",\"4\"]]}";
+        final List<Integer> expected = expected(table, true, new HashSet<>(Arrays.asList("1", "2", "4")));
+
+        Assert.assertEquals(expected, BitmapUtils.fromValue(createCombiner(table, true, 0, pieces).getTopValue()).getPositions());
+        Assert.assertEquals(expected, BitmapUtils.fromValue(createCombiner(table, true, 1, pieces).getTopValue()).getPositions());
+    }
+
+    @Test
+    public void testOrPiecesNotFound() throws IOException {
+        final TreeMap<Key, Value> table = createTable(BitmapCodec.EWAH);
+        final String pieces = "{\"" + OR_CF + "\":[[\"7\",\"9\"]]}";
+        final ReverseByBucketCombiner combiner = createCombiner(table, true, 0, pieces);
+        Assert.assertEquals(ROW, combiner.getTopKey().getRow().toString());
+        Assert.assertTrue(BitmapUtils.fromValue(combiner.getTopValue()).getPositions().isEmpty());
+    }
+}
@@ -0,0 +1,126 @@
+package com._42six.amino.bitmap.iterators;
+
+import com._42six.amino.common.bitmap.AminoBitmap;
+import com._42six.amino.common.index.BitmapIndex;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+public class ReverseFeatureCombinerTest {
+
+    private static final String BUCKET_NAME = "number";
+    private static final int SALTS = 2;
+
+    private static int index(String value, int salt){
+        return BitmapIndex.getValueIndex(BUCKET_NAME, value.getBytes(), salt);
+    }
+
+    private static void put(TreeMap<Key, Value> table, String shard, int index, int salt, String value){
+        table.put(new Key(shard, index + "#numbers#" + BUCKET_NAME + "#" + salt, value), new Value(new byte[0]));
+    }
+
+    /**
+     * Fills in the looked up rows of the table as the ReverseFeatureLookupJob would for the matches, plus collisions
+     * that only share the position of one salt with a match
+     */
+    private static TreeMap<Key, Value> createTable(Map<String, AminoBitmap> bitsByRow){
+        final TreeMap<Key, Value> table = new TreeMap<>();
+        final Map<String, TreeSet<Integer>> positions = new HashMap<>();
+        for(String shard : Arrays.asList("0", "1")){
+            for(int v = 0; v < 20; v++){
+                final String match = shard + "match" + v;
+                final String collision = shard + "collision" + v;
+                for(int salt = 0; salt < SALTS; salt++){
+                    put(table, shard, index(match, salt), salt, match);
+                    if(!positions.containsKey(shard + ":" + salt)){
+                        positions.put(shard + ":" + salt, new TreeSet<Integer>());
+                    }
+                    positions.get(shard + ":" + salt).add(index(match, salt));
+                }
+                // Shares the looked up position of the match for salt 0.  Its position for salt 1 isn't looked up
+                put(table, shard, index(match, 0), 0, collision);
+            }
+        }
+
+        // The bits have to be set in order
+        for(Map.Entry<String, TreeSet<Integer>> entry : positions.entrySet()){
+            final AminoBitmap bits = new AminoBitmap();
+            for(int position : entry.getValue()){
+                bits.set(position);
+            }
+            bitsByRow.put(entry.getKey(), bits);
+        }
+        return table;
+    }
+
+    private static Set<String> scan(TreeMap<Key, Value> table, String saltFilters) throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(ReverseFeatureCombiner.OPTION_SALTS, Integer.toString(SALTS));
+        options.put(ReverseFeatureCombiner.OPTION_MAX_RESULTS, "1000");
+        if(saltFilters != null){
+            options.put(ReverseFeatureCombiner.OPTION_SALT_FILTERS, saltFilters);
+        }
+
+        final ReverseFeatureCombiner combiner = new ReverseFeatureCombiner();
+        combiner.init(new SortedMapIterator(table), options, null);
+        combiner.seek(new Range(), Collections.<ByteSequence>emptySet(), false);
+
+        final Set<String> results = new HashSet<>();
+        while(combiner.hasTop()){
+            final Value value = combiner.getTopValue();
+            if(value.getSize() > 0){
+                results.add(value.toString());
+            }
+            combiner.next();
+        }
+        return results;
+    }
+
+    private static Set<String> expected(){
+        final Set<String> expected = new HashSet<>();
+        for(String shard : Arrays.asList("0", "1")){
+            for(int v = 0; v < 20; v++){
+                expected.add(shard + "match" + v);
+            }
+        }
+        return expected;
+    }
+
+    @Test
+    public void testCounting() throws IOException {
+        final TreeMap<Key, Value> table = createTable(new HashMap<String, AminoBitmap>());
+        Assert.assertEquals(expected(), scan(table, null));
+    }
+
+    @Test
+    public void testSaltFilters() throws IOException {
+        final Map<String, AminoBitmap> bitsByRow = new HashMap<>();
+        final TreeMap<Key, Value> table = createTable(bitsByRow);
+        Assert.assertEquals(expected(), scan(table, SaltFilters.encode(BUCKET_NAME, SALTS, bitsByRow, 0.01)));
+    }
+
+    @Test
+    public void testFiltersThrowAwayCollisions() throws IOException {
+        final Map<String, AminoBitmap> bitsByRow = new HashMap<>();
+        createTable(bitsByRow);
+        final SaltFilters filters = SaltFilters.decode(SaltFilters.encode(BUCKET_NAME, SALTS, bitsByRow, 0.0001));
+
+        int collisionsKept = 0;
+        for(int v = 0; v < 20; v++){
+            Assert.assertTrue(filters.mightMatch("0", 0, ("0match" + v).getBytes()));
+            Assert.assertTrue(filters.mightMatch("1", 1, ("1match" + v).getBytes()));
+            if(filters.mightMatch("0", 0, ("0collision" + v).getBytes())){
+                collisionsKept++;
+            }
+        }
+        Assert.assertTrue(collisionsKept < 2);
+        Assert.assertFalse(filters.mightMatch("7", 0, "0match0".getBytes()));
+    }
+}
@@ -0,0 +1,93 @@
+package com._42six.amino.bitmap.iterators;
+
+import com._42six.amino.common.bitmap.AminoBitmap;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+public class ReverseLookupSeekingIteratorTest {
+
+    private static final String DS_BN = "numbers#number#";
+
+    private static Key key(String shard, int bit, String datasourceBucket, int salt, String value){
+        return new Key(shard, bit + "#" + datasourceBucket + salt, value);
+    }
+
+    private static ReverseLookupSeekingIterator createIterator(TreeMap<Key, Value> table, Map<String, AminoBitmap> bitmapsByRow)
+            throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(ReverseLookupSeekingIterator.OPTION_ROW_BITMAPS, BitmapIteratorOptions.encodeRowBitmaps(bitmapsByRow));
+        options.put(ReverseLookupSeekingIterator.OPTION_DATASOURCE_BUCKET, DS_BN);
+        final ReverseLookupSeekingIterator iterator = new ReverseLookupSeekingIterator();
+        iterator.init(new SortedMapIterator(table), options, null);
+        return iterator;
+    }
+
+    private static List<Key> scan(ReverseLookupSeekingIterator iterator, Range range) throws IOException {
+        final List<Key> keys = new ArrayList<>();
+        iterator.seek(range, Collections.<ByteSequence>emptySet(), false);
+        while(iterator.hasTop()){
+            keys.add(new Key(iterator.getTopKey()));
+            iterator.next();
+        }
+        return keys;
+    }
+
+    @Test
+    public void testSeeksToBits() throws IOException {
+        final Random random = new Random(42);
+        final TreeMap<Key, Value> table = new TreeMap<>();
+        final Map<String, AminoBitmap> bitmapsByRow = new HashMap<>();
+        final List<Key> expected = new ArrayList<>();
+
+        for(String shard : Arrays.asList("0", "1")){
+            for(int salt = 0; salt < 2; salt++){
+                final TreeSet<Integer> bits = new TreeSet<>();
+                for(int i = 0; i < 500; i++){
+                    final int bit = random.nextInt(200) * 500 + i;
+                    final Key key = key(shard, bit, DS_BN, salt, "value" + i);
+                    table.put(key, new Value(new byte[0]));
+                    // Every other bit, and every key of other buckets, is not looked up
+                    table.put(key(shard, bit, "numbers#other#", salt, "value" + i), new Value(new byte[0]));
+                    if(i % 2 == 0){
+                        bits.add(bit);
+                        if(shard.equals("0")){
+                            expected.add(key);
+                        }
+                    }
+                }
+                // The bits have to be set in order
+                final AminoBitmap bitmap = new AminoBitmap();
+                for(int bit : bits){
+                    bitmap.set(bit);
+                }
+                bitmapsByRow.put(shard + ":" + salt, bitmap);
+            }
+        }
+        Collections.sort(expected);
+
+        final ReverseLookupSeekingIterator iterator = createIterator(table, bitmapsByRow);
+        Assert.assertEquals(expected, scan(iterator, new Range("0")));
+
+        // Picking up from the middle of the row, as a scan that was continued would
+        final Key middle = expected.get(expected.size() / 2);
+        final Range rest = new Range(middle, false, new Range("0").getEndKey(), false);
+        Assert.assertEquals(expected.subList(expected.size() / 2 + 1, expected.size()), scan(iterator, rest));
+
+        Assert.assertTrue(scan(iterator, new Range("2")).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMultipleRows() throws IOException {
+        final ReverseLookupSeekingIterator iterator = createIterator(new TreeMap<Key, Value>(),
+                Collections.singletonMap("0:0", new AminoBitmap(5)));
+        iterator.seek(new Range("0", "1"), Collections.<ByteSequence>emptySet(), false);
+    }
+}
@@ -10,7 +10,9 @@ import com._42six.amino.common.entity.HypothesisFeature;
 import com._42six.amino.query.exception.BigTableException;
 import com._42six.amino.query.exception.EntityNotFoundException;
 import com._42six.amino.query.services.AminoMetadataService;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import org.apache.accumulo.core.client.*;
@@ -25,6 +27,7 @@ import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * CRUD service for metadata entities.
@@ -44,6 +47,17 @@ public class AccumuloMetadataService implements AminoMetadataService {
 	public String hypothesisTable = "amino_hypothesis";
 	public String metadataTable = "amino_metadata";
 
+	/** Caches the features, buckets and datasources read from the metadata table */
+	public boolean metadataCacheEnabled = true;
+	public long metadataCacheMaxEntries = 100000;
+	public long metadataCacheTtlMinutes = 30;
+	/** How often to check whether the metadata table has changed, dropping the cache if it has */
+	public long metadataCacheCheckSeconds = 60;
+	private MetadataCache metadataCache;
+
+	/** Cache key prefix for the features of a datasource, as returned by listFeatures */
+	private static final String FEATURE_LIST_PREFIX = "featureList" + TableConstants.ROW_DIVIDER;
+
 	public AccumuloMetadataService() {
 		// EMPTY
 	}
@@ -83,6 +97,78 @@ public class AccumuloMetadataService implements AminoMetadataService {
 		this.metadataTable = metadataTable;
 	}
 
+	public void setMetadataCacheEnabled(boolean enabled) {
+		this.metadataCacheEnabled = enabled;
+	}
+
+	public synchronized void setMetadataCacheMaxEntries(long maxEntries) {
+		this.metadataCacheMaxEntries = maxEntries;
+		this.metadataCache = null;
+	}
+
+	public synchronized void setMetadataCacheTtlMinutes(long minutes) {
+		this.metadataCacheTtlMinutes = minutes;
+		this.metadataCache = null;
+	}
+
+	public synchronized void setMetadataCacheCheckSeconds(long seconds) {
+		this.metadataCacheCheckSeconds = seconds;
+		this.metadataCache = null;
+	}
+
+	/**
+	 * Drops everything in the metadata cache, for when the caller knows that the metadata table has changed
+	 */
+	public synchronized void invalidateMetadataCache() {
+		if (metadataCache != null) {
+			metadataCache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Fills the metadata cache with every feature, bucket and datasource that can be seen with the visibilities, so
+	 * that none of them have to be fetched one at a time later.
+	 *
+	 * @param visibility The security visibilities for the database
+	 * @return The number of entities that were loaded
+	 */
+	public int preloadMetadata(String[] visibility) throws IOException {
+		final MetadataCache cache = getMetadataCache();
+		if (cache == null) {
+			return 0;
+		}
+		final Authorizations auths = new Authorizations(visibility);
+		final long epoch = cache.getEpoch();
+		int loaded = 0;
+
+		for (Map.Entry<String, Map<Text, String>> row : scanEntities(TableConstants.FEATURE_PREFIX,
+				TableConstants.FEATURE_END, auths, TableConstants.JSON_FIELD, TableConstants.TYPE_FIELD).entrySet()) {
+			final Map<Text, String> columns = row.getValue();
+			final FeatureMetadata feature = (columns.containsKey(TableConstants.TYPE_FIELD))
+					? FeatureMetadata.fromJson(columns.get(TableConstants.JSON_FIELD), columns.get(TableConstants.TYPE_FIELD))
+					: FeatureMetadata.fromJson(columns.get(TableConstants.JSON_FIELD));
+			cache.put(MetadataCache.key(TableConstants.FEATURE_PREFIX, row.getKey(), auths), feature, epoch);
+			loaded++;
+		}
+
+		for (Map.Entry<String, Map<Text, String>> row : scanEntities(TableConstants.BUCKET_PREFIX,
+				TableConstants.BUCKET_END, auths, TableConstants.JSON_FIELD).entrySet()) {
+			cache.put(MetadataCache.key(TableConstants.BUCKET_PREFIX, row.getKey(), auths),
+					new Gson().fromJson(row.getValue().get(TableConstants.JSON_FIELD), BucketMetadata.class), epoch);
+			loaded++;
+		}
+
+		for (Map.Entry<String, Map<Text, String>> row : scanEntities(TableConstants.DATASOURCE_PREFIX,
+				TableConstants.DATASOURCE_END, auths, TableConstants.JSON_FIELD).entrySet()) {
+			cache.put(MetadataCache.key(TableConstants.DATASOURCE_PREFIX, row.getKey(), auths),
+					new Gson().fromJson(row.getValue().get(TableConstants.JSON_FIELD), DatasourceMetadata.class), epoch);
+			loaded++;
+		}
+
+		log.info("Preloaded " + loaded + " metadata entities for " + auths);
+		return loaded;
+	}
+
 	public List<DatasourceMetadata> listDataSources(String[] visibility) throws IOException {
 		final List<DatasourceMetadata> dataSources = new ArrayList<>();
 
@@ -104,10 +190,32 @@ public class AccumuloMetadataService implements AminoMetadataService {
 	}
 
 	public List<FeatureMetadata> listFeatures(String datasourceId, String[] visibility) throws IOException {
+		final Authorizations auths = new Authorizations(visibility);
+		final MetadataCache cache = getMetadataCache();
+		if (cache == null) {
+			return scanFeatures(datasourceId, auths);
+		}
+
+		final String key = MetadataCache.key(FEATURE_LIST_PREFIX, datasourceId, auths);
+		final Optional<List<FeatureMetadata>> cached = cache.get(key);
+		if (cached != null) {
+			return cached.isPresent() ? new ArrayList<>(cached.get()) : null;
+		}
+
+		final long epoch = cache.getEpoch();
+		final List<FeatureMetadata> features = scanFeatures(datasourceId, auths);
+		if (features != null) {
+			for (FeatureMetadata feature : features) {
+				cache.put(MetadataCache.key(TableConstants.FEATURE_PREFIX, feature.id, auths), feature, epoch);
+			}
+		}
+		cache.put(key, (features != null) ? Collections.unmodifiableList(new ArrayList<>(features)) : null, epoch);
+		return features;
+	}
 
+	private List<FeatureMetadata> scanFeatures(String datasourceId, Authorizations auths) throws IOException {
 		final Gson gson = new Gson();
 		final List<FeatureMetadata> results = new ArrayList<>();
-		final Authorizations auths = new Authorizations(visibility);
 
         Scanner metaScanner;
         try{
@@ -230,8 +338,21 @@ public class AccumuloMetadataService implements AminoMetadataService {
 	}
 
 	protected FeatureMetadata getFeature(String id, Authorizations auths) throws IOException {
-            String json = getEntityString(id, TableConstants.FEATURE_PREFIX, auths);
-            return FeatureMetadata.fromJson(json);
+		final MetadataCache cache = getMetadataCache();
+		if (cache == null) {
+			return FeatureMetadata.fromJson(getEntityString(id, TableConstants.FEATURE_PREFIX, auths));
+		}
+
+		final String key = MetadataCache.key(TableConstants.FEATURE_PREFIX, id, auths);
+		final Optional<FeatureMetadata> cached = cache.get(key);
+		if (cached != null) {
+			return cached.orNull();
+		}
+
+		final long epoch = cache.getEpoch();
+		final FeatureMetadata feature = FeatureMetadata.fromJson(getEntityString(id, TableConstants.FEATURE_PREFIX, auths));
+		cache.put(key, feature, epoch);
+		return feature;
 	}
 
 	public BucketMetadata getBucket(String id, String[] visibility) throws IOException {
@@ -535,6 +656,67 @@ public class AccumuloMetadataService implements AminoMetadataService {
 		return getHashCount(true);
 	}
 
+	/**
+	 * Fetches the ingest generation, which changes every time an ingest publishes new metadata.  This is always read
+	 * from the table since its whole point is to notice when the tables have changed.
+	 *
+	 * @return The ingest generation, or 0 if the tables were ingested before generations were written
+	 */
+	public long getIngestGeneration() throws BigTableException {
+		final Scanner scan;
+		try {
+			final Set<String> auths = persistenceService.getLoggedInUserAuthorizations();
+			scan = persistenceService.createScanner(metadataTable, new Authorizations(auths.toArray(new String[auths.size()])));
+		} catch (TableNotFoundException e) {
+			throw new BigTableException(e);
+		}
+		scan.setRange(new Range(TableConstants.INGEST_GENERATION_FIELD));
+
+		final Iterator<Map.Entry<Key, Value>> itr = scan.iterator();
+		return itr.hasNext() ? Long.parseLong(itr.next().getValue().toString()) : 0L;
+	}
+
+	/**
+	 * Computes a stamp of the metadata table that changes whenever a feature or bucket is written or removed.  It is
+	 * built from the job_version cells of the features and the timestamp cells of the buckets, which are small and are
+	 * rewritten along with the rest of the entity, and the ingest generation.
+	 *
+	 * @return The stamp
+	 */
+	public long getMetadataStamp() throws BigTableException {
+		final BatchScanner scan;
+		try {
+			final Set<String> auths = persistenceService.getLoggedInUserAuthorizations();
+			scan = persistenceService.createBatchScanner(metadataTable, new Authorizations(auths.toArray(new String[auths.size()])));
+		} catch (TableNotFoundException e) {
+			throw new BigTableException(e);
+		}
+
+		long stamp = getIngestGeneration();
+		try {
+			scan.setRanges(Arrays.asList(
+					new Range(new Text(TableConstants.FEATURE_PREFIX), TableConstants.FEATURE_END),
+					new Range(new Text(TableConstants.BUCKET_PREFIX), TableConstants.BUCKET_END)));
+			scan.fetchColumnFamily(TableConstants.JOB_FIELD);
+			scan.fetchColumnFamily(TableConstants.TIMESTAMP_FIELD);
+
+			// The batch scanner returns the cells in no particular order, so combine them in a way that doesn't care
+			for (Map.Entry<Key, Value> entry : scan) {
+				final Key key = entry.getKey();
+				stamp += Hashing.murmur3_128().newHasher()
+						.putBytes(key.getRowData().toArray())
+						.putBytes(key.getColumnFamilyData().toArray())
+						.putBytes(key.getColumnVisibilityData().toArray())
+						.putLong(key.getTimestamp())
+						.putBytes(entry.getValue().get())
+						.hash().asLong();
+			}
+		} finally {
+			scan.close();
+		}
+		return stamp;
+	}
+
 	////////////////////////////////////
 	// Private methods
 	////////////////////////////////////
@@ -707,9 +889,80 @@ public class AccumuloMetadataService implements AminoMetadataService {
 	}
 
 	private Object getEntity(String id, String entityPrefix, Class conversionClass, Authorizations auths) throws IOException {
-        final Gson gson = new Gson();
-        String json = getEntityString(id, entityPrefix, auths);
-        return gson.fromJson(json, conversionClass);
-    }
+		final MetadataCache cache = getMetadataCache();
+		if (cache == null) {
+			return new Gson().fromJson(getEntityString(id, entityPrefix, auths), conversionClass);
+		}
+
+		final String key = MetadataCache.key(entityPrefix, id, auths);
+		final Optional<Object> cached = cache.get(key);
+		if (cached != null) {
+			return cached.orNull();
+		}
+
+		final long epoch = cache.getEpoch();
+		final Object entity = new Gson().fromJson(getEntityString(id, entityPrefix, auths), conversionClass);
+		cache.put(key, entity, epoch);
+		return entity;
+	}
+
+	/**
+	 * @return The metadata cache, after dropping its entries if the metadata table has changed, or null if it is
+	 * disabled
+	 */
+	private MetadataCache getMetadataCache() throws IOException {
+		final MetadataCache cache;
+		synchronized (this) {
+			if (!metadataCacheEnabled) {
+				return null;
+			}
+			if (metadataCache == null) {
+				metadataCache = new MetadataCache(metadataCacheMaxEntries, metadataCacheTtlMinutes, TimeUnit.MINUTES,
+						TimeUnit.SECONDS.toMillis(metadataCacheCheckSeconds));
+			}
+			cache = metadataCache;
+		}
+
+		if (cache.claimCheck(System.currentTimeMillis())) {
+			try {
+				cache.checkStamp(getMetadataStamp());
+			} catch (BigTableException e) {
+				throw new IOException(e);
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Reads the columns of every entity with the prefix
+	 *
+	 * @return The values of the columns of each entity, keyed by the entity's ID
+	 */
+	private Map<String, Map<Text, String>> scanEntities(String entityPrefix, Text end, Authorizations auths,
+			Text... columnFamilies) throws IOException {
+		final Scanner scan;
+		try {
+			scan = persistenceService.createScanner(metadataTable, auths);
+		} catch (TableNotFoundException ex) {
+			log.error("Table '" + metadataTable + "' was not found");
+			throw new IOException(ex);
+		}
+		scan.setRange(new Range(new Text(entityPrefix), end));
+		for (Text columnFamily : columnFamilies) {
+			scan.fetchColumnFamily(columnFamily);
+		}
+
+		final Map<String, Map<Text, String>> entities = new HashMap<>();
+		for (Map.Entry<Key, Value> entry : scan) {
+			final String id = entry.getKey().getRow().toString().substring(entityPrefix.length());
+			Map<Text, String> columns = entities.get(id);
+			if (columns == null) {
+				columns = new HashMap<>();
+				entities.put(id, columns);
+			}
+			columns.put(entry.getKey().getColumnFamily(), entry.getValue().toString());
+		}
+		return entities;
+	}
 
 }
@@ -1,8 +1,12 @@
 package com._42six.amino.query.services.accumulo;
 
 import com._42six.amino.bitmap.iterators.BitmapANDIterator;
+import com._42six.amino.bitmap.iterators.BitmapIteratorOptions;
+import com._42six.amino.bitmap.iterators.MultiHypothesisIterator;
 import com._42six.amino.bitmap.iterators.ReverseByBucketCombiner;
 import com._42six.amino.bitmap.iterators.ReverseFeatureCombiner;
+import com._42six.amino.bitmap.iterators.ReverseLookupSeekingIterator;
+import com._42six.amino.bitmap.iterators.SaltFilters;
 import com._42six.amino.common.*;
 import com._42six.amino.common.accumulo.IteratorUtils;
 import com._42six.amino.common.bigtable.TableConstants;
@@ -12,6 +16,8 @@ import com._42six.amino.common.entity.Hypothesis;
 import com._42six.amino.common.entity.HypothesisFeature;
 import com._42six.amino.common.entity.QueryEntry;
 import com._42six.amino.common.entity.QueryResult;
+import com._42six.amino.common.entity.QueryResultPage;
+import com._42six.amino.common.index.RangeAggregates;
 import com._42six.amino.common.query.requests.auditing.AminoAuditRequest;
 import com._42six.amino.common.query.requests.bta.BtaByValuesRequest;
 import com._42six.amino.common.translator.FeatureFactTranslatorImpl;
@@ -21,6 +27,7 @@ import com._42six.amino.common.util.concurrent.TimedUserExecutionService;
 import com._42six.amino.query.exception.BigTableException;
 import com._42six.amino.query.exception.EntityNotFoundException;
 import com._42six.amino.query.services.AminoQueryService;
+import com._42six.amino.query.services.QueryEntryHandler;
 import com._42six.amino.query.services.audit.AuditorServiceInt;
 import com._42six.amino.query.services.auth.DefaultVisibilityTranslator;
 import com._42six.amino.query.services.auth.VisibilityTranslatorInt;
@@ -28,8 +35,10 @@ import com._42six.amino.query.stats.QueryStatisticsMap;
 import com._42six.amino.query.util.FirstLastTracker;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import org.apache.accumulo.core.client.*;
 import org.apache.accumulo.core.client.Scanner;
@@ -44,6 +53,9 @@ import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -83,6 +95,66 @@ public class AccumuloQueryService implements AminoQueryService {
 
     public String reverseItrMemThreshold = "100000000";
 
+    /**
+     * Whether the reverse tables hold the pre-OR'd bitmaps of blocks of date and ratio values, so that ranges of them can
+     * be looked up with a few bitmaps.  Only turn this on once the ReverseBitmapJob has been run with
+     * amino.bitmap.reverse.rangeAggregates, or the ranges will miss the values that are only in the blocks
+     */
+    public boolean reverseRangeAggregates = false;
+
+    /**
+     * Whether to send Bloom filters of the looked up positions to the ReverseFeatureCombiner, so that it can throw away
+     * hash collisions as it reads them instead of counting them.  The results are exact either way
+     */
+    public boolean reverseLookupFilters = true;
+
+    /** The false positive probability of each of the Bloom filters sent to the ReverseFeatureCombiner */
+    public double reverseLookupFilterFpp = 0.01;
+
+    /**
+     * Whether to send the bitmaps found in the reverse byBucket table to the ReverseLookupSeekingIterator with one Range
+     * per shard, instead of sending one Range per bit to look up
+     */
+    public boolean reverseLookupSeeking = true;
+
+    /**
+     * Whether to pick between the byBucket scan and the reverse tables from the feature statistics written by the
+     * FeatureMetadataJob.  When off, the reverse tables are used unless the hypothesis has restrictions
+     */
+    public boolean costBasedPlanning = true;
+
+    /**
+     * The number of hypotheses that are scanned at once, across all requests, when finding hypotheses by bucket value.
+     * Change it with setHypothesisScanThreads, which rebuilds the pool if it has already been created
+     */
+    public int hypothesisScanThreads = 8;
+    private ExecutorService hypothesisScanExecutor;
+
+    /** The most hypotheses to evaluate in a single pass over the byBucket table */
+    public int hypothesisBatchSize = 100;
+
+    /** Caches the results of hypotheses so that running one again doesn't have to rescan the tables */
+    public boolean resultCacheEnabled = true;
+    public long resultCacheMaxEntries = 1000000;
+    public long resultCacheTtlMinutes = 30;
+    private QueryResultCache resultCache;
+
+    /** Results with more QueryEntry's than this are not cached, so that streaming a large result keeps memory flat */
+    public long resultCacheMaxResultsPerQuery = 10000;
+
+    /** The number of QueryEntry's written to each page of a result */
+    public int resultPageSize = 1000;
+
+    /** The column qualifiers of the pages of a result, followed by the zero padded page number so that they sort in order */
+    private static final String RESULT_PAGE_PREFIX = "result_page#";
+    private static final String RESULT_PAGE_COUNT = "page_count";
+
+    /** The column qualifier of the explanation of how the query was run */
+    private static final String QUERY_PLAN = "query_plan";
+
+    /** How often to check the keepWorking flag while waiting on the hypothesis scans */
+    private static final long KEEP_WORKING_POLL_MILLIS = 500;
+
     /**
      * Adds the suffix to all of the tables
      * @param suffix The suffix to append to the tables
@@ -138,6 +210,87 @@ public class AccumuloQueryService implements AminoQueryService {
         this.reverseItrMemThreshold = threshold;
     }
 
+    public void setReverseRangeAggregates(boolean rangeAggregates){
+        this.reverseRangeAggregates = rangeAggregates;
+    }
+
+    public void setReverseLookupFilters(boolean filters){
+        this.reverseLookupFilters = filters;
+    }
+
+    public void setReverseLookupSeeking(boolean seeking){
+        this.reverseLookupSeeking = seeking;
+    }
+
+    public void setCostBasedPlanning(boolean costBasedPlanning){
+        this.costBasedPlanning = costBasedPlanning;
+    }
+
+    public void setReverseLookupFilterFpp(double fpp){
+        Preconditions.checkArgument(fpp > 0 && fpp < 1, "The false positive probability must be between 0 and 1");
+        this.reverseLookupFilterFpp = fpp;
+    }
+
+    /**
+     * Sets the number of hypothesis scan threads.  If the pool has already been created it is shut down, letting the
+     * scans already running on it finish, and a new one is created on the next use
+     */
+    public synchronized void setHypothesisScanThreads(int threads){
+        Preconditions.checkArgument(threads > 0, "Must have at least one hypothesis scan thread");
+        this.hypothesisScanThreads = threads;
+        shutdownHypothesisScanExecutor();
+    }
+
+    public void setHypothesisBatchSize(int size){
+        Preconditions.checkArgument(size > 0, "Must have at least one hypothesis per batch");
+        this.hypothesisBatchSize = size;
+    }
+
+    public void setResultCacheEnabled(boolean enabled){
+        this.resultCacheEnabled = enabled;
+    }
+
+    public synchronized void setResultCacheMaxEntries(long maxEntries){
+        this.resultCacheMaxEntries = maxEntries;
+        this.resultCache = null;
+    }
+
+    public synchronized void setResultCacheTtlMinutes(long minutes){
+        this.resultCacheTtlMinutes = minutes;
+        this.resultCache = null;
+    }
+
+    public void setResultCacheMaxResultsPerQuery(long maxResults){
+        this.resultCacheMaxResultsPerQuery = maxResults;
+    }
+
+    public void setResultPageSize(int size){
+        Preconditions.checkArgument(size > 0, "Must have at least one QueryEntry per page");
+        this.resultPageSize = size;
+    }
+
+    /**
+     * Shuts down the threads that the service started.  Scans that are already running are allowed to finish.  Call
+     * this when the service is no longer needed, such as from the destroy method of the container that created it
+     */
+    public synchronized void shutdown(){
+        shutdownHypothesisScanExecutor();
+    }
+
+    private synchronized void shutdownHypothesisScanExecutor(){
+        if(hypothesisScanExecutor != null){
+            hypothesisScanExecutor.shutdown();
+            hypothesisScanExecutor = null;
+        }
+    }
+
+    private synchronized QueryResultCache getResultCache(){
+        if(resultCache == null){
+            resultCache = new QueryResultCache(resultCacheMaxEntries, resultCacheTtlMinutes, TimeUnit.MINUTES);
+        }
+        return resultCache;
+    }
+
 	public void setTimedUserExecutionService(TimedUserExecutionService service){
 		this.timedUserExecutionService = service;
 	}
@@ -267,8 +420,8 @@ public class AccumuloQueryService implements AminoQueryService {
 				entities.add(activeEntity);
 			}
 			
-			// We don't want to return the result_set or hypothesis_at_runtime
-			if(cq.compareTo("result_set") != 0 && cq.compareTo("hypothesis_at_runtime") != 0) {
+			// We don't want to return the result_set, its pages or hypothesis_at_runtime
+			if(cq.compareTo("result_set") != 0 && !cq.startsWith(RESULT_PAGE_PREFIX) && cq.compareTo("hypothesis_at_runtime") != 0) {
 				addResultComponent(activeEntity, cq,  entry.getValue().toString());
 			}
 			currentPosition++;
@@ -292,15 +445,7 @@ public class AccumuloQueryService implements AminoQueryService {
 
 		Authorizations auths = new Authorizations(visibility);
 		
-		Set<String> groups = null;
-					
-		// If the requester isn't the owner, make sure they can see the hypothesis via groups
-		if(requester.compareTo(resultOwner) != 0){
-			groups = groupService.getGroupsForUser(requester, auths);
-			if(groups == null || groups.size() <= 0){
-				throw new EntityNotFoundException("user <" + requester + "> is not allowed to view this result");
-			}
-		}
+		final Set<String> groups = getGroupsToCheck(requester, resultOwner, auths);
 		
 		// Grab the Query Result
 		QueryResult result = new QueryResult();
@@ -324,38 +469,147 @@ public class AccumuloQueryService implements AminoQueryService {
             String value = entry.getValue().toString();
             addResultComponent(result, cq, value);
         }
+        if (result.result_set == null) {
+            // A result without any hits doesn't have any pages
+            result.result_set = new ArrayList<QueryEntry>();
+        }
 		
-		//  Make sure that the requester can see this result
-		if(groups != null){
-			BatchScanner lutScanner = null;
-			try{
-				// See what groups can see this particular hypothesis
-				lutScanner = persistenceService.createBatchScanner(groupHypothesisLUT, auths);
-                final ArrayList<Range> groupRanges = new ArrayList<Range>(groups.size());
-                for(String group : groups){
-                    groupRanges.add(new Range(group));
-                }
-                lutScanner.setRanges(groupRanges);
-                lutScanner.fetchColumn(new Text(resultOwner), new Text(result.hypothesisid));
-				
-				// If there were no results than none of requester's groups can see the hypothesis
-				if(!scan.iterator().hasNext())
-				{
-					throw new EntityNotFoundException("user <"+requester+"> is not allowed to view this result");
-				}				
-			}  catch (Exception ex){
-				log.error(ex);
-				throw ex;
-			} finally {
-                if(lutScanner != null){
-				    lutScanner.close();
-                }
-			}
-		}
+		checkGroupsCanViewResult(requester, groups, resultOwner, result.hypothesisid, auths);
 		
         return result;
     }
 
+	/**
+	 * Fetches one page of the QueryEntry's of a QueryResult.  Results that were stored before they were paged have all
+	 * of their QueryEntry's in the first page.
+	 *
+	 * @param requester The ID of the person making the request
+	 * @param resultOwner The owner of the QueryResult
+	 * @param queryId The ID of the QueryResult to fetch
+	 * @param cursor The cursor of the page to fetch, from the previous page.  null for the first page
+	 * @param visibility The authorization Strings
+	 */
+	public QueryResultPage getResultPage(String requester, String resultOwner, String queryId, String cursor, String[] visibility) throws Exception {
+		checkState();
+		MorePreconditions.checkNotNullOrEmpty(requester);
+		MorePreconditions.checkNotNullOrEmpty(resultOwner);
+		MorePreconditions.checkNotNullOrEmpty(queryId);
+		Preconditions.checkNotNull(visibility);
+
+		final int pageNumber;
+		try {
+			pageNumber = (cursor == null || cursor.isEmpty()) ? 0 : Integer.parseInt(cursor);
+		} catch (NumberFormatException ex){
+			throw new IllegalArgumentException("Invalid cursor <" + cursor + ">");
+		}
+		Preconditions.checkArgument(pageNumber >= 0, "Invalid cursor <%s>", cursor);
+
+		final Authorizations auths = new Authorizations(visibility);
+		final Set<String> groups = getGroupsToCheck(requester, resultOwner, auths);
+
+		// Only fetch the page that was asked for, along with the few cells that describe the result
+		final Text cf = new Text(queryId);
+		final Scanner scan = persistenceService.createScanner(resultsTable, auths);
+		scan.setRange(new Range(resultOwner));
+		scan.fetchColumn(cf, new Text("result_count"));
+		scan.fetchColumn(cf, new Text("id"));
+		scan.fetchColumn(cf, new Text("name"));
+		scan.fetchColumn(cf, new Text(RESULT_PAGE_COUNT));
+		scan.fetchColumn(cf, new Text(resultPageQualifier(pageNumber)));
+		if(pageNumber == 0){
+			scan.fetchColumn(cf, new Text("result_set"));
+		}
+
+		final QueryResult result = new QueryResult();
+		Long pageCount = null;
+		List<QueryEntry> entries = null;
+		boolean found = false;
+		for(Map.Entry<Key, Value> entry : scan){
+			found = true;
+			final String cq = entry.getKey().getColumnQualifier().toString();
+			final String value = entry.getValue().toString();
+			if(cq.compareTo(RESULT_PAGE_COUNT) == 0){
+				pageCount = Long.parseLong(value);
+			} else if(cq.startsWith(RESULT_PAGE_PREFIX)){
+				entries = new Gson().fromJson(value, new TypeToken<List<QueryEntry>>(){}.getType());
+			} else {
+				addResultComponent(result, cq, value);
+			}
+		}
+		if(!found){
+			throw new EntityNotFoundException("No results were found for the query <"+queryId+"> with owner <"+resultOwner+">");
+		}
+
+		checkGroupsCanViewResult(requester, groups, resultOwner, result.hypothesisid, auths);
+
+		final QueryResultPage page = new QueryResultPage();
+		page.owner = resultOwner;
+		page.id = queryId;
+		page.result_count = result.result_count;
+		page.hypothesisid = result.hypothesisid;
+		page.hypothesisname = result.hypothesisname;
+		if(pageCount == null){
+			// Stored before results were paged, so everything is in the one result_set cell
+			entries = result.result_set;
+		} else if(pageNumber + 1 < pageCount){
+			page.cursor = String.valueOf(pageNumber + 1);
+		}
+		page.entries = (entries != null) ? entries : new ArrayList<QueryEntry>();
+		return page;
+	}
+
+	/**
+	 * @return The groups of the requester that might be able to see the result, or null if the requester owns it
+	 * @throws EntityNotFoundException if the requester isn't the owner and isn't in any groups
+	 */
+	private Set<String> getGroupsToCheck(String requester, String resultOwner, Authorizations auths) throws Exception {
+		// If the requester isn't the owner, make sure they can see the hypothesis via groups
+		if(requester.compareTo(resultOwner) == 0){
+			return null;
+		}
+		final Set<String> groups = groupService.getGroupsForUser(requester, auths);
+		if(groups == null || groups.size() <= 0){
+			throw new EntityNotFoundException("user <" + requester + "> is not allowed to view this result");
+		}
+		return groups;
+	}
+
+	/**
+	 * Makes sure that one of the groups can see the hypothesis that the result was created from
+	 *
+	 * @param groups The groups from {@link #getGroupsToCheck}.  If null there's nothing to check
+	 */
+	private void checkGroupsCanViewResult(String requester, Set<String> groups, String resultOwner, String hypothesisId,
+										  Authorizations auths) throws Exception {
+		if(groups == null){
+			return;
+		}
+		BatchScanner lutScanner = null;
+		try{
+			// See what groups can see this particular hypothesis
+			lutScanner = persistenceService.createBatchScanner(groupHypothesisLUT, auths);
+			final ArrayList<Range> groupRanges = new ArrayList<Range>(groups.size());
+			for(String group : groups){
+				groupRanges.add(new Range(group));
+			}
+			lutScanner.setRanges(groupRanges);
+			lutScanner.fetchColumn(new Text(resultOwner), new Text(hypothesisId));
+
+			// If there were no results than none of requester's groups can see the hypothesis
+			if(!lutScanner.iterator().hasNext())
+			{
+				throw new EntityNotFoundException("user <"+requester+"> is not allowed to view this result");
+			}
+		}  catch (Exception ex){
+			log.error(ex);
+			throw ex;
+		} finally {
+			if(lutScanner != null){
+				lutScanner.close();
+			}
+		}
+	}
+
     /**
      * "Execute" a hypothesis.  Does not timeout.
      *
@@ -405,10 +659,50 @@ public class AccumuloQueryService implements AminoQueryService {
     public QueryResult createResult(String owner, String hypothesisId, Integer maxResults, String justification, String userId, String[] visibility,
 		long timeout, TimeUnit units) throws InterruptedException, ExecutionException, TimeoutException {
         checkState();
-		Callable<QueryResult> call = new CreateQueryResultCall(owner, hypothesisId, maxResults, justification, userId, visibility);
+		Callable<QueryResult> call = new CreateQueryResultCall(owner, hypothesisId, maxResults, justification, userId, visibility, null);
 		return timedUserExecutionService.timedCall(call, owner, timeout, units, false);
     }
 
+    /**
+     * "Execute" a hypothesis, handing the results to the handler a page at a time as they are found.  Does not timeout.
+     *
+     * @param owner         The ownerId of the result
+     * @param hypothesisId  The ID of the hypothesis to "run"
+     * @param maxResults    The maximum number of results to generate before stopping
+     * @param justification The justification string for why the query was being made
+     * @param userId        The ID of the person running the result
+     * @param visibility    The Accumulo visibility strings
+     * @param handler       Receives each page of results once it has been written
+     * @return A QueryResult with the count of the results, but without the result_set
+     */
+    public QueryResult createResult(String owner, String hypothesisId, Integer maxResults, String justification, String userId, String[] visibility,
+        QueryEntryHandler handler) throws InterruptedException, ExecutionException, TimeoutException {
+        return createResult(owner, hypothesisId, maxResults, justification, userId, visibility, handler, 0, TimeUnit.MINUTES);
+    }
+
+    /**
+     * "Execute" a hypothesis, handing the results to the handler a page at a time as they are found.  The handler is
+     * called from the thread running the query.
+     *
+     * @param owner         The ownerId of the result
+     * @param hypothesisId  The ID of the hypothesis to "run"
+     * @param maxResults    The maximum number of results to generate before stopping
+     * @param justification The justification string for why the query was being made
+     * @param userId        The ID of the person running the result
+     * @param visibility    The Accumulo visibility strings
+     * @param handler       Receives each page of results once it has been written
+     * @param timeout       The amount of time to run before giving up
+     * @param units         The unit of time for the timeout parameter
+     * @return A QueryResult with the count of the results, but without the result_set
+     */
+    public QueryResult createResult(String owner, String hypothesisId, Integer maxResults, String justification, String userId, String[] visibility,
+        QueryEntryHandler handler, long timeout, TimeUnit units) throws InterruptedException, ExecutionException, TimeoutException {
+        checkState();
+        Preconditions.checkNotNull(handler, "Must have a handler to stream the results to");
+        Callable<QueryResult> call = new CreateQueryResultCall(owner, hypothesisId, maxResults, justification, userId, visibility, handler);
+        return timedUserExecutionService.timedCall(call, owner, timeout, units, false);
+    }
+
     /**
      * Removes a result from the tables
      *
@@ -454,6 +748,13 @@ public class AccumuloQueryService implements AminoQueryService {
 		}
 		
 		// Now remove the QueryResult from the table
+		deleteResultCells(owner, id, auths);
+    }
+
+    /**
+     * Removes all of the cells of a result from the results table
+     */
+    private void deleteResultCells(String owner, String id, Authorizations auths) throws Exception {
 		BatchDeleter deleter = null;
 		try{
             final AccumuloScanConfig config = new AccumuloScanConfig();
@@ -581,40 +882,192 @@ public class AccumuloQueryService implements AminoQueryService {
 			}
 		}
 			
-		BatchScanner bucketValuesScanner = null;
-		try{	
-			bucketValuesScanner = persistenceService.createBatchScanner(byBucketTable, auths);
-			
-			// For each hypothesis, check it's features against the bucket values we are looking for
-            for(Hypothesis hypothesis : hypothesesToSearch){
-				// Check to see if we were interrupted and if so. give up.
-				if(!keepWorking.get()) { return null; }
+		if(hypothesesToSearch.isEmpty()){
+			return matchedValues;
+		}
+
+		// Split the hypotheses into contiguous slices, one per scan thread, capped at hypothesisBatchSize so that the
+		// iterator options stay a reasonable size.  Each slice is evaluated in a single pass over the byBucket table and
+		// the results are gathered in slice order so they come back in the same order as the hypotheses
+		final int sliceSize = Math.min(hypothesisBatchSize,
+				(hypothesesToSearch.size() + hypothesisScanThreads - 1) / hypothesisScanThreads);
+		final int sliceCount = (hypothesesToSearch.size() + sliceSize - 1) / sliceSize;
+		final List<Future<List<Hypothesis>>> futures = new ArrayList<Future<List<Hypothesis>>>(sliceCount);
+		try {
+			for(List<Hypothesis> slice : Lists.partition(new ArrayList<Hypothesis>(hypothesesToSearch), sliceSize)){
+				futures.add(submitHypothesisScan(new ScanHypothesesByBucketValuesCall(slice, bucket.name,
+						datasourceId + ":" + bucket.name, shardCount, auths, bucketValues, keepWorking)));
+			}
 
-				boolean scanValues = configureByValueScanner(bucketValuesScanner, bucket.name, hypothesis.hypothesisFeatures, // ADDED <===========================
-                        datasourceId + ":" + bucket.name, shardCount, auths, bucketValues);
-
-				if(scanValues){
-                    for(Map.Entry<Key,Value> bvRow : bucketValuesScanner){
-                        final Hypothesis h = new Hypothesis();
-                        h.id = hypothesis.id;
-                        h.bucketValue = bvRow.getKey().getColumnFamily().toString();
-                        h.hypothesisFeatures = null;
-                        h.queries = null;
-						matchedValues.add(h);
+			for(Future<List<Hypothesis>> future : futures){
+				while(true){
+					// Check to see if we were interrupted and if so. give up.
+					if(!keepWorking.get()) { return null; }
+					try {
+						final List<Hypothesis> sliceMatches = future.get(KEEP_WORKING_POLL_MILLIS, TimeUnit.MILLISECONDS);
+						if(sliceMatches == null){
+							return null;
+						}
+						matchedValues.addAll(sliceMatches);
+						break;
+					} catch (TimeoutException e){
+						// Still scanning, check the flag again
 					}
 				}
-			} 
-		} catch(Exception ex) {
-			log.error(ex);
+			}
+		} catch(ExecutionException ex) {
+			log.error(ex.getCause());
+			if(ex.getCause() instanceof Exception){
+				throw (Exception) ex.getCause();
+			}
 			throw ex;
 		} finally {
-            if(bucketValuesScanner != null){
-			    bucketValuesScanner.close();
-            }
+			// Stops any slices that are still running if we gave up or one of the others failed
+			for(Future<List<Hypothesis>> future : futures){
+				future.cancel(true);
+			}
 		}
 		return matchedValues;
 	}
 
+	/**
+	 * Scans the byBucket table for the bucket values that match each of the hypotheses.  The masks of all of the
+	 * hypotheses are sent to a single {@link MultiHypothesisIterator}, so the table is only passed over once no matter
+	 * how many hypotheses there are
+	 *
+	 * @param hypotheses The hypotheses to check
+	 * @param bucketName The bucket to look in
+	 * @param resultScanRowId String in the form of datasourceId + ":" + bucketName
+	 * @param shardCount The number of shards in the byBucket table
+	 * @param auths Accumulo Authorizations
+	 * @param bucketValues The bucket values to look for
+	 * @param keepWorking Flag to tell us to stop working if the method is taking too long
+	 * @return A Hypothesis for each matching bucket value, grouped in the order of the hypotheses, or null if we were
+	 * told to stop
+	 */
+	private List<Hypothesis> scanHypothesesByBucketValues(List<Hypothesis> hypotheses, String bucketName,
+			String resultScanRowId, Integer shardCount, Authorizations auths, Set<String> bucketValues,
+			AtomicBoolean keepWorking) throws Exception {
+		// The matches of each hypothesis, in the same order as the hypotheses.  The IDs may be missing or repeated, so the
+		// iterator refers to the hypotheses by the position of their masks
+		final List<List<Hypothesis>> matchedValues = new ArrayList<List<Hypothesis>>(hypotheses.size());
+		final List<MultiHypothesisIterator.HypothesisMask> masks = new ArrayList<MultiHypothesisIterator.HypothesisMask>();
+		final List<Hypothesis> maskHypotheses = new ArrayList<Hypothesis>();
+		final List<List<Hypothesis>> maskMatches = new ArrayList<List<Hypothesis>>();
+		String first = null;
+		String last = null;
+
+		BatchScanner bucketValuesScanner = null;
+		try{
+			// Look up the masks for each hypothesis
+			for(Hypothesis hypothesis : hypotheses){
+				// Check to see if we were interrupted and if so. give up.
+				if(!keepWorking.get() || Thread.currentThread().isInterrupted()) { return null; }
+
+				final List<Hypothesis> hypothesisMatches = new ArrayList<Hypothesis>();
+				matchedValues.add(hypothesisMatches);
+
+				// Hypotheses without features just check that the values exist, which the iterator can't do
+				if(hypothesis.hypothesisFeatures.size() == 0){
+					if(bucketValuesScanner == null){
+						bucketValuesScanner = persistenceService.createBatchScanner(byBucketTable, auths);
+					}
+					if(configureByValueScanner(bucketValuesScanner, bucketName, hypothesis.hypothesisFeatures,
+							resultScanRowId, shardCount, auths, bucketValues)){
+						for(Map.Entry<Key,Value> bvRow : bucketValuesScanner){
+							hypothesisMatches.add(
+									createBucketValueMatch(hypothesis.id, bvRow.getKey().getColumnFamily().toString()));
+						}
+					}
+					continue;
+				}
+
+				final BitMaskScanConfig bitmaskScanInformation =
+						getBitmaskScanInformationForQuery(hypothesis.hypothesisFeatures, bucketName, auths);
+				if (!isByBucketScanNecessaryForQuery(bitmaskScanInformation)){
+					continue;
+				}
+				masks.add(new MultiHypothesisIterator.HypothesisMask(hypothesis.id, bitmaskScanInformation.first,
+						bitmaskScanInformation.last, bitmaskScanInformation.maskArray));
+				maskHypotheses.add(hypothesis);
+				maskMatches.add(hypothesisMatches);
+				if(first == null || bitmaskScanInformation.first.compareTo(first) < 0){
+					first = bitmaskScanInformation.first;
+				}
+				if(last == null || bitmaskScanInformation.last.compareTo(last) > 0){
+					last = bitmaskScanInformation.last;
+				}
+			}
+
+			if(!masks.isEmpty()){
+				if(!keepWorking.get() || Thread.currentThread().isInterrupted()) { return null; }
+				if(bucketValuesScanner != null){
+					bucketValuesScanner.close();
+				}
+				bucketValuesScanner = persistenceService.createBatchScanner(byBucketTable, auths);
+
+				final IteratorSetting iteratorSetting = new IteratorSetting(30, "multiHypothesisIterator",
+						MultiHypothesisIterator.class.getCanonicalName());
+				iteratorSetting.addOption(MultiHypothesisIterator.OPTION_HYPOTHESES,
+						BitmapIteratorOptions.encodeHypothesisMasks(masks));
+
+				final AccumuloScanConfig config = new AccumuloScanConfig();
+				config.setStartRow(resultScanRowId);
+				config.setStartColumnFamily(first);
+				config.setStartColumnQualifier("0");
+				config.setEndRow(resultScanRowId);
+				config.setEndColumnFamily(last);
+				config.setEndColumnQualifier(TableConstants.ROW_TERMINATOR);
+				config.setShardcount(shardCount);
+				config.setIteratorSetting(iteratorSetting);
+				persistenceService.configureBatchScanner(bucketValuesScanner, config);
+
+				// Use the restrictions to optimize the scan
+				for(String it : bucketValues){
+					bucketValuesScanner.fetchColumnFamily(new Text(it));
+				}
+
+				// The column qualifier of each hit is the position of the mask of the hypothesis that matched
+				for(Map.Entry<Key,Value> hit : bucketValuesScanner){
+					final int position = MultiHypothesisIterator.getHypothesisPosition(hit.getKey());
+					maskMatches.get(position).add(createBucketValueMatch(maskHypotheses.get(position).id,
+							hit.getKey().getColumnFamily().toString()));
+				}
+			}
+		} finally {
+			if(bucketValuesScanner != null){
+				bucketValuesScanner.close();
+			}
+		}
+
+		final List<Hypothesis> matches = new ArrayList<Hypothesis>();
+		for(List<Hypothesis> hypothesisMatches : matchedValues){
+			matches.addAll(hypothesisMatches);
+		}
+		return matches;
+	}
+
+	private static Hypothesis createBucketValueMatch(String hypothesisId, String bucketValue){
+		final Hypothesis h = new Hypothesis();
+		h.id = hypothesisId;
+		h.bucketValue = bucketValue;
+		h.hypothesisFeatures = null;
+		h.queries = null;
+		return h;
+	}
+
+	/**
+	 * Runs a byBucket scan on the pool of hypothesisScanThreads threads, creating the pool if needed.  Synchronized with
+	 * setHypothesisScanThreads and shutdown, so that the pool isn't shut down between getting it and submitting to it
+	 */
+	private synchronized Future<List<Hypothesis>> submitHypothesisScan(Callable<List<Hypothesis>> scan){
+		if(hypothesisScanExecutor == null){
+			hypothesisScanExecutor = Executors.newFixedThreadPool(hypothesisScanThreads,
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("HypothesisScan-%d").build());
+		}
+		return hypothesisScanExecutor.submit(scan);
+	}
+
 	private Collection<Hypothesis> createNonPersistedHypotheses(
 		String datasourceid, String bucketid, Collection<String> bucketValues, String[] visibility, String userid, String justification, 
 		AtomicBoolean keepRunning, List<String> featureIds) throws Exception {
@@ -1252,14 +1705,13 @@ public class AccumuloQueryService implements AminoQueryService {
 
     /**
      * Creates the appropriate QueryEntry's by inspecting the amino_bitmap_byBucket table.
-     * @return QueryResult with results for the Hypothesis
+     * @param results Receives the QueryEntry's as they are found
+     * @return false if told to stop working before all of the results were found
      */
-    private ArrayList<QueryEntry> resultsViaByBucket(String datasourceid, String bucketName, Authorizations auths,
-                                                     Set<HypothesisFeature> restrictions, Set<HypothesisFeature> featuresSansRestrictions,
-                                                     QueryStatisticsMap resultStats, AtomicBoolean keepWorking, long maxResults,
-                                                     AtomicBoolean hitCap) throws Exception {
-        ArrayList<QueryEntry> results = new ArrayList<QueryEntry>();
-
+    private boolean resultsViaByBucket(String datasourceid, String bucketName, Authorizations auths,
+                                       Set<String> restrictionValues, Set<HypothesisFeature> featuresSansRestrictions,
+                                       QueryStatisticsMap resultStats, AtomicBoolean keepWorking, long maxResults,
+                                       AtomicBoolean hitCap, ResultPageWriter results) throws Exception {
         BatchScanner resultScan = null;
         try{
             final String resultScanRowId = datasourceid + ":" + bucketName;
@@ -1267,17 +1719,6 @@ public class AccumuloQueryService implements AminoQueryService {
 
             resultScan = persistenceService.createBatchScanner(byBucketTable, auths);
 
-            // TODO this might be a bad conversion
-            final HashSet<String> restrictionValues = new HashSet<String>(restrictions.size());
-            for(HypothesisFeature hf : restrictions){
-                // TODO - FIXME HACK AGGGHHH The GUI is sending the values in as ["a,b,c"] instead of ["a", "b", "c"]
-                String hackValue = hf.value;
-                hackValue = hackValue.replaceAll("\\[\"","");
-                hackValue = hackValue.replaceAll("\"]","");
-                for(String v : hackValue.split(",")){
-                    restrictionValues.add(v.trim());
-                }
-            }
             boolean resultsToScan = configureByValueScanner(resultScan, bucketName, featuresSansRestrictions, resultScanRowId, shardCount, auths,
                     restrictionValues);
 
@@ -1287,7 +1728,7 @@ public class AccumuloQueryService implements AminoQueryService {
                 for(Map.Entry<Key, Value> entry : resultScan){
                     if(!keepWorking.get()){
                         log.warn("createQueryResult told to stop working");
-                        return null;
+                        return false;
                     }
 
                     resultStats.increment();
@@ -1296,8 +1737,7 @@ public class AccumuloQueryService implements AminoQueryService {
                         hitCap.set(true);
                         break;
                     }
-                    final QueryEntry qe = new QueryEntry(entry.getKey().getColumnFamily().toString());
-                    results.add(qe);
+                    results.add(new QueryEntry(entry.getKey().getColumnFamily().toString()));
                     resultsCount++;
                 }
             }
@@ -1313,21 +1753,97 @@ public class AccumuloQueryService implements AminoQueryService {
             }
         }
 
-        return results;
+        return true;
+    }
+
+    /**
+     * @return The bucket values of the RESTRICTION features
+     */
+    private static Set<String> restrictionValues(Set<HypothesisFeature> restrictions){
+        // TODO this might be a bad conversion
+        final HashSet<String> restrictionValues = new HashSet<String>(restrictions.size());
+        for(HypothesisFeature hf : restrictions){
+            // TODO - FIXME HACK AGGGHHH The GUI is sending the values in as ["a,b,c"] instead of ["a", "b", "c"]
+            String hackValue = hf.value;
+            hackValue = hackValue.replaceAll("\\[\"","");
+            hackValue = hackValue.replaceAll("\"]","");
+            for(String v : hackValue.split(",")){
+                restrictionValues.add(v.trim());
+            }
+        }
+        return restrictionValues;
+    }
+
+    /**
+     * Works out whether to scan the byBucket table or look the features up in the reverse tables
+     *
+     * @param restrictionValues The bucket values the results are restricted to
+     * @return The Plan to run the query with
+     */
+    private QueryPlanner.Plan planQuery(String bucketName, Set<HypothesisFeature> featuresSansRestrictions,
+                                        Set<String> restrictionValues, long maxResults, Authorizations auths) throws Exception {
+        if(!costBasedPlanning){
+            final QueryPlanner.Strategy strategy = restrictionValues.isEmpty()
+                    ? QueryPlanner.Strategy.REVERSE : QueryPlanner.Strategy.BY_BUCKET;
+            return new QueryPlanner.Plan(strategy, Double.NaN, Double.NaN, Double.NaN,
+                    "strategy=" + strategy + " reason=cost based planning is off");
+        }
+
+        // The FeatureMetadata is cached by the metadata service, so this doesn't go back to the table for every query
+        final Map<String, FeatureMetadata> metadata = new HashMap<String, FeatureMetadata>();
+        for(HypothesisFeature feature : featuresSansRestrictions){
+            if(metadata.containsKey(feature.featureMetadataId)){
+                continue;
+            }
+            try {
+                final FeatureMetadata featureMetadata = metadataService.getFeature(feature.featureMetadataId, auths);
+                if(featureMetadata != null){
+                    metadata.put(feature.featureMetadataId, featureMetadata);
+                }
+            } catch (IOException ex){
+                log.warn("Could not fetch the metadata of feature " + feature.featureMetadataId + " to plan the query", ex);
+            }
+        }
+
+        final QueryPlanner planner = new QueryPlanner(metadataService.getShardCount(), metadataService.getHashCount(),
+                reverseRangeAggregates, translator);
+        return planner.plan(bucketName, featuresSansRestrictions, restrictionValues, metadata, maxResults);
+    }
+
+    /**
+     * @return The column qualifier of the first value in the range of an interval feature
+     */
+    private String intervalStart(HypothesisFeature feature){
+        // TODO - HACK - Need to do this a more flexible way
+        if(FeatureFactType.dateIntervalTypes.contains(feature.type)){
+            return translator.fromDate(feature.timestampFrom).toString();
+        }
+        return translator.fromRatio(feature.min).toString();
+    }
+
+    /**
+     * @return The column qualifier of the last value in the range of an interval feature
+     */
+    private String intervalEnd(HypothesisFeature feature){
+        if(FeatureFactType.dateIntervalTypes.contains(feature.type)){
+            return translator.fromDate(feature.timestampTo).toString();
+        }
+        return translator.fromRatio(feature.max).toString();
     }
 
     /**
      * Creates the appropriate QueryEntry's by inspecting the amino_reverse_bitmap_byBucket and
      * amino_reverse_feature_lookup tables.
-     * @return QueryResult with results for the Hypothesis
+     * @param restrictionValues If not empty, only these bucket values are returned
+     * @param results Receives the QueryEntry's as they are found
      */
-    private ArrayList<QueryEntry> resultsViaReverseByBucket(String datasource, String bucketName, Set<HypothesisFeature> features,
-                                                            Authorizations auths, long maxResults, AtomicBoolean hitCap) throws Exception {
-        ArrayList<QueryEntry> results = new ArrayList<QueryEntry>();
-
+    private void resultsViaReverseByBucket(String datasource, String bucketName, Set<HypothesisFeature> features,
+                                           Set<String> restrictionValues, Authorizations auths, long maxResults,
+                                           AtomicBoolean hitCap, ResultPageWriter results) throws Exception {
         final String DS_BN = datasource + "#" + bucketName + "#";
         final String revByBucketItr = "reverseByBucketIterator";
         final String revLookupItr = "reverseFeatureLookupIterator";
+        final String revSeekingItr = "reverseLookupSeekingIterator";
 
         // We need to tell the iterator which features should be OR'd when looking up values (RATIOS, etc) and which
         // ones simply needed to be AND'd (pretty much everything else)
@@ -1339,33 +1855,52 @@ public class AccumuloQueryService implements AminoQueryService {
         final List<Range> ranges = new ArrayList<Range>(features.size()); // The Ranges to look for in the reverseByBucketTable
         final Set<Range> lookupRanges = new HashSet<Range>(); // The Ranges to use when looking up the reverseFeatureLookupTable
 
+        // With the pre-OR'd blocks, each interval feature is covered by pieces of column qualifiers that are all OR'd
+        // together by the iterator, so that a range of thousands of values only reads a few bitmaps.  The features of
+        // the same column family share a single Range per row
+        final Map<String, List<String[]>> orPieces = new HashMap<String, List<String[]>>();
+        if(reverseRangeAggregates){
+            for(HypothesisFeature feature : features){
+                if(FeatureFactType.intervalTypes.contains(feature.type)){
+                    final String cf = DS_BN + feature.featureMetadataId;
+                    if(!orPieces.containsKey(cf)){
+                        orPieces.put(cf, new ArrayList<String[]>());
+                    }
+                    orPieces.get(cf).addAll(RangeAggregates.cover(FeatureFactType.valueOf(feature.type),
+                            intervalStart(feature), intervalEnd(feature)));
+                }
+            }
+        }
+        int rangesPerRow = 0;
+
         // For each shard:salt pair, create the Ranges needed to fetch the feature values and configure the iterator options
         for(int salt = 0; salt < metadataService.getHashCount(); salt++){
             for(int shard = 0; shard < metadataService.getShardCount(); shard++){
                 String rowid = shard + ":" + salt;
+                final int rowStart = ranges.size();
 
                 for(HypothesisFeature feature : features){
                     if(FeatureFactType.intervalTypes.contains(feature.type)){
                         orIds.add(DS_BN + feature.featureMetadataId);
-                        // TODO - HACK - Need to do this a more flexible way
-                        if(FeatureFactType.dateIntervalTypes.contains(feature.type)){
-                            ranges.add(new Range(new Key(rowid, DS_BN + feature.featureMetadataId, translator.fromDate(feature.timestampFrom).toString()),
-                                    new Key(rowid,DS_BN + feature.featureMetadataId, translator.fromDate(feature.timestampTo).toString()).followingKey(PartialKey.ROW_COLFAM_COLQUAL)));
-                        } else {
-                            ranges.add(new Range(new Key(rowid, DS_BN + feature.featureMetadataId, translator.fromRatio(feature.min).toString()),
-                                    new Key(rowid, DS_BN + feature.featureMetadataId, translator.fromRatio(feature.max).toString()).followingKey(PartialKey.ROW_COLFAM_COLQUAL)));
+                        if(!orPieces.containsKey(DS_BN + feature.featureMetadataId)){
+                            ranges.add(new Range(new Key(rowid, DS_BN + feature.featureMetadataId, intervalStart(feature)),
+                                    new Key(rowid, DS_BN + feature.featureMetadataId, intervalEnd(feature)).followingKey(PartialKey.ROW_COLFAM_COLQUAL)));
                         }
                     } else {
                         andIds.add(new AbstractMap.SimpleImmutableEntry<String, String>(DS_BN + feature.featureMetadataId, feature.value));
                         ranges.add(IteratorUtils.exactRow(rowid, DS_BN + feature.featureMetadataId, feature.value));
                     }
                 }
+                for(String cf : orPieces.keySet()){
+                    ranges.add(IteratorUtils.exactRow(rowid, cf));
+                }
+                rangesPerRow = ranges.size() - rowStart;
             }
         }
 
         // Configure the options on the iterator for the BatchScanner on the reverseByBucketTable
         IteratorSetting iteratorSetting = new IteratorSetting(30, revByBucketItr, ReverseByBucketCombiner.class.getCanonicalName());
-        iteratorSetting.addOption(ReverseByBucketCombiner.OPTION_NUM_RANGES, String.valueOf(features.size()));
+        iteratorSetting.addOption(ReverseByBucketCombiner.OPTION_NUM_RANGES, String.valueOf(rangesPerRow));
 
         if(andIds.size() > 0){
             iteratorSetting.addOption(ReverseByBucketCombiner.OPTION_AND_IDS, new Gson().toJson(andIds));
@@ -1373,23 +1908,41 @@ public class AccumuloQueryService implements AminoQueryService {
         if(orIds.size() > 0){
             iteratorSetting.addOption(ReverseByBucketCombiner.OPTION_OR_IDS, new Gson().toJson(orIds));
         }
+        if(orPieces.size() > 0){
+            iteratorSetting.addOption(ReverseByBucketCombiner.OPTION_OR_PIECES, new Gson().toJson(orPieces));
+        }
         iteratorSetting.addOption(ReverseByBucketCombiner.OPTION_BITMAP_MEM_THRESHOLD, reverseItrMemThreshold);
         revByBucketScanner.addScanIterator(iteratorSetting);
 
         // Set up the ranges and get ready to scan the amino_reverse_bitmap_byBucket table
         revByBucketScanner.setRanges(ranges);
 
+        // The positions found for each shard:salt, for the iterators of the lookup
+        final Map<String, AminoBitmap> bitsByRow = new HashMap<String, AminoBitmap>();
+        final Set<String> lookupShards = new HashSet<String>();
+
         try{
-            // Scan the table.  If there were any hits, create a Range for each bit to look up in the amino_reverse_feature_lookup table
+            // Scan the table.  If there were any hits, look up their bits in the amino_reverse_feature_lookup table,
+            // either by seeking to them a shard at a time or with a Range for each bit
             for(Map.Entry<Key, Value> e : revByBucketScanner){
                 if(ReverseByBucketCombiner.INVALID_KEY.compareTo(e.getKey()) != 0){
                     String shard = e.getKey().getRow().toString().split(":")[0];
                     String salt = e.getKey().getRow().toString().split(":")[1];
                     AminoBitmap b = BitmapUtils.fromValue(e.getValue());
+                    if(b.cardinality() == 0){
+                        continue;
+                    }
+                    if(reverseLookupFilters || reverseLookupSeeking){
+                        bitsByRow.put(e.getKey().getRow().toString(), b);
+                    }
 
-                    for(Integer i : b){
-                        Range r = IteratorUtils.exactRow(shard, i + "#" + DS_BN + salt);
-                        lookupRanges.add(r);
+                    if(reverseLookupSeeking){
+                        lookupShards.add(shard);
+                    } else {
+                        for(Integer i : b){
+                            Range r = IteratorUtils.exactRow(shard, i + "#" + DS_BN + salt);
+                            lookupRanges.add(r);
+                        }
                     }
                 }
             }
@@ -1397,40 +1950,65 @@ public class AccumuloQueryService implements AminoQueryService {
             revByBucketScanner.close();
         }
 
+        for(String shard : lookupShards){
+            lookupRanges.add(new Range(shard));
+        }
+
         // Check to see if there is anything to lookup
         if(lookupRanges.size() ==0){
-            return results;
+            return;
         }
 
         // Create the Scanner and set the iterator to de-conflict hash collisions
         final BatchScanner lookupScanner = persistenceService.createBatchScanner(reverseFeatureLookupTable, auths);
         lookupScanner.setRanges(lookupRanges);
+        if(reverseLookupSeeking){
+            final IteratorSetting seekingItr = new IteratorSetting(20, revSeekingItr, ReverseLookupSeekingIterator.class.getCanonicalName());
+            seekingItr.addOption(ReverseLookupSeekingIterator.OPTION_ROW_BITMAPS, BitmapIteratorOptions.encodeRowBitmaps(bitsByRow));
+            seekingItr.addOption(ReverseLookupSeekingIterator.OPTION_DATASOURCE_BUCKET, DS_BN);
+            lookupScanner.addScanIterator(seekingItr);
+        }
         final IteratorSetting itr = new IteratorSetting(30, revLookupItr, ReverseFeatureCombiner.class.getCanonicalName());
         itr.addOption(ReverseFeatureCombiner.OPTION_SALTS, metadataService.getHashCount().toString());
-        itr.addOption(ReverseFeatureCombiner.OPTION_MAX_RESULTS, String.valueOf(maxResults));
+        // The restrictions are applied to what comes back, so the combiner can't stop at maxResults
+        itr.addOption(ReverseFeatureCombiner.OPTION_MAX_RESULTS,
+                String.valueOf(restrictionValues.isEmpty() ? maxResults : Integer.MAX_VALUE));
+        if(reverseLookupFilters){
+            itr.addOption(ReverseFeatureCombiner.OPTION_SALT_FILTERS, SaltFilters.encode(bucketName,
+                    metadataService.getHashCount(), bitsByRow, reverseLookupFilterFpp));
+        }
         lookupScanner.addScanIterator(itr);
 
         // Fetch the results
         try {
             int resultCount = 0;
             for(Map.Entry<Key, Value> entry : lookupScanner){
+                final String bucketValue = entry.getValue().toString();
+                if(!restrictionValues.isEmpty() && !restrictionValues.contains(bucketValue)){
+                    continue;
+                }
                 resultCount++;
-                results.add(new QueryEntry(entry.getValue().toString()));
+                results.add(new QueryEntry(bucketValue));
                 if(resultCount > maxResults){
                     hitCap.set(true);
-                    return results;
+                    return;
                 }
             }
         } finally {
             lookupScanner.close();
         }
-
-        return results;
     }
 
 
+    /**
+     * Runs the hypothesis, writing the results to the results table a page at a time as they are found
+     *
+     * @param handler Receives each page of results.  If null, all of the results are gathered up and returned in the
+     *                QueryResult's result_set
+     * @return The QueryResult, or null if told to stop working
+     */
     private QueryResult createQueryResult(String owner, String id, long maxResults, String justification, String userId,
-                                          Authorizations auths, AtomicBoolean keepWorking) throws Exception {
+                                          Authorizations auths, AtomicBoolean keepWorking, QueryEntryHandler handler) throws Exception {
         long startTime = System.currentTimeMillis();
 
         // Parameter verification
@@ -1439,7 +2017,6 @@ public class AccumuloQueryService implements AminoQueryService {
         MorePreconditions.checkNotNullOrEmpty(id);
 
         QueryResult returnQR;
-        final ArrayList<QueryEntry> results;
 
         // Fetch the Hypothesis to run
         final Hypothesis hypothesis = metadataService.getHypothesis(userId, owner, id, auths);
@@ -1469,17 +2046,82 @@ public class AccumuloQueryService implements AminoQueryService {
         auditReq.setJustification(justification);
         auditQuery(bucketName, auditReq, auths, hypothesis.hypothesisFeatures, null);
 
+        final Set<String> restrictionValues = restrictionValues(restrictions);
+
         // Can't just just a regular boolean to pass into the functions. That'd be too easy.  Stupid Java.
         AtomicBoolean hitCap = new AtomicBoolean(false);
         QueryStatisticsMap resultStats = new QueryStatisticsMap();
 
-        if(restrictions.size() > 0){
-            // Use the old way
-            results = resultsViaByBucket(hypothesis.datasourceid, bucketName, auths, restrictions, featuresSansRestrictions,
-                    resultStats, keepWorking, maxResults, hitCap);
-        } else {
-            // Use the new way
-            results = resultsViaReverseByBucket(hypothesis.datasourceid, bucketName, featuresSansRestrictions, auths, maxResults, hitCap);
+        // See if the same query has already been run against the current tables
+        String fingerprint = null;
+        QueryResultCache.CachedResults cached = null;
+        if(resultCacheEnabled){
+            final long generation = metadataService.getIngestGeneration();
+            getResultCache().checkGeneration(generation);
+            fingerprint = QueryResultCache.fingerprint(hypothesis.datasourceid, bucketName,
+                    hypothesis.hypothesisFeatures, auths, maxResults, generation);
+            cached = getResultCache().get(fingerprint);
+        }
+
+        // Without a handler the caller wants all of the results back, so gather them up as the pages are written
+        final List<QueryEntry> gathered = (handler == null) ? new ArrayList<QueryEntry>() : null;
+        final QueryEntryHandler pageHandler = (handler != null) ? handler : new QueryEntryHandler() {
+            @Override
+            public void handle(List<QueryEntry> entries) {
+                gathered.addAll(entries);
+            }
+        };
+
+        final long createdTime = System.currentTimeMillis();
+        final String resultId = Long.toString(Long.MAX_VALUE - createdTime);
+        final ResultPageWriter results = new ResultPageWriter(userId, resultId, hypothesis.btVisibility, pageHandler,
+                (fingerprint != null && cached == null) ? resultCacheMaxResultsPerQuery : 0);
+        boolean completed = false;
+        String queryPlan = null;
+        try {
+            if(cached != null){
+                for(QueryEntry entry : cached.results){
+                    results.add(entry);
+                }
+                hitCap.set(cached.hitCap);
+                completed = true;
+                queryPlan = "strategy=CACHED";
+            } else {
+                final QueryPlanner.Plan plan = planQuery(bucketName, featuresSansRestrictions, restrictionValues,
+                        maxResults, auths);
+                queryPlan = plan.explain;
+                if(log.isDebugEnabled()){
+                    log.debug("Query plan for hypothesis " + hypothesis.id + ": " + queryPlan);
+                }
+                if(plan.strategy == QueryPlanner.Strategy.BY_BUCKET){
+                    completed = resultsViaByBucket(hypothesis.datasourceid, bucketName, auths, restrictionValues,
+                            featuresSansRestrictions, resultStats, keepWorking, maxResults, hitCap, results);
+                } else {
+                    resultsViaReverseByBucket(hypothesis.datasourceid, bucketName, featuresSansRestrictions,
+                            restrictionValues, auths, maxResults, hitCap, results);
+                    completed = true;
+                }
+            }
+            if(completed){
+                results.flush();
+            }
+        } finally {
+            results.close();
+            if(!completed){
+                // Don't leave the pages of a partial result lying around
+                try {
+                    deleteResultCells(userId, resultId, auths);
+                } catch (Exception ex){
+                    log.warn("Could not remove the partial result " + resultId + " for " + userId, ex);
+                }
+            }
+        }
+        if(!completed){
+            return null;
+        }
+
+        if(fingerprint != null && cached == null && results.getRetained() != null){
+            getResultCache().put(fingerprint, results.getRetained(), hitCap.get());
         }
 
         final String errorString = (hitCap.get()) ? "Query exceeded " + maxResults + " results." : null;
@@ -1487,14 +2129,18 @@ public class AccumuloQueryService implements AminoQueryService {
         if (logQueryStats) {
             log.info ("createQueryResult() elapsed=[" +
                     Math.round((System.currentTimeMillis() - startTime)/1000) +
-                    "], resultCount=[" + String.valueOf(results.size()) +
+                    "], resultCount=[" + String.valueOf(results.getCount()) +
+                    "], cached=[" + (cached != null) +
                     "], resultScanner=[" + resultStats +
+                    "], plan=[" + queryPlan +
                     "].");
         }
 
         // Update the Hypothesis to reflect the new timestamps
         hypothesis.executed = System.currentTimeMillis();
-        returnQR =	persistQueryResults(userId, hypothesis, results, errorString);
+        returnQR =	persistQueryResults(userId, hypothesis, resultId, createdTime, results.getCount(), results.getPageCount(),
+                errorString, queryPlan);
+        returnQR.result_set = gathered;
         hypothesis.queries.add(returnQR.id);
         metadataService.updateHypothesis(hypothesis, userId, auths);
         return returnQR;
@@ -1518,36 +2164,54 @@ public class AccumuloQueryService implements AminoQueryService {
         return true;
     }
 
-    private QueryResult persistQueryResults(String ownerId, Hypothesis hypothesis, List<QueryEntry>results, String error) throws Exception {
-        final Gson gson = new Gson();
-        final Long reverseTimestamp = Long.MAX_VALUE - new Date().getTime();
-		final String cf = reverseTimestamp.toString();
-
-        ArrayList<Mutation> mutations = new ArrayList<Mutation>(5);
+    /**
+     * Writes the cells that describe a result.  The QueryEntry's have already been written by a {@link ResultPageWriter}
+     *
+     * @param cf The ID of the result
+     * @param timestamp When the result was created
+     */
+    private QueryResult persistQueryResults(String ownerId, Hypothesis hypothesis, String cf, long timestamp, long resultCount,
+                                            int pageCount, String error, String queryPlan) throws Exception {
+        ArrayList<Mutation> mutations = new ArrayList<Mutation>(6);
 
-        mutations.add(persistenceService.createInsertMutation(ownerId, cf, "result_count", hypothesis.btVisibility, String.valueOf(results.size())));
-        mutations.add(persistenceService.createInsertMutation(ownerId, cf, "result_set", hypothesis.btVisibility, gson.toJson(results)));
+        mutations.add(persistenceService.createInsertMutation(ownerId, cf, "result_count", hypothesis.btVisibility, String.valueOf(resultCount)));
+        mutations.add(persistenceService.createInsertMutation(ownerId, cf, RESULT_PAGE_COUNT, hypothesis.btVisibility, String.valueOf(pageCount)));
         mutations.add(persistenceService.createInsertMutation(ownerId, cf, "id", hypothesis.btVisibility, hypothesis.id));
         mutations.add(persistenceService.createInsertMutation(ownerId, cf, "name", hypothesis.btVisibility, hypothesis.name));
         mutations.add(persistenceService.createInsertMutation(ownerId, cf, "hypothesis_at_runtime", hypothesis.btVisibility, hypothesis.toJson()));
+        if(queryPlan != null){
+            mutations.add(persistenceService.createInsertMutation(ownerId, cf, QUERY_PLAN, hypothesis.btVisibility, queryPlan));
+        }
 
         persistenceService.insertRows(mutations, resultsTable);
         final QueryResult result = new QueryResult();
         result.id = cf;
-        result.timestamp = Long.MAX_VALUE - reverseTimestamp;
-        result.result_count = (long) results.size();
-        result.result_set = results;
+        result.timestamp = timestamp;
+        result.result_count = resultCount;
         result.hypothesisid = hypothesis.id;
         result.hypothesisname = hypothesis.name;
         result.hypothesis_at_runtime = hypothesis;
         result.error = error;
+        result.query_plan = queryPlan;
         return result;
     }
 
+    private static String resultPageQualifier(int pageNumber) {
+        return RESULT_PAGE_PREFIX + String.format("%010d", pageNumber);
+    }
+
     // TODO This should be cleaned up - Jeremy
     private static void  addResultComponent(QueryResult result, String cq, String value) {
         if (cq.compareTo("result_set") == 0) {
             result.result_set = new Gson().fromJson(value, new TypeToken<List<QueryEntry>>(){}.getType());
+        } else if (cq.startsWith(RESULT_PAGE_PREFIX)) {
+            // The pages sort in order, so each one follows on from the last
+            final List<QueryEntry> page = new Gson().fromJson(value, new TypeToken<List<QueryEntry>>(){}.getType());
+            if (result.result_set == null) {
+                result.result_set = new ArrayList<QueryEntry>(page);
+            } else {
+                result.result_set.addAll(page);
+            }
         } else if (cq.compareTo("result_count") == 0) {
             result.result_count = Long.parseLong(value);
         } else if (cq.compareTo("name") == 0) {
@@ -1556,6 +2220,8 @@ public class AccumuloQueryService implements AminoQueryService {
 			result.hypothesisid = value;
 		} else if (cq.compareTo("hypothesis_at_runtime") == 0) {
 			result.hypothesis_at_runtime = new Gson().fromJson(value, Hypothesis.class);
+		} else if (cq.compareTo(QUERY_PLAN) == 0) {
+			result.query_plan = value;
 		}
     }
 		
@@ -1671,7 +2337,7 @@ public class AccumuloQueryService implements AminoQueryService {
 		
 		// Create the configuration for the scanner iterator
         final IteratorSetting iteratorSetting = new IteratorSetting(30, "queryScanIterator", BitmapANDIterator.class.getCanonicalName());
-        final String optionString = new Gson().toJson(bitmaskScanInformation.maskArray);
+        final String optionString = BitmapIteratorOptions.encodeCompareBits(bitmaskScanInformation.maskArray);
         iteratorSetting.addOption(BitmapANDIterator.OPTION_BITS, optionString);
 
         final AccumuloScanConfig config = new AccumuloScanConfig();
@@ -1756,6 +2422,120 @@ public class AccumuloQueryService implements AminoQueryService {
 		}
 	}
 	
+	private class ScanHypothesesByBucketValuesCall implements Callable<List<Hypothesis>> {
+		final List<Hypothesis> hypotheses;
+		final String bucketName;
+		final String resultScanRowId;
+		final Integer shardCount;
+		final Authorizations auths;
+		final Set<String> bucketValues;
+		final AtomicBoolean keepWorking;
+
+		public ScanHypothesesByBucketValuesCall(List<Hypothesis> hypotheses, String bucketName, String resultScanRowId,
+				Integer shardCount, Authorizations auths, Set<String> bucketValues, AtomicBoolean keepWorking){
+			this.hypotheses = hypotheses;
+			this.bucketName = bucketName;
+			this.resultScanRowId = resultScanRowId;
+			this.shardCount = shardCount;
+			this.auths = auths;
+			this.bucketValues = bucketValues;
+			this.keepWorking = keepWorking;
+		}
+
+		@Override
+		public List<Hypothesis> call() throws Exception {
+			return scanHypothesesByBucketValues(hypotheses, bucketName, resultScanRowId, shardCount, auths,
+					bucketValues, keepWorking);
+		}
+	}
+
+	/**
+	 * Writes the QueryEntry's of a result to the results table a page at a time as they are found, handing each page to
+	 * the QueryEntryHandler once it has been queued for writing.  The first retainLimit QueryEntry's are also kept so
+	 * that small results can be cached.
+	 */
+	private class ResultPageWriter {
+		final String ownerId;
+		final String cf;
+		final String visibility;
+		final QueryEntryHandler handler;
+		final long retainLimit;
+		final Gson gson = new Gson();
+
+		private BatchWriter writer = null;
+		private List<QueryEntry> page;
+		private List<QueryEntry> retained;
+		private long count = 0;
+		private int pageCount = 0;
+
+		public ResultPageWriter(String ownerId, String cf, String visibility, QueryEntryHandler handler, long retainLimit){
+			this.ownerId = ownerId;
+			this.cf = cf;
+			this.visibility = visibility;
+			this.handler = handler;
+			this.retainLimit = retainLimit;
+			this.page = new ArrayList<QueryEntry>(resultPageSize);
+			this.retained = (retainLimit > 0) ? new ArrayList<QueryEntry>() : null;
+		}
+
+		public void add(QueryEntry entry) throws Exception {
+			page.add(entry);
+			count++;
+			if(retained != null){
+				if(retained.size() < retainLimit){
+					retained.add(entry);
+				} else {
+					// Too big to cache
+					retained = null;
+				}
+			}
+			if(page.size() >= resultPageSize){
+				flush();
+			}
+		}
+
+		/**
+		 * Writes out the current page, if it has anything in it
+		 */
+		public void flush() throws Exception {
+			if(page.isEmpty()){
+				return;
+			}
+			if(writer == null){
+				writer = persistenceService.createBatchWriter(resultsTable);
+			}
+			writer.addMutation(persistenceService.createInsertMutation(ownerId, cf, resultPageQualifier(pageCount), visibility,
+					gson.toJson(page)));
+			pageCount++;
+
+			final List<QueryEntry> written = page;
+			page = new ArrayList<QueryEntry>(resultPageSize);
+			handler.handle(written);
+		}
+
+		public void close() throws MutationsRejectedException {
+			if(writer != null){
+				writer.close();
+				writer = null;
+			}
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public int getPageCount() {
+			return pageCount;
+		}
+
+		/**
+		 * @return All of the QueryEntry's, or null if there were more than the retainLimit
+		 */
+		public List<QueryEntry> getRetained() {
+			return retained;
+		}
+	}
+
 	private class CreateQueryResultCall extends FlaggableCallable<QueryResult> {
 		final String owner;
 		final String hypothesisId;
@@ -1763,20 +2543,23 @@ public class AccumuloQueryService implements AminoQueryService {
 		final String justification;
 		final String userId;
 		final Authorizations auths;
+		final QueryEntryHandler handler;
 		
-		public CreateQueryResultCall(String owner, String hypothesisId, int maxResults, String justification, String userId, String[] visibility) {
+		public CreateQueryResultCall(String owner, String hypothesisId, int maxResults, String justification, String userId, String[] visibility,
+									 QueryEntryHandler handler) {
 			this.owner = owner;
 			this.hypothesisId = hypothesisId;
 			this.maxResults = maxResults;
 			this.justification = justification;
 			this.userId = userId;
 			this.auths = new Authorizations(visibility);
+			this.handler = handler;
 			this.threadName = "CreateQueryResultCall";				
 		}
 		
 		@Override
 		protected QueryResult flaggableCall() throws Exception {
-			return createQueryResult(owner, hypothesisId, maxResults, justification, userId, auths, keepWorking);
+			return createQueryResult(owner, hypothesisId, maxResults, justification, userId, auths, keepWorking, handler);
 		}
 	}
 
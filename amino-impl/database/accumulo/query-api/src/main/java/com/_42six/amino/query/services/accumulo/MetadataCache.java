@@ -0,0 +1,125 @@
+package com._42six.amino.query.services.accumulo;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.accumulo.core.security.Authorizations;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the entities read from the metadata table so that evaluating a hypothesis doesn't have to go back to Accumulo
+ * and parse the JSON of each feature again.  Entries are keyed by the entity and the Authorizations they were read
+ * with, since users with different Authorizations can see different versions of the same row.  Entities that were not
+ * found are cached too, so that repeatedly asking for a missing one doesn't scan the table each time.
+ *
+ * The cache is tied to a stamp of the metadata table.  When the stamp changes, all of the entries are dropped.  Values
+ * read while the entries were being dropped are thrown away rather than cached, so that nothing read from the old
+ * tables outlives the check.
+ *
+ * The cached entities are shared between callers and must not be modified.
+ */
+public class MetadataCache {
+
+    private final Cache<String, Optional<Object>> cache;
+    private final long checkIntervalMillis;
+    private long stamp;
+    private boolean haveStamp = false;
+    private long nextCheck = 0;
+    private volatile long epoch = 0;
+
+    /**
+     * @param maxEntries The most entities to hold
+     * @param ttl How long to keep an entity after it was read
+     * @param units The units of ttl
+     * @param checkIntervalMillis How often to check the stamp of the metadata table
+     */
+    public MetadataCache(long maxEntries, long ttl, TimeUnit units, long checkIntervalMillis){
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl, units)
+                .build();
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Creates the key for an entity
+     *
+     * @param entityPrefix The prefix of the entity's row, or of what is being cached about it
+     * @param id The ID of the entity
+     * @param auths The Authorizations it was read with
+     * @return The key
+     */
+    public static String key(String entityPrefix, String id, Authorizations auths){
+        return entityPrefix + id + '\u0000' + auths.toString();
+    }
+
+    /**
+     * Claims the next check of the stamp, if one is due.  Only one caller is given each check, so that callers don't
+     * all scan the table at once.
+     *
+     * @param now The current time in milliseconds
+     * @return true if the caller should check the stamp with {@link #checkStamp}
+     */
+    public synchronized boolean claimCheck(long now){
+        if(now < nextCheck){
+            return false;
+        }
+        nextCheck = now + checkIntervalMillis;
+        return true;
+    }
+
+    /**
+     * Drops all of the cached entities if the stamp of the metadata table has changed since the last call
+     *
+     * @param currentStamp The stamp that the metadata table is at now
+     */
+    public synchronized void checkStamp(long currentStamp){
+        if(haveStamp && currentStamp != stamp){
+            invalidateAll();
+        }
+        stamp = currentStamp;
+        haveStamp = true;
+    }
+
+    /**
+     * @return The number of times the entries have been dropped.  Pass it to {@link #put} along with the value read
+     * after getting it
+     */
+    public long getEpoch(){
+        return epoch;
+    }
+
+    /**
+     * @return The cached entity, which is absent if the entity was not found, or null if it isn't cached
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> get(String key){
+        return (Optional<T>) (Optional<?>) cache.getIfPresent(key);
+    }
+
+    /**
+     * Caches an entity, unless the entries were dropped since it was read
+     *
+     * @param key The key of the entity, from {@link #key}
+     * @param value The entity, or null if it was not found
+     * @param readEpoch What {@link #getEpoch} returned before the entity was read
+     */
+    public synchronized void put(String key, Object value, long readEpoch){
+        if(readEpoch == epoch){
+            cache.put(key, Optional.fromNullable(value));
+        }
+    }
+
+    public synchronized void invalidateAll(){
+        epoch++;
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return The number of entities being held
+     */
+    public long size(){
+        return cache.size();
+    }
+}
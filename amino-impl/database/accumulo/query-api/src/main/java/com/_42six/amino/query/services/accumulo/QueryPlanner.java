@@ -0,0 +1,367 @@
+package com._42six.amino.query.services.accumulo;
+
+import com._42six.amino.common.FeatureFactType;
+import com._42six.amino.common.FeatureMetadata;
+import com._42six.amino.common.entity.HypothesisFeature;
+import com._42six.amino.common.index.RangeAggregates;
+import com._42six.amino.common.translator.FeatureFactTranslatorInt;
+
+import java.util.*;
+
+/**
+ * Picks between scanning the amino_bitmap_byBucket table and looking the features up in the reverse tables, using the
+ * statistics that the FeatureMetadataJob writes for each feature to estimate how much each would have to read.
+ *
+ * The byBucket scan reads every bucket value of the datasource and bucket, stopping early only once it has found
+ * maxResults of them.  The reverse lookup reads a bitmap for each feature value in every shard:salt row and then looks
+ * up each match once per salt, so it wins when the hypothesis is selective.  The number of matches is estimated from
+ * the selectivity of each feature, taking the features to be independent:
+ *
+ *  NOMINAL    The count of the value in topN, or the average count of the values that aren't in topN
+ *  RATIO      The counts of the ratioBins that overlap the range, or the range over min and max without the bins
+ *  DATE       The range over min and max
+ *
+ * If any feature is missing its statistics for the bucket the planner falls back to the old rule, which is to use the
+ * reverse tables unless there are restrictions.  Each Plan carries an explanation of how it was picked.
+ */
+public class QueryPlanner {
+
+    public enum Strategy {
+        BY_BUCKET, REVERSE
+    }
+
+    /** What is read for each key of the reverse tables, relative to a key of the byBucket scan, as each one is a seek */
+    static final double REVERSE_KEY_COST = 2.0;
+
+    private static final long DAY_MILLIS = 86400000L;
+    private static final long HOUR_MILLIS = 3600000L;
+
+    private final int shardCount;
+    private final int hashCount;
+    private final boolean rangeAggregates;
+    private final FeatureFactTranslatorInt translator;
+
+    /**
+     * @param shardCount The number of shards in the tables
+     * @param hashCount The number of salts in the tables
+     * @param rangeAggregates Whether the reverse tables hold the pre-OR'd blocks of date and ratio values
+     * @param translator Translates the ranges of the interval features into column qualifiers
+     */
+    public QueryPlanner(int shardCount, int hashCount, boolean rangeAggregates, FeatureFactTranslatorInt translator){
+        this.shardCount = shardCount;
+        this.hashCount = hashCount;
+        this.rangeAggregates = rangeAggregates;
+        this.translator = translator;
+    }
+
+    /**
+     * The strategy picked for a query, along with what it was estimated to cost
+     */
+    public static class Plan {
+        public final Strategy strategy;
+        public final double estimatedMatches;
+        public final double byBucketCost;
+        public final double reverseCost;
+        public final String explain;
+
+        Plan(Strategy strategy, double estimatedMatches, double byBucketCost, double reverseCost, String explain){
+            this.strategy = strategy;
+            this.estimatedMatches = estimatedMatches;
+            this.byBucketCost = byBucketCost;
+            this.reverseCost = reverseCost;
+            this.explain = explain;
+        }
+
+        @Override
+        public String toString() {
+            return explain;
+        }
+    }
+
+    /**
+     * What one feature is estimated to match
+     */
+    private static class FeatureEstimate {
+        final HypothesisFeature feature;
+        final double bucketValues; // The number of bucket values with the feature
+        final double matches;      // The number of those that match the feature's value or range
+        final double columns;      // The number of column qualifiers to read for the feature in each row
+        final String source;       // Which statistics the estimate came from
+
+        FeatureEstimate(HypothesisFeature feature, double bucketValues, double matches, double columns, String source){
+            this.feature = feature;
+            this.bucketValues = bucketValues;
+            this.matches = matches;
+            this.columns = columns;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Picks the strategy for a query
+     *
+     * @param bucketName The bucket being queried
+     * @param features The features of the hypothesis, not including the restrictions
+     * @param restrictionValues The bucket values that the results are restricted to.  Empty if there are no restrictions
+     * @param metadata The FeatureMetadata of the features, keyed by ID.  Features that couldn't be fetched are missing
+     * @param maxResults The most results that will be returned
+     * @return The Plan
+     */
+    public Plan plan(String bucketName, Collection<HypothesisFeature> features, Set<String> restrictionValues,
+                     Map<String, FeatureMetadata> metadata, long maxResults){
+        final StringBuilder explain = new StringBuilder();
+
+        // The reverse tables can only be used to find the values of features
+        if(features.isEmpty()){
+            explain.append("strategy=").append(Strategy.BY_BUCKET).append(" reason=only restrictions");
+            return new Plan(Strategy.BY_BUCKET, restrictionValues.size(), 0, 0, explain.toString());
+        }
+
+        final List<FeatureEstimate> estimates = new ArrayList<FeatureEstimate>(features.size());
+        final List<String> missing = new ArrayList<String>();
+        for(HypothesisFeature feature : features){
+            final FeatureEstimate estimate = estimate(bucketName, feature, metadata.get(feature.featureMetadataId));
+            if(estimate == null){
+                missing.add(feature.featureMetadataId);
+            } else {
+                estimates.add(estimate);
+            }
+        }
+
+        if(!missing.isEmpty()){
+            final Strategy strategy = restrictionValues.isEmpty() ? Strategy.REVERSE : Strategy.BY_BUCKET;
+            explain.append("strategy=").append(strategy).append(" reason=no statistics for ").append(bucketName)
+                    .append(" on features ").append(missing);
+            return new Plan(strategy, Double.NaN, Double.NaN, Double.NaN, explain.toString());
+        }
+
+        // Every bucket value with a feature is one of the bucket values of the datasource, so the most populated
+        // feature is the best guess there is at how many there are
+        double population = 1;
+        for(FeatureEstimate estimate : estimates){
+            population = Math.max(population, estimate.bucketValues);
+        }
+
+        double featureMatches = population;
+        double columns = 0;
+        for(FeatureEstimate estimate : estimates){
+            featureMatches *= Math.min(1.0, estimate.matches / population);
+            columns += estimate.columns;
+        }
+        final double matches = restrictionValues.isEmpty()
+                ? featureMatches : Math.min(featureMatches, restrictionValues.size());
+
+        // The byBucket scan reads the masks from the bitLookup table and then scans the bucket values until it has
+        // found maxResults of the matches, with the restrictions applied as it goes
+        final double scanned = (matches > maxResults) ? population * maxResults / matches : population;
+        final double byBucketCost = hashCount * columns + scanned;
+
+        // The reverse lookup reads the bitmaps of each shard:salt row and then each match under every salt.  The
+        // restrictions are only applied to what comes back, so every match of the features is looked up
+        final double bitmapReads = (double) shardCount * hashCount * columns;
+        final double lookups = (double) hashCount * featureMatches;
+        final double reverseCost = REVERSE_KEY_COST * (bitmapReads + lookups);
+
+        final Strategy strategy = (reverseCost < byBucketCost) ? Strategy.REVERSE : Strategy.BY_BUCKET;
+
+        explain.append("strategy=").append(strategy).append(" reason=cost");
+        explain.append("\n  estimated matches=").append(round(matches)).append(" of ~").append(round(population))
+                .append(" bucket values");
+        if(!restrictionValues.isEmpty()){
+            explain.append(", restricted to ").append(restrictionValues.size()).append(" values from ~")
+                    .append(round(featureMatches)).append(" feature matches");
+        }
+        explain.append("\n  byBucket cost=").append(round(byBucketCost)).append(" (")
+                .append(round(scanned)).append(" bucket values scanned, ")
+                .append(round(hashCount * columns)).append(" bitLookup reads)");
+        explain.append("\n  reverse cost=").append(round(reverseCost)).append(" (")
+                .append(round(bitmapReads)).append(" bitmap reads, ")
+                .append(round(lookups)).append(" lookups)");
+        for(FeatureEstimate estimate : estimates){
+            explain.append("\n  feature ").append(estimate.feature.featureMetadataId)
+                    .append(' ').append(estimate.feature.type)
+                    .append(": ~").append(round(estimate.matches)).append(" of ").append(round(estimate.bucketValues))
+                    .append(" bucket values from ").append(estimate.source)
+                    .append(", ").append(round(estimate.columns)).append(" columns");
+        }
+
+        return new Plan(strategy, matches, byBucketCost, reverseCost, explain.toString());
+    }
+
+    /**
+     * @return The estimate for the feature, or null if there aren't the statistics to make one
+     */
+    private FeatureEstimate estimate(String bucketName, HypothesisFeature feature, FeatureMetadata metadata){
+        if(metadata == null || metadata.bucketValueCount == null || metadata.bucketValueCount.get(bucketName) == null){
+            return null;
+        }
+        final double bucketValues = metadata.bucketValueCount.get(bucketName);
+
+        if(FeatureFactType.numericIntervalTypes.contains(feature.type)){
+            return estimateRatio(bucketName, feature, metadata, bucketValues);
+        } else if(FeatureFactType.dateIntervalTypes.contains(feature.type)){
+            return estimateDate(bucketName, feature, metadata, bucketValues);
+        } else if(feature.type.compareTo("NOMINAL") == 0 || feature.type.compareTo("inList") == 0){
+            return estimateNominal(bucketName, feature, metadata, bucketValues);
+        }
+
+        // BOOLEAN features are either there or not
+        return new FeatureEstimate(feature, bucketValues, bucketValues, 1, "bucketValueCount");
+    }
+
+    private FeatureEstimate estimateNominal(String bucketName, HypothesisFeature feature, FeatureMetadata metadata,
+                                            double bucketValues){
+        final long distinct = (metadata.featureFactCount != null && metadata.featureFactCount.get(bucketName) != null)
+                ? metadata.featureFactCount.get(bucketName) : 0;
+        final List<String> topN = (metadata.topN != null) ? metadata.topN.get(bucketName) : null;
+        if(topN == null || topN.isEmpty()){
+            return new FeatureEstimate(feature, bucketValues, bucketValues / Math.max(1, distinct), 1,
+                    "featureFactCount");
+        }
+
+        // Each of the topN is "featureFact:count", with the rest lumped together at the end as "Other:count"
+        long namedCount = 0;
+        long namedValues = 0;
+        long smallest = Long.MAX_VALUE;
+        for(String top : topN){
+            final int split = top.lastIndexOf(':');
+            if(split < 0){
+                continue;
+            }
+            final String fact = top.substring(0, split);
+            final long count;
+            try {
+                count = Long.parseLong(top.substring(split + 1));
+            } catch (NumberFormatException e){
+                continue;
+            }
+            if(fact.equals(feature.value)){
+                return new FeatureEstimate(feature, bucketValues, count, 1, "topN");
+            }
+            if(!fact.equals("Other")){
+                namedCount += count;
+                namedValues++;
+                smallest = Math.min(smallest, count);
+            }
+        }
+
+        // Not one of the top values, so it's at most as common as the least of them
+        final double rest = Math.max(0, bucketValues - namedCount) / Math.max(1, distinct - namedValues);
+        return new FeatureEstimate(feature, bucketValues, Math.min(rest, smallest), 1, "topN remainder");
+    }
+
+    private FeatureEstimate estimateRatio(String bucketName, HypothesisFeature feature, FeatureMetadata metadata,
+                                          double bucketValues){
+        final Double featureMin = (metadata.min != null) ? metadata.min.get(bucketName) : null;
+        final Double featureMax = (metadata.max != null) ? metadata.max.get(bucketName) : null;
+        if(featureMin == null || featureMax == null){
+            return null;
+        }
+        final double from = (feature.min == Double.MIN_VALUE) ? featureMin : feature.min;
+        final double to = (feature.max == Double.MAX_VALUE) ? featureMax : feature.max;
+
+        double fraction = -1;
+        String source = "min/max";
+        final List<Hashtable<String, Double>> bins = (metadata.ratioBins != null) ? metadata.ratioBins.get(bucketName) : null;
+        if(bins != null && !bins.isEmpty()){
+            double total = 0;
+            double inRange = 0;
+            for(Hashtable<String, Double> bin : bins){
+                final Double count = bin.get("count");
+                final Double bottom = bin.get("bottom");
+                final Double top = bin.get("top");
+                if(count == null || bottom == null || top == null){
+                    continue;
+                }
+                total += count;
+                inRange += count * overlap(bottom, top, from, to);
+            }
+            if(total > 0){
+                fraction = inRange / total;
+                source = "ratioBins";
+            }
+        }
+        if(fraction < 0){
+            fraction = overlap(featureMin, featureMax, from, to);
+        }
+
+        final long distinct = (metadata.featureFactCount != null && metadata.featureFactCount.get(bucketName) != null)
+                ? metadata.featureFactCount.get(bucketName) : (long) bucketValues;
+        final double valueColumns = Math.max(1, distinct * fraction);
+        final double columns = rangeAggregates
+                ? coveredColumns(feature, translator.fromRatio(from).toString(), translator.fromRatio(to).toString(),
+                        featureMin, featureMax, distinct, valueColumns)
+                : valueColumns;
+        return new FeatureEstimate(feature, bucketValues, bucketValues * fraction, columns, source);
+    }
+
+    private FeatureEstimate estimateDate(String bucketName, HypothesisFeature feature, FeatureMetadata metadata,
+                                         double bucketValues){
+        // The DateHandler writes the first and last dates as the min and max
+        final Double featureMin = (metadata.min != null) ? metadata.min.get(bucketName) : null;
+        final Double featureMax = (metadata.max != null) ? metadata.max.get(bucketName) : null;
+        if(featureMin == null || featureMax == null){
+            return null;
+        }
+        final double fraction = overlap(featureMin, featureMax, feature.timestampFrom, feature.timestampTo);
+
+        // There is at most one value per day or per hour
+        final long granularity = (feature.type.compareTo("DATEHOUR") == 0) ? HOUR_MILLIS : DAY_MILLIS;
+        final double from = Math.max(featureMin, feature.timestampFrom);
+        final double to = Math.min(featureMax, feature.timestampTo);
+        final double valueColumns = Math.max(1, Math.min(bucketValues, (to - from) / granularity + 1));
+        final double distinct = Math.min(bucketValues, (featureMax - featureMin) / granularity + 1);
+        final double columns = rangeAggregates
+                ? coveredColumns(feature, translator.fromDate((long) from).toString(),
+                        translator.fromDate((long) to).toString(), featureMin, featureMax, distinct, valueColumns)
+                : valueColumns;
+        return new FeatureEstimate(feature, bucketValues, bucketValues * fraction, columns, "min/max");
+    }
+
+    /**
+     * Counts the column qualifiers read when the range is covered with the pre-OR'd blocks.  Each block in a run of
+     * them is read, and each piece that is a range of values reads its share of the distinct values.  A block only
+     * exists if it holds a value, so no more are read than the values that the range would have read without them.
+     *
+     * @param from The first value in the range, clipped to the feature's min
+     * @param to The last value in the range, clipped to the feature's max
+     * @param distinct The number of distinct values from min to max
+     * @param valueColumns The number of values that the range is estimated to read without the blocks
+     */
+    private double coveredColumns(HypothesisFeature feature, String from, String to, double featureMin,
+                                  double featureMax, double distinct, double valueColumns){
+        final FeatureFactType type = FeatureFactType.valueOf(feature.type);
+        final boolean isDate = FeatureFactType.dateIntervalTypes.contains(feature.type);
+        double columns = 0;
+        for(String[] piece : RangeAggregates.cover(type, from, to)){
+            final long blocks = RangeAggregates.countBlocks(type, piece);
+            if(blocks >= 0){
+                columns += blocks;
+            } else {
+                final double bottom = isDate ? translator.toDate(piece[0]) : translator.toRatio(piece[0]);
+                final double top = isDate ? translator.toDate(piece[1]) : translator.toRatio(piece[1]);
+                columns += Math.max(1, distinct * overlap(featureMin, featureMax, bottom, top));
+            }
+        }
+        return Math.max(1, Math.min(columns, valueColumns));
+    }
+
+    /**
+     * @return How much of the span from bottom to top is within from and to, assuming the values are spread evenly
+     */
+    static double overlap(double bottom, double top, double from, double to){
+        if(to < from || top < from || bottom > to){
+            return 0;
+        }
+        if(top <= bottom){
+            return 1;
+        }
+        final double low = Math.max(bottom, from);
+        final double high = Math.min(top, to);
+        return (high - low) / (top - bottom);
+    }
+
+    private static long round(double estimate){
+        return Math.round(estimate);
+    }
+}
@@ -0,0 +1,120 @@
+package com._42six.amino.query.services.accumulo;
+
+import com._42six.amino.common.entity.HypothesisFeature;
+import com._42six.amino.common.entity.QueryEntry;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+import org.apache.accumulo.core.security.Authorizations;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the QueryEntry's found for a hypothesis so that running the same hypothesis again doesn't have to scan the
+ * bitmap tables.  Entries are keyed by a fingerprint of everything that affects the results: the features, the
+ * datasource and bucket, the authorizations, the result limit and the ingest generation of the tables.
+ *
+ * When a new ingest is published the generation changes.  The old entries can no longer be looked up, and are dropped
+ * the first time the new generation is seen.
+ */
+public class QueryResultCache {
+
+    private final Cache<String, CachedResults> cache;
+    private long generation = Long.MIN_VALUE;
+
+    /**
+     * @param maxEntries The most QueryEntry's to hold across all of the cached results
+     * @param ttl How long to keep a result after it was created
+     * @param units The units of ttl
+     */
+    public QueryResultCache(long maxEntries, long ttl, TimeUnit units){
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxEntries)
+                .weigher(new Weigher<String, CachedResults>() {
+                    @Override
+                    public int weigh(String key, CachedResults value) {
+                        return value.results.size() + 1;
+                    }
+                })
+                .expireAfterWrite(ttl, units)
+                .build();
+    }
+
+    /**
+     * Creates the key for a query.  The features are put in a canonical order, so the same hypothesis always has the
+     * same fingerprint no matter what order its features are stored in.
+     *
+     * @param datasourceId The datasource being queried
+     * @param bucketName The bucket being queried
+     * @param features All of the HypothesisFeatures, including any restrictions
+     * @param auths The Authorizations of the user
+     * @param maxResults The maximum number of results
+     * @param generation The ingest generation of the tables
+     * @return The fingerprint
+     */
+    public static String fingerprint(String datasourceId, String bucketName, Collection<HypothesisFeature> features,
+                                     Authorizations auths, long maxResults, long generation){
+        final List<String> canonicalFeatures = new ArrayList<String>(features.size());
+        for(HypothesisFeature feature : features){
+            canonicalFeatures.add(Joiner.on('\u0000').useForNull("").join(feature.featureMetadataId, feature.type,
+                    feature.operator, feature.value, feature.min, feature.max, feature.timestampFrom,
+                    feature.timestampTo, feature.include));
+        }
+        Collections.sort(canonicalFeatures);
+
+        final String canonical = Joiner.on('\u0001').useForNull("").join(datasourceId, bucketName, auths.toString(),
+                maxResults, generation, Joiner.on('\u0001').join(canonicalFeatures));
+        return Hashing.sha256().hashString(canonical, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Drops all of the cached results if the ingest generation has changed since the last call
+     *
+     * @param currentGeneration The ingest generation that the tables are at now
+     */
+    public synchronized void checkGeneration(long currentGeneration){
+        if(currentGeneration != generation){
+            cache.invalidateAll();
+            generation = currentGeneration;
+        }
+    }
+
+    /**
+     * @return The cached results for the fingerprint, or null if there are none
+     */
+    public CachedResults get(String fingerprint){
+        return cache.getIfPresent(fingerprint);
+    }
+
+    /**
+     * Caches the results of a query
+     *
+     * @param fingerprint The fingerprint of the query, from {@link #fingerprint}
+     * @param results The results that were found
+     * @param hitCap true if there were more results than the maximum
+     */
+    public void put(String fingerprint, List<QueryEntry> results, boolean hitCap){
+        cache.put(fingerprint, new CachedResults(results, hitCap));
+    }
+
+    public void invalidateAll(){
+        cache.invalidateAll();
+    }
+
+    /**
+     * The results of a query.  The list is a private copy and can't be modified
+     */
+    public static class CachedResults {
+        public final List<QueryEntry> results;
+        public final boolean hitCap;
+
+        CachedResults(List<QueryEntry> results, boolean hitCap){
+            this.results = Collections.unmodifiableList(new ArrayList<QueryEntry>(results));
+            this.hitCap = hitCap;
+        }
+    }
+}
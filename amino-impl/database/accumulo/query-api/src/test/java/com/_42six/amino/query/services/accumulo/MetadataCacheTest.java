@@ -0,0 +1,87 @@
+package com._42six.amino.query.services.accumulo;
+
+import com.google.common.base.Optional;
+import org.apache.accumulo.core.security.Authorizations;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MetadataCacheTest {
+
+    private static final String KEY = MetadataCache.key("feature_", "42", new Authorizations("U"));
+
+    private static MetadataCache createCache(){
+        return new MetadataCache(100, 10, TimeUnit.MINUTES, 1000);
+    }
+
+    @Test
+    public void testKeyIncludesAuthorizations(){
+        assertNotEquals(KEY, MetadataCache.key("feature_", "42", new Authorizations("U", "FOUO")));
+        assertNotEquals(KEY, MetadataCache.key("bucket_", "42", new Authorizations("U")));
+    }
+
+    @Test
+    public void testNegativeCaching(){
+        final MetadataCache cache = createCache();
+        assertNull(cache.get(KEY));
+
+        // A missing entity is cached as absent, which is different from not being cached at all
+        cache.put(KEY, null, cache.getEpoch());
+        final Optional<String> cached = cache.get(KEY);
+        assertNotNull(cached);
+        assertFalse(cached.isPresent());
+
+        cache.put(KEY, "feature", cache.getEpoch());
+        assertEquals("feature", cache.<String>get(KEY).get());
+    }
+
+    @Test
+    public void testEpochDiscardsReadsDuringDrop(){
+        final MetadataCache cache = createCache();
+
+        // The entity is read, but the entries are dropped before it can be put
+        final long epoch = cache.getEpoch();
+        cache.invalidateAll();
+        cache.put(KEY, "stale", epoch);
+        assertNull(cache.get(KEY));
+        assertEquals(0, cache.size());
+
+        // Reading it again after the drop caches it
+        cache.put(KEY, "fresh", cache.getEpoch());
+        assertEquals("fresh", cache.<String>get(KEY).get());
+    }
+
+    @Test
+    public void testStampChangeInvalidates(){
+        final MetadataCache cache = createCache();
+
+        // The first stamp seen is just remembered
+        cache.checkStamp(7);
+        cache.put(KEY, "feature", cache.getEpoch());
+        final long epoch = cache.getEpoch();
+
+        cache.checkStamp(7);
+        assertEquals("feature", cache.<String>get(KEY).get());
+        assertEquals(epoch, cache.getEpoch());
+
+        // A new ingest generation changes the stamp
+        cache.checkStamp(8);
+        assertNull(cache.get(KEY));
+        assertTrue(cache.getEpoch() > epoch);
+
+        // Anything read under the old stamp is thrown away
+        cache.put(KEY, "stale", epoch);
+        assertNull(cache.get(KEY));
+    }
+
+    @Test
+    public void testClaimCheck(){
+        final MetadataCache cache = createCache();
+        assertTrue(cache.claimCheck(5000));
+        assertFalse(cache.claimCheck(5000));
+        assertFalse(cache.claimCheck(5999));
+        assertTrue(cache.claimCheck(6000));
+    }
+}
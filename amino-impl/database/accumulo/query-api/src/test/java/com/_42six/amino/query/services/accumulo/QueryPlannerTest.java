@@ -0,0 +1,221 @@
+package com._42six.amino.query.services.accumulo;
+
+import com._42six.amino.common.FeatureMetadata;
+import com._42six.amino.common.entity.HypothesisFeature;
+import com._42six.amino.common.translator.FeatureFactTranslatorImpl;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryPlannerTest {
+
+    private static final String BUCKET = "ip";
+    private static final Set<String> NO_RESTRICTIONS = Collections.emptySet();
+
+    private final QueryPlanner planner = new QueryPlanner(10, 2, false, new FeatureFactTranslatorImpl());
+    private final QueryPlanner aggregatePlanner = new QueryPlanner(10, 2, true, new FeatureFactTranslatorImpl());
+
+    private static FeatureMetadata nominalMetadata(String id, long bucketValues, long distinct, String... topN){
+        final FeatureMetadata metadata = new FeatureMetadata();
+        metadata.id = id;
+        metadata.type = "NOMINAL";
+        metadata.bucketValueCount = new Hashtable<String, Long>();
+        metadata.bucketValueCount.put(BUCKET, bucketValues);
+        metadata.featureFactCount = new Hashtable<String, Long>();
+        metadata.featureFactCount.put(BUCKET, distinct);
+        metadata.topN = new Hashtable<String, ArrayList<String>>();
+        metadata.topN.put(BUCKET, new ArrayList<String>(Arrays.asList(topN)));
+        return metadata;
+    }
+
+    private static FeatureMetadata ratioMetadata(String id, long bucketValues, long distinct, double min, double max){
+        final FeatureMetadata metadata = new FeatureMetadata();
+        metadata.id = id;
+        metadata.type = "RATIO";
+        metadata.bucketValueCount = new Hashtable<String, Long>();
+        metadata.bucketValueCount.put(BUCKET, bucketValues);
+        metadata.featureFactCount = new Hashtable<String, Long>();
+        metadata.featureFactCount.put(BUCKET, distinct);
+        metadata.min = new Hashtable<String, Double>();
+        metadata.min.put(BUCKET, min);
+        metadata.max = new Hashtable<String, Double>();
+        metadata.max.put(BUCKET, max);
+        return metadata;
+    }
+
+    private static FeatureMetadata dateMetadata(String id, long bucketValues, long first, long last){
+        final FeatureMetadata metadata = new FeatureMetadata();
+        metadata.id = id;
+        metadata.type = "DATEHOUR";
+        metadata.bucketValueCount = new Hashtable<String, Long>();
+        metadata.bucketValueCount.put(BUCKET, bucketValues);
+        metadata.min = new Hashtable<String, Double>();
+        metadata.min.put(BUCKET, (double) first);
+        metadata.max = new Hashtable<String, Double>();
+        metadata.max.put(BUCKET, (double) last);
+        return metadata;
+    }
+
+    private static HypothesisFeature nominal(String id, String value){
+        final HypothesisFeature feature = new HypothesisFeature();
+        feature.featureMetadataId = id;
+        feature.type = "NOMINAL";
+        feature.value = value;
+        return feature;
+    }
+
+    private static HypothesisFeature ratio(String id, double min, double max){
+        final HypothesisFeature feature = new HypothesisFeature();
+        feature.featureMetadataId = id;
+        feature.type = "RATIO";
+        feature.min = min;
+        feature.max = max;
+        return feature;
+    }
+
+    private static HypothesisFeature date(String id, long from, long to){
+        final HypothesisFeature feature = new HypothesisFeature();
+        feature.featureMetadataId = id;
+        feature.type = "DATEHOUR";
+        feature.timestampFrom = from;
+        feature.timestampTo = to;
+        return feature;
+    }
+
+    private static Map<String, FeatureMetadata> metadata(FeatureMetadata... features){
+        final Map<String, FeatureMetadata> metadata = new HashMap<String, FeatureMetadata>();
+        for(FeatureMetadata feature : features){
+            metadata.put(feature.id, feature);
+        }
+        return metadata;
+    }
+
+    @Test
+    public void testSelectiveNominalUsesReverse(){
+        final Map<String, FeatureMetadata> metadata = metadata(
+                nominalMetadata("country", 1000000, 200, "US:600000", "GB:100000", "Other:300000"));
+
+        // A rare country is well under the least of the top values
+        final QueryPlanner.Plan plan = planner.plan(BUCKET, Collections.singleton(nominal("country", "IS")),
+                NO_RESTRICTIONS, metadata, 1000);
+        assertEquals(QueryPlanner.Strategy.REVERSE, plan.strategy);
+        assertEquals(300000.0 / 198, plan.estimatedMatches, 1);
+        assertTrue(plan.explain.contains("topN remainder"));
+    }
+
+    @Test
+    public void testSelectiveNominalWithRestrictionsUsesReverse(){
+        final Map<String, FeatureMetadata> metadata = metadata(
+                nominalMetadata("country", 1000000, 200, "US:600000", "GB:100000", "Other:300000"));
+
+        // The restrictions used to force the byBucket scan
+        final QueryPlanner.Plan plan = planner.plan(BUCKET, Collections.singleton(nominal("country", "IS")),
+                new HashSet<String>(Arrays.asList("10.0.0.1", "10.0.0.2")), metadata, 1000);
+        assertEquals(QueryPlanner.Strategy.REVERSE, plan.strategy);
+        assertEquals(2, plan.estimatedMatches, 0);
+    }
+
+    @Test
+    public void testBroadFeatureWithRestrictionsUsesByBucket(){
+        final Map<String, FeatureMetadata> metadata = metadata(
+                nominalMetadata("country", 1000000, 200, "US:600000", "GB:100000", "Other:300000"));
+
+        // Only a couple of results, but the reverse tables would have to look up every US bucket value to find them
+        final QueryPlanner.Plan plan = planner.plan(BUCKET, Collections.singleton(nominal("country", "US")),
+                new HashSet<String>(Arrays.asList("10.0.0.1", "10.0.0.2")), metadata, 1000);
+        assertEquals(QueryPlanner.Strategy.BY_BUCKET, plan.strategy);
+        assertEquals(2, plan.estimatedMatches, 0);
+        assertTrue(plan.reverseCost > 2 * 600000);
+    }
+
+    @Test
+    public void testCommonFeaturesUseByBucket(){
+        final Map<String, FeatureMetadata> metadata = metadata(
+                nominalMetadata("country", 1000000, 200, "US:600000", "GB:100000", "Other:300000"),
+                ratioMetadata("bytes", 1000000, 50000, 0, 100000));
+
+        final List<HypothesisFeature> features = Arrays.asList(nominal("country", "US"), ratio("bytes", 0, 90000));
+        final QueryPlanner.Plan plan = planner.plan(BUCKET, features, NO_RESTRICTIONS, metadata, 1000000);
+        assertEquals(QueryPlanner.Strategy.BY_BUCKET, plan.strategy);
+        assertEquals(600000 * 0.9, plan.estimatedMatches, 1);
+        assertTrue(plan.byBucketCost < plan.reverseCost);
+    }
+
+    @Test
+    public void testRatioBins(){
+        final FeatureMetadata bytes = ratioMetadata("bytes", 1000000, 50000, 0, 100000);
+        bytes.ratioBins = new Hashtable<String, ArrayList<Hashtable<String, Double>>>();
+        final ArrayList<Hashtable<String, Double>> bins = new ArrayList<Hashtable<String, Double>>();
+        for(double[] pin : new double[][]{{0, 10, 999000}, {10, 100000, 1000}}){
+            final Hashtable<String, Double> bin = new Hashtable<String, Double>();
+            bin.put("bottom", pin[0]);
+            bin.put("top", pin[1]);
+            bin.put("count", pin[2]);
+            bins.add(bin);
+        }
+        bytes.ratioBins.put(BUCKET, bins);
+
+        // Almost everything is in the first bin, so a range above it is selective
+        final QueryPlanner.Plan plan = planner.plan(BUCKET, Collections.singleton(ratio("bytes", 50005, 100000)),
+                NO_RESTRICTIONS, metadata(bytes), 1000);
+        assertEquals(500, plan.estimatedMatches, 1);
+        assertTrue(plan.explain.contains("ratioBins"));
+    }
+
+    @Test
+    public void testRangeAggregatesCountQualifiers(){
+        // From 0 to 90000 is the nine blocks of 10000 from 0 to 89999.99999999 and then the value 90000 on its own
+        final QueryPlanner.Plan plan = aggregatePlanner.plan(BUCKET, Collections.singleton(ratio("bytes", 0, 90000)),
+                NO_RESTRICTIONS, metadata(ratioMetadata("bytes", 1000000, 50000, 0, 100000)), 1000);
+        assertTrue(plan.explain, plan.explain.contains(", 10 columns"));
+        assertEquals(QueryPlanner.REVERSE_KEY_COST * (10 * 2 * 10 + 2 * 900000), plan.reverseCost, 1);
+    }
+
+    @Test
+    public void testRangeAggregatesClipDates(){
+        // Thirty days of hours
+        final long first = 1400000000000L - 1400000000000L % 3600000L;
+        final long last = first + 30 * 86400000L;
+        final Map<String, FeatureMetadata> metadata = metadata(dateMetadata("seen", 1000000, first, last));
+
+        // An open ended range only reads the blocks from the first to the last date, not those back to 1970 and on
+        final QueryPlanner.Plan open = aggregatePlanner.plan(BUCKET,
+                Collections.singleton(date("seen", 0, Long.MAX_VALUE / 2)), NO_RESTRICTIONS, metadata, 1000);
+        assertTrue(open.explain, open.explain.contains(", 25 columns"));
+
+        // Far fewer than the 721 hours without the blocks
+        final QueryPlanner.Plan all = planner.plan(BUCKET,
+                Collections.singleton(date("seen", 0, Long.MAX_VALUE / 2)), NO_RESTRICTIONS, metadata, 1000);
+        assertTrue(all.explain, all.explain.contains(", 721 columns"));
+    }
+
+    @Test
+    public void testNoStatistics(){
+        final QueryPlanner.Plan plan = planner.plan(BUCKET, Collections.singleton(nominal("country", "IS")),
+                NO_RESTRICTIONS, new HashMap<String, FeatureMetadata>(), 1000);
+        assertEquals(QueryPlanner.Strategy.REVERSE, plan.strategy);
+        assertTrue(plan.explain.contains("no statistics"));
+
+        final QueryPlanner.Plan restricted = planner.plan(BUCKET, Collections.singleton(nominal("country", "IS")),
+                Collections.singleton("10.0.0.1"), new HashMap<String, FeatureMetadata>(), 1000);
+        assertEquals(QueryPlanner.Strategy.BY_BUCKET, restricted.strategy);
+    }
+
+    @Test
+    public void testOnlyRestrictions(){
+        final QueryPlanner.Plan plan = planner.plan(BUCKET, Collections.<HypothesisFeature>emptySet(),
+                Collections.singleton("10.0.0.1"), new HashMap<String, FeatureMetadata>(), 1000);
+        assertEquals(QueryPlanner.Strategy.BY_BUCKET, plan.strategy);
+    }
+
+    @Test
+    public void testOverlap(){
+        assertEquals(0.5, QueryPlanner.overlap(0, 10, 5, 20), 0);
+        assertEquals(0, QueryPlanner.overlap(0, 10, 11, 20), 0);
+        assertEquals(1, QueryPlanner.overlap(3, 3, 0, 20), 0);
+        assertEquals(0, QueryPlanner.overlap(3, 3, 4, 20), 0);
+    }
+}
@@ -3,14 +3,14 @@ package com._42six.amino.impl.reducer.number;
 import java.util.ArrayList;
 
 import com._42six.amino.api.job.AminoConfiguredReducer;
-import com._42six.amino.api.job.AminoReducer;
+import com._42six.amino.api.job.StreamingAminoReducer;
 import com._42six.amino.api.model.DatasetCollection;
 import com._42six.amino.api.model.Row;
 import com._42six.amino.common.AminoWritable;
 import com._42six.amino.common.Feature;
 import com._42six.amino.common.RatioFeatureFact;
 
-public class FirstDigit extends AminoConfiguredReducer implements AminoReducer
+public class FirstDigit extends AminoConfiguredReducer implements StreamingAminoReducer
 {
 
 	private static final Feature feature = new Feature(
@@ -1,7 +1,7 @@
 package com._42six.amino.impl.reducer.number;
 
 import com._42six.amino.api.job.AminoConfiguredReducer;
-import com._42six.amino.api.job.AminoReducer;
+import com._42six.amino.api.job.StreamingAminoReducer;
 import com._42six.amino.api.model.DatasetCollection;
 import com._42six.amino.api.model.Row;
 import com._42six.amino.common.AminoWritable;
@@ -10,7 +10,7 @@ import com._42six.amino.common.NominalFeatureFact;
 
 import java.util.ArrayList;
 
-public class HasDigitNominal extends AminoConfiguredReducer implements AminoReducer
+public class HasDigitNominal extends AminoConfiguredReducer implements StreamingAminoReducer
 {
 
 	private static final Feature feature = new Feature(
@@ -9,6 +9,7 @@ HELP_TEXT="Usage: $0 [--start-at JOB_NAME || --run-only JOB_NAME]\n
   JOB_NAME can be one of:\n
     NUMBERS_JOB\n
     DB_PREP_JOB\n
+    BUCKET_INDEX_JOB\n
     BYBUCKET_JOB\n
     BITLOOKUP_JOB\n
     STATS_JOB\n
@@ -25,13 +26,14 @@ HELP_TEXT="Usage: $0 [--start-at JOB_NAME || --run-only JOB_NAME]\n
 
 NUMBERS_JOB=1
 DB_PREP_JOB=2
-BYBUCKET_JOB=3
-BITLOOKUP_JOB=4
-STATS_JOB=5
-HYPOTHESIS_JOB=6
-REVERSE_BITMAP_JOB=7
-REVERSE_FEATURE_LOOKUP_JOB=8
-FEATURE_METADATA_JOB=9
+BUCKET_INDEX_JOB=3
+BYBUCKET_JOB=4
+BITLOOKUP_JOB=5
+STATS_JOB=6
+HYPOTHESIS_JOB=7
+REVERSE_BITMAP_JOB=8
+REVERSE_FEATURE_LOOKUP_JOB=9
+FEATURE_METADATA_JOB=10
 
 if [ $# -gt 1 ]; then
     if [ "$1" = '--start-at' ]
@@ -44,6 +46,7 @@ if [ $# -gt 1 ]; then
         set +e
         NUMBERS_JOB=$(expr ${NUMBERS_JOB} - ${!START_AT} + 1)
         DB_PREP_JOB=$(expr ${DB_PREP_JOB} - ${!START_AT} + 1)
+        BUCKET_INDEX_JOB=$(expr ${BUCKET_INDEX_JOB} - ${!START_AT} + 1)
         BYBUCKET_JOB=$(expr ${BYBUCKET_JOB} - ${!START_AT} + 1)
         BITLOOKUP_JOB=$(expr ${BITLOOKUP_JOB} - ${!START_AT} + 1)
         STATS_JOB=$(expr ${STATS_JOB} - ${!START_AT} + 1)
@@ -57,6 +60,7 @@ if [ $# -gt 1 ]; then
         set +e
         NUMBERS_JOB=0
         DB_PREP_JOB=0
+        BUCKET_INDEX_JOB=0
         BYBUCKET_JOB=0
         BITLOOKUP_JOB=0
         STATS_JOB=0
@@ -79,6 +83,7 @@ fi
 
 ([ ${NUMBERS_JOB} -lt 1 ] || ${HADOOP_BIN} jar ${NUMBERS_JOB_JAR} ${AMINO_ROOT_PACKAGE}.api.framework.FrameworkDriver --amino_default_config_path ${HDFS_DIR_CONF}) &&
 ([ ${DB_PREP_JOB} -lt 1 ] || ${HADOOP_BIN} jar ${AMINO_JOB_JAR} ${AMINO_BITMAP_PACKAGE}.DatabasePrepJob --amino_default_config_path ${HDFS_DIR_CONF}) &&
+([ ${BUCKET_INDEX_JOB} -lt 1 ] || ${HADOOP_BIN} jar ${AMINO_JOB_JAR} ${AMINO_BITMAP_PACKAGE}.BucketIndexJob --amino_default_config_path ${HDFS_DIR_CONF}) &&
 ([ ${BYBUCKET_JOB} -lt 1 ] || ${HADOOP_BIN} jar ${AMINO_JOB_JAR} ${AMINO_BITMAP_PACKAGE}.ByBucketJob --amino_default_config_path ${HDFS_DIR_CONF}) &&
 ([ ${BITLOOKUP_JOB} -lt 1 ] || ${HADOOP_BIN} jar ${AMINO_JOB_JAR} ${AMINO_BITMAP_PACKAGE}.BitLookupJob --amino_default_config_path ${HDFS_DIR_CONF}) &&
 ([ ${STATS_JOB} -lt 1 ] || ${HADOOP_BIN} jar ${AMINO_JOB_JAR} ${AMINO_BITMAP_PACKAGE}.StatsJob --amino_default_config_path ${HDFS_DIR_CONF}) &&